@@ -0,0 +1,481 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohortsoftware.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.Math2;
+import java.io.DataOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * This holds the values of a StringArray which is in compact mode (see StringArray.compact()). The
+ * values are stored in one of two ways:
+ *
+ * <ul>
+ *   <li>Dictionary: each row has an int code which points to one of the distinct values. This is
+ *       used while there are lots of repeated values (e.g., station IDs and flags).
+ *   <li>Plain: all of the values are stored in one byte[] (as ISO-8859-1 if all of the chars are
+ *       &lt;256, else as UTF-8), with an int[] of the offset of each value. This uses ~4 bytes per
+ *       row plus 1 byte per char, instead of a StringHolder and char[] per distinct value.
+ * </ul>
+ *
+ * A dictionary switches to plain if there turn out to be too many distinct values. This class
+ * can't hold null Strings or Strings with unpaired surrogate chars (add() returns false), so
+ * StringArray switches back to normal mode for those.
+ *
+ * <p>This isn't thread-safe (like the rest of PrimitiveArray).
+ */
+final class CompactStrings {
+
+  /**
+   * A dictionary is abandoned if it has more than this many distinct values and fewer than
+   * MIN_REPEATS rows per distinct value.
+   */
+  static final int DICTIONARY_TEST_SIZE = 256;
+
+  static final int MIN_REPEATS = 8;
+
+  private int nRows;
+
+  // dictionary mode (codes != null)
+  private int[] codes; // the code for each row
+  private String[] dictionary; // the distinct values
+  private int nDistinct;
+  private HashMap<String, Integer> codeMap; // value -> code. Rebuilt as needed after trimToSize.
+
+  // plain mode (codes == null)
+  private byte[] bytes;
+  private int nBytes;
+  private int[] offsets; // value i is bytes[offsets[i]] to bytes[offsets[i+1]]
+  private boolean utf8; // else ISO_8859_1
+
+  /**
+   * The constructor.
+   *
+   * @param capacity the initial capacity (number of rows)
+   * @param useDictionary if true, this starts in dictionary mode (which is abandoned later if there
+   *     are too many distinct values). If false, this starts (and stays) in plain mode.
+   */
+  CompactStrings(final int capacity, final boolean useDictionary) {
+    if (useDictionary) {
+      codes = new int[Math.max(8, capacity)];
+      dictionary = new String[8];
+      codeMap = new HashMap<>();
+    } else {
+      initPlain(capacity, 8L * capacity);
+    }
+  }
+
+  private void initPlain(final int capacity, final long byteCapacity) {
+    offsets = new int[Math.max(8, capacity) + 1];
+    bytes = new byte[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(64, byteCapacity))];
+    nBytes = 0;
+    utf8 = false;
+  }
+
+  /** This returns the number of rows. */
+  int size() {
+    return nRows;
+  }
+
+  /** This returns the capacity (number of rows). */
+  int capacity() {
+    return codes == null ? offsets.length - 1 : codes.length;
+  }
+
+  /** This returns true if this is in dictionary mode. */
+  boolean isDictionary() {
+    return codes != null;
+  }
+
+  /** This returns the approximate number of bytes used by this object. */
+  long usedBytes() {
+    if (codes == null) return 4L * offsets.length + bytes.length;
+    long n = 4L * codes.length + 4L * dictionary.length;
+    for (int i = 0; i < nDistinct; i++) n += 40 + dictionary[i].length(); // String overhead
+    return n;
+  }
+
+  /** This removes all of the rows (but keeps the current mode). */
+  void clear() {
+    nRows = 0;
+    if (codes == null) nBytes = 0;
+  }
+
+  /**
+   * This ensures the capacity (number of rows) is at least minCapacity.
+   *
+   * @param minCapacity the minimum capacity
+   */
+  void ensureCapacity(final long minCapacity) {
+    if (minCapacity <= capacity()) return;
+    Math2.ensureArraySizeOkay(minCapacity, "CompactStrings");
+    int cap = capacity();
+    int newCapacity = (int) Math.min(Integer.MAX_VALUE - 1, cap + (long) cap);
+    if (newCapacity < minCapacity) newCapacity = (int) minCapacity; // safe since checked above
+    Math2.ensureMemoryAvailable(4L * newCapacity, "CompactStrings");
+    if (codes == null) {
+      int[] newOffsets = new int[newCapacity + 1];
+      System.arraycopy(offsets, 0, newOffsets, 0, nRows + 1);
+      offsets = newOffsets;
+    } else {
+      int[] newCodes = new int[newCapacity];
+      System.arraycopy(codes, 0, newCodes, 0, nRows);
+      codes = newCodes;
+    }
+  }
+
+  /** This makes sure there is room for n more bytes. */
+  private void ensureByteCapacity(final long n) {
+    long need = nBytes + n;
+    if (need <= bytes.length) return;
+    Math2.ensureArraySizeOkay(need, "CompactStrings");
+    int newCapacity = (int) Math.min(Integer.MAX_VALUE - 8, bytes.length + (long) bytes.length);
+    if (newCapacity < need) newCapacity = (int) need; // safe since checked above
+    Math2.ensureMemoryAvailable(newCapacity, "CompactStrings");
+    byte[] newBytes = new byte[newCapacity];
+    System.arraycopy(bytes, 0, newBytes, 0, nBytes);
+    bytes = newBytes;
+  }
+
+  /** This makes capacity equal size. */
+  void trimToSize() {
+    if (codes == null) {
+      if (offsets.length != nRows + 1) {
+        int[] newOffsets = new int[nRows + 1];
+        System.arraycopy(offsets, 0, newOffsets, 0, nRows + 1);
+        offsets = newOffsets;
+      }
+      if (bytes.length != nBytes) {
+        byte[] newBytes = new byte[nBytes];
+        System.arraycopy(bytes, 0, newBytes, 0, nBytes);
+        bytes = newBytes;
+      }
+    } else {
+      if (codes.length != nRows) {
+        int[] newCodes = new int[nRows];
+        System.arraycopy(codes, 0, newCodes, 0, nRows);
+        codes = newCodes;
+      }
+      if (dictionary.length != nDistinct) {
+        String[] newDictionary = new String[nDistinct];
+        System.arraycopy(dictionary, 0, newDictionary, 0, nDistinct);
+        dictionary = newDictionary;
+      }
+      codeMap = null; // it is rebuilt if more values are added
+    }
+  }
+
+  /**
+   * This adds a value.
+   *
+   * @param s a String (not null)
+   * @return false if s couldn't be stored (it has an unpaired surrogate char). Then nothing was
+   *     changed.
+   */
+  boolean add(final String s) {
+    if (nRows == capacity()) ensureCapacity(nRows + 1L);
+    if (codes != null) {
+      if (codeMap == null) rebuildCodeMap();
+      Integer code = codeMap.get(s);
+      if (code == null) {
+        if (nDistinct >= DICTIONARY_TEST_SIZE && (long) nDistinct * MIN_REPEATS > nRows) {
+          // too many distinct values: switch to plain, then add s
+          if (!toPlain()) return false;
+          return add(s);
+        }
+        if (nDistinct == dictionary.length) {
+          String[] newDictionary = new String[Math.max(8, 2 * nDistinct)];
+          System.arraycopy(dictionary, 0, newDictionary, 0, nDistinct);
+          dictionary = newDictionary;
+        }
+        code = nDistinct;
+        dictionary[nDistinct++] = s;
+        codeMap.put(s, code);
+      }
+      codes[nRows++] = code;
+      return true;
+    }
+
+    if (!appendBytes(s)) return false;
+    offsets[++nRows] = nBytes;
+    return true;
+  }
+
+  /**
+   * This sets the value of a row. This is only supported in dictionary mode.
+   *
+   * @return false if this isn't in dictionary mode (or too many distinct values). Then nothing was
+   *     changed.
+   */
+  boolean set(final int row, final String s) {
+    if (codes == null) return false;
+    if (codeMap == null) rebuildCodeMap();
+    Integer code = codeMap.get(s);
+    if (code == null) {
+      if (nDistinct >= DICTIONARY_TEST_SIZE && (long) nDistinct * MIN_REPEATS > nRows)
+        return false;
+      if (nDistinct == dictionary.length) {
+        String[] newDictionary = new String[Math.max(8, 2 * nDistinct)];
+        System.arraycopy(dictionary, 0, newDictionary, 0, nDistinct);
+        dictionary = newDictionary;
+      }
+      code = nDistinct;
+      dictionary[nDistinct++] = s;
+      codeMap.put(s, code);
+    }
+    codes[row] = code;
+    return true;
+  }
+
+  private void rebuildCodeMap() {
+    codeMap = new HashMap<>(Math.max(16, 2 * nDistinct));
+    for (int i = 0; i < nDistinct; i++) codeMap.put(dictionary[i], i);
+  }
+
+  /**
+   * This switches from dictionary mode to plain mode.
+   *
+   * @return false if that isn't possible (a value has an unpaired surrogate char). Then nothing
+   *     was changed.
+   */
+  private boolean toPlain() {
+    int[] oldCodes = codes;
+    String[] oldDictionary = dictionary;
+    codes = null;
+    initPlain(oldCodes.length, 8L * oldCodes.length);
+    int n = nRows;
+    nRows = 0;
+    for (int row = 0; row < n; row++) {
+      if (!appendBytes(oldDictionary[oldCodes[row]])) {
+        // restore dictionary mode
+        codes = oldCodes;
+        bytes = null;
+        offsets = null;
+        nRows = n;
+        return false;
+      }
+      offsets[++nRows] = nBytes;
+    }
+    dictionary = null;
+    codeMap = null;
+    nDistinct = 0;
+    return true;
+  }
+
+  /**
+   * This appends the encoded bytes of s (but doesn't change nRows or offsets).
+   *
+   * @return false if s has an unpaired surrogate char. Then nothing was changed.
+   */
+  private boolean appendBytes(final String s) {
+    final int n = s.length();
+    if (!utf8) {
+      ensureByteCapacity(n);
+      final int start = nBytes;
+      for (int i = 0; i < n; i++) {
+        char ch = s.charAt(i);
+        if (ch > 255) {
+          // switch to UTF-8 (which re-encodes everything so far), then try again
+          nBytes = start;
+          if (!toUtf8()) return false;
+          return appendBytes(s);
+        }
+        bytes[nBytes++] = (byte) ch;
+      }
+      return true;
+    }
+
+    ensureByteCapacity(3L * n); // 3 bytes per char is the max for UTF-8
+    int po = nBytes;
+    for (int i = 0; i < n; i++) {
+      char ch = s.charAt(i);
+      if (ch < 0x80) {
+        bytes[po++] = (byte) ch;
+      } else if (ch < 0x800) {
+        bytes[po++] = (byte) (0xC0 | (ch >> 6));
+        bytes[po++] = (byte) (0x80 | (ch & 0x3F));
+      } else if (Character.isSurrogate(ch)) {
+        // 4 bytes for a surrogate pair = 2 chars
+        if (!Character.isHighSurrogate(ch)
+            || i + 1 == n
+            || !Character.isLowSurrogate(s.charAt(i + 1))) return false;
+        int cp = Character.toCodePoint(ch, s.charAt(++i));
+        bytes[po++] = (byte) (0xF0 | (cp >> 18));
+        bytes[po++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        bytes[po++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        bytes[po++] = (byte) (0x80 | (cp & 0x3F));
+      } else {
+        bytes[po++] = (byte) (0xE0 | (ch >> 12));
+        bytes[po++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+        bytes[po++] = (byte) (0x80 | (ch & 0x3F));
+      }
+    }
+    nBytes = po;
+    return true;
+  }
+
+  /**
+   * This re-encodes the ISO-8859-1 bytes as UTF-8.
+   *
+   * @return true (since ISO-8859-1 chars can always be encoded)
+   */
+  private boolean toUtf8() {
+    byte[] oldBytes = bytes;
+    int[] oldOffsets = offsets;
+    offsets = new int[oldOffsets.length];
+    bytes = new byte[Math.max(64, nBytes + nBytes / 4)];
+    nBytes = 0;
+    utf8 = true;
+    for (int row = 0; row < nRows; row++) {
+      appendBytes(
+          new String(
+              oldBytes,
+              oldOffsets[row],
+              oldOffsets[row + 1] - oldOffsets[row],
+              StandardCharsets.ISO_8859_1));
+      offsets[row + 1] = nBytes;
+    }
+    return true;
+  }
+
+  /**
+   * This gets the value of a row.
+   *
+   * @param row 0 ... size-1 (this doesn't check)
+   * @return the value
+   */
+  String get(final int row) {
+    if (codes != null) return dictionary[codes[row]];
+    int start = offsets[row];
+    int length = offsets[row + 1] - start;
+    if (length == 0) return "";
+    return new String(
+        bytes, start, length, utf8 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+  }
+
+  /** This returns true if the value of the row is "". */
+  boolean isEmpty(final int row) {
+    return codes != null ? dictionary[codes[row]].isEmpty() : offsets[row] == offsets[row + 1];
+  }
+
+  /** This returns the length (in chars) of the value of the row. */
+  int length(final int row) {
+    if (codes != null) return dictionary[codes[row]].length();
+    return utf8 ? get(row).length() : offsets[row + 1] - offsets[row];
+  }
+
+  /**
+   * This compares the values of row1 and other.row2 the same way String.compareTo does.
+   *
+   * @return a negative integer, zero, or a positive integer if the value of row1 is less than,
+   *     equal to, or greater than the value of other.row2.
+   */
+  int compare(final int row1, final CompactStrings other, final int row2) {
+    if (codes != null && other == this && codes[row1] == codes[row2]) return 0;
+    if (codes != null || utf8 || other.codes != null || other.utf8)
+      return get(row1).compareTo(other.get(row2));
+
+    // both are ISO-8859-1 bytes, so compare them as unsigned bytes (i.e., as chars)
+    final byte[] bytes2 = other.bytes;
+    int po1 = offsets[row1];
+    int po2 = other.offsets[row2];
+    final int length1 = offsets[row1 + 1] - po1;
+    final int length2 = other.offsets[row2 + 1] - po2;
+    final int end1 = po1 + Math.min(length1, length2);
+    while (po1 < end1) {
+      int result = (bytes[po1++] & 0xFF) - (bytes2[po2++] & 0xFF);
+      if (result != 0) return result;
+    }
+    return length1 - length2;
+  }
+
+  /**
+   * This writes the value of a row to dos in the DODS format (see
+   * StringArray.externalizeForDODS(dos, s)).
+   */
+  void externalizeForDODS(final DataOutputStream dos, final int row) throws Exception {
+    if (codes != null || utf8) {
+      StringArray.externalizeForDODS(dos, get(row));
+      return;
+    }
+    // ISO-8859-1 bytes are exactly what DODS wants
+    int start = offsets[row];
+    int n = offsets[row + 1] - start;
+    dos.writeInt(n);
+    dos.write(bytes, start, n);
+    while (n++ % 4 != 0) dos.writeByte(0);
+  }
+
+  /**
+   * This removes the rows from newSize to the end.
+   *
+   * @param newSize the new size (0 ... size)
+   */
+  void truncate(final int newSize) {
+    if (newSize >= nRows) return;
+    if (codes == null) nBytes = offsets[newSize];
+    nRows = newSize;
+  }
+
+  /** This just keeps the rows for the 'true' values in the bitset. */
+  void justKeep(final BitSet bitset) {
+    if (codes != null) {
+      int newSize = 0;
+      for (int row = bitset.nextSetBit(0);
+          row >= 0 && row < nRows;
+          row = bitset.nextSetBit(row + 1)) codes[newSize++] = codes[row];
+      nRows = newSize;
+      return;
+    }
+    // the kept bytes are always at or before their original position, so this can be done in place
+    int newSize = 0;
+    int po = 0;
+    for (int row = bitset.nextSetBit(0);
+        row >= 0 && row < nRows;
+        row = bitset.nextSetBit(row + 1)) {
+      int start = offsets[row];
+      int n = offsets[row + 1] - start;
+      System.arraycopy(bytes, start, bytes, po, n);
+      po += n;
+      offsets[++newSize] = po;
+    }
+    nRows = newSize;
+    nBytes = po;
+  }
+
+  /**
+   * This reorders the rows based on rank.
+   *
+   * @param rank rank[i] is the row number of the row which should be at position i
+   */
+  void reorder(final int[] rank) {
+    final int n = rank.length;
+    if (codes != null) {
+      int[] newCodes = new int[codes.length];
+      for (int i = 0; i < n; i++) newCodes[i] = codes[rank[i]];
+      codes = newCodes;
+      nRows = n;
+      return;
+    }
+    Math2.ensureMemoryAvailable(nBytes + 4L * offsets.length, "CompactStrings.reorder");
+    byte[] newBytes = new byte[bytes.length];
+    int[] newOffsets = new int[offsets.length];
+    int po = 0;
+    for (int i = 0; i < n; i++) {
+      int start = offsets[rank[i]];
+      int length = offsets[rank[i] + 1] - start;
+      System.arraycopy(bytes, start, newBytes, po, length);
+      po += length;
+      newOffsets[i + 1] = po;
+    }
+    bytes = newBytes;
+    offsets = newOffsets;
+    nBytes = po;
+    nRows = n;
+  }
+}
@@ -0,0 +1,331 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohortsoftware.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+import java.util.BitSet;
+
+/**
+ * This is used by PrimitiveArray.applyConstraint to apply a numeric constraint to a ByteArray,
+ * ShortArray, IntArray, LongArray, FloatArray, or DoubleArray. It gives exactly the same results as
+ * calling testValueOpValue (or testValueOpValueExact or testValueOpValueExtra) for each kept row,
+ * but the operator is parsed once and each test is a tight loop over the PA's backing array:
+ *
+ * <ul>
+ *   <li>For the integer types, every test (with the type's missing value rules) is converted to a
+ *       range of raw values, [lo, hi], or (for !=) to the complement of a range.
+ *   <li>For FloatArray and DoubleArray, there is a loop for each operator which does the same tests
+ *       (including the Math2.almostEqual fudge factor) as testValueOpValue.
+ * </ul>
+ *
+ * <p>The keep BitSet is processed 64 rows (one long) at a time: the test results for a word's rows
+ * are gathered (without branches) into a long, which is ANDed with the word.
+ */
+public class ConstraintKernels {
+
+  /** The operators. */
+  private static final int EQ = 0, NE = 1, LE = 2, GE = 3, LT = 4, GT = 5;
+
+  /** Integer bounds beyond this are clamped (they are far beyond the range of int values). */
+  private static final double INT_BOUND = 1e18;
+
+  /**
+   * This applies a constraint if there is a kernel for the pa's type, the op, and value2.
+   *
+   * @param pa the PrimitiveArray with the values to be tested
+   * @param morePrecise e.g., for tests of time values which are very precise.
+   * @param keep The test is only applied to keep=true elements. If the test is false, the keep
+   *     element is set to false.
+   * @param op one of EDDTable.OPERATORS
+   * @param value2
+   * @return nStillGood, or -1 if there is no kernel for this constraint (so keep is unchanged and
+   *     the caller should test each row)
+   */
+  static int apply(PrimitiveArray pa, boolean morePrecise, BitSet keep, String op, String value2) {
+    int opi =
+        switch (op) {
+          case "=" -> EQ;
+          case "!=" -> NE;
+          case "<=" -> LE;
+          case ">=" -> GE;
+          case "<" -> LT;
+          case ">" -> GT;
+          default -> -1;
+        };
+    if (opi < 0 || keep.length() > pa.size()) return -1;
+
+    if (pa instanceof FloatArray fa)
+      return floatKernel(fa.array, keep, opi, String2.parseFloat(value2));
+    if (pa instanceof DoubleArray da)
+      return doubleKernel(da.array, keep, opi, String2.parseDouble(value2), morePrecise ? 12 : 9);
+
+    long range[];
+    if (pa instanceof LongArray) {
+      // See the LONG part of PrimitiveArray.applyConstraint.
+      double value2d = String2.parseDouble(value2);
+      long value2l = String2.parseLong(value2);
+      if (value2d != value2l || value2l == Long.MAX_VALUE)
+        return -1; // the exact tests (via double) are done row by row
+      range = cleanRange(opi, value2l, Long.MAX_VALUE);
+    } else if (pa instanceof IntArray || pa instanceof ShortArray || pa instanceof ByteArray) {
+      // See the 'int types' part of PrimitiveArray.applyConstraint.
+      long maxRaw =
+          pa instanceof IntArray
+              ? Integer.MAX_VALUE
+              : pa instanceof ShortArray ? Short.MAX_VALUE : Byte.MAX_VALUE;
+      double value2d = String2.parseDouble(value2);
+      int value2i = String2.parseInt(value2);
+      if (value2d == value2i && value2d != Integer.MAX_VALUE) {
+        // getInt always treats an int MAX_VALUE as NaN, and a short or byte MAX_VALUE if maxIsMV
+        range = cleanRange(opi, value2i, pa instanceof IntArray || pa.maxIsMV ? maxRaw : 0);
+      } else {
+        // getDouble treats MAX_VALUE as NaN if maxIsMV
+        range = exactRange(opi, value2d, pa.maxIsMV ? maxRaw : 0);
+      }
+    } else {
+      return -1;
+    }
+
+    long lo = range[0], hi = range[1];
+    boolean negate = opi == NE;
+    long words[] = keep.toLongArray();
+    if (pa instanceof IntArray ia) rangeKernel(ia.array, words, lo, hi, negate);
+    else if (pa instanceof ShortArray sa) rangeKernel(sa.array, words, lo, hi, negate);
+    else if (pa instanceof ByteArray ba) rangeKernel(ba.array, words, lo, hi, negate);
+    else rangeKernel(((LongArray) pa).array, words, lo, hi, negate);
+    return setWords(keep, words);
+  }
+
+  /**
+   * This converts a test with an integer value2 (as done by testValueOpValue(int or long)) to a
+   * range of raw values. For NE, the test is the complement of the range.
+   *
+   * @param c value2 (not the MAX_VALUE of int (for int types) or long)
+   * @param mvRaw the raw value which is treated as NaN, or 0 if none
+   * @return {lo, hi} (lo &gt; hi if no values pass)
+   */
+  private static long[] cleanRange(int opi, long c, long mvRaw) {
+    long lo = Long.MIN_VALUE, hi = Long.MAX_VALUE;
+    switch (opi) {
+      case EQ, NE -> lo = hi = c;
+      case LE -> hi = c;
+      case GE -> lo = c;
+      case LT -> {
+        if (c == Long.MIN_VALUE) return new long[] {1, 0};
+        hi = c - 1;
+      }
+      case GT -> lo = c + 1; // c isn't Long.MAX_VALUE
+    }
+    // NaN (mvRaw) = c and NaN != c are false and true (c isn't NaN), and NaN fails the other tests
+    if (mvRaw != 0) hi = Math.min(hi, mvRaw - 1);
+    return new long[] {lo, hi};
+  }
+
+  /**
+   * This converts a test of an int type's values as doubles (as done by testValueOpValueExact) to a
+   * range of raw values. For NE, the test is the complement of the range.
+   *
+   * @param value2d value2 (which didn't parse cleanly as an int)
+   * @param mvRaw the raw value which is treated as NaN, or 0 if none
+   * @return {lo, hi} (lo &gt; hi if no values pass)
+   */
+  private static long[] exactRange(int opi, double value2d, long mvRaw) {
+    if (Double.isNaN(value2d)) {
+      // NaN = NaN is true, nonNaN != NaN is true, and all other tests are false
+      return opi == EQ || opi == NE
+          ? (mvRaw == 0 ? new long[] {1, 0} : new long[] {mvRaw, mvRaw})
+          : new long[] {1, 0};
+    }
+    double lo = -INT_BOUND, hi = INT_BOUND;
+    switch (opi) {
+      case EQ, NE -> {
+        if (value2d != Math.rint(value2d)) return new long[] {1, 0};
+        lo = hi = value2d;
+      }
+      case LE -> hi = Math.floor(value2d);
+      case GE -> lo = Math.ceil(value2d);
+      case LT -> hi = Math.ceil(value2d) - 1;
+      case GT -> lo = Math.floor(value2d) + 1;
+    }
+    long range[] = {
+      (long) Math.max(-INT_BOUND, Math.min(INT_BOUND, lo)),
+      (long) Math.max(-INT_BOUND, Math.min(INT_BOUND, hi))
+    };
+    // NaN (mvRaw) fails all of the tests except !=
+    if (mvRaw != 0) range[1] = Math.min(range[1], mvRaw - 1);
+    return range;
+  }
+
+  /** This sets keep to the words and returns the number of set bits. */
+  private static int setWords(BitSet keep, long words[]) {
+    int nStillGood = 0;
+    for (long word : words) nStillGood += Long.bitCount(word);
+    keep.clear();
+    keep.or(BitSet.valueOf(words));
+    return nStillGood;
+  }
+
+  // The kernels: for each word of keep with a set bit, test the word's rows
+  // (rows beyond the end of the array have keep=false, so aren't tested)
+  // and keep the rows which pass.
+
+  private static void rangeKernel(int a[], long words[], long lo, long hi, boolean negate) {
+    for (int w = 0; w < words.length; w++) {
+      long word = words[w];
+      if (word == 0) continue;
+      int base = w << 6, n = Math.min(64, a.length - base);
+      long pass = 0;
+      for (int b = 0; b < n; b++) {
+        long v = a[base + b];
+        pass |= (v >= lo & v <= hi ? 1L : 0L) << b;
+      }
+      words[w] = word & (negate ? ~pass : pass);
+    }
+  }
+
+  private static void rangeKernel(short a[], long words[], long lo, long hi, boolean negate) {
+    for (int w = 0; w < words.length; w++) {
+      long word = words[w];
+      if (word == 0) continue;
+      int base = w << 6, n = Math.min(64, a.length - base);
+      long pass = 0;
+      for (int b = 0; b < n; b++) {
+        long v = a[base + b];
+        pass |= (v >= lo & v <= hi ? 1L : 0L) << b;
+      }
+      words[w] = word & (negate ? ~pass : pass);
+    }
+  }
+
+  private static void rangeKernel(byte a[], long words[], long lo, long hi, boolean negate) {
+    for (int w = 0; w < words.length; w++) {
+      long word = words[w];
+      if (word == 0) continue;
+      int base = w << 6, n = Math.min(64, a.length - base);
+      long pass = 0;
+      for (int b = 0; b < n; b++) {
+        long v = a[base + b];
+        pass |= (v >= lo & v <= hi ? 1L : 0L) << b;
+      }
+      words[w] = word & (negate ? ~pass : pass);
+    }
+  }
+
+  private static void rangeKernel(long a[], long words[], long lo, long hi, boolean negate) {
+    for (int w = 0; w < words.length; w++) {
+      long word = words[w];
+      if (word == 0) continue;
+      int base = w << 6, n = Math.min(64, a.length - base);
+      long pass = 0;
+      for (int b = 0; b < n; b++) {
+        long v = a[base + b];
+        pass |= (v >= lo & v <= hi ? 1L : 0L) << b;
+      }
+      words[w] = word & (negate ? ~pass : pass);
+    }
+  }
+
+  /** This does the tests of testValueOpValue(float). */
+  private static int floatKernel(float a[], BitSet keep, int opi, float c) {
+    long words[] = keep.toLongArray();
+    boolean cIsNaN = Float.isNaN(c);
+    for (int w = 0; w < words.length; w++) {
+      long word = words[w];
+      if (word == 0) continue;
+      int base = w << 6, n = Math.min(64, a.length - base);
+      long pass = 0;
+      switch (opi) {
+        case LE -> {
+          for (int b = 0; b < n; b++) {
+            float v = a[base + b];
+            pass |= (v <= c || Math2.almostEqual(6, v, c) ? 1L : 0L) << b;
+          }
+        }
+        case GE -> {
+          for (int b = 0; b < n; b++) {
+            float v = a[base + b];
+            pass |= (v >= c || Math2.almostEqual(6, v, c) ? 1L : 0L) << b;
+          }
+        }
+        case EQ -> {
+          if (cIsNaN) {
+            for (int b = 0; b < n; b++) pass |= (Float.isNaN(a[base + b]) ? 1L : 0L) << b;
+          } else {
+            for (int b = 0; b < n; b++)
+              pass |= (Math2.almostEqual(6, a[base + b], c) ? 1L : 0L) << b;
+          }
+        }
+        case LT -> {
+          for (int b = 0; b < n; b++) pass |= (a[base + b] < c ? 1L : 0L) << b;
+        }
+        case GT -> {
+          for (int b = 0; b < n; b++) pass |= (a[base + b] > c ? 1L : 0L) << b;
+        }
+        default -> { // NE
+          if (cIsNaN) {
+            for (int b = 0; b < n; b++) pass |= (Float.isNaN(a[base + b]) ? 0L : 1L) << b;
+          } else {
+            for (int b = 0; b < n; b++) pass |= (a[base + b] != c ? 1L : 0L) << b;
+          }
+        }
+      }
+      words[w] = word & pass;
+    }
+    return setWords(keep, words);
+  }
+
+  /**
+   * This does the tests of testValueOpValue(double) (nDigits=9) or testValueOpValueExtra(double)
+   * (nDigits=12).
+   */
+  private static int doubleKernel(double a[], BitSet keep, int opi, double c, int nDigits) {
+    long words[] = keep.toLongArray();
+    boolean cIsNaN = Double.isNaN(c);
+    for (int w = 0; w < words.length; w++) {
+      long word = words[w];
+      if (word == 0) continue;
+      int base = w << 6, n = Math.min(64, a.length - base);
+      long pass = 0;
+      switch (opi) {
+        case LE -> {
+          for (int b = 0; b < n; b++) {
+            double v = a[base + b];
+            pass |= (v <= c || Math2.almostEqual(nDigits, v, c) ? 1L : 0L) << b;
+          }
+        }
+        case GE -> {
+          for (int b = 0; b < n; b++) {
+            double v = a[base + b];
+            pass |= (v >= c || Math2.almostEqual(nDigits, v, c) ? 1L : 0L) << b;
+          }
+        }
+        case EQ -> {
+          if (cIsNaN) {
+            for (int b = 0; b < n; b++) pass |= (Double.isNaN(a[base + b]) ? 1L : 0L) << b;
+          } else {
+            for (int b = 0; b < n; b++)
+              pass |= (Math2.almostEqual(nDigits, a[base + b], c) ? 1L : 0L) << b;
+          }
+        }
+        case LT -> {
+          for (int b = 0; b < n; b++) pass |= (a[base + b] < c ? 1L : 0L) << b;
+        }
+        case GT -> {
+          for (int b = 0; b < n; b++) pass |= (a[base + b] > c ? 1L : 0L) << b;
+        }
+        default -> { // NE
+          if (cIsNaN) {
+            for (int b = 0; b < n; b++) pass |= (Double.isNaN(a[base + b]) ? 0L : 1L) << b;
+          } else {
+            for (int b = 0; b < n; b++) pass |= (a[base + b] != c ? 1L : 0L) << b;
+          }
+        }
+      }
+      words[w] = word & pass;
+    }
+    return setWords(keep, words);
+  }
+}
@@ -2714,30 +2714,12 @@ public abstract class PrimitiveArray {
    *     rank[1] is the row number of the second item in the sorted list, ...).
    */
   public static int[] rank(List<PrimitiveArray> table, int keys[], boolean[] ascending) {
-    return lowRank(new RowComparator(table, keys, ascending), table);
+    return RowRanker.rank(table, keys, ascending, false);
   }
 
   /** This is like rank, but StringArrays are tested case insensitively. */
   public static int[] rankIgnoreCase(List<PrimitiveArray> table, int keys[], boolean[] ascending) {
-    return lowRank(new RowComparatorIgnoreCase(table, keys, ascending), table);
-  }
-
-  private static int[] lowRank(RowComparator comparator, List<PrimitiveArray> table) {
-
-    // create the rowArray with pointer to specific rows
-    int n = table.get(0).size();
-    Integer[] rowArray = new Integer[n];
-    for (int i = 0; i < n; i++) rowArray[i] = i;
-
-    // sort the rows
-    Arrays.sort(rowArray, comparator); // this is "stable"
-    // String2.log("rank results: " + String2.toCSSVString(integerArray));
-
-    // create the int[]
-    int[] newArray = new int[n];
-    for (int i = 0; i < n; i++) newArray[i] = rowArray[i];
-
-    return newArray;
+    return RowRanker.rank(table, keys, ascending, true);
   }
 
   /**
@@ -3796,7 +3778,8 @@ public abstract class PrimitiveArray {
    * Math2.almostEqual(6) and (9) and (13 for morePrecise doubles), so there is a little fudge
    * factor. <br>
    * The =~ regex test is tested with String testValueOpValue, because value2 is a regex (not a
-   * numeric type).
+   * numeric type). <br>
+   * Most numeric tests are done by ConstraintKernels (with the same results).
    *
    * <p>For integer-type PrimitiveArrays, MAX_VALUE is treated as a NaN when maxIsMV=true. <br>
    * Tests of "NaN = NaN" will evaluate to true. <br>
@@ -3825,6 +3808,10 @@ public abstract class PrimitiveArray {
       return nStillGood;
     }
 
+    // most numeric types: use a specialized kernel
+    int nKernel = ConstraintKernels.apply(this, morePrecise, keep, op, value2);
+    if (nKernel >= 0) return nKernel;
+
     // string
     if (elementType() == PAType.STRING || elementType() == PAType.CHAR) {
       // String2.log("applyConstraint(String)");
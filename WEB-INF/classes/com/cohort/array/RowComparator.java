@@ -9,7 +9,10 @@ import com.cohort.util.*;
 import java.util.Comparator;
 import java.util.List;
 
-/** This is used by PrimitiveArray.rank to rank a table of data stored as a PrimitiveArray[]. */
+/**
+ * This compares rows of a table of data stored as a PrimitiveArray[]. (PrimitiveArray.rank now uses
+ * the faster RowRanker, which gives the same results.)
+ */
 public class RowComparator implements Comparator<Integer> {
 
   protected List<PrimitiveArray> table;
@@ -0,0 +1,325 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohortsoftware.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.array;
+
+import com.cohort.util.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This is used by PrimitiveArray.rank and rankIgnoreCase to rank the rows of a table of data stored
+ * as a List of PrimitiveArrays. It gives exactly the same results as sorting the row numbers with a
+ * RowComparator (or RowComparatorIgnoreCase), but it works on an int[] of row numbers (not an
+ * Integer[]) and uses a specialized sort for each type of key column:
+ *
+ * <ul>
+ *   <li>For numeric key columns (and CharArrays when not ignoring case), each value is converted
+ *       to a long which sorts the same way as PrimitiveArray.compare(), and the row numbers are
+ *       sorted with an LSD radix sort (which skips bytes which are the same in all values).
+ *   <li>For StringArrays (and CharArrays when ignoring case), the row numbers are sorted with a
+ *       merge sort which calls the column's compare method directly.
+ * </ul>
+ *
+ * <p>Multiple keys are handled by sorting by the least important key first, then by each more
+ * important key. Since each of those sorts is stable, the result is stable and equal to a sort
+ * which compares the keys in order.
+ */
+public class RowRanker {
+
+  /** For fewer rows than this, a merge sort is faster than a radix sort. */
+  static final int RADIX_THRESHOLD = 64;
+
+  /** Sub-arrays with fewer elements than this are sorted by insertion sort in the merge sort. */
+  private static final int INSERTION_THRESHOLD = 16;
+
+  /** Compares two rows (by row number) of one column. */
+  @FunctionalInterface
+  private interface RowIntComparator {
+    int compare(int row1, int row2);
+  }
+
+  /**
+   * Given table[], keys[], and ascending[], this creates an int[] with the ranks of the rows of the
+   * table.
+   *
+   * <p>This sort is stable: equal elements will not be reordered as a result of the sort.
+   *
+   * @param table a List of PrimitiveArrays (all with the same size)
+   * @param keys an array of the key column numbers (each is 0..nColumns-1, the first key is the
+   *     most important) which are used to determine the sort order
+   * @param ascending an array of booleans corresponding to the keys indicating if the arrays are to
+   *     be sorted by a given key in ascending or descending order.
+   * @param ignoreCase if true, StringArrays and CharArrays are compared case-insensitively (as with
+   *     compareIgnoreCase)
+   * @return an int[] with values (0 ... size-1) which points to the row number for a row with a
+   *     specific rank (e.g., rank[0] is the row number of the first item in the sorted list,
+   *     rank[1] is the row number of the second item in the sorted list, ...).
+   * @throws RuntimeException if trouble
+   */
+  public static int[] rank(
+      List<PrimitiveArray> table, int keys[], boolean[] ascending, boolean ignoreCase) {
+    String errorInMethod = String2.ERROR + " in RowRanker.rank:\n";
+    Test.ensureNotEqual(keys.length, 0, errorInMethod + "keys.length must not be 0.");
+    Test.ensureEqual(
+        keys.length, ascending.length, errorInMethod + "keys.length must equal ascending.length.");
+    for (int k = 0; k < keys.length; k++)
+      Test.ensureBetween(
+          keys[k],
+          0,
+          table.size(),
+          errorInMethod + "keys[" + k + "] points to a column that isn't in the table.");
+
+    int n = table.get(0).size();
+    int[] rows = new int[n];
+    for (int i = 0; i < n; i++) rows[i] = i;
+    if (n < 2) return rows;
+
+    int[] temp = new int[n];
+    for (int k = keys.length - 1; k >= 0; k--)
+      sortByColumn(rows, temp, table.get(keys[k]), ascending[k], ignoreCase);
+    return rows;
+  }
+
+  /**
+   * This does a stable sort of rows based on the values in one column.
+   *
+   * @param rows the row numbers to be sorted
+   * @param temp a scratch array the same size as rows
+   * @param pa the key column
+   * @param ascending true to sort in ascending order
+   * @param ignoreCase true to compare Strings and chars case-insensitively
+   */
+  private static void sortByColumn(
+      int[] rows, int[] temp, PrimitiveArray pa, boolean ascending, boolean ignoreCase) {
+    PAType type = pa.elementType();
+    boolean useComparator =
+        type == PAType.STRING
+            || (type == PAType.CHAR && ignoreCase)
+            || rows.length < RADIX_THRESHOLD;
+    if (!useComparator) {
+      long[] ordinals = ordinals(pa, rows, ascending);
+      if (ordinals != null) {
+        radixSort(rows, temp, ordinals, new long[rows.length]);
+        return;
+      }
+    }
+    mergeSort(rows, temp, comparator(pa, ascending, ignoreCase));
+  }
+
+  /**
+   * This returns the comparator for one key column.
+   *
+   * @param pa the key column
+   * @param ascending true to sort in ascending order
+   * @param ignoreCase true to compare Strings and chars case-insensitively
+   * @return the comparator
+   */
+  private static RowIntComparator comparator(
+      PrimitiveArray pa, boolean ascending, boolean ignoreCase) {
+    if (pa instanceof StringArray sa) {
+      if (ignoreCase)
+        return ascending
+            ? (r1, r2) -> sa.compareIgnoreCase(r1, r2)
+            : (r1, r2) -> sa.compareIgnoreCase(r2, r1);
+      return ascending ? (r1, r2) -> sa.compare(r1, r2) : (r1, r2) -> sa.compare(r2, r1);
+    }
+    if (pa instanceof DoubleArray da) {
+      double[] ar = da.array;
+      return ascending
+          ? (r1, r2) -> Double.compare(ar[r1], ar[r2])
+          : (r1, r2) -> Double.compare(ar[r2], ar[r1]);
+    }
+    // Note that reversing the operands (not negating the result) is correct for descending,
+    // since compare() may return Integer.MIN_VALUE.
+    if (ignoreCase)
+      return ascending
+          ? (r1, r2) -> pa.compareIgnoreCase(r1, r2)
+          : (r1, r2) -> pa.compareIgnoreCase(r2, r1);
+    return ascending ? (r1, r2) -> pa.compare(r1, r2) : (r1, r2) -> pa.compare(r2, r1);
+  }
+
+  /**
+   * For each of the rows, this gets a long which sorts (as a signed long) the same way the values
+   * are sorted by pa.compare(). The values are in the order of rows (not in the order of pa).
+   *
+   * @param pa the key column
+   * @param rows the row numbers (in their current order)
+   * @param ascending if false, the ordinals are complemented so they sort in descending order
+   * @return the ordinals, or null if pa's type isn't supported
+   */
+  static long[] ordinals(PrimitiveArray pa, int[] rows, boolean ascending) {
+    int n = rows.length;
+    long[] ord = new long[n];
+    switch (pa.elementType()) {
+      case BYTE:
+      case SHORT:
+      case UBYTE:
+      case USHORT:
+        // compare() uses Integer.compare(getInt) (which handles maxIsMV)
+        for (int i = 0; i < n; i++) ord[i] = pa.getInt(rows[i]);
+        break;
+      case INT:
+      case UINT:
+      case LONG:
+        // compare() uses Long.compare(getLong) (which handles maxIsMV)
+        for (int i = 0; i < n; i++) ord[i] = pa.getLong(rows[i]);
+        break;
+      case ULONG:
+        {
+          // compare() compares the unsigned values (ignoring maxIsMV)
+          long[] ar = ((ULongArray) pa).array;
+          for (int i = 0; i < n; i++) ord[i] = ar[rows[i]] ^ Long.MIN_VALUE;
+          break;
+        }
+      case CHAR:
+        {
+          // compare() compares getString(), which is "" for the missing value
+          char[] ar = ((CharArray) pa).array;
+          for (int i = 0; i < n; i++) {
+            char ch = ar[rows[i]];
+            ord[i] = ch == Character.MAX_VALUE ? -1 : ch;
+          }
+          break;
+        }
+      case FLOAT:
+        {
+          // compare() uses Float.compare: -0.0 < 0.0 and NaN is greater than everything
+          float[] ar = ((FloatArray) pa).array;
+          for (int i = 0; i < n; i++) {
+            int bits = Float.floatToIntBits(ar[rows[i]]); // canonical NaN
+            ord[i] = bits < 0 ? bits ^ Integer.MAX_VALUE : bits;
+          }
+          break;
+        }
+      case DOUBLE:
+        {
+          // compare() uses Double.compare: -0.0 < 0.0 and NaN is greater than everything
+          double[] ar = ((DoubleArray) pa).array;
+          for (int i = 0; i < n; i++) {
+            long bits = Double.doubleToLongBits(ar[rows[i]]); // canonical NaN
+            ord[i] = bits < 0 ? bits ^ Long.MAX_VALUE : bits;
+          }
+          break;
+        }
+      default:
+        return null;
+    }
+    if (!ascending)
+      for (int i = 0; i < n; i++) ord[i] = ~ord[i]; // ~ reverses the order of signed longs
+    return ord;
+  }
+
+  /**
+   * This does a stable LSD radix sort (8 bits per pass) of rows (and the corresponding ordinals),
+   * based on the ordinals. The ordinals are first offset by the minimum value so that passes for
+   * high bytes which are the same in all values are skipped (e.g., only 1 or 2 passes are needed
+   * for byte and short columns).
+   *
+   * @param rows the row numbers to be sorted
+   * @param tempRows a scratch array the same size as rows
+   * @param ord the ordinals (in the same order as rows), which are modified
+   * @param tempOrd a scratch array the same size as ord
+   */
+  static void radixSort(int[] rows, int[] tempRows, long[] ord, long[] tempOrd) {
+    int n = rows.length;
+    long min = Long.MAX_VALUE;
+    long max = Long.MIN_VALUE;
+    boolean sorted = true;
+    for (int i = 0; i < n; i++) {
+      long o = ord[i];
+      if (o < min) min = o;
+      if (o > max) max = o;
+      if (i > 0 && o < ord[i - 1]) sorted = false;
+    }
+    if (sorted) return;
+
+    // make the values unsigned, starting at 0
+    for (int i = 0; i < n; i++) ord[i] -= min;
+    long range = max - min; // an unsigned long
+    int nBytes = (64 - Long.numberOfLeadingZeros(range) + 7) / 8;
+
+    int[] count = new int[256];
+    int[] srcRows = rows, dstRows = tempRows;
+    long[] srcOrd = ord, dstOrd = tempOrd;
+    for (int b = 0; b < nBytes; b++) {
+      int shift = b * 8;
+      Arrays.fill(count, 0);
+      for (int i = 0; i < n; i++) count[(int) (srcOrd[i] >>> shift) & 0xFF]++;
+      if (count[(int) (srcOrd[0] >>> shift) & 0xFF] == n) continue; // all the same
+
+      // convert counts to starting positions
+      int pos = 0;
+      for (int d = 0; d < 256; d++) {
+        int c = count[d];
+        count[d] = pos;
+        pos += c;
+      }
+      for (int i = 0; i < n; i++) {
+        long o = srcOrd[i];
+        int to = count[(int) (o >>> shift) & 0xFF]++;
+        dstOrd[to] = o;
+        dstRows[to] = srcRows[i];
+      }
+      int[] ti = srcRows;
+      srcRows = dstRows;
+      dstRows = ti;
+      long[] tl = srcOrd;
+      srcOrd = dstOrd;
+      dstOrd = tl;
+    }
+    if (srcRows != rows) System.arraycopy(srcRows, 0, rows, 0, n);
+  }
+
+  /**
+   * This does a stable merge sort of rows.
+   *
+   * @param rows the row numbers to be sorted
+   * @param temp a scratch array the same size as rows
+   * @param comparator compares 2 row numbers
+   */
+  private static void mergeSort(int[] rows, int[] temp, RowIntComparator comparator) {
+    System.arraycopy(rows, 0, temp, 0, rows.length);
+    mergeSort(temp, rows, 0, rows.length, comparator);
+  }
+
+  /**
+   * This sorts src[from..to) into dest[from..to). Initially, src and dest must have the same
+   * values in that range.
+   */
+  private static void mergeSort(
+      int[] src, int[] dest, int from, int to, RowIntComparator comparator) {
+    int length = to - from;
+    if (length < INSERTION_THRESHOLD) {
+      for (int i = from + 1; i < to; i++) {
+        int row = dest[i];
+        int j = i - 1;
+        while (j >= from && comparator.compare(dest[j], row) > 0) {
+          dest[j + 1] = dest[j];
+          j--;
+        }
+        dest[j + 1] = row;
+      }
+      return;
+    }
+
+    // sort the halves of dest into src
+    int mid = (from + to) >>> 1;
+    mergeSort(dest, src, from, mid, comparator);
+    mergeSort(dest, src, mid, to, comparator);
+
+    // if already in order, just copy
+    if (comparator.compare(src[mid - 1], src[mid]) <= 0) {
+      System.arraycopy(src, from, dest, from, length);
+      return;
+    }
+
+    // merge the halves from src into dest (taking from the left half when equal, so stable)
+    for (int i = from, p = from, q = mid; i < to; i++) {
+      if (q >= to || (p < mid && comparator.compare(src[p], src[q]) <= 0)) dest[i] = src[p++];
+      else dest[i] = src[q++];
+    }
+  }
+}
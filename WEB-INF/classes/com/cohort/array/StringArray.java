@@ -30,6 +30,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Objects;
 import java.util.Set;
 import java.util.regex.Pattern;
 import ucar.ma2.StructureData;
@@ -43,6 +44,11 @@ import ucar.ma2.StructureData;
  * <p>This class uses "" to represent a missing value (NaN).
  *
  * <p>Technically, this class might support element=null, but not fully tested.
+ *
+ * <p>A StringArray can be switched to compact mode (see compact()), where the values are stored in
+ * one byte[] (or as codes pointing to a small dictionary of distinct values) instead of as a
+ * StringHolder for each value. All of the methods work in compact mode. Methods which can't easily
+ * be done in compact mode (e.g., sort()) switch the StringArray back to normal mode.
  */
 public class StringArray extends PrimitiveArray {
 
@@ -89,6 +95,7 @@ public class StringArray extends PrimitiveArray {
               + ") >= size ("
               + size
               + ").");
+    if (compact != null) return compact.isEmpty(index);
     StringHolder sh = array[index];
     if (sh == null) return true;
     char car[] = sh.charArray();
@@ -111,10 +118,14 @@ public class StringArray extends PrimitiveArray {
    * This is the main data structure. This is protected, because the Strings are stored as utf8
    * byte[]. Was private, but now protected for testing. Note that if the PrimitiveArray's capacity
    * is increased, the PrimitiveArray will use a different array for storage. Active elements won't
-   * be null, but string in an element may be null (but that's not fully supported/tested).
+   * be null, but string in an element may be null (but that's not fully supported/tested). This is
+   * null if the StringArray is in compact mode.
    */
   protected StringHolder[] array;
 
+  /** If not null, the StringArray is in compact mode and the values are stored here. */
+  protected CompactStrings compact;
+
   /** A constructor for a capacity of 8 elements. The initial 'size' will be 0. */
   public StringArray() {
     array = new StringHolder[8];
@@ -202,6 +213,83 @@ public class StringArray extends PrimitiveArray {
     }
   }
 
+  /**
+   * This switches this StringArray to compact mode (if it isn't already), where the values are
+   * stored in one byte[] (ISO-8859-1 if possible, else UTF-8) with an offset for each value, or (if
+   * there are lots of repeated values) as an int code for each value which points to a dictionary
+   * of the distinct values. For typical data (e.g., ASCII station IDs), this uses 3 - 4 times less
+   * memory than a StringHolder (and its char[]) for each value, and values added in compact mode
+   * aren't added to String2.canonicalStringHolder's map. The StringArray's API is unchanged. Use
+   * this for big, mostly read-only StringArrays (e.g., a column of a big table): methods which
+   * modify values other than at the end (e.g., set(), sort()) may switch the StringArray back to
+   * normal mode.
+   *
+   * <p>If there is a null String, this stays in normal mode.
+   *
+   * @return this for convenience
+   */
+  public StringArray compact() {
+    if (compact != null) return this;
+    // are there nulls? lots of distinct values?
+    HashSet<StringHolder> distinct = new HashSet<>();
+    boolean useDictionary = true;
+    for (int i = 0; i < size; i++) {
+      if (array[i] == null || array[i].charArray() == null) return this;
+      if (useDictionary
+          && distinct.add(array[i])
+          && distinct.size() >= CompactStrings.DICTIONARY_TEST_SIZE
+          && (long) distinct.size() * CompactStrings.MIN_REPEATS > size) useDictionary = false;
+    }
+    CompactStrings tCompact = new CompactStrings(Math.max(size, 8), useDictionary);
+    for (int i = 0; i < size; i++) {
+      if (!tCompact.add(array[i].string())) return this; // e.g., unpaired surrogate
+    }
+    compact = tCompact;
+    array = null;
+    return this;
+  }
+
+  /**
+   * This returns true if this StringArray is in compact mode (see compact()).
+   *
+   * @return true if this StringArray is in compact mode.
+   */
+  public boolean isCompact() {
+    return compact != null;
+  }
+
+  /**
+   * If this StringArray is in compact mode (see compact()), this switches it back to normal mode
+   * (with a canonical StringHolder for each value).
+   */
+  public void inflate() {
+    if (compact == null) return;
+    Math2.ensureMemoryAvailable(16L * size, "StringArray.inflate");
+    StringHolder[] newArray = new StringHolder[Math.max(size, compact.capacity())];
+    String lastS = null;
+    StringHolder lastSH = null;
+    for (int i = 0; i < size; i++) {
+      String s = compact.get(i);
+      if (!s.equals(lastS)) { // often the same as the previous value
+        lastS = s;
+        lastSH =
+            s.length() == 0
+                ? String2.STRING_HOLDER_ZERO
+                : String2.canonicalStringHolder(new StringHolder(s));
+      }
+      newArray[i] = lastSH;
+    }
+    array = newArray;
+    compact = null;
+  }
+
+  /** This sets size to 0 and maxIsMV to false. A compact StringArray stays compact. */
+  @Override
+  public void clear() {
+    if (compact != null) compact.clear();
+    super.clear();
+  }
+
   /**
    * A special method which encodes all the Unicode strings in this to ISO_8859_1. Special chars are
    * converted to "?".
@@ -438,7 +526,7 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public int capacity() {
-    return array.length;
+    return compact != null ? compact.capacity() : array.length;
   }
 
   /**
@@ -454,6 +542,17 @@ public class StringArray extends PrimitiveArray {
     // and
     // https://stackoverflow.com/questions/299304/why-does-javas-hashcode-in-string-use-31-as-a-multiplier
     int code = 0;
+    if (compact != null) {
+      for (int i = 0; i < size; i++) {
+        // the same as the StringHolder hashCode, i.e., Arrays.hashCode(char[])
+        final String s = compact.get(i);
+        int shCode = 1;
+        final int sLength = s.length();
+        for (int po = 0; po < sLength; po++) shCode = 31 * shCode + s.charAt(po);
+        code = 31 * code + shCode;
+      }
+      return code;
+    }
     for (int i = 0; i < size; i++)
       code = 31 * code + array[i].hashCode(); // the hashCode of each StringHolder
     return code;
@@ -486,6 +585,14 @@ public class StringArray extends PrimitiveArray {
     if (stopIndex < startIndex) return pa == null ? new StringArray(new String[0]) : pa;
 
     int willFind = strideWillFind(stopIndex - startIndex + 1, stride);
+    if (compact != null || (pa != null && ((StringArray) pa).compact != null)) {
+      // the results are compact if this is compact
+      StringArray sa =
+          pa == null ? new StringArray(willFind, false).compact() : (StringArray) pa;
+      sa.ensureCapacity(willFind);
+      for (int i = startIndex; i <= stopIndex; i += stride) sa.add(get(i));
+      return sa;
+    }
     StringArray sa = null; // for the results
     if (pa == null) {
       sa = new StringArray(willFind, true);
@@ -532,6 +639,13 @@ public class StringArray extends PrimitiveArray {
    * @param value the value to be added to the array
    */
   public void add(final String value) {
+    if (compact != null) {
+      if (value != null && compact.add(value)) {
+        size++;
+        return;
+      }
+      inflate(); // e.g., for null
+    }
     if (size == array.length) // if we're at capacity
     ensureCapacity(size + 1L);
     array[size++] =
@@ -596,6 +710,10 @@ public class StringArray extends PrimitiveArray {
    * @param value the value to be added to the array
    */
   public void addNotCanonical(final String value) {
+    if (compact != null) {
+      add(value);
+      return;
+    }
     if (size == array.length) // if we're at capacity
     ensureCapacity(size + 1L);
     // still do most common canonicallization
@@ -625,6 +743,7 @@ public class StringArray extends PrimitiveArray {
 
   /** This makes sure all of the values are the canonical values. */
   public void makeCanonical() {
+    if (compact != null) return; // compact values don't use StringHolders
     for (int i = 0; i < size; i++) array[i] = String2.canonicalStringHolder(array[i]);
   }
 
@@ -678,8 +797,12 @@ public class StringArray extends PrimitiveArray {
     if (n < 0)
       throw new IllegalArgumentException(
           MessageFormat.format(ArrayAddN, getClass().getSimpleName(), "" + n));
-    StringHolder sh = String2.canonicalStringHolder(new StringHolder(value));
     ensureCapacity(size + (long) n);
+    if (compact != null) {
+      for (int i = 0; i < n; i++) add(value);
+      return;
+    }
+    StringHolder sh = String2.canonicalStringHolder(new StringHolder(value));
     Arrays.fill(array, size, size + n, sh);
     size += n;
   }
@@ -695,6 +818,7 @@ public class StringArray extends PrimitiveArray {
     if (index < 0 || index > size)
       throw new IllegalArgumentException(
           MessageFormat.format(ArrayAtInsert, getClass().getSimpleName(), "" + index, "" + size));
+    inflate();
     if (size == array.length) // if we're at capacity
     ensureCapacity(size + 1L);
     System.arraycopy(array, index, array, index + 1, size - index);
@@ -790,8 +914,10 @@ public class StringArray extends PrimitiveArray {
   @Override
   public PrimitiveArray addFromPA(final PrimitiveArray otherPA, int otherIndex, final int nValues) {
 
-    // add from same type
-    if (otherPA.elementType() == elementType()) {
+    // add from same type (if neither is compact)
+    if (otherPA.elementType() == elementType()
+        && compact == null
+        && ((StringArray) otherPA).compact == null) {
       if (otherIndex + nValues > otherPA.size)
         throw new IllegalArgumentException(
             String2.ERROR
@@ -835,6 +961,7 @@ public class StringArray extends PrimitiveArray {
     if (index >= size)
       throw new IllegalArgumentException(
           MessageFormat.format(ArrayRemove, getClass().getSimpleName(), "" + index, "" + size));
+    inflate();
     System.arraycopy(array, index + 1, array, index, size - index - 1);
     size--;
 
@@ -858,6 +985,14 @@ public class StringArray extends PrimitiveArray {
       throw new IllegalArgumentException(
           String2.ERROR + " in StringArray.removeRange: from (" + from + ") > to (" + to + ").");
     }
+    if (compact != null) {
+      if (to == size) {
+        compact.truncate(from);
+        size = from;
+        return;
+      }
+      inflate();
+    }
     System.arraycopy(array, to, array, from, size - to);
     size -= to - from;
 
@@ -872,11 +1007,8 @@ public class StringArray extends PrimitiveArray {
    */
   public int removeEmptyAtEnd() {
     int last = size;
-    while (last > 0) {
-      char[] car = array[last - 1].charArray();
-      if (car == null || car.length == 0) last--;
-      else break;
-    }
+    while (last > 0 && isMaxValue(last - 1)) // null or ""
+    last--;
     removeRange(last, size);
     return size;
   }
@@ -887,6 +1019,7 @@ public class StringArray extends PrimitiveArray {
    * @return the new size
    */
   public int removeIfNothing() {
+    inflate();
     int nGood = 0;
     for (int po = 0; po < size; po++) {
       char[] car = array[po].charArray();
@@ -909,6 +1042,7 @@ public class StringArray extends PrimitiveArray {
   @Override
   public void move(final int first, final int last, final int destination) {
     final String errorIn = String2.ERROR + " in StringArray.move:\n";
+    inflate();
 
     if (first < 0) throw new RuntimeException(errorIn + "first (" + first + ") must be >= 0.");
     if (last < first || last > size)
@@ -969,6 +1103,11 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void justKeep(final BitSet bitset) {
+    if (compact != null) {
+      compact.justKeep(bitset);
+      size = compact.size();
+      return;
+    }
     int newSize = 0;
     for (int row = 0; row < size; row++) {
       if (bitset.get(row)) array[newSize++] = array[row];
@@ -984,6 +1123,10 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void ensureCapacity(final long minCapacity) {
+    if (compact != null) {
+      compact.ensureCapacity(minCapacity);
+      return;
+    }
     if (array.length < minCapacity) {
       // ensure minCapacity is < Integer.MAX_VALUE
       Math2.ensureArraySizeOkay(minCapacity, "StringArray");
@@ -1006,7 +1149,8 @@ public class StringArray extends PrimitiveArray {
   public String[] toArray() {
     Math2.ensureMemoryAvailable(8L * size, "StringArray.toArray"); // 8L is guess
     String[] tArray = new String[size];
-    for (int i = 0; i < size; i++) tArray[i] = array[i].string();
+    for (int i = 0; i < size; i++)
+      tArray[i] = compact != null ? compact.get(i) : array[i].string();
     return tArray;
   }
 
@@ -1055,7 +1199,7 @@ public class StringArray extends PrimitiveArray {
     if (index >= size)
       throw new IllegalArgumentException(
           String2.ERROR + " in StringArray.get: index (" + index + ") >= size (" + size + ").");
-    return array[index].string();
+    return compact != null ? compact.get(index) : array[index].string();
   }
 
   /**
@@ -1073,6 +1217,7 @@ public class StringArray extends PrimitiveArray {
               + ") >= size ("
               + size
               + ").");
+    if (compact != null) return new StringHolder(compact.get(index)); // not canonical
     return array[index];
   }
 
@@ -1086,6 +1231,10 @@ public class StringArray extends PrimitiveArray {
     if (index >= size)
       throw new IllegalArgumentException(
           String2.ERROR + " in StringArray.set: index (" + index + ") >= size (" + size + ").");
+    if (compact != null) {
+      if (value != null && compact.set(index, value)) return;
+      inflate(); // e.g., compact isn't in dictionary mode
+    }
     array[index] = String2.canonicalStringHolder(new StringHolder(value));
   }
 
@@ -1309,6 +1458,10 @@ public class StringArray extends PrimitiveArray {
   @Override
   public int indexOf(final String lookFor, final int startIndex) {
     if (lookFor == null || startIndex >= size) return -1;
+    if (compact != null) {
+      for (int i = startIndex; i < size; i++) if (lookFor.equals(compact.get(i))) return i;
+      return -1;
+    }
     final char[] lookForc = lookFor.toCharArray();
     for (int i = startIndex; i < size; i++)
       if (Arrays.equals(
@@ -1361,6 +1514,10 @@ public class StringArray extends PrimitiveArray {
               + ") >= size ("
               + size
               + ").");
+    if (compact != null) {
+      for (int i = startIndex; i >= 0; i--) if (lookFor.equals(compact.get(i))) return i;
+      return -1;
+    }
     final char[] lookForc = lookFor.toCharArray();
     for (int i = startIndex; i >= 0; i--)
       if (Arrays.equals(
@@ -1414,6 +1571,10 @@ public class StringArray extends PrimitiveArray {
   /** If size != capacity, this makes a new 'array' of size 'size' so capacity will equal size. */
   @Override
   public void trimToSize() {
+    if (compact != null) {
+      compact.trimToSize();
+      return;
+    }
     if (size == array.length) return;
     final StringHolder[] newArray = new StringHolder[size];
     System.arraycopy(array, 0, newArray, 0, size);
@@ -1452,7 +1613,9 @@ public class StringArray extends PrimitiveArray {
           + other.size()
           + " value(s).";
     for (int i = 0; i < size; i++)
-      if (!array[i].equals(other.array[i]))
+      if (compact == null && other.compact == null
+          ? !array[i].equals(other.array[i])
+          : !Objects.equals(get(i), other.get(i)))
         return "The two StringArrays aren't equal: this["
             + i
             + "]=\""
@@ -1517,6 +1680,7 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void sort() {
+    inflate();
     // see switchover point and speed comparison in
     //  https://www.baeldung.com/java-arrays-sort-vs-parallelsort
     if (size < 8192) Arrays.sort(array, 0, size, stringHolderComparator);
@@ -1531,6 +1695,7 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void sortIgnoreCase() {
+    inflate();
     // see switchover point and speed comparison in
     //  https://www.baeldung.com/java-arrays-sort-vs-parallelsort
     if (size < 8192) Arrays.sort(array, 0, size, stringHolderComparatorIgnoreCase);
@@ -1552,6 +1717,8 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public int compare(final int index1, final PrimitiveArray otherPA, final int index2) {
+    if (compact != null && otherPA instanceof StringArray otherSA && otherSA.compact != null)
+      return compact.compare(index1, otherSA.compact, index2);
     StringHolder otherSH =
         otherPA.elementType() == PAType.STRING
             ? ((StringArray) otherPA).getStringHolder(index2)
@@ -1576,7 +1743,8 @@ public class StringArray extends PrimitiveArray {
             ? ((StringArray) otherPA).getStringHolder(index2)
             : new StringHolder(otherPA.getString(index2));
 
-    return array[index1].compareToIgnoreCase(sh2);
+    return (compact != null ? new StringHolder(compact.get(index1)) : array[index1])
+        .compareToIgnoreCase(sh2);
   }
 
   /**
@@ -1588,6 +1756,10 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void copy(final int from, final int to) {
+    if (compact != null) {
+      set(to, compact.get(from));
+      return;
+    }
     array[to] = array[from];
   }
 
@@ -1600,6 +1772,10 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void reorder(final int rank[]) {
+    if (compact != null) {
+      compact.reorder(rank);
+      return;
+    }
     final int n = rank.length;
     // new length could be n, but I'll keep it the same array.length as before
     Math2.ensureMemoryAvailable(16L * array.length, "StringArray");
@@ -1729,6 +1905,10 @@ public class StringArray extends PrimitiveArray {
   public void externalizeForDODS(final DataOutputStream dos) throws Exception {
     dos.writeInt(size);
     dos.writeInt(size); // yes, a second time
+    if (compact != null) {
+      for (int i = 0; i < size; i++) compact.externalizeForDODS(dos, i);
+      return;
+    }
     for (int i = 0; i < size; i++) externalizeForDODS(dos, get(i));
   }
 
@@ -1743,6 +1923,18 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public void externalizeForDODS(final DataOutputStream dos, final int i) throws Exception {
+    if (compact != null) {
+      if (i >= size)
+        throw new IllegalArgumentException(
+            String2.ERROR
+                + " in StringArray.externalizeForDODS: index ("
+                + i
+                + ") >= size ("
+                + size
+                + ").");
+      compact.externalizeForDODS(dos, i);
+      return;
+    }
     externalizeForDODS(dos, get(i));
   }
 
@@ -1825,7 +2017,7 @@ public class StringArray extends PrimitiveArray {
   public void append(final PrimitiveArray pa) {
     final int otherSize = pa.size();
     ensureCapacity(size + (long) otherSize);
-    if (pa instanceof StringArray sa) {
+    if (pa instanceof StringArray sa && compact == null && sa.compact == null) {
       System.arraycopy(sa.array, 0, array, size, otherSize);
       size += otherSize;
       // 2017-04-06 this was contemplated, but better to handle this some other way,
@@ -1851,7 +2043,7 @@ public class StringArray extends PrimitiveArray {
   public void rawAppend(final PrimitiveArray pa) {
     int otherSize = pa.size();
     ensureCapacity(size + (long) otherSize);
-    if (pa instanceof StringArray sa) {
+    if (pa instanceof StringArray sa && compact == null && sa.compact == null) {
       System.arraycopy(sa.array, 0, array, size, otherSize);
       size += otherSize; // do last to minimize concurrency problems
     } else {
@@ -1866,6 +2058,10 @@ public class StringArray extends PrimitiveArray {
    */
   public int maxStringLength() {
     int max = 0;
+    if (compact != null) {
+      for (int i = 0; i < size; i++) max = Math.max(max, compact.length(i));
+      return max;
+    }
     for (int i = 0; i < size; i++) {
       StringHolder sh = getStringHolder(i);
       int length = (sh == null || sh.charArray() == null) ? 0 : sh.charArray().length;
@@ -1971,9 +2167,18 @@ public class StringArray extends PrimitiveArray {
   @Override
   public int switchFromTo(final String from, final String to) {
     if (from.equals(to)) return 0;
+    int count = 0;
+    if (compact != null) {
+      for (int i = 0; i < size; i++) {
+        if (from.equals(get(i))) {
+          set(i, to); // this may inflate
+          count++;
+        }
+      }
+      return count;
+    }
     final char[] fromc = from.toCharArray();
     final StringHolder tosh = String2.canonicalStringHolder(new StringHolder(to));
-    int count = 0;
     for (int i = 0; i < size; i++) {
       if (Arrays.equals(
           array[i].charArray(), fromc)) { // could be == if assume all elements are canonical
@@ -2538,6 +2743,10 @@ public class StringArray extends PrimitiveArray {
    */
   @Override
   public int firstTie() {
+    if (compact != null) {
+      for (int i = 1; i < size; i++) if (compact.compare(i - 1, compact, i) == 0) return i - 1;
+      return -1;
+    }
     for (int i = 1; i < size; i++) {
       if (Arrays.equals(
           array[i - 1].charArray(), array[i].charArray())) { // either or both can be null
@@ -2742,6 +2951,7 @@ public class StringArray extends PrimitiveArray {
    * @return the number of non-"" elements converted.
    */
   public int convertIsSomething2() {
+    inflate();
     int count = 0;
     for (int i = 0; i < size; i++) {
       final char[] car = array[i].charArray();
@@ -0,0 +1,260 @@
+/* This file is part of the EMA project and is
+ * Copyright (c) 2005 Robert Simons (CoHortSoftware@gmail.com).
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information visit www.cohortsoftware.com or contact CoHortSoftware@gmail.com.
+ */
+package com.cohort.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.UnaryOperator;
+
+/**
+ * This is like String.intern(), but for any type of object with suitable equals() and hashCode()
+ * methods, and the canonical objects are only weakly referenced (so they can be garbage collected
+ * when nothing else refers to them). String2.canonical() and canonicalStringHolder() use this.
+ *
+ * <p>This is thread safe and lookups don't take locks:
+ *
+ * <ul>
+ *   <li>Each thread has a small, direct-mapped front cache of recently used canonical objects. It
+ *       holds WeakReferences, so it doesn't keep the objects from being garbage collected.
+ *   <li>Otherwise, the object is looked up in one of several ConcurrentHashMaps (chosen by the
+ *       object's hash code). Reads of a ConcurrentHashMap don't lock, and writes only lock one bin.
+ * </ul>
+ *
+ * <p>Entries whose objects have been garbage collected are removed (via a ReferenceQueue) during
+ * later calls to intern() and size().
+ *
+ * @param <T> the type of the canonical objects
+ */
+public class CanonicalInterner<T> {
+
+  private static final int N_SEGMENTS = 32; // must be a power of 2
+  private static final int FRONT_CACHE_SIZE = 512; // must be a power of 2
+  private static final int FLUSH_EVERY = 1024; // flush a thread's counts after this many lookups
+
+  /** A weak reference to a canonical object. It is the key and the value in a segment's map. */
+  private static final class Entry<T> extends WeakReference<T> {
+    final int hash;
+
+    Entry(T referent, int hash, ReferenceQueue<? super T> queue) {
+      super(referent, queue);
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    /** A cleared Entry is only equal to itself. */
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Entry<?> other) || other.hash != hash) return false;
+      T t = get();
+      return t != null && t.equals(other.get());
+    }
+  }
+
+  /**
+   * A temporary key used to look up an object in a segment's map. ConcurrentHashMap calls
+   * probe.equals(key), so this only needs to be equal to Entries.
+   */
+  private static final class Probe {
+    final Object object;
+    final int hash;
+
+    Probe(Object object, int hash) {
+      this.object = object;
+      this.hash = hash;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Entry<?> entry && entry.hash == hash && object.equals(entry.get());
+    }
+  }
+
+  /** Each thread's front cache and statistics (which are periodically added to the totals). */
+  private static final class ThreadState<T> {
+    @SuppressWarnings("unchecked")
+    final Entry<T>[] front = new Entry[FRONT_CACHE_SIZE];
+
+    int nLookups, nHits, nFrontHits;
+  }
+
+  /** One of the shards. */
+  private static final class Segment<T> {
+    final ConcurrentHashMap<Object, Entry<T>> map = new ConcurrentHashMap<>();
+    final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    /** This removes the entries whose objects have been garbage collected. */
+    void expungeStale() {
+      Reference<? extends T> ref;
+      while ((ref = queue.poll()) != null) map.remove(ref, ref); // only if it is still that entry
+    }
+  }
+
+  private final UnaryOperator<T> copier;
+  private final Segment<T>[] segments;
+  private final ThreadLocal<ThreadState<T>> threadState =
+      ThreadLocal.withInitial(ThreadState::new);
+  private final LongAdder nLookups = new LongAdder();
+  private final LongAdder nHits = new LongAdder();
+  private final LongAdder nFrontHits = new LongAdder();
+
+  /**
+   * The constructor.
+   *
+   * @param tCopier if not null, this is applied to an object before it becomes the canonical object
+   *     (e.g., to copy a String which is a substring of a much bigger String).
+   */
+  @SuppressWarnings("unchecked")
+  public CanonicalInterner(UnaryOperator<T> tCopier) {
+    copier = tCopier;
+    segments = new Segment[N_SEGMENTS];
+    for (int i = 0; i < N_SEGMENTS; i++) segments[i] = new Segment<>();
+  }
+
+  /** This spreads the bits of the hash code (like HashMap does). */
+  private static int spread(int h) {
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * This returns the canonical object which is equal to t. If there isn't one, t (or a copy of t,
+   * see the constructor) becomes the canonical object.
+   *
+   * @param t the object (not null)
+   * @return the canonical object which is equal to t
+   */
+  public T intern(T t) {
+    int hash = spread(t.hashCode());
+    ThreadState<T> state = threadState.get();
+    if (++state.nLookups >= FLUSH_EVERY) flush(state);
+
+    // is it in this thread's front cache?
+    Entry<T>[] front = state.front;
+    int slot = hash & (FRONT_CACHE_SIZE - 1);
+    Entry<T> entry = front[slot];
+    if (entry != null && entry.hash == hash) {
+      T canonical = entry.get();
+      if (canonical != null && (canonical == t || canonical.equals(t))) {
+        state.nHits++;
+        state.nFrontHits++;
+        return canonical;
+      }
+    }
+
+    Segment<T> segment = segments[(hash >>> 24) & (N_SEGMENTS - 1)];
+    segment.expungeStale();
+
+    // is it in the segment's map?
+    entry = segment.map.get(new Probe(t, hash));
+    if (entry != null) {
+      T canonical = entry.get();
+      if (canonical != null) {
+        state.nHits++;
+        front[slot] = entry;
+        return canonical;
+      }
+    }
+
+    // add it
+    T canonical = copier == null ? t : copier.apply(t);
+    Entry<T> newEntry = new Entry<>(canonical, hash, segment.queue);
+    while (true) {
+      entry = segment.map.putIfAbsent(newEntry, newEntry);
+      if (entry == null) {
+        front[slot] = newEntry;
+        return canonical;
+      }
+      // another thread added it first
+      T other = entry.get();
+      if (other != null) {
+        state.nHits++;
+        front[slot] = entry;
+        return other;
+      }
+      // else it was just garbage collected, so try again
+    }
+  }
+
+  /** This adds a thread's counts to the totals. */
+  private void flush(ThreadState<T> state) {
+    nLookups.add(state.nLookups);
+    nHits.add(state.nHits);
+    nFrontHits.add(state.nFrontHits);
+    state.nLookups = 0;
+    state.nHits = 0;
+    state.nFrontHits = 0;
+  }
+
+  /**
+   * This makes the statistics for the current thread up-to-date. The statistics for other threads
+   * may lag by up to 1024 lookups per thread.
+   */
+  public void flushStatistics() {
+    flush(threadState.get());
+  }
+
+  /**
+   * This returns the number of canonical objects (after removing the entries for objects which
+   * have been garbage collected).
+   */
+  public int size() {
+    int sum = 0;
+    for (Segment<T> segment : segments) {
+      segment.expungeStale();
+      sum += segment.map.size();
+    }
+    return sum;
+  }
+
+  /** This returns the number of calls to intern(). */
+  public long nLookups() {
+    return nLookups.sum();
+  }
+
+  /** This returns the number of calls to intern() which found an existing canonical object. */
+  public long nHits() {
+    return nHits.sum();
+  }
+
+  /** This returns the number of calls to intern() which were resolved by the front cache. */
+  public long nFrontHits() {
+    return nFrontHits.sum();
+  }
+
+  /**
+   * This returns the fraction (0 - 1) of calls to intern() which found an existing canonical
+   * object (or NaN if there have been no calls).
+   */
+  public double hitRate() {
+    long tLookups = nLookups();
+    return tLookups == 0 ? Double.NaN : nHits() / (double) tLookups;
+  }
+
+  /** This returns a one line summary of the statistics. */
+  public String statsString() {
+    long tLookups = nLookups();
+    return "size="
+        + size()
+        + ", nLookups="
+        + tLookups
+        + ", hitRate="
+        + (tLookups == 0 ? "NaN" : "" + Math2.roundTo(hitRate(), 3))
+        + ", frontCacheHitRate="
+        + (tLookups == 0 ? "NaN" : "" + Math2.roundTo(nFrontHits() / (double) tLookups, 3));
+  }
+}
@@ -63,10 +63,8 @@ public class Math2 {
   public static long maxMemory = Runtime.getRuntime().maxMemory();
 
   public static long halfMemory =
-      maxMemory / 2; // 50%   time for shedThisRequest to call gc and reject highMemory requests
-  public static long highMemory =
-      maxMemory * 65L
-          / 100; // 65%   time for shedThisRequest to call gc and reject lowMemory requests
+      maxMemory / 2; // 50%   ERDDAP's memory budget for active requests (EDStatic.memoryBudget)
+  public static long highMemory = maxMemory * 65L / 100; // 65%
   public static long maxSafeMemory =
       maxMemory * 3L / 4; // 75%   the max we should consider getting to
   public static long dangerousMemory = maxMemory * 9L / 10; // 90%   this is really bad
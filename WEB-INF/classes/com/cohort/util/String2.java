@@ -195,20 +195,15 @@ public class String2 {
   private static DecimalFormat genEngFormat10 = new DecimalFormat("##0.#########E0");
   private static DecimalFormat genExpFormat10 = new DecimalFormat("0.##########E0");
 
-  // splitting canonicalMap and canonicalStringHolderMap into 127 maps allows each
-  // to be bigger and makes synchronized contention less common.
-  // 127 seems better than 128. See stats at end of Table.testBigAscii();
-  private static final int nCanonicalMaps = 127;
-  private static Map<String, WeakReference<String>> canonicalMap[] = new Map[nCanonicalMaps];
-  private static Map<StringHolder, WeakReference<StringHolder>> canonicalStringHolderMap[] =
-      new Map[nCanonicalMaps];
-
-  static {
-    for (int i = 0; i < nCanonicalMaps; i++) {
-      canonicalMap[i] = new WeakHashMap<String, WeakReference<String>>();
-      canonicalStringHolderMap[i] = new WeakHashMap<StringHolder, WeakReference<StringHolder>>();
-    }
-  }
+  // The canonical Strings and StringHolders. These are used by every StringArray add/set
+  // (often by several threads at once), so lookups mustn't lock.
+  // new String(s): in case s is from s2.substring, copy to be just the characters.
+  // For proof that new String(s.substring(,)) is just storing relevant chars,
+  // not a reference to the parent string, see TestUtil.testString2canonical2()
+  private static final CanonicalInterner<String> canonicalInterner =
+      new CanonicalInterner<>(s -> new String(s));
+  private static final CanonicalInterner<StringHolder> canonicalStringHolderInterner =
+      new CanonicalInterner<>(null); // use the StringHolder object
 
   private static Map canonicalLockMap = new WeakHashMap();
   public static int longTimeoutSeconds =
@@ -5947,14 +5942,14 @@ public class String2 {
   }
 
   /**
-   * This is like String.intern(), but uses a WeakHashMap so the canonical strings can be garbage
-   * collected. <br>
-   * This is thread safe. <br>
+   * This is like String.intern(), but uses a CanonicalInterner so the canonical strings can be
+   * garbage collected. <br>
+   * This is thread safe and doesn't lock. <br>
    * It is fast: ~0.002ms per call. <br>
    * See TestUtil.testString2canonical().
    *
-   * <p>Using this increases memory use by ~6 bytes per canonical string (4 for pointer, and hashMap
-   * load factor = 0.75). <br>
+   * <p>Using this increases memory use by ~40 bytes per canonical string (a WeakReference and a
+   * hashMap node). <br>
    * So it only saves memory if many strings would otherwise be duplicated. <br>
    * But if lots of strings are originally duplicates, it saves *lots* of memory.
    *
@@ -5964,41 +5959,18 @@ public class String2 {
   public static String canonical(String s) {
     if (s == null) return null;
     if (s.length() == 0) return EMPTY_STRING;
-    // generally, it slows things down to see if same as last canonical String.
-    Map<String, WeakReference<String>> tCanonicalMap =
-        canonicalMap[
-            Math.abs(s.hashCode() ^ s.length())
-                % nCanonicalMaps]; // ^length makes it different, so not lots of collisions within
-    // tCanonicalMap[i]
-    // see stats at end of Table.testBigAscii();
-
-    // faster and logically better to use synchronized(canonicalMap) once
-    //  (and use a few times in consistent state)
-    // than to synchronize canonicalMap and lock/unlock twice
-    synchronized (tCanonicalMap) {
-      WeakReference<String> wr = tCanonicalMap.get(s);
-      // wr won't be garbage collected, but reference might (making wr.get() return null)
-      String canonical = wr == null ? null : wr.get();
-      if (canonical == null) {
-        // For proof that new String(s.substring(,)) is just storing relevant chars,
-        // not a reference to the parent string, see TestUtil.testString2canonical2()
-        canonical = new String(s); // in case s is from s2.substring, copy to be just the characters
-        tCanonicalMap.put(canonical, new WeakReference(canonical));
-        // log("new canonical string: " + canonical);
-      }
-      return canonical;
-    }
+    return canonicalInterner.intern(s);
   }
 
   /**
-   * This is like String.intern(), but uses a WeakHashMap so the canonical StringHolder can be
+   * This is like String.intern(), but uses a CanonicalInterner so the canonical StringHolder can be
    * garbage collected. <br>
-   * This is thread safe. <br>
+   * This is thread safe and doesn't lock. <br>
    * It is fast: ~0.002ms per call. <br>
    * See TestUtil.testString2canonicalStringHolder().
    *
-   * <p>Using this increases memory use by ~6 bytes per canonical byte[] (4 for pointer * ~.5
-   * hashMap load factor). <br>
+   * <p>Using this increases memory use by ~40 bytes per canonical StringHolder (a WeakReference and
+   * a hashMap node). <br>
    * So it only saves memory if many strings would otherwise be duplicated. <br>
    * But if lots of strings are originally duplicates, it saves *lots* of memory.
    *
@@ -6010,27 +5982,7 @@ public class String2 {
     char[] car = sh.charArray();
     if (car == null) return STRING_HOLDER_NULL;
     if (car.length == 0) return STRING_HOLDER_ZERO;
-    Map<StringHolder, WeakReference<StringHolder>> tCanonicalStringHolderMap =
-        canonicalStringHolderMap[
-            Math.abs(sh.hashCode() ^ sh.length())
-                % nCanonicalMaps]; // ^length makes it different, so not lots of collisions within
-    // tCanonicalStringHolderMap[i]
-    // see stats at end of Table.testBigAscii();
-
-    // faster and logically better to use synchronized(canonicalStringHolderMap) once
-    //  (and use a few times in consistent state)
-    // than to synchronize canonicalStringHolderMap and lock/unlock twice
-    synchronized (tCanonicalStringHolderMap) {
-      WeakReference<StringHolder> wr = tCanonicalStringHolderMap.get(sh);
-      // wr won't be garbage collected, but reference might (making wr.get() return null)
-      StringHolder canonical = wr == null ? null : wr.get();
-      if (canonical == null) {
-        canonical = sh; // use this object
-        tCanonicalStringHolderMap.put(canonical, new WeakReference(canonical));
-        // log("new canonical string: " + canonical);
-      }
-      return canonical;
-    }
+    return canonicalStringHolderInterner.intern(sh);
   }
 
   /**
@@ -6062,39 +6014,37 @@ public class String2 {
     }
   }
 
-  /** This is only used to test canonical. There isn't a trailing newline. */
+  /**
+   * This returns the statistics for canonical and canonicalStringHolder. There isn't a trailing
+   * newline.
+   */
   public static String canonicalStatistics() {
-    StringBuilder sb = new StringBuilder("canonical map sizes: ");
-    int sum = 0;
-    for (int i = 0; i < canonicalMap.length; i++) {
-      int tSize = canonicalMap[i].size();
-      sum += tSize;
-      sb.append((i == 0 ? "" : " + ") + (i % 16 == 0 ? "\n" : "") + tSize);
-    }
-    sb.append(" = " + sum + "\ncanonicalStringHolder map sizes: ");
-    sum = 0;
-    for (int i = 0; i < canonicalStringHolderMap.length; i++) {
-      int tSize = canonicalStringHolderMap[i].size();
-      sum += tSize;
-      sb.append((i == 0 ? "" : " + ") + (i % 16 == 0 ? "\n" : "") + tSize);
-    }
-    sb.append(" = " + sum);
-    return sb.toString();
+    return "canonical: "
+        + canonicalInterner.statsString()
+        + "\ncanonicalStringHolder: "
+        + canonicalStringHolderInterner.statsString();
   }
 
-  /** This is only used to test canonical. */
+  /** This returns the number of canonical Strings. */
   public static int canonicalSize() {
-    int sum = 0;
-    for (int i = 0; i < canonicalMap.length; i++) sum += canonicalMap[i].size();
-    return sum;
+    return canonicalInterner.size();
   }
 
-  /** This is only used to test canonicalStringHolder. */
+  /** This returns the number of canonical StringHolders. */
   public static int canonicalStringHolderSize() {
-    int sum = 0;
-    for (int i = 0; i < canonicalStringHolderMap.length; i++)
-      sum += canonicalStringHolderMap[i].size();
-    return sum;
+    return canonicalStringHolderInterner.size();
+  }
+
+  /** This returns the CanonicalInterner used by canonical() (e.g., for its statistics). */
+  public static CanonicalInterner<String> canonicalInterner() {
+    return canonicalInterner;
+  }
+
+  /**
+   * This returns the CanonicalInterner used by canonicalStringHolder() (e.g., for its statistics).
+   */
+  public static CanonicalInterner<StringHolder> canonicalStringHolderInterner() {
+    return canonicalStringHolderInterner;
   }
 
   /**
@@ -0,0 +1,292 @@
+/* This file is Copyright (c) 2024, NOAA.
+ * See the MIT/X-like license in LICENSE.txt.
+ * For more information, email BobSimons2.00@gmail.com.
+ */
+package com.cohort.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * A thread-safe cache which is bounded by the total weight (e.g., the approximate number of bytes)
+ * of its values and (optionally) by the number of entries. When a put() makes the cache too
+ * big, the Least-Recently-Used entries are removed. Entries can also (optionally) expire a fixed
+ * time after they were put in the cache.
+ *
+ * <p>Unlike <tt>Collections.synchronizedMap(new LRUCache(maxSize))</tt>, get() doesn't take a
+ * global lock: the entries are in a ConcurrentHashMap and get() just records the access time.
+ * Only eviction (which is rare compared to get()) takes a lock.
+ *
+ * <p>Each cache has hit, miss, and eviction counters. A cache made with a name is added to a
+ * static registry (see caches()) so its statistics can be reported (e.g., as Prometheus metrics).
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class WeightedCache<K, V> {
+
+  /**
+   * Set this to true (by calling verbose=true in your program, not by changing the code here) if
+   * you want lots of diagnostic messages sent to String2.log.
+   */
+  public static boolean verbose = false;
+
+  private static final ConcurrentHashMap<String, WeightedCache<?, ?>> registry =
+      new ConcurrentHashMap<>();
+
+  // provides a unique, increasing access "time" (cheaper and finer than currentTimeMillis)
+  private static final AtomicLong accessClock = new AtomicLong(0);
+
+  private final String name;
+  private final long maxWeight;
+  private final int maxEntries;
+  private final long ttlMillis;
+  private final ToLongFunction<V> weigher;
+
+  private final ConcurrentHashMap<K, Entry<V>> map = new ConcurrentHashMap<>();
+  private final AtomicLong weight = new AtomicLong(0);
+  private final ReentrantLock evictionLock = new ReentrantLock();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+  private final LongAdder expirations = new LongAdder();
+
+  /** The information about one cached value. */
+  private static final class Entry<V> {
+    final V value;
+    final long weight;
+    final long expiresAtMillis; // Long.MAX_VALUE if it never expires
+    volatile long lastAccess;
+
+    Entry(V value, long weight, long expiresAtMillis) {
+      this.value = value;
+      this.weight = weight;
+      this.expiresAtMillis = expiresAtMillis;
+      lastAccess = accessClock.incrementAndGet();
+    }
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param tName the name of this cache (e.g., "GSHHS"), used in statistics. If not null, this
+   *     cache is added to the registry (replacing any previous cache with the same name).
+   * @param tMaxWeight the maximum total weight of the values (e.g., in bytes). Use Long.MAX_VALUE
+   *     for no limit.
+   * @param tMaxEntries the maximum number of entries. Use Integer.MAX_VALUE for no limit.
+   * @param tTtlMillis the number of milliseconds after a put() that the entry expires. Use 0 or
+   *     Long.MAX_VALUE for no expiration.
+   * @param tWeigher returns the weight (e.g., approximate number of bytes) of a value. If null,
+   *     each value has a weight of 1.
+   */
+  public WeightedCache(
+      String tName,
+      long tMaxWeight,
+      int tMaxEntries,
+      long tTtlMillis,
+      ToLongFunction<V> tWeigher) {
+    name = tName;
+    maxWeight = tMaxWeight <= 0 ? Long.MAX_VALUE : tMaxWeight;
+    maxEntries = tMaxEntries <= 0 ? Integer.MAX_VALUE : tMaxEntries;
+    ttlMillis = tTtlMillis <= 0 ? Long.MAX_VALUE : tTtlMillis;
+    weigher = tWeigher == null ? v -> 1 : tWeigher;
+    if (tName != null) registry.put(tName, this);
+  }
+
+  /**
+   * This returns an unmodifiable view of the named caches, for reporting statistics.
+   *
+   * @return a map of cache name to cache
+   */
+  public static Map<String, WeightedCache<?, ?>> caches() {
+    return Collections.unmodifiableMap(registry);
+  }
+
+  /**
+   * This gets the value for a key.
+   *
+   * @param key the key
+   * @return the value (or null if the key isn't in the cache or the entry has expired)
+   */
+  public V get(K key) {
+    Entry<V> entry = map.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    if (entry.expiresAtMillis != Long.MAX_VALUE
+        && System.currentTimeMillis() >= entry.expiresAtMillis) {
+      if (map.remove(key, entry)) {
+        weight.addAndGet(-entry.weight);
+        expirations.increment();
+      }
+      misses.increment();
+      return null;
+    }
+    entry.lastAccess = accessClock.incrementAndGet();
+    hits.increment();
+    return entry.value;
+  }
+
+  /**
+   * This puts a value in the cache (replacing any previous value for the key), then removes
+   * Least-Recently-Used entries if the cache is too big. A value which is heavier than maxWeight
+   * isn't cached.
+   *
+   * @param key the key (not null)
+   * @param value the value (not null)
+   */
+  public void put(K key, V value) {
+    long tWeight = Math.max(0, weigher.applyAsLong(value));
+    if (tWeight > maxWeight) {
+      remove(key);
+      return;
+    }
+    long expiresAt =
+        ttlMillis == Long.MAX_VALUE
+            ? Long.MAX_VALUE
+            : System.currentTimeMillis() + ttlMillis; // won't overflow for reasonable ttl
+    Entry<V> old = map.put(key, new Entry<>(value, tWeight, expiresAt));
+    weight.addAndGet(tWeight - (old == null ? 0 : old.weight));
+    if (weight.get() > maxWeight || map.size() > maxEntries) evict();
+  }
+
+  /**
+   * This removes an entry.
+   *
+   * @param key the key
+   * @return the value that was removed (or null if none)
+   */
+  public V remove(K key) {
+    Entry<V> old = map.remove(key);
+    if (old == null) return null;
+    weight.addAndGet(-old.weight);
+    return old.value;
+  }
+
+  /**
+   * This removes the entries whose keys match the predicate (e.g., all of one dataset's entries).
+   *
+   * @param predicate returns true for the keys to be removed
+   * @return the number of entries removed
+   */
+  public int removeIf(Predicate<K> predicate) {
+    int n = 0;
+    for (K key : new ArrayList<>(map.keySet()))
+      if (predicate.test(key) && remove(key) != null) n++;
+    return n;
+  }
+
+  /** This removes all entries. */
+  public void clear() {
+    evictionLock.lock();
+    try {
+      for (K key : new ArrayList<>(map.keySet())) remove(key);
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** This removes Least-Recently-Used entries until the cache is within its limits. */
+  private void evict() {
+    evictionLock.lock();
+    try {
+      if (weight.get() <= maxWeight && map.size() <= maxEntries) return;
+
+      // One scan and sort finds all of the entries to be removed (rather than one scan per entry).
+      ArrayList<Map.Entry<K, Entry<V>>> entries = new ArrayList<>(map.entrySet());
+      entries.sort((a, b) -> Long.compare(a.getValue().lastAccess, b.getValue().lastAccess));
+      long now = System.currentTimeMillis();
+      int nRemoved = 0;
+      for (Map.Entry<K, Entry<V>> me : entries) {
+        if (weight.get() <= maxWeight && map.size() <= maxEntries) break;
+        Entry<V> entry = me.getValue();
+        if (map.remove(me.getKey(), entry)) { // false if it was replaced in the meantime
+          weight.addAndGet(-entry.weight);
+          if (now >= entry.expiresAtMillis) expirations.increment();
+          else evictions.increment();
+          nRemoved++;
+        }
+      }
+      if (verbose)
+        String2.log(
+            "WeightedCache " + name + " evicted " + nRemoved + " entries. " + statsString());
+    } finally {
+      evictionLock.unlock();
+    }
+  }
+
+  /** This returns the name of this cache (may be null). */
+  public String name() {
+    return name;
+  }
+
+  /** This returns the number of entries. */
+  public int size() {
+    return map.size();
+  }
+
+  /** This returns the total weight of the values. */
+  public long weight() {
+    return weight.get();
+  }
+
+  /** This returns the maximum total weight. */
+  public long maxWeight() {
+    return maxWeight;
+  }
+
+  /** This returns the maximum number of entries. */
+  public int maxEntries() {
+    return maxEntries;
+  }
+
+  /** This returns the number of calls to get() which found a value. */
+  public long hitCount() {
+    return hits.sum();
+  }
+
+  /** This returns the number of calls to get() which didn't find a value. */
+  public long missCount() {
+    return misses.sum();
+  }
+
+  /** This returns the number of entries removed to make room for other entries. */
+  public long evictionCount() {
+    return evictions.sum();
+  }
+
+  /** This returns the number of entries removed because they expired. */
+  public long expirationCount() {
+    return expirations.sum();
+  }
+
+  /** This returns a one line summary of this cache's statistics. */
+  public String statsString() {
+    long tHits = hitCount();
+    long tMisses = missCount();
+    return "nCached="
+        + size()
+        + (maxEntries == Integer.MAX_VALUE ? "" : " of " + maxEntries)
+        + ", weight="
+        + weight()
+        + (maxWeight == Long.MAX_VALUE ? "" : " of " + maxWeight)
+        + ", nHits="
+        + tHits
+        + ", nMisses="
+        + tMisses
+        + ", hitRate="
+        + (tHits + tMisses == 0 ? "NaN" : "" + Math2.roundTo(tHits / (double) (tHits + tMisses), 3))
+        + ", nEvictions="
+        + evictionCount()
+        + ", nExpirations="
+        + expirationCount();
+  }
+}
@@ -534,6 +534,8 @@ public class DConnect {
       throws MalformedURLException, IOException, ParseException, DDSException, DODSException {
 
     InputStream is = openConnection(url);
+    URLConnection tConnection = connection;
+    boolean ok = false;
     DataDDS dds = new DataDDS(ver, btf);
 
     // DEBUG
@@ -566,6 +568,7 @@ public class DConnect {
       }
 
       dds.readData(is, statusUI); // read the data!
+      ok = true;
 
     } catch (Exception e) {
       String2.log("DConnect dds.parse: " + url + "\n " + e);
@@ -594,7 +597,10 @@ public class DConnect {
 
     } finally {
       is.close(); // stream is always closed even if parse() throws exception
-      if (connection instanceof HttpURLConnection) ((HttpURLConnection) connection).disconnect();
+      // If successful, don't disconnect(): that would close the socket, which Java otherwise
+      // keeps alive so that the next request to this server can reuse it.
+      if (!ok && tConnection instanceof HttpURLConnection httpConnection)
+        httpConnection.disconnect();
     }
 
     return dds;
@@ -0,0 +1,343 @@
+/*
+ * NcFileCache Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.coastwatch.griddata;
+
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import ucar.nc2.NetcdfFile;
+
+/**
+ * This keeps recently used NetcdfFiles open so that requests which read the same few files over
+ * and over (e.g., the most recent files of a popular dataset) don't have to re-open them and
+ * re-parse their headers (which is slow for NetCDF-4/HDF5 files) each time.
+ *
+ * <p>A NetcdfFile isn't thread-safe, so each open file is leased to one user at a time: acquire()
+ * returns an idle open file (or opens a new one) and Lease.close() returns it to the cache. If
+ * several threads read the same file at once, each gets its own open file.
+ *
+ * <p>Files are identified by their name, lastModified time, and size, so a file which has changed
+ * is never read via an old open file. Idle files are closed after maxIdleMillis, or when there
+ * are more than maxIdle idle files (least recently used first), or when invalidate() is called
+ * for the file (e.g., because WatchDirectory noticed that it changed). Leased files which have
+ * been invalidated are closed when they are returned.
+ *
+ * <p>Only local files which NcHelper.openFile() would open with NetcdfFiles.open() are cached
+ * (not .ncml files or remote URLs).
+ */
+public class NcFileCache {
+
+  /** The default maximum number of idle open files. */
+  public static final int DEFAULT_MAX_IDLE = 64;
+
+  /** The default number of milliseconds that an idle file is kept open. */
+  public static final long DEFAULT_MAX_IDLE_MILLIS = 60000;
+
+  private static final NcFileCache shared =
+      new NcFileCache(DEFAULT_MAX_IDLE, DEFAULT_MAX_IDLE_MILLIS);
+
+  /** This identifies a version of a file. */
+  private record Key(String fullName, long lastModified, long size) {}
+
+  /** One open file. */
+  private static final class Handle {
+    final Key key; // null if not cached
+    final NetcdfFile ncFile;
+    long idleSince; // guarded by the cache's lock
+    boolean invalid = false; // guarded by the cache's lock
+
+    Handle(Key key, NetcdfFile ncFile) {
+      this.key = key;
+      this.ncFile = ncFile;
+    }
+  }
+
+  /**
+   * A lease on an open file. Always call close() (e.g., in a finally block) when done reading the
+   * file. Don't call file().close().
+   */
+  public final class Lease implements AutoCloseable {
+    private final Handle handle;
+    private boolean released = false;
+
+    private Lease(Handle handle) {
+      this.handle = handle;
+    }
+
+    /** This returns the open file. Don't use it after calling close(). */
+    public NetcdfFile file() {
+      return handle.ncFile;
+    }
+
+    /** This returns the file to the cache. This may be called more than once. */
+    @Override
+    public void close() {
+      if (released) return;
+      released = true;
+      release(handle, false);
+    }
+
+    /**
+     * Call this instead of close() if there was trouble reading the file, so that the open file
+     * is closed instead of being reused. This may be called more than once.
+     */
+    public void discard() {
+      if (released) return;
+      released = true;
+      release(handle, true);
+    }
+  }
+
+  private final int maxIdle;
+  private final long maxIdleMillis;
+
+  // all of these are guarded by this
+  private final HashMap<Key, ArrayDeque<Handle>> idle = new HashMap<>();
+  private final LinkedHashSet<Handle> idleLru = new LinkedHashSet<>(); // oldest first
+  private final LinkedHashSet<Handle> leased = new LinkedHashSet<>();
+  private long nHits = 0;
+  private long nMisses = 0;
+  private long nEvicted = 0;
+  private long nInvalidated = 0;
+
+  /**
+   * The constructor.
+   *
+   * @param maxIdle the maximum number of idle open files (0 = don't cache)
+   * @param maxIdleMillis the maximum time that an idle file is kept open
+   */
+  public NcFileCache(int maxIdle, long maxIdleMillis) {
+    this.maxIdle = maxIdle;
+    this.maxIdleMillis = maxIdleMillis;
+  }
+
+  /** This returns the cache which is shared by ERDDAP's readers (see NcHelper.acquireFile). */
+  public static NcFileCache shared() {
+    return shared;
+  }
+
+  /**
+   * This leases an open file (from the cache or newly opened).
+   *
+   * @param fullName the file's name
+   * @return a lease on the open file. The caller must call lease.close() when done.
+   * @throws Exception if trouble opening the file
+   */
+  public Lease acquire(String fullName) throws Exception {
+    Key key = null;
+    if (maxIdle > 0 && !fullName.endsWith(".ncml") && fullName.indexOf("://") < 0) {
+      File file = new File(fullName);
+      long lastModified = file.lastModified(); // 0 if trouble
+      if (lastModified != 0) key = new Key(fullName, lastModified, file.length());
+    }
+
+    if (key != null) {
+      ArrayList<Handle> toClose = new ArrayList<>();
+      try {
+        synchronized (this) {
+          evictExpired(System.currentTimeMillis(), toClose);
+          ArrayDeque<Handle> deque = idle.get(key);
+          if (deque != null) {
+            Handle handle = deque.pollLast(); // the most recently used
+            if (deque.isEmpty()) idle.remove(key);
+            idleLru.remove(handle);
+            leased.add(handle);
+            nHits++;
+            return new Lease(handle);
+          }
+          nMisses++;
+        }
+      } finally {
+        closeAll(toClose);
+      }
+    }
+
+    // open it (not while holding the lock)
+    Handle handle = new Handle(key, NcHelper.openFile(fullName));
+    if (key != null) {
+      synchronized (this) {
+        leased.add(handle);
+      }
+    }
+    return new Lease(handle);
+  }
+
+  /** This returns a leased file to the cache (or closes it). */
+  private void release(Handle handle, boolean discard) {
+    ArrayList<Handle> toClose = new ArrayList<>();
+    if (handle.key == null) {
+      toClose.add(handle);
+    } else {
+      synchronized (this) {
+        leased.remove(handle);
+        if (discard || handle.invalid || maxIdle <= 0) {
+          toClose.add(handle);
+        } else {
+          long now = System.currentTimeMillis();
+          handle.idleSince = now;
+          idle.computeIfAbsent(handle.key, k -> new ArrayDeque<>()).addLast(handle);
+          idleLru.add(handle);
+          evictExpired(now, toClose);
+          while (idleLru.size() > maxIdle) {
+            Handle oldest = idleLru.iterator().next();
+            removeIdle(oldest);
+            toClose.add(oldest);
+            nEvicted++;
+          }
+        }
+      }
+    }
+    closeAll(toClose);
+  }
+
+  /** This removes an idle handle from idle and idleLru. The caller must hold the lock. */
+  private void removeIdle(Handle handle) {
+    idleLru.remove(handle);
+    ArrayDeque<Handle> deque = idle.get(handle.key);
+    if (deque != null) {
+      deque.remove(handle);
+      if (deque.isEmpty()) idle.remove(handle.key);
+    }
+  }
+
+  /** This removes the idle handles which have expired. The caller must hold the lock. */
+  private void evictExpired(long now, ArrayList<Handle> toClose) {
+    while (!idleLru.isEmpty()) {
+      Handle oldest = idleLru.iterator().next();
+      if (now - oldest.idleSince < maxIdleMillis) break; // the others are newer
+      removeIdle(oldest);
+      toClose.add(oldest);
+      nEvicted++;
+    }
+  }
+
+  private static void closeAll(ArrayList<Handle> toClose) {
+    for (Handle handle : toClose) {
+      try {
+        handle.ncFile.close();
+      } catch (Throwable t) {
+        String2.log("Caught: " + MustBe.throwableToString(t));
+      }
+    }
+  }
+
+  /** This closes the idle files which have been idle for more than maxIdleMillis. */
+  public void evictExpired() {
+    ArrayList<Handle> toClose = new ArrayList<>();
+    synchronized (this) {
+      evictExpired(System.currentTimeMillis(), toClose);
+    }
+    closeAll(toClose);
+  }
+
+  /**
+   * This closes the idle open files (and marks the leased open files, so they are closed when
+   * returned) for any version of fullName (e.g., because it has been changed or deleted).
+   *
+   * @param fullName the file's name
+   */
+  public void invalidate(String fullName) {
+    ArrayList<Handle> toClose = new ArrayList<>();
+    synchronized (this) {
+      for (Handle handle : new ArrayList<>(idleLru)) {
+        if (handle.key.fullName().equals(fullName)) {
+          removeIdle(handle);
+          toClose.add(handle);
+          nInvalidated++;
+        }
+      }
+      for (Handle handle : leased) {
+        if (handle.key.fullName().equals(fullName)) {
+          handle.invalid = true;
+          nInvalidated++;
+        }
+      }
+    }
+    closeAll(toClose);
+  }
+
+  /** This closes all the idle open files and marks the leased ones to be closed when returned. */
+  public void clear() {
+    ArrayList<Handle> toClose = new ArrayList<>();
+    synchronized (this) {
+      toClose.addAll(idleLru);
+      idleLru.clear();
+      idle.clear();
+      for (Handle handle : leased) handle.invalid = true;
+    }
+    closeAll(toClose);
+  }
+
+  /** This returns the number of idle open files. */
+  public synchronized int nIdle() {
+    return idleLru.size();
+  }
+
+  /** This returns the number of (cacheable) open files which are currently leased. */
+  public synchronized int nLeased() {
+    return leased.size();
+  }
+
+  /** This returns the number of acquire() calls which reused an open file. */
+  public synchronized long nHits() {
+    return nHits;
+  }
+
+  /** This returns the number of acquire() calls for cacheable files which had to open the file. */
+  public synchronized long nMisses() {
+    return nMisses;
+  }
+
+  /** This returns the number of idle open files which were closed because of age or maxIdle. */
+  public synchronized long nEvicted() {
+    return nEvicted;
+  }
+
+  /** This returns the number of open files which were closed because of invalidate(). */
+  public synchronized long nInvalidated() {
+    return nInvalidated;
+  }
+
+  /**
+   * This returns the number of open file descriptors of this process (or -1 if not available, e.g.,
+   * on Windows).
+   */
+  public static long nOpenFileDescriptors() {
+    OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    return os instanceof com.sun.management.UnixOperatingSystemMXBean unix
+        ? unix.getOpenFileDescriptorCount()
+        : -1;
+  }
+
+  /** This returns a one line summary of the statistics. */
+  public synchronized String statsString() {
+    long tLookups = nHits + nMisses;
+    return "NcFileCache: nIdle="
+        + idleLru.size()
+        + " (max "
+        + maxIdle
+        + "), nLeased="
+        + leased.size()
+        + ", nHits="
+        + nHits
+        + ", nMisses="
+        + nMisses
+        + ", hitRate="
+        + (tLookups == 0 ? "NaN" : "" + Math2.roundTo(nHits / (double) tLookups, 3))
+        + ", nEvicted="
+        + nEvicted
+        + ", nInvalidated="
+        + nInvalidated
+        + ", processOpenFileDescriptors="
+        + nOpenFileDescriptors();
+  }
+}
@@ -807,6 +807,20 @@ public class NcHelper {
         NetcdfFiles.open(fullName); // 's' is the new API
   }
 
+  /**
+   * This is like openFile(), but gets an already open file from NcFileCache.shared() (if
+   * possible). NetcdfFiles aren't thread-safe, so the file is only used by the caller until
+   * lease.close() is called. Don't call lease.file().close().
+   *
+   * @param fullName the full name of the file
+   * @return a lease on the open file. The caller must call lease.close() (e.g., in a finally
+   *     block) when done reading the file.
+   * @throws Exception if trouble
+   */
+  public static NcFileCache.Lease acquireFile(String fullName) throws Exception {
+    return NcFileCache.shared().acquire(fullName);
+  }
+
   /**
    * This converts a List&lt;variable&gt; to a Variable[].
    *
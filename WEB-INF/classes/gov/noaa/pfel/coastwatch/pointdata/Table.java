@@ -10,6 +10,7 @@ import dods.dap.*;
 import gov.noaa.pfel.coastwatch.griddata.DataHelper;
 import gov.noaa.pfel.coastwatch.griddata.FileNameUtility;
 import gov.noaa.pfel.coastwatch.griddata.Matlab;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
 import gov.noaa.pfel.coastwatch.pointdata.parquet.ParquetWriterBuilder;
@@ -67,10 +68,16 @@ import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.parquet.ParquetReadOptions;
+import org.apache.parquet.column.ColumnDescriptor;
+import org.apache.parquet.column.ColumnReader;
+import org.apache.parquet.column.impl.ColumnReadStoreImpl;
 import org.apache.parquet.column.page.PageReadStore;
+import org.apache.parquet.column.statistics.Statistics;
 import org.apache.parquet.example.data.simple.convert.GroupRecordConverter;
 import org.apache.parquet.hadoop.ParquetFileReader;
 import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.BlockMetaData;
+import org.apache.parquet.hadoop.metadata.ColumnChunkMetaData;
 import org.apache.parquet.hadoop.metadata.CompressionCodecName;
 import org.apache.parquet.io.ColumnIOFactory;
 import org.apache.parquet.io.InputFile;
@@ -78,6 +85,7 @@ import org.apache.parquet.io.LocalInputFile;
 import org.apache.parquet.io.LocalOutputFile;
 import org.apache.parquet.io.MessageColumnIO;
 import org.apache.parquet.io.RecordReader;
+import org.apache.parquet.io.api.Binary;
 import org.apache.parquet.schema.LogicalTypeAnnotation;
 import org.apache.parquet.schema.LogicalTypeAnnotation.TimeUnit;
 import org.apache.parquet.schema.MessageType;
@@ -114,6 +122,14 @@ public class Table {
     double round(Double value) throws Exception;
   }
 
+  /**
+   * This receives the batches of rows from readNccsvInBatches. accept() returns false if it doesn't
+   * want any more batches.
+   */
+  public static interface BatchConsumer {
+    boolean accept(Table batch) throws Throwable;
+  }
+
   private static interface WithColumnNames {
     void apply(String[] columnNames) throws Exception;
   }
@@ -3460,8 +3476,87 @@ public class Table {
    * @throws SimpleException if trouble (but doesn't close the reader)
    */
   public void lowReadNccsv(String fullName, boolean readData, BufferedReader reader) {
+    try {
+      lowReadNccsv(fullName, readData, reader, Integer.MAX_VALUE, null);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) { // shouldn't happen: only a batchConsumer throws checked exceptions
+      throw new RuntimeException(t);
+    }
+  }
+
+  /**
+   * This reads the data section of an NCCSV .csv file in batches of up to nRowsPerBatch rows and
+   * passes each batch to batchConsumer as soon as it is complete, so the whole file never has to be
+   * in memory at once (e.g., for a huge response from a remote ERDDAP). Each batch is a new Table
+   * with its own copy of the metadata, with the *SCALAR* columns expanded to the batch's size.
+   * When this returns, this table has the metadata and 0 rows of data.
+   *
+   * @param fullName for error messages only
+   * @param reader from a file or URL
+   * @param nRowsPerBatch the maximum number of rows in each batch
+   * @param batchConsumer receives each batch (with 1 or more rows). If it returns false, no more
+   *     data is read.
+   * @return the total number of rows of data passed to batchConsumer
+   * @throws Throwable if trouble reading the file (a SimpleException) or whatever batchConsumer
+   *     threw (unchanged). This doesn't close the reader.
+   */
+  public long readNccsvInBatches(
+      String fullName, BufferedReader reader, int nRowsPerBatch, BatchConsumer batchConsumer)
+      throws Throwable {
+    return lowReadNccsv(fullName, true, reader, Math.max(1, nRowsPerBatch), batchConsumer);
+  }
+
+  /**
+   * This passes the rows of data read so far to batchConsumer and replaces this table's data
+   * columns with new empty columns.
+   *
+   * @param dpa the data columns (these are replaced by the new empty columns)
+   * @param dpaCol the column number of each of the data columns
+   * @return what batchConsumer returned
+   */
+  private boolean sendNccsvBatch(PrimitiveArray dpa[], int dpaCol[], BatchConsumer batchConsumer)
+      throws Throwable {
+    int nRows = dpa[0].size();
+    int nc = nColumns();
+    PrimitiveArray batchColumns[] = new PrimitiveArray[nc];
+    for (int dcol = 0; dcol < dpa.length; dcol++) {
+      batchColumns[dpaCol[dcol]] = dpa[dcol];
+      dpa[dcol] = PrimitiveArray.factory(dpa[dcol].elementType(), nRows, false);
+      setColumn(dpaCol[dcol], dpa[dcol]);
+    }
+    Table batch = new Table();
+    batch.globalAttributes().set(globalAttributes);
+    for (int col = 0; col < nc; col++)
+      batch.addColumn(
+          col,
+          getColumnName(col),
+          batchColumns[col] == null
+              ? (PrimitiveArray) columns.get(col).clone() // a *SCALAR*
+              : batchColumns[col],
+          (Attributes) columnAttributes.get(col).clone());
+    batch.ensureColumnsAreSameSize_LastValue(); // expand scalars
+    return batchConsumer.accept(batch);
+  }
+
+  /**
+   * This is the lowReadNccsv which optionally passes the data to batchConsumer in batches.
+   *
+   * @param nRowsPerBatch the maximum number of rows in each batch (ignored if batchConsumer is
+   *     null)
+   * @param batchConsumer if null, all the data is read into this table
+   * @return the total number of rows of data
+   */
+  private long lowReadNccsv(
+      String fullName,
+      boolean readData,
+      BufferedReader reader,
+      int nRowsPerBatch,
+      BatchConsumer batchConsumer)
+      throws Throwable {
     long time = System.currentTimeMillis();
     long lineNumber = 0;
+    boolean inBatchConsumer = false;
     clear();
     String conventionsNotFound =
         String2.NCCSV_GLOBAL + ",Conventions,\"..., NCCSV-...\" not found on line 1.";
@@ -3551,7 +3646,7 @@ public class Table {
       }
 
       // don't readData?
-      if (!readData) return;
+      if (!readData) return 0;
 
       // read the column names in the data section
       s = reader.readLine();
@@ -3563,6 +3658,7 @@ public class Table {
       sa.fromNccsv(); // un enquote any quoted strings
       int nDataCol = sa.size();
       PrimitiveArray dpa[] = new PrimitiveArray[nDataCol]; // so fast below
+      int dpaCol[] = new int[nDataCol];
       boolean dpaIsLongArray[] = new boolean[nDataCol];
       boolean dpaIsULongArray[] = new boolean[nDataCol];
       boolean dpaIsCharArray[] = new boolean[nDataCol];
@@ -3578,6 +3674,7 @@ public class Table {
                   + varName
                   + ". *DATA_TYPE* must be specified.");
         dpa[dcol] = columns.get(col);
+        dpaCol[dcol] = col;
         // is this a scalar column?!
         if (dpa[dcol].size() == 1)
           throw new SimpleException(
@@ -3599,6 +3696,7 @@ public class Table {
 
       // read the data
       StringBuilder warnings = new StringBuilder();
+      long nRowsSent = 0;
       while ((s = reader.readLine()) != null) {
         lineNumber++;
         if (s.startsWith(String2.NCCSV_END_DATA)) // extra commas are ignored
@@ -3639,6 +3737,13 @@ public class Table {
           // String2.log(">> dcol=" + dcol + " " + dpa[dcol].elementType() + " ts=" + ts + " -> " +
           // dpa[dcol].getString(dpa[dcol].size() - 1));
         }
+        if (batchConsumer != null && dpa[0].size() >= nRowsPerBatch) {
+          nRowsSent += dpa[0].size();
+          inBatchConsumer = true;
+          boolean more = sendNccsvBatch(dpa, dpaCol, batchConsumer);
+          inBatchConsumer = false;
+          if (!more) break;
+        }
       }
       // if (s == null)  //NCCSV_END_DATA now optional
       //    throw new SimpleException(String2.NCCSV_END_DATA + NOT_FOUND_EOF);
@@ -3647,8 +3752,20 @@ public class Table {
         String2.log(
             WARNING_BAD_LINE_OF_DATA_IN + "readNccsv(" + fullName + "):\n" + warnings.toString());
 
-      // expand scalars
-      ensureColumnsAreSameSize_LastValue();
+      long nRowsTotal;
+      if (batchConsumer == null) {
+        // expand scalars
+        ensureColumnsAreSameSize_LastValue();
+        nRowsTotal = nRows();
+      } else {
+        if (dpa[0].size() > 0) {
+          nRowsSent += dpa[0].size();
+          inBatchConsumer = true;
+          sendNccsvBatch(dpa, dpaCol, batchConsumer);
+          inBatchConsumer = false;
+        }
+        nRowsTotal = nRowsSent;
+      }
 
       String2.log(
           "readNccsv("
@@ -3656,12 +3773,14 @@ public class Table {
               + ") finished successfully.  nColumns="
               + nColumns()
               + " nRows="
-              + nRows()
+              + nRowsTotal
               + " time="
               + (System.currentTimeMillis() - time)
               + "ms");
+      return nRowsTotal;
 
     } catch (Exception e) {
+      if (inBatchConsumer) throw e;
       String2.log(MustBe.throwableToString(e));
       throw new SimpleException(
           String2.ERROR
@@ -5629,7 +5748,8 @@ public class Table {
     String msg = "  Table.readFlatNc " + fullName;
     long time = System.currentTimeMillis();
     Attributes gridMappingAtts = null;
-    NetcdfFile netcdfFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile netcdfFile = lease.file();
     try {
       Variable loadVariables[] = NcHelper.findVariables(netcdfFile, loadColumns);
 
@@ -5669,9 +5789,12 @@ public class Table {
                 + " TIME="
                 + (System.currentTimeMillis() - time)
                 + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (netcdfFile != null) netcdfFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -5695,7 +5818,8 @@ public class Table {
     String msg = "  Table.readNcMetadata " + fullName;
     long time = System.currentTimeMillis();
     Attributes gridMappingAtts = null;
-    NetcdfFile netcdfFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile netcdfFile = lease.file();
     try {
       // fill the table
       clear();
@@ -5741,9 +5865,12 @@ public class Table {
                 + " TIME="
                 + (System.currentTimeMillis() - time)
                 + "ms";
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (netcdfFile != null) netcdfFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -5827,7 +5954,8 @@ public class Table {
     // read the scalar variables
     // getGridMappingAtts() handled by lowReadFlatNc above
     int insertAt = 0;
-    NetcdfFile netcdfFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile netcdfFile = lease.file();
     try {
       Group rootGroup = netcdfFile.getRootGroup();
       List rootGroupVariables = rootGroup.getVariables();
@@ -5873,9 +6001,12 @@ public class Table {
                 + " TIME="
                 + (System.currentTimeMillis() - time)
                 + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (netcdfFile != null) netcdfFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -5919,7 +6050,8 @@ public class Table {
     String errorInMethod = String2.ERROR + " in" + msg;
     // get information
     Attributes gridMappingAtts = null;
-    NetcdfFile ncFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile ncFile = lease.file();
     try {
       Variable loadVariables[] = NcHelper.find4DVariables(ncFile, loadColumns);
 
@@ -6068,9 +6200,12 @@ public class Table {
                 + " TIME="
                 + (System.currentTimeMillis() - time)
                 + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -6134,7 +6269,8 @@ public class Table {
     // get information
     Attributes gridMappingAtts = null;
     StringArray varsNotFound = new StringArray();
-    NetcdfFile ncFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile ncFile = lease.file();
     try {
       // load the global metadata
       NcHelper.getGroupAttributes(ncFile.getRootGroup(), globalAttributes());
@@ -6507,9 +6643,12 @@ public class Table {
                 + " time="
                 + (System.currentTimeMillis() - time)
                 + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -6899,7 +7038,8 @@ public class Table {
 
     Attributes gridMappingAtts = null;
     String readAs = null;
-    NetcdfFile ncFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile ncFile = lease.file();
     try {
       /*
       //2012-07 CURRENTLY THE NETCDF-JAVA featureDataset APPROACH ISN'T WORKING.
@@ -6969,7 +7109,7 @@ public class Table {
       // deal with pointType
       if (pointType) {
         if (ncCFcc != null) ncCFcc.set(1);
-        ncFile.close();
+        lease.close();
         if (debugMode) msg += "PointType.  loadVars=" + loadVariableNames + "\n";
         StringArray loadCon = new StringArray(loadVariableNames);
         if (loadCon.size() > 0) // if loadVars specified, then add conNames
@@ -7306,7 +7446,7 @@ public class Table {
         if (nLevels == 1) {
           if (debugMode) String2.log("  Debug: nLevels=1, outerDim=scalarDim, read via readNDNc");
           if (ncCFcc != null) ncCFcc.set(20);
-          ncFile.close();
+          lease.close();
           StringArray loadCon = new StringArray(loadVariableNames);
           if (loadCon.size() > 0) // if loadVars specified, then add conNames
           loadCon.append(conNames);
@@ -9021,9 +9161,12 @@ public class Table {
                 + " time="
                 + (System.currentTimeMillis() - time)
                 + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -9056,7 +9199,8 @@ public class Table {
     if (colNames == null) colNames = new StringArray(1, false);
     // String2.log(NcHelper.ncdump(fullName, "-h"));
     Attributes gridMappingAtts = null;
-    NetcdfFile ncFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    NetcdfFile ncFile = lease.file();
     try {
 
       NcHelper.getGroupAttributes(ncFile.getRootGroup(), globalAttributes());
@@ -9299,7 +9443,7 @@ public class Table {
         }
 
         if (done) {
-          ncFile.close();
+          lease.close();
           outerTable.justKeep(keepOuter);
           outerTable.reorderColumns(colNames, true);
           outerTable.decodeCharsAndStrings();
@@ -9494,9 +9638,12 @@ public class Table {
                 + " time="
                 + (System.currentTimeMillis() - time)
                 + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -13065,31 +13212,9 @@ public class Table {
     }
 
     // interval
-    if (numberTimeUnits == null || numberTimeUnits.length != 2)
-      throw new IllegalArgumentException(
-          QUERY_ERROR + "orderByClosest: numberTimeUnits.length must be 2.");
-    if (!Double.isFinite(numberTimeUnits[0]) || !Double.isFinite(numberTimeUnits[1]))
-      throw new IllegalArgumentException(
-          QUERY_ERROR + "orderByClosest: numberTimeUnits values can't be NaNs.");
-    if (numberTimeUnits[0] <= 0 || numberTimeUnits[1] <= 0)
-      throw new IllegalArgumentException(
-          QUERY_ERROR + "orderByClosest: numberTimeUnits values must be positive numbers.");
+    int field = orderByClosestField(numberTimeUnits);
     double simpleInterval = numberTimeUnits[0] * numberTimeUnits[1];
-    int field =
-        numberTimeUnits[1] == 30 * Calendar2.SECONDS_PER_DAY
-            ? Calendar2.MONTH
-            : numberTimeUnits[1] == 360 * Calendar2.SECONDS_PER_DAY
-                ? Calendar2.YEAR
-                : // but see getYear below
-                Integer.MAX_VALUE;
     int intNumber = Math2.roundToInt(numberTimeUnits[0]); // used for Month and Year
-    if (field != Integer.MAX_VALUE && (intNumber < 1 || intNumber != numberTimeUnits[0]))
-      throw new IllegalArgumentException(
-          QUERY_ERROR
-              + "orderByClosest: The number of months or years must be a positive integer.");
-    if (field == Calendar2.MONTH && intNumber > 6)
-      throw new IllegalArgumentException(
-          QUERY_ERROR + "orderByClosest: The number of months must be 1 ... 6.");
 
     // handle missing_value and _FillValue
     boolean someConverted = temporarilyConvertToStandardMissingValues(keyColumns);
@@ -13144,43 +13269,8 @@ public class Table {
 
       } else { // month or year
         // month
-
-        // prev
-        // Finding floor is hard because of BC time and YEAR field being year within era
-        //  (so I using getYear(gc) not gc.get(YEAR))
-        // I'm sure there is a more efficient way, but this is quick, easy, correct.
-        // This is only inefficient when intNumber is big which is unlikely for month and year.
-        GregorianCalendar gc = Calendar2.epochSecondsToGc(prevRT);
-        Calendar2.clearSmallerFields(gc, field);
-        while ((field == Calendar2.YEAR ? Calendar2.getYear(gc) : gc.get(field)) % intNumber != 0
-            || Calendar2.gcToEpochSeconds(gc) > prevRT) gc.add(field, -1);
-        double prevFloor = Calendar2.gcToEpochSeconds(gc);
-        gc.add(field, intNumber);
-        double prevCeil = Calendar2.gcToEpochSeconds(gc);
-        // < vs <= is arbitrary
-        double prevClosest =
-            Math.abs(prevRT - prevFloor) < Math.abs(prevRT - prevCeil) ? prevFloor : prevCeil;
-
-        // this
-        gc = Calendar2.epochSecondsToGc(thisRT);
-        Calendar2.clearSmallerFields(gc, field);
-        // String2.log(">> YEAR=" + Calendar2.getYear(gc));
-        while ((field == Calendar2.YEAR ? Calendar2.getYear(gc) : gc.get(field)) % intNumber != 0
-            || Calendar2.gcToEpochSeconds(gc) > thisRT) gc.add(field, -1);
-        double thisFloor = Calendar2.gcToEpochSeconds(gc);
-        if (debugMode)
-          String2.log(
-              ">> this="
-                  + Calendar2.safeEpochSecondsToIsoStringTZ(thisRT, "")
-                  + " floor="
-                  + Calendar2.safeEpochSecondsToIsoStringTZ(thisFloor, "")
-                  + " YEAR="
-                  + Calendar2.getYear(gc));
-        gc.add(field, intNumber);
-        double thisCeil = Calendar2.gcToEpochSeconds(gc);
-        // < vs <= is arbitrary
-        double thisClosest =
-            Math.abs(thisRT - thisFloor) < Math.abs(thisRT - thisCeil) ? thisFloor : thisCeil;
+        double prevClosest = orderByClosestCalendar(prevRT, field, intNumber);
+        double thisClosest = orderByClosestCalendar(thisRT, field, intNumber);
 
         // if prev and this resolve to different roundTo, continue to next row
         if (prevClosest != thisClosest) continue;
@@ -13198,6 +13288,69 @@ public class Table {
     if (someConverted) temporarilySwitchNaNToFakeMissingValues(keyColumns);
   }
 
+  /**
+   * This checks orderByClosest's numberTimeUnits.
+   *
+   * @param numberTimeUnits e.g., 10 minutes is represented as [numer=10, timeUnits=60]
+   * @return Calendar2.MONTH or Calendar2.YEAR if the interval is a number of months or years (which
+   *     are handled as calendar months and years), else Integer.MAX_VALUE (a simple interval)
+   * @throws IllegalArgumentException if trouble
+   */
+  public static int orderByClosestField(double numberTimeUnits[]) {
+    if (numberTimeUnits == null || numberTimeUnits.length != 2)
+      throw new IllegalArgumentException(
+          QUERY_ERROR + "orderByClosest: numberTimeUnits.length must be 2.");
+    if (!Double.isFinite(numberTimeUnits[0]) || !Double.isFinite(numberTimeUnits[1]))
+      throw new IllegalArgumentException(
+          QUERY_ERROR + "orderByClosest: numberTimeUnits values can't be NaNs.");
+    if (numberTimeUnits[0] <= 0 || numberTimeUnits[1] <= 0)
+      throw new IllegalArgumentException(
+          QUERY_ERROR + "orderByClosest: numberTimeUnits values must be positive numbers.");
+    int field =
+        numberTimeUnits[1] == 30 * Calendar2.SECONDS_PER_DAY
+            ? Calendar2.MONTH
+            : numberTimeUnits[1] == 360 * Calendar2.SECONDS_PER_DAY
+                ? Calendar2.YEAR
+                : // but see getYear below
+                Integer.MAX_VALUE;
+    int intNumber = Math2.roundToInt(numberTimeUnits[0]); // used for Month and Year
+    if (field != Integer.MAX_VALUE && (intNumber < 1 || intNumber != numberTimeUnits[0]))
+      throw new IllegalArgumentException(
+          QUERY_ERROR
+              + "orderByClosest: The number of months or years must be a positive integer.");
+    if (field == Calendar2.MONTH && intNumber > 6)
+      throw new IllegalArgumentException(
+          QUERY_ERROR + "orderByClosest: The number of months must be 1 ... 6.");
+    return field;
+  }
+
+  /**
+   * For orderByClosest with an interval of months or years, this finds the start of the interval
+   * closest to a time.
+   *
+   * @param epochSeconds a finite time
+   * @param field Calendar2.MONTH or Calendar2.YEAR (from orderByClosestField)
+   * @param intNumber the number of months or years
+   * @return the closest start of an interval (in epochSeconds)
+   * @throws Exception if trouble
+   */
+  public static double orderByClosestCalendar(double epochSeconds, int field, int intNumber)
+      throws Exception {
+    // Finding floor is hard because of BC time and YEAR field being year within era
+    //  (so I using getYear(gc) not gc.get(YEAR))
+    // I'm sure there is a more efficient way, but this is quick, easy, correct.
+    // This is only inefficient when intNumber is big which is unlikely for month and year.
+    GregorianCalendar gc = Calendar2.epochSecondsToGc(epochSeconds);
+    Calendar2.clearSmallerFields(gc, field);
+    while ((field == Calendar2.YEAR ? Calendar2.getYear(gc) : gc.get(field)) % intNumber != 0
+        || Calendar2.gcToEpochSeconds(gc) > epochSeconds) gc.add(field, -1);
+    double floor = Calendar2.gcToEpochSeconds(gc);
+    gc.add(field, intNumber);
+    double ceil = Calendar2.gcToEpochSeconds(gc);
+    // < vs <= is arbitrary
+    return Math.abs(epochSeconds - floor) < Math.abs(epochSeconds - ceil) ? floor : ceil;
+  }
+
   /**
    * This sorts the table by keyColumns (all ascending) then, for each block where the nKeyColumns-1
    * values are constant, makes just one row with the count of all non-NaN, non-missingValue,
@@ -15957,7 +16110,38 @@ public class Table {
   public void readParquet(
       String fullFileName, StringArray colNames, String[] colTypes, boolean simplify)
       throws Exception {
+    readParquet(fullFileName, colNames, colTypes, simplify, null, null, null);
+  }
+
+  /**
+   * This reads a table from a parquet file. If colNames and colTypes are specified and the
+   * requested columns are simple (not repeated or nested) columns, this just reads those columns,
+   * column by column, straight into PrimitiveArrays, and skips row groups whose statistics show
+   * that they don't have any rows which match the constraints. Otherwise, this reads all the
+   * columns row by row.
+   *
+   * @param conVars the source names of the constrained variables (or null). The constraints are
+   *     just used to skip row groups, so the results may still have rows which don't match them.
+   * @param conOps the constraint operators (or null)
+   * @param conValues the constraint values (or null)
+   * @throws Exception if serious trouble
+   */
+  public void readParquet(
+      String fullFileName,
+      StringArray colNames,
+      String[] colTypes,
+      boolean simplify,
+      StringArray conVars,
+      StringArray conOps,
+      StringArray conValues)
+      throws Exception {
     clear();
+    if (colNames != null
+        && colTypes != null
+        && readParquetColumns(fullFileName, colNames, colTypes, conVars, conOps, conValues)) {
+      reorderColumns(colNames, false);
+      return;
+    }
     InputFile parquetFile = new LocalInputFile(java.nio.file.Path.of(fullFileName));
     ParquetFileReader fileReader =
         new ParquetFileReader(parquetFile, ParquetReadOptions.builder().build());
@@ -16092,6 +16276,404 @@ public class Table {
     }
   }
 
+  /**
+   * This finds the requested fields in a parquet file's schema.
+   *
+   * @return the requested fields (in file order), or null if any of them isn't a simple (not
+   *     repeated or nested) column which readParquetColumns can read.
+   */
+  private static List<Type> requestedParquetFields(MessageType schema, StringArray colNames) {
+    List<Type> requested = new ArrayList<>();
+    for (Type field : schema.getFields()) {
+      if (colNames.indexOf(parquetColumnName(field)) < 0) continue;
+      if (!isSimpleParquetField(field)) return null;
+      requested.add(field);
+    }
+    return requested;
+  }
+
+  private static boolean isSimpleParquetField(Type field) {
+    return field.isPrimitive()
+        && !field.isRepetition(Type.Repetition.REPEATED)
+        && field.asPrimitiveType().getPrimitiveTypeName() != PrimitiveTypeName.INT96;
+  }
+
+  private static String parquetColumnName(Type field) {
+    String name = field.getName();
+    return name.equals("null") ? "" : name;
+  }
+
+  /**
+   * This returns true if the row groups' statistics show that every row has a value (not null) in
+   * at least one column, so the row by row reader wouldn't drop any rows.
+   */
+  private static boolean parquetRowsAreNeverEmpty(
+      MessageType schema, List<BlockMetaData> rowGroups) {
+    for (Type field : schema.getFields())
+      if (field.isPrimitive() && field.isRepetition(Type.Repetition.REQUIRED)) return true;
+    for (BlockMetaData block : rowGroups) {
+      boolean found = false;
+      for (ColumnChunkMetaData chunk : block.getColumns()) {
+        Statistics stats = chunk.getStatistics();
+        if (chunk.getPath().size() == 1
+            && stats != null
+            && !stats.isEmpty()
+            && stats.isNumNullsSet()
+            && stats.getNumNulls() == 0) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) return false;
+    }
+    return true;
+  }
+
+  /**
+   * This reads the requested columns of a parquet file column by column (see readParquet). The
+   * results are the same as from the row by row reader: null values and the string "null" become
+   * "", and rows where all of the file's columns are null are dropped. If some rows may be empty,
+   * the other columns are read too (just their definition levels) to find those rows.
+   *
+   * @return false (and nothing was read) if a requested column isn't a simple column (or if some
+   *     rows may be empty and one of the other columns isn't a simple column), so the file must be
+   *     read row by row.
+   */
+  private boolean readParquetColumns(
+      String fullFileName,
+      StringArray colNames,
+      String[] colTypes,
+      StringArray conVars,
+      StringArray conOps,
+      StringArray conValues)
+      throws Exception {
+    InputFile parquetFile = new LocalInputFile(java.nio.file.Path.of(fullFileName));
+    try (ParquetFileReader fileReader =
+        new ParquetFileReader(parquetFile, ParquetReadOptions.builder().build())) {
+      MessageType schema = fileReader.getFileMetaData().getSchema();
+      List<Type> requested = requestedParquetFields(schema, colNames);
+      if (requested == null) return false;
+      boolean findEmptyRows = !parquetRowsAreNeverEmpty(schema, fileReader.getRowGroups());
+      if (findEmptyRows) {
+        // read all of the columns (in file order)
+        for (Type field : schema.getFields()) if (!isSimpleParquetField(field)) return false;
+        requested = schema.getFields();
+      }
+      MessageType projection = new MessageType(schema.getName(), requested);
+      fileReader.setRequestedSchema(projection);
+
+      int nCols = requested.size();
+      PrimitiveArray pas[] = new PrimitiveArray[nCols]; // null if just looking for empty rows
+      boolean isBoolean[] = new boolean[nCols];
+      List<PrimitiveArray> columns = new ArrayList<>();
+      for (int c = 0; c < nCols; c++) {
+        String name = parquetColumnName(requested.get(c));
+        int which = colNames.indexOf(name);
+        if (which < 0) continue;
+        pas[c] = PrimitiveArray.factory(PAType.fromCohortString(colTypes[which]), 8, false);
+        isBoolean[c] = "boolean".equals(colTypes[which]);
+        addColumn(name, pas[c]);
+        columns.add(pas[c]);
+      }
+
+      // the numeric constraints which can be tested with row group statistics
+      StringArray pruneVars = new StringArray();
+      StringArray pruneOps = new StringArray();
+      DoubleArray pruneValues = new DoubleArray();
+      int nCon = conVars == null ? 0 : conVars.size();
+      for (int con = 0; con < nCon; con++) {
+        String op = conOps.get(con);
+        double value = String2.parseDouble(conValues.get(con));
+        if (Double.isNaN(value)
+            || !(op.equals("=")
+                || op.equals("<")
+                || op.equals("<=")
+                || op.equals(">")
+                || op.equals(">="))) continue;
+        if (!schema.containsField(conVars.get(con))) continue;
+        Type field = schema.getType(conVars.get(con));
+        if (!isPrunableParquetType(field)) continue;
+        pruneVars.add(conVars.get(con));
+        pruneOps.add(op);
+        pruneValues.add(value);
+      }
+
+      String createdBy = fileReader.getFileMetaData().getCreatedBy();
+      StringBuilder warnings = new StringBuilder();
+      int nSkipped = 0;
+      BitSet notEmpty = findEmptyRows ? new BitSet() : null; // rows in this row group
+      for (BlockMetaData block : fileReader.getRowGroups()) {
+        if (parquetRowGroupCantMatch(block, pruneVars, pruneOps, pruneValues)) {
+          fileReader.skipNextRowGroup();
+          nSkipped++;
+          continue;
+        }
+        PageReadStore pages = fileReader.readNextRowGroup();
+        if (pages == null) break;
+        int oldNRows = nRows();
+        try {
+          ColumnReadStoreImpl store =
+              new ColumnReadStoreImpl(
+                  pages,
+                  new GroupRecordConverter(projection).getRootConverter(),
+                  projection,
+                  createdBy);
+          if (notEmpty != null) notEmpty.clear();
+          for (int c = 0; c < nCols; c++)
+            readParquetColumn(
+                store.getColumnReader(projection.getColumns().get(c)),
+                pas[c],
+                isBoolean[c],
+                notEmpty);
+
+          // drop the empty rows (like the row by row reader)
+          int nNewRows = nRows() - oldNRows;
+          if (notEmpty != null && notEmpty.cardinality() < nNewRows) {
+            BitSet keep = new BitSet();
+            keep.set(0, oldNRows);
+            for (int i = notEmpty.nextSetBit(0); i >= 0; i = notEmpty.nextSetBit(i + 1))
+              keep.set(oldNRows + i);
+            for (PrimitiveArray pa : columns) pa.justKeep(keep);
+          }
+        } catch (Exception e) {
+          warnings.append("  rowIndex #" + pages.getRowIndexes() + ": " + e.getMessage() + "\n");
+          for (PrimitiveArray pa : columns) pa.removeRange(oldNRows, pa.size());
+        }
+      }
+      if (warnings.length() > 0)
+        String2.log(
+            WARNING_BAD_LINE_OF_DATA_IN
+                + "readParquet("
+                + fullFileName
+                + "):\n"
+                + warnings.toString());
+      if (reallyVerbose && nSkipped > 0)
+        String2.log(
+            "  readParquet skipped "
+                + nSkipped
+                + " of "
+                + fileReader.getRowGroups().size()
+                + " row groups");
+    }
+    return true;
+  }
+
+  /**
+   * This reads all of the values of one simple column in a row group. The values are converted
+   * like readParquet's row by row reader does (e.g., null values and "null" are added as "").
+   *
+   * @param pa receives the values. If null, the values aren't kept.
+   * @param notEmpty if not null, this sets the bits of the rows which have a (not null) value.
+   */
+  private static void readParquetColumn(
+      ColumnReader reader, PrimitiveArray pa, boolean isBoolean, BitSet notEmpty) {
+    ColumnDescriptor descriptor = reader.getDescriptor();
+    int maxDefinitionLevel = descriptor.getMaxDefinitionLevel();
+    PrimitiveTypeName typeName = descriptor.getPrimitiveType().getPrimitiveTypeName();
+    boolean paIsFloat = pa != null && pa.elementType() == PAType.FLOAT;
+    long n = reader.getTotalValueCount();
+    for (long i = 0; i < n; i++) {
+      if (reader.getCurrentDefinitionLevel() < maxDefinitionLevel) {
+        if (pa != null) pa.addString(""); // null
+      } else {
+        if (notEmpty != null) notEmpty.set(Math2.narrowToInt(i));
+        if (pa == null) {
+          reader.skip();
+        } else {
+          switch (typeName) {
+            case BOOLEAN -> {
+              boolean b = reader.getBoolean();
+              if (isBoolean) pa.addInt(b ? 1 : 0);
+              else pa.addString(b ? "true" : "false");
+            }
+            case INT32 -> pa.addInt(reader.getInteger());
+            case INT64 -> pa.addLong(reader.getLong());
+            case FLOAT -> {
+              float f = reader.getFloat();
+              if (paIsFloat) pa.addFloat(f);
+              else pa.addString(Float.toString(f)); // so e.g., 0.1f -> 0.1 (not 0.10000000149...)
+            }
+            case DOUBLE -> pa.addDouble(reader.getDouble());
+            default -> {
+              String value = reader.getBinary().toStringUsingUTF8();
+              pa.addString(value.equals("null") ? "" : value);
+            }
+          }
+        }
+      }
+      reader.consume();
+    }
+  }
+
+  /** This returns true if the field's row group statistics can be compared to numbers. */
+  private static boolean isPrunableParquetType(Type field) {
+    if (!field.isPrimitive() || field.isRepetition(Type.Repetition.REPEATED)) return false;
+    PrimitiveTypeName typeName = field.asPrimitiveType().getPrimitiveTypeName();
+    if (typeName != PrimitiveTypeName.INT32
+        && typeName != PrimitiveTypeName.INT64
+        && typeName != PrimitiveTypeName.FLOAT
+        && typeName != PrimitiveTypeName.DOUBLE) return false;
+    // unsigned ints' statistics are ordered as unsigned values
+    return !(field.getLogicalTypeAnnotation()
+            instanceof LogicalTypeAnnotation.IntLogicalTypeAnnotation intType
+        && !intType.isSigned());
+  }
+
+  /**
+   * This returns true if the row group's statistics show that none of its rows can match one of
+   * the numeric constraints. A missing value never matches these constraints (and constraints with
+   * NaN values aren't used).
+   */
+  private static boolean parquetRowGroupCantMatch(
+      BlockMetaData block, StringArray vars, StringArray ops, DoubleArray values) {
+    for (int con = 0; con < vars.size(); con++) {
+      for (ColumnChunkMetaData chunk : block.getColumns()) {
+        if (!chunk.getPath().toDotString().equals(vars.get(con))) continue;
+        Statistics stats = chunk.getStatistics();
+        if (stats == null || stats.isEmpty() || !stats.hasNonNullValue()) break;
+        double min = ((Number) stats.genericGetMin()).doubleValue();
+        double max = ((Number) stats.genericGetMax()).doubleValue();
+        if (Double.isNaN(min) || Double.isNaN(max)) break;
+        if (stats.genericGetMin() instanceof Float || stats.genericGetMin() instanceof Double) {
+          // floating point tests may be "almost equal" tests, so be generous
+          double slack = 1e-5 * Math.max(Math.abs(min), Math.abs(max));
+          min -= slack;
+          max += slack;
+        }
+        double value = values.get(con);
+        boolean cantMatch =
+            switch (ops.get(con)) {
+              case "=" -> value < min || value > max;
+              case "<" -> min >= value;
+              case "<=" -> min > value;
+              case ">" -> max <= value;
+              case ">=" -> max < value;
+              default -> false;
+            };
+        if (cantMatch) return true;
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * This makes a small table from a parquet file's footer (its row group statistics) instead of
+   * its data: for each of the requested columns which is in the file, the values are the column's
+   * min, max, and (if the column may have missing values) a missing value, else the min again. So
+   * the table has the same min, max, and hasNaN as the file's data (as read by readParquet with
+   * these colTypes). Since parquet statistics don't count NaNs or "", float, double, and String
+   * columns always get a missing value.
+   *
+   * @param colNames the names of the requested columns
+   * @param colTypes the types of the requested columns
+   * @return true if this worked. If false (e.g., a column doesn't have statistics or its type
+   *     doesn't sort the same way in parquet and in ERDDAP), the table is empty and the data must
+   *     be read.
+   * @throws Exception if trouble reading the file
+   */
+  public boolean readParquetSummary(String fullFileName, StringArray colNames, String[] colTypes)
+      throws Exception {
+    clear();
+    boolean ok = false;
+    try {
+      ok = lowReadParquetSummary(fullFileName, colNames, colTypes);
+    } finally {
+      if (!ok) clear();
+    }
+    if (ok) reorderColumns(colNames, false);
+    return ok;
+  }
+
+  private boolean lowReadParquetSummary(
+      String fullFileName, StringArray colNames, String[] colTypes) throws Exception {
+    InputFile parquetFile = new LocalInputFile(java.nio.file.Path.of(fullFileName));
+    try (ParquetFileReader fileReader =
+        new ParquetFileReader(parquetFile, ParquetReadOptions.builder().build())) {
+      MessageType schema = fileReader.getFileMetaData().getSchema();
+      List<Type> requested = requestedParquetFields(schema, colNames);
+      if (requested == null) return false;
+      for (Type field : requested) {
+        String name = parquetColumnName(field);
+        String tColType = colTypes[colNames.indexOf(name)];
+        PAType tPAType = PAType.fromCohortString(tColType);
+        PrimitiveTypeName typeName = field.asPrimitiveType().getPrimitiveTypeName();
+        boolean isString = tPAType == PAType.STRING;
+        boolean isFloat =
+            typeName == PrimitiveTypeName.FLOAT || typeName == PrimitiveTypeName.DOUBLE;
+        if (typeName == PrimitiveTypeName.BOOLEAN) {
+          if (!"boolean".equals(tColType)) return false;
+        } else if (typeName == PrimitiveTypeName.BINARY) {
+          if (!isString
+              || !(field.getLogicalTypeAnnotation()
+                  instanceof LogicalTypeAnnotation.StringLogicalTypeAnnotation)) return false;
+        } else if (isString || tPAType == PAType.CHAR || !isPrunableParquetType(field)) {
+          return false;
+        }
+
+        // combine the row groups' statistics
+        // (NaN and "" are missing values in ERDDAP, but aren't nulls in parquet)
+        Object min = null, max = null;
+        boolean hasNull = isFloat || isString;
+        for (BlockMetaData block : fileReader.getRowGroups()) {
+          if (block.getRowCount() == 0) continue;
+          Statistics stats = null;
+          for (ColumnChunkMetaData chunk : block.getColumns())
+            if (chunk.getPath().toDotString().equals(field.getName()))
+              stats = chunk.getStatistics();
+          if (stats == null || stats.isEmpty()) return false;
+          if (!stats.isNumNullsSet() || stats.getNumNulls() > 0) hasNull = true;
+          if (!stats.hasNonNullValue()) continue;
+          Object tMin = parquetStatValue(stats.genericGetMin());
+          Object tMax = parquetStatValue(stats.genericGetMax());
+          if (min == null || compareParquetStatValues(tMin, min) < 0) min = tMin;
+          if (max == null || compareParquetStatValues(tMax, max) > 0) max = tMax;
+        }
+
+        PrimitiveArray pa = PrimitiveArray.factory(tPAType, 3, false);
+        if (min == null) {
+          pa.addNStrings(3, "");
+        } else {
+          for (Object value : new Object[] {min, max, hasNull ? "" : min}) {
+            if (value instanceof Boolean b) pa.addInt(b ? 1 : 0);
+            else if (value instanceof Float f && tPAType == PAType.FLOAT) pa.addFloat(f);
+            else pa.addString(value.toString());
+          }
+          // the min or max is this PrimitiveArray's missing value or NaN
+          if (!isString && (Double.isNaN(pa.getDouble(0)) || Double.isNaN(pa.getDouble(1))))
+            return false;
+          // "" and "null" are missing (see readParquetColumn),
+          // and parquet's (UTF-8) order differs from Java's for surrogates
+          if (isString
+              && (pa.getString(0).isEmpty()
+                  || pa.getString(0).equals("null")
+                  || pa.getString(1).equals("null")
+                  || !parquetOrderIsJavaOrder(pa.getString(0))
+                  || !parquetOrderIsJavaOrder(pa.getString(1)))) return false;
+        }
+        addColumn(name, pa);
+      }
+    }
+    return true;
+  }
+
+  private static boolean parquetOrderIsJavaOrder(String s) {
+    for (int i = 0; i < s.length(); i++) if (s.charAt(i) >= '\uD800') return false;
+    return true;
+  }
+
+  /** This converts a parquet statistics value into a Boolean, Number, or String. */
+  private static Object parquetStatValue(Object o) {
+    return o instanceof Binary binary ? binary.toStringUsingUTF8() : o;
+  }
+
+  private static int compareParquetStatValues(Object a, Object b) {
+    if (a instanceof String sa) return sa.compareTo((String) b);
+    if (a instanceof Boolean ba) return Boolean.compare(ba, (Boolean) b);
+    if (a instanceof Long la) return Long.compare(la, (Long) b);
+    return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+  }
+
   private boolean isTimeColumn(int col) {
     return "time".equalsIgnoreCase(getColumnName(col))
         && Calendar2.SECONDS_SINCE_1970.equals(columnAttributes.get(col).getString("units"));
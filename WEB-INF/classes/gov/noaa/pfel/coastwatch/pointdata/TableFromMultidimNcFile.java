@@ -11,6 +11,7 @@ import com.cohort.array.ULongArray;
 import com.cohort.util.Math2;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -196,7 +197,8 @@ public class TableFromMultidimNcFile {
     this.standardizeWhat = standardizeWhat;
 
     // read the file
-    ncFile = NcHelper.openFile(fullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(fullName);
+    ncFile = lease.file();
 
     try {
       // load the global metadata
@@ -637,9 +639,12 @@ public class TableFromMultidimNcFile {
       // String2.log(msg +
       // " finished. nRows=" + nRows() + " nCols=" + nColumns() +
       // " time=" + (System.currentTimeMillis() - time) + "ms");
+    } catch (Throwable t) {
+      lease.discard(); // don't reuse this open file
+      throw t;
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
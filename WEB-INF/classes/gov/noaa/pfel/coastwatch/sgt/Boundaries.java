@@ -7,14 +7,12 @@ package gov.noaa.pfel.coastwatch.sgt;
 import com.cohort.array.DoubleArray;
 import com.cohort.array.PrimitiveArray;
 import com.cohort.util.File2;
-import com.cohort.util.LRUCache;
 import com.cohort.util.Math2;
 import com.cohort.util.String2;
+import com.cohort.util.WeightedCache;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pmel.sgt.dm.*;
 import java.io.*;
-import java.util.Collections;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
@@ -66,7 +64,10 @@ public class Boundaries {
    */
   public static final int CACHE_SIZE = 100;
 
-  private Map cache = Collections.synchronizedMap(new LRUCache(CACHE_SIZE));
+  /** Each Boundaries' cache is also limited to CACHE_MAX_BYTES (approximately). */
+  public static final long CACHE_MAX_BYTES = 20L * 1024 * 1024;
+
+  private final WeightedCache<String, SGTLine> cache;
   private int nCoarse = 0;
   private int nSuccesses = 0;
   private int nTossed = 0;
@@ -139,6 +140,13 @@ public class Boundaries {
     this.directory = directory;
     this.fileNames = fileNames;
     this.fileFormat = fileFormat;
+    cache =
+        new WeightedCache<>(
+            "Boundaries." + id,
+            CACHE_MAX_BYTES,
+            CACHE_SIZE,
+            0,
+            line -> 64 + line.getXArray().length * 16L); // 16 because x,y, both doubles
   }
 
   /**
@@ -196,14 +204,18 @@ public class Boundaries {
       try {
 
         // *** is SGTLine in cache?
-        sgtLine = (SGTLine) cache.get(cachedName);
+        sgtLine = cache.get(cachedName);
         if (sgtLine == null) {
 
           // not in cache, make SgtLine
           sgtLine = readSgtLineDouble(directory + fileNames[resolution], west, east, south, north);
 
-          // cache full?
-          if (cache.size() == CACHE_SIZE) {
+          // add new path to cache
+          long oEvictions = cache.evictionCount();
+          cache.put(cachedName, sgtLine);
+
+          // was cache full?
+          if (cache.evictionCount() > oEvictions) {
             nTossed++;
             tTossed = "*";
           } else {
@@ -212,9 +224,6 @@ public class Boundaries {
             tSuccess = "*";
           }
 
-          // add new path to cache
-          cache.put(cachedName, sgtLine);
-
         } else {
 
           // yes, it is in cache;
@@ -689,10 +698,8 @@ public class Boundaries {
   /** This returns a stats string for Boundaries. */
   public String statsString() {
     return id
-        + ": nCached="
-        + cache.size()
-        + " of "
-        + CACHE_SIZE
+        + ": "
+        + cache.statsString()
         + ",  nCoarse="
         + nCoarse
         + ", nSuccesses="
@@ -21,6 +21,7 @@ import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.GregorianCalendar;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
@@ -74,6 +75,25 @@ public class CompoundColorMap extends ColorMap {
   protected double halfStart;
   protected Color color[]; // used only if !continuous
 
+  /**
+   * The key for sharing this colormap's lookup table (see getLookup) with other colormaps made from
+   * the same .cpt file (its contents), or null if it can't be shared.
+   */
+  protected String lookupKey;
+
+  private volatile Lookup lookup; // made when first needed by getLookup()
+
+  /** The lookup tables for the recently used .cpt files. */
+  private static final ConcurrentHashMap<String, Lookup> lookupCache = new ConcurrentHashMap<>();
+
+  private static final int LOOKUP_CACHE_SIZE = 100;
+
+  /**
+   * The number of equal (linear or log) sections of rangeMin to rangeMax in a lookup table, each of
+   * which is (usually) within one piece.
+   */
+  static final int LOOKUP_N_BUCKETS = 4096;
+
   /**
    * The cumulative variables are used to collect statistics. See resetStats() and getStats(). It
    * takes significant time to collect statistics, so usually turned off (see TESTING ON/OFF and
@@ -110,6 +130,8 @@ public class CompoundColorMap extends ColorMap {
     ccm.halfStart = halfStart;
     ccm.continuous = continuous;
     ccm.color = color;
+    ccm.lookupKey = lookupKey;
+    ccm.lookup = lookup;
     return (ColorMap) ccm;
   }
 
@@ -147,11 +169,13 @@ public class CompoundColorMap extends ColorMap {
   public CompoundColorMap(String cptFileName) throws Exception {
     List<String> lines = File2.readLinesFromFile(cptFileName, File2.ISO_8859_1, 3);
     populate(this, cptFileName, lines);
+    lookupKey = String.join("\n", lines); // makeCPT touches the file, so lastModified changes
   }
 
   public CompoundColorMap(URL cptFileName) throws Exception {
     List<String> lines = Resources.readLines(cptFileName, StandardCharsets.ISO_8859_1);
     populate(this, cptFileName.getFile(), lines);
+    lookupKey = String.join("\n", lines);
   }
 
   /**
@@ -523,6 +547,7 @@ public class CompoundColorMap extends ColorMap {
     }
     halfI = n / 2;
     halfStart = rangeLow[halfI];
+    lookup = null; // the pieces may have changed
   }
 
   /** This crudely implements equals. returns false */
@@ -570,26 +595,149 @@ public class CompoundColorMap extends ColorMap {
       return backgroundColor; // note that end points don't get back/foreground color
     if (inVal > rangeMax) return foregroundColor;
 
-    // find the appropriate transform by testing what Range2D it's in
     // TESTING ON/OFF: don't delete cumulative system, since I sometimes uncomment for test()
     // long time = System.currentTimeMillis();
+    Lookup tLookup = getLookup();
+    int foundPiece = findPiece(tLookup, inVal);
+    if (foundPiece < 0) return NaNColor;
+    // TESTING ON/OFF: don't delete cumulative system, since I sometimes uncomment for test()
+    // cumulativeLookupTime += System.currentTimeMillis() - time;
+
+    // if !continuous, use pre-made colors
+    return continuous ? new Color(pieceRGB(tLookup, foundPiece, inVal)) : color[foundPiece];
+  }
+
+  /**
+   * This is like getColor(inVal).getRGB(), but faster since it doesn't make a Color object.
+   *
+   * @param inVal the incoming value
+   * @return the appropriate color's ARGB value
+   */
+  @Override
+  public int getRGB(double inVal) {
+    if (Double.isNaN(inVal)) return NaNColor.getRGB();
+    if (inVal < rangeMin) return backgroundColor.getRGB();
+    if (inVal > rangeMax) return foregroundColor.getRGB();
+    Lookup tLookup = getLookup();
+    int foundPiece = findPiece(tLookup, inVal);
+    if (foundPiece < 0) return NaNColor.getRGB();
+    return continuous ? pieceRGB(tLookup, foundPiece, inVal) : color[foundPiece].getRGB();
+  }
+
+  /**
+   * This is a lookup table made from a colormap's pieces, so that getColor doesn't have to search
+   * for the piece and calculate the color for each value. bucketPiece maps equal sections
+   * (buckets) of rangeMin to rangeMax (linear, or log if the pieces get wider like the pieces of a
+   * Log scale palette) to the piece which has the bucket's center, so the piece is usually found
+   * with one multiply and one array lookup (then confirmed with the piece's rangeLow and
+   * rangeHigh). For continuous colormaps, rgb has the ARGB values for each piece's 1025 possible
+   * val1024 values, so the results are exactly the same as calculating them. A Lookup is immutable,
+   * so it can be shared by colormaps made from the same .cpt file.
+   */
+  protected static final class Lookup {
+    final double start, scale;
+    final boolean log;
+    final short bucketPiece[]; // -1 if no piece; null if the pieces aren't sorted
+    final int rgb[]; // [piece * 1025 + val1024]; 0 if not valid; null if !continuous
+
+    Lookup(CompoundColorMap ccm) {
+      int n = ccm.rangeLow.length;
+
+      // are the pieces sorted and not overlapping? then each value is in just one piece
+      boolean sorted = n <= Short.MAX_VALUE;
+      for (int i = 1; i < n; i++)
+        if (ccm.rangeLow[i] < ccm.rangeHigh[i - 1] || ccm.rangeHigh[i] < ccm.rangeLow[i])
+          sorted = false;
+      log =
+          ccm.rangeMin > 0
+              && n > 1
+              && ccm.rangeHigh[n - 1] - ccm.rangeLow[n - 1]
+                  > 10 * (ccm.rangeHigh[0] - ccm.rangeLow[0]);
+      start = log ? Math.log(ccm.rangeMin) : ccm.rangeMin;
+      double range = (log ? Math.log(ccm.rangeMax) : ccm.rangeMax) - start;
+      scale = range > 0 ? LOOKUP_N_BUCKETS / range : 0;
+      if (sorted && scale > 0 && Double.isFinite(scale)) {
+        bucketPiece = new short[LOOKUP_N_BUCKETS];
+        int piece = 0;
+        for (int b = 0; b < LOOKUP_N_BUCKETS; b++) {
+          double center = start + (b + 0.5) / scale;
+          if (log) center = Math.exp(center);
+          while (piece < n - 1 && center >= ccm.rangeHigh[piece]) piece++;
+          bucketPiece[b] = (short) (center >= ccm.rangeLow[piece] ? piece : -1);
+        }
+      } else {
+        bucketPiece = null;
+      }
+
+      if (ccm.continuous) {
+        rgb = new int[n * 1025];
+        for (int i = 0; i < n; i++) {
+          for (int val1024 = 0; val1024 <= 1024; val1024++) {
+            int r = ccm.rLow[i] + ((val1024 * ccm.rRange[i]) >> 10);
+            int g = ccm.gLow[i] + ((val1024 * ccm.gRange[i]) >> 10);
+            int b = ccm.bLow[i] + ((val1024 * ccm.bRange[i]) >> 10);
+            if ((r | g | b) >= 0 && r < 256 && g < 256 && b < 256)
+              rgb[i * 1025 + val1024] = 0xFF000000 | (r << 16) | (g << 8) | b;
+          }
+        }
+      } else {
+        rgb = null;
+      }
+    }
+  }
+
+  /**
+   * This returns this colormap's lookup table, making it (or getting it from the cache) if needed.
+   */
+  protected Lookup getLookup() {
+    Lookup tLookup = lookup;
+    if (tLookup == null) {
+      tLookup = lookupKey == null ? null : lookupCache.get(lookupKey);
+      if (tLookup == null) {
+        tLookup = new Lookup(this);
+        if (lookupKey != null) {
+          if (lookupCache.size() >= LOOKUP_CACHE_SIZE) lookupCache.clear(); // crude but rare
+          lookupCache.put(lookupKey, tLookup);
+        }
+      }
+      lookup = tLookup;
+    }
+    return tLookup;
+  }
+
+  /**
+   * This finds the piece which has inVal (rangeMin &lt;= inVal &lt;= rangeMax).
+   *
+   * @return the piece, or -1 if inVal isn't in any piece. If range.start &lt;= inVal &lt;
+   *     range.end, for one of the ranges, or range.start &lt;= inVal &lt;= range.end for the last
+   *     range, that piece is returned.
+   */
+  private int findPiece(Lookup tLookup, double inVal) {
     int n = rangeLow.length;
     int lastPiece = n - 1;
-    int foundPiece = -1;
+
+    // try the lookup table
+    if (tLookup.bucketPiece != null) {
+      int bucket =
+          (int) (((tLookup.log ? Math.log(inVal) : inVal) - tLookup.start) * tLookup.scale);
+      if (bucket >= 0 && bucket < LOOKUP_N_BUCKETS) {
+        int piece = tLookup.bucketPiece[bucket];
+        if (piece >= 0
+            && inVal >= rangeLow[piece]
+            && (inVal < rangeHigh[piece] || (piece == lastPiece && inVal <= rangeHigh[piece])))
+          return piece;
+      }
+    }
+
+    // find the appropriate transform by testing what Range2D it's in
     for (int i = (inVal >= halfStart ? halfI : 0); i < lastPiece; i++) {
       if (inVal >= rangeLow[i] && inVal < rangeHigh[i]) { // note < for all except last range
-        foundPiece = i;
-        break;
+        return i;
       }
     }
     // check last range with <= (different than above) at high end
-    if (foundPiece == -1) {
-      if (inVal >= rangeLow[lastPiece] && inVal <= rangeHigh[lastPiece]) {
-        foundPiece = lastPiece;
-      } else return NaNColor;
-    }
-    // TESTING ON/OFF: don't delete cumulative system, since I sometimes uncomment for test()
-    // cumulativeLookupTime += System.currentTimeMillis() - time;
+    if (inVal >= rangeLow[lastPiece] && inVal <= rangeHigh[lastPiece]) return lastPiece;
+    return -1;
 
     /*
     //I tried binary search, but not faster
@@ -604,32 +752,29 @@ public class CompoundColorMap extends ColorMap {
 
     } //>=0 means exact match, no need to check rangeLow and High
     */
+  }
 
-    if (continuous) {
-      // the value is in range #piece
-      // convert the value to be 0 - 1024/1024 of the range
-      int val1024 =
-          (int)
-              Math.round(
-                  (inVal - rangeLow[foundPiece])
-                      / range1024[foundPiece]); // safe since rangeMin/Max checked above
-
-      // generate the color
-      Color tColor =
-          new Color(
-              rLow[foundPiece]
-                  + ((val1024 * rRange[foundPiece]) >> 10), // >>10 same as /1024 since 1024 is 2^10
-              gLow[foundPiece] + ((val1024 * gRange[foundPiece]) >> 10),
-              bLow[foundPiece] + ((val1024 * bRange[foundPiece]) >> 10));
-      // TESTING ON/OFF: don't delete cumulative system, since I sometimes uncomment for test()
-      // cumulativeTotalTime += System.currentTimeMillis() - time;
-      // cumulativeCount++;
-
-      return tColor;
-    } else {
-      // !continuous,   use pre-made colors
-      return color[foundPiece];
+  /** This returns the ARGB color for inVal in a continuous colormap's foundPiece. */
+  private int pieceRGB(Lookup tLookup, int foundPiece, double inVal) {
+    // the value is in range #piece
+    // convert the value to be 0 - 1024/1024 of the range
+    int val1024 =
+        (int)
+            Math.round(
+                (inVal - rangeLow[foundPiece])
+                    / range1024[foundPiece]); // safe since rangeMin/Max checked above
+    if (val1024 >= 0 && val1024 <= 1024) {
+      int rgb = tLookup.rgb[foundPiece * 1025 + val1024];
+      if (rgb != 0) return rgb;
     }
+
+    // generate the color
+    return new Color(
+            rLow[foundPiece]
+                + ((val1024 * rRange[foundPiece]) >> 10), // >>10 same as /1024 since 1024 is 2^10
+            gLow[foundPiece] + ((val1024 * gRange[foundPiece]) >> 10),
+            bLow[foundPiece] + ((val1024 * bRange[foundPiece]) >> 10))
+        .getRGB();
   }
 
   /**
@@ -6,13 +6,12 @@ package gov.noaa.pfel.coastwatch.sgt;
 
 import com.cohort.array.IntArray;
 import com.cohort.util.File2;
-import com.cohort.util.LRUCache;
 import com.cohort.util.String2;
+import com.cohort.util.WeightedCache;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.PathIterator;
 import java.io.*;
-import java.util.Collections;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.locks.ReentrantLock;
@@ -69,7 +68,14 @@ public class GSHHS {
    */
   public static final int CACHE_SIZE = 100;
 
-  private static Map cache = Collections.synchronizedMap(new LRUCache(CACHE_SIZE));
+  /**
+   * The cache is also limited to CACHE_MAX_BYTES (approximately), so a few whole-world,
+   * high-resolution GeneralPaths can't use lots of memory.
+   */
+  public static final long CACHE_MAX_BYTES = 50L * 1024 * 1024;
+
+  private static final WeightedCache<String, GeneralPath> cache =
+      new WeightedCache<>("GSHHS", CACHE_MAX_BYTES, CACHE_SIZE, 0, GSHHS::estimateBytes);
   private static int nCoarse = 0;
   private static int nSuccesses = 0;
   private static int nTossed = 0;
@@ -157,7 +163,7 @@ public class GSHHS {
       try {
 
         // *** is GeneralPath in cache?
-        path = (GeneralPath) cache.get(cachedName);
+        path = cache.get(cachedName);
         if (path == null) {
 
           // not in cache, so make GeneralPath
@@ -171,8 +177,12 @@ public class GSHHS {
                   northDeg,
                   addAntarcticCorners);
 
-          // cache full?
-          if (cache.size() == CACHE_SIZE) {
+          // put new path in the cache
+          long oEvictions = cache.evictionCount();
+          cache.put(cachedName, path);
+
+          // was cache full?
+          if (cache.evictionCount() > oEvictions) {
             tTossed = "*";
             nTossed++;
           } else {
@@ -180,9 +190,6 @@ public class GSHHS {
             nSuccesses++;
           }
 
-          // put new path in the cache
-          cache.put(cachedName, path);
-
         } else {
           // yes, it is in cache.
           tSuccess = "*(already in cache)";
@@ -217,10 +224,8 @@ public class GSHHS {
 
   /** This returns a stats string for GSHHS. */
   public static String statsString() {
-    return "GSHHS: nCached="
-        + cache.size()
-        + " of "
-        + CACHE_SIZE
+    return "GSHHS: "
+        + cache.statsString()
         + ", nCoarse="
         + nCoarse
         + ", nSuccesses="
@@ -229,6 +234,19 @@ public class GSHHS {
         + nTossed;
   }
 
+  /**
+   * This estimates the number of bytes used by a GeneralPath (a Path2D.Float): 2 floats and a type
+   * byte per segment, plus some overhead.
+   *
+   * @param path a GeneralPath
+   * @return the approximate number of bytes
+   */
+  static long estimateBytes(GeneralPath path) {
+    long nSegments = 0;
+    for (PathIterator pi = path.getPathIterator(null); !pi.isDone(); pi.next()) nSegments++;
+    return 64 + nSegments * 9;
+  }
+
   /** This is like getGeneralPath, but with no caching. */
   public static GeneralPath rawGetGeneralPath(
       char resolution,
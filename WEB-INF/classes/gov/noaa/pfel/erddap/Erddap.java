@@ -38,6 +38,7 @@ import gov.noaa.pfel.erddap.dataset.*;
 import gov.noaa.pfel.erddap.handlers.SaxParsingContext;
 import gov.noaa.pfel.erddap.util.*;
 import gov.noaa.pfel.erddap.variable.*;
+import gov.noaa.pmel.sgt.GridCartesianRenderer;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -63,6 +64,7 @@ import java.util.BitSet;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -340,6 +342,9 @@ public class Erddap extends HttpServlet {
     for (int cat = 0; cat < nCat; cat++)
       categoryInfo.put(EDStatic.categoryAttributes[cat], new ConcurrentHashMap(16, 0.75f, 4));
 
+    // before datasets are loaded, so changes to their extents are seen by the extentIndex
+    EDV.destinationMinMaxListener = EDStatic.extentIndex::changed;
+
     // start RunLoadDatasets
     runLoadDatasets = new RunLoadDatasets(this);
     EDStatic.runningThreads.put("runLoadDatasets", runLoadDatasets);
@@ -481,6 +486,8 @@ public class Erddap extends HttpServlet {
     int requestNumber = totalNRequests.incrementAndGet();
     int language = 0; // use English until known
     String ipAddress = EDStatic.ipAddressNotSetYet; // won't be null
+    AdmissionController.Ticket ticket = null; // null if ipAddressUnlimited
+    MemoryBudget.Reservation memoryReservation = null;
 
     try {
 
@@ -504,11 +511,8 @@ public class Erddap extends HttpServlet {
       if (queryString == null) queryString = "";
 
       // too many simultaneous requests from this user?
-      // FUTURE? If desired, you could also add a system to monitor total number
-      //  of active requests (for all users) and limit it to MaxNRequests
-      //  and block a request from processing until the number dips below MaxNRequests.
-      //  Such a system would need good assurance that the list was valid
-      //  (not old requests filling up the system but actually processed).
+      // (and, if maxActiveRequests > 0, too many active requests from all users?)
+      // See EDStatic.admissionController.
       ipAddress = EDStatic.getIPAddress(request);
 
       // always log request as soon as all info known (even if request will soon be rejected)
@@ -533,39 +537,30 @@ public class Erddap extends HttpServlet {
       // then immediately test ipAddress (so little possible error in between)
       // This is the "on-ramp metering" system to limit requests from a given IP address.
       if (!EDStatic.ipAddressUnlimited.contains(ipAddress)) {
-        // always add requestNumber to ipAddressQueue for this ipAddress
-        // Important: ipAddressQueue is thread-safe so only 1 thread will succeed in creating a new
-        // IntArray for this ipAddress
-        IntArray iaq =
-            EDStatic.ipAddressQueue.putIfAbsent(
-                ipAddress, new IntArray(EDStatic.ipAddressMaxRequests, false));
-        if (iaq == null) iaq = EDStatic.ipAddressQueue.get(ipAddress);
-        synchronized (iaq) {
-          // first thing
-          iaq.add(requestNumber);
-
-          // isOnBlacklist?
-          if (EDStatic.isOnBlacklist(language, ipAddress, requestNumber, response)) return;
-
-          // too many simultaneous requests
-          if (iaq.size() > EDStatic.ipAddressMaxRequests) {
-            EDStatic.tooManyRequests++;
-            EDStatic.tally.add(
-                "Requester's IP Address (Too Many Requests) (since last Major LoadDatasets)",
-                ipAddress);
-            EDStatic.tally.add(
-                "Requester's IP Address (Too Many Requests) (since last daily report)", ipAddress);
-            EDStatic.tally.add(
-                "Requester's IP Address (Too Many Requests) (since startup)", ipAddress);
-            EDStatic.lowSendError(
-                requestNumber,
-                response,
-                429, // 429=Too Many Requests
-                EDStatic.oneRequestAtATimeAr[language]);
-            // FUTURE? email yesterday's list to erddap admin when generating daily report
-            // so they can consider blacklisting them?
-            return;
-          }
+        // always register this request (it is released in the finally block below)
+        ticket = EDStatic.admissionController.register(ipAddress);
+
+        // isOnBlacklist?
+        if (EDStatic.isOnBlacklist(language, ipAddress, requestNumber, response)) return;
+
+        // too many simultaneous requests
+        if (ticket.nRegistered() > EDStatic.ipAddressMaxRequests) {
+          EDStatic.tooManyRequests++;
+          EDStatic.tally.add(
+              "Requester's IP Address (Too Many Requests) (since last Major LoadDatasets)",
+              ipAddress);
+          EDStatic.tally.add(
+              "Requester's IP Address (Too Many Requests) (since last daily report)", ipAddress);
+          EDStatic.tally.add(
+              "Requester's IP Address (Too Many Requests) (since startup)", ipAddress);
+          EDStatic.lowSendError(
+              requestNumber,
+              response,
+              429, // 429=Too Many Requests
+              EDStatic.oneRequestAtATimeAr[language]);
+          // FUTURE? email yesterday's list to erddap admin when generating daily report
+          // so they can consider blacklisting them?
+          return;
         }
 
         // if (debugMode) String2.log(">> requestUrl=" + requestUrl);
@@ -576,49 +571,33 @@ public class Erddap extends HttpServlet {
           // so don't wait
           // if (debugMode) String2.log(">> requestUrl=" + requestUrl + " is exempt");
         } else {
-          // Wait up to 2 minutes until requestNumber is in top ipAddressMaxRequestsActive slots of
-          // this user's queue.
+          // Wait up to 2 minutes until this request is one of this user's
+          // ipAddressMaxRequestsActive active requests (first come, first served)
+          // and (if maxActiveRequests > 0) there is a free slot (IP addresses take turns).
           // This automatically deals with users making multiple simultaneous requests (no blacklist
           // needed).
           // This is a really good approach because it disperses the burden on ERDDAP.
-          long start = System.currentTimeMillis();
-          boolean printMsg = reallyVerbose; // just print msg first time, if reallyVerbose
-          TOP_N:
-          while (true) {
-            synchronized (iaq) { // this takes very little time (~ 31 nanoseconds) (see
-              // IntArray.testSynchSpeed())
-              for (int which = Math.min(iaq.size() - 1, EDStatic.ipAddressMaxRequestsActive - 1);
-                  which >= 0;
-                  which--)
-                if (iaq.get(which) == requestNumber)
-                  break TOP_N; // fall through and respond to this request
-            }
+          // Waiting requests are parked (not polling), so they are admitted as soon as
+          // another request is done.
+          if (!EDStatic.admissionController.awaitActive(ticket, 120000)) { // 120s * 1000 millis/s
             // getting here (multiple simultaneous requests) should be rare
             // but there are legit reasons, e.g., WMS client, web pages like BloomWatch
-            // FUTURE? Do tally of these IP addresses?
-            if (printMsg) {
+            if (reallyVerbose)
               String2.log(
                   ipAddress
                       + " has exceeded ipAddressMaxRequestsActive="
                       + EDStatic.ipAddressMaxRequestsActive);
-              printMsg = false;
-            }
-            // this number determines how ~max requests/second/user.
-            // 1000ms/200ms *2maxRequestsActive = 10/second = 9000/15minutes which is a lot for 1
-            // user
-            Thread.sleep(
-                200); // millis. Not Math2.sleep() because we want to allow InterruptedException
-            if (System.currentTimeMillis() - start > 120000) // 120s * 1000 millis/s
             throw new TimeoutException(
-                  EDStatic.timeoutOtherRequestsAr[language]
-                      + " "
-                      + EDStatic.oneRequestAtATimeAr[language]);
+                EDStatic.timeoutOtherRequestsAr[language]
+                    + " "
+                    + EDStatic.oneRequestAtATimeAr[language]);
           }
         }
       }
 
       // add to EDStatic.activeRequests
       EDStatic.activeRequests.put(requestNumber + "", summary);
+      memoryReservation = EDStatic.memoryBudget.open("#" + requestNumber);
       summary = null;
 
       // tally ipAddress                                    //odd capitilization sorts better
@@ -976,17 +955,11 @@ public class Erddap extends HttpServlet {
         // remove requestNumber from activeRequests
         EDStatic.activeRequests.remove(requestNumber + ""); // shouldn't ever fail
 
-        // remove requestNumber from ipAddressQueue for this ipAddress
-        if (!EDStatic.ipAddressUnlimited.contains(ipAddress)) {
-          IntArray iaq = EDStatic.ipAddressQueue.get(ipAddress);
-          if (iaq != null) { // will be null if just added to ipAddressUnlimited
-            synchronized (iaq) {
-              int which = iaq.indexOf(requestNumber);
-              if (which >= 0) // it should be
-              iaq.remove(which);
-            }
-          }
-        }
+        // release this request's place in the admissionController (lets the next one in)
+        if (ticket != null) ticket.release();
+
+        // release this request's memory reservation
+        if (memoryReservation != null) memoryReservation.close();
       } catch (Throwable t2) {
         String2.log("Caught: " + MustBe.throwableToString(t2));
       }
@@ -9466,10 +9439,50 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
         fileName = layersCsv + "_" + String2.md5Hex12(bboxCsv + "w" + width + "h" + height);
       }
 
+      // if request is for a tile of the WmsTileCache's tile grid, use that cache
+      //  so tiles are shared by requests for the same tile and survive dataset reloads.
+      //  Tiles are shared by all users, so only use them if this user may see the dataset's images
+      //  (else the layers loop below rejects the request).
+      String roles[] = EDStatic.getRoles(loggedInAs);
+      EDDGrid mainEddGrid = mainDatasetID == null ? null : gridDatasetHashMap.get(mainDatasetID);
+      WmsTileCache tileCache =
+          mainEddGrid == null
+                  || isNonDataLayer
+                  || mainEddGrid.accessibleViaWMS().length() > 0
+                  || !(mainEddGrid.isAccessibleTo(roles) || mainEddGrid.graphsAccessibleToPublic())
+              ? null
+              : WmsTileCache.shared();
+      WmsTileCache.TileRequest tileRequest =
+          tileCache == null
+              ? null
+              : tileCache.tileRequest(
+                  mainEddGrid,
+                  layers,
+                  transparent,
+                  bgColori,
+                  queryMap,
+                  minx,
+                  miny,
+                  maxx,
+                  maxy,
+                  width,
+                  height,
+                  Erddap::renderWmsTile);
+      if (tileRequest != null) {
+        cacheDir = tileCache.directory(mainDatasetID);
+        fileName = tileRequest.fileName();
+        // draw the tile's exact bounds
+        minx = tileRequest.tile().minLon();
+        maxx = tileRequest.tile().maxLon();
+        miny = tileRequest.tile().minLat();
+        maxy = tileRequest.tile().maxLat();
+      }
+
       // is the image in the cache?
       if (File2.isFile(cacheDir + fileName + extension)) {
         // touch nonDataLayer files, since they don't change
         if (isNonDataLayer) File2.touch(cacheDir + fileName + extension);
+        if (tileRequest != null) tileCache.hit(tileRequest);
 
         // write out the image
         outputStreamSource =
@@ -9494,13 +9507,12 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
           new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB); // I need opacity "A"
       Graphics g = bufferedImage.getGraphics();
       Graphics2D g2 = (Graphics2D) g;
+      g2.setRenderingHint(GridCartesianRenderer.KEY_RASTER_DESTINATION, Boolean.TRUE);
       Color bgColor = new Color(0xFF000000 | bgColori); // 0xFF000000 makes it opaque
       g.setColor(bgColor);
       g.fillRect(0, 0, width, height);
 
       // add the layers
-      String roles[] = EDStatic.getRoles(loggedInAs);
-      LAYER:
       for (int layeri = 0; layeri < layers.length; layeri++) {
 
         // ***deal with non-data layers
@@ -9601,167 +9613,17 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
                   + " is invalid (must be \"\").");
         }
 
-        // get other dimension info
-        EDVGridAxis ava[] = eddGrid.axisVariables();
-        StringBuilder tQuery = new StringBuilder(destVar);
-        for (int avi = 0; avi < ava.length; avi++) {
-          EDVGridAxis av = ava[avi];
-          if (avi == eddGrid.lonIndex()) {
-            if (maxx <= av.destinationMinDouble() || minx >= av.destinationMaxDouble()) {
-              if (reallyVerbose)
-                String2.log("  layer=" + layeri + " rejected because request is out of lon range.");
-              continue LAYER;
-            }
-            int first = av.destinationToClosestIndex(minx);
-            int last = av.destinationToClosestIndex(maxx);
-            if (first > last) {
-              int ti = first;
-              first = last;
-              last = ti;
-            }
-            int stride = DataHelper.findStride(last - first + 1, width);
-            tQuery.append("[" + first + ":" + stride + ":" + last + "]");
-            continue;
-          }
-
-          if (avi == eddGrid.latIndex()) {
-            if (maxy <= av.destinationMinDouble() || miny >= av.destinationMaxDouble()) {
-              if (reallyVerbose)
-                String2.log("  layer=" + layeri + " rejected because request is out of lat range.");
-              continue LAYER;
-            }
-            int first = av.destinationToClosestIndex(miny);
-            int last = av.destinationToClosestIndex(maxy);
-            if (first > last) {
-              int ti = first;
-              first = last;
-              last = ti;
-            }
-            int stride = DataHelper.findStride(last - first + 1, height);
-            tQuery.append("[" + first + ":" + stride + ":" + last + "]");
-            continue;
-          }
-
-          // all other axes
-          String tAvName =
-              avi == eddGrid.altIndex()
-                  ? "elevation"
-                  : avi == eddGrid.depthIndex()
-                      ? "elevation"
-                      : // convert depth to elevation
-                      avi == eddGrid.timeIndex()
-                          ? "time"
-                          : "dim_"
-                              + ava[avi]
-                                  .destinationName()
-                                  .toLowerCase(); // make it case-insensitive for queryMap.get
-          String tValueS = queryMap.get(tAvName);
-          if (tValueS == null
-              || (avi == eddGrid.timeIndex() && tValueS.toLowerCase().equals("current")))
-            // default is always the last value
-            tQuery.append("[" + (ava[avi].sourceValues().size() - 1) + "]");
-          else {
-            double tValueD =
-                av.destinationToDouble(
-                    tValueS); // needed in particular for iso time -> epoch seconds
-            if (avi == eddGrid.depthIndex()) tValueD = -tValueD;
-            if (Double.isNaN(tValueD)
-                || tValueD < av.destinationCoarseMin()
-                || tValueD > av.destinationCoarseMax()) {
-              if (reallyVerbose)
-                String2.log(
-                    "  layer="
-                        + layeri
-                        + " rejected because tValueD="
-                        + tValueD
-                        + " for "
-                        + tAvName);
-              continue LAYER;
-            }
-            int first = av.destinationToClosestIndex(tValueD);
-            tQuery.append("[" + first + "]");
-          }
-        }
-
-        // get the data
-        GridDataAccessor gda =
-            new GridDataAccessor(
-                language,
-                eddGrid,
-                "/" + EDStatic.warName + "/griddap/" + datasetID + ".dods",
-                tQuery.toString(),
-                false, // Grid needs column-major order
-                true); // convertToNaN
-        long requestNL = gda.totalIndex().size();
-        Math2.ensureArraySizeOkay(requestNL, "doWmsGetMap");
-        int nBytesPerElement = 8;
-        int requestN = (int) requestNL; // safe since checked by ensureArraySizeOkay above
-        Math2.ensureMemoryAvailable(requestNL * nBytesPerElement, "doWmsGetMap");
-        Grid grid = new Grid();
-        grid.data = new double[requestN];
-        int po = 0;
-        while (gda.increment()) grid.data[po++] = gda.getDataValueAsDouble(0);
-        grid.lon = gda.axisValues(eddGrid.lonIndex()).toDoubleArray();
-        grid.lat = gda.axisValues(eddGrid.latIndex()).toDoubleArray();
-        gda = null; // free up memory if possible
-
-        // make the palette
-        // I checked hasColorBarMinMax above.
-        // Note that EDV checks validity of values.
-        double minData = tDataVariable.combinedAttributes().getDouble("colorBarMinimum");
-        double maxData = tDataVariable.combinedAttributes().getDouble("colorBarMaximum");
-        String palette = tDataVariable.combinedAttributes().getString("colorBarPalette");
-        if (String2.indexOf(EDStatic.palettes, palette) < 0)
-          palette = Math2.almostEqual(3, -minData, maxData) ? "BlueWhiteRed" : "Rainbow";
-        int nSections = tDataVariable.combinedAttributes().getInt("colorBarNSections");
-        if (nSections > 100) nSections = -1;
-        boolean paletteContinuous =
-            String2.parseBoolean( // defaults to true
-                tDataVariable.combinedAttributes().getString("colorBarContinuous"));
-        String scale = tDataVariable.combinedAttributes().getString("colorBarScale");
-        if (String2.indexOf(EDV.VALID_SCALES, scale) < 0) scale = "Linear";
-        String cptFullName =
-            CompoundColorMap.makeCPT(
-                EDStatic.fullPaletteDirectory,
-                palette,
-                scale,
-                minData,
-                maxData,
-                nSections,
-                paletteContinuous,
-                EDStatic.fullCptCacheDirectory);
-
-        // draw the data on the map
-        // for now, just cartesian  -- BEWARE: it may be stretched!
-        SgtMap.makeCleanMap(
-            minx,
-            maxx,
-            miny,
-            maxy,
-            false,
-            grid,
-            1,
-            1,
-            0,
-            cptFullName,
-            false,
-            false,
-            SgtMap.NO_LAKES_AND_RIVERS,
-            false,
-            false,
-            g2,
-            width,
-            height,
-            0,
-            0,
-            width,
-            height);
+        if (!drawWmsGridLayer(
+            language, eddGrid, dvi, queryMap, minx, maxx, miny, maxy, width, height, g2))
+          continue;
       }
 
       // save image as file in cache dir
       // (It saves as temp file, then renames if ok.)
+      if (tileRequest != null) File2.makeDirectory(cacheDir);
       SgtUtil.saveAsTransparentPng(
           bufferedImage, transparent ? bgColor : null, cacheDir + fileName);
+      if (tileRequest != null) tileCache.added(tileRequest);
 
       // copy image from file to client
       if (reallyVerbose) String2.log("  image created. copying to client: " + fileName + extension);
@@ -9850,6 +9712,211 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
     }
   }
 
+  /**
+   * This draws one grid data layer of a WMS GetMap image (for doWmsGetMap and the WmsTileCache's
+   * background renderer).
+   *
+   * @param language the index of the selected language
+   * @param eddGrid the dataset
+   * @param dvi the index of the data variable (which must have colorBarMinimum and Maximum)
+   * @param queryMap has name=value from the url query string (for the values of the axes other than
+   *     longitude and latitude). names are toLowerCase. values are original values.
+   * @param minx the minimum longitude of the image
+   * @param maxx the maximum longitude of the image
+   * @param miny the minimum latitude of the image
+   * @param maxy the maximum latitude of the image
+   * @param width the width of the image (in pixels)
+   * @param height the height of the image (in pixels)
+   * @param g2 the image's graphics object
+   * @return false if the layer wasn't drawn because the request is out of the dataset's range
+   * @throws Throwable if trouble
+   */
+  static boolean drawWmsGridLayer(
+      int language,
+      EDDGrid eddGrid,
+      int dvi,
+      Map<String, String> queryMap,
+      double minx,
+      double maxx,
+      double miny,
+      double maxy,
+      int width,
+      int height,
+      Graphics2D g2)
+      throws Throwable {
+    String datasetID = eddGrid.datasetID();
+    EDV tDataVariable = eddGrid.dataVariables()[dvi];
+    String destVar = tDataVariable.destinationName();
+
+    // get other dimension info
+    EDVGridAxis ava[] = eddGrid.axisVariables();
+    StringBuilder tQuery = new StringBuilder(destVar);
+    for (int avi = 0; avi < ava.length; avi++) {
+      EDVGridAxis av = ava[avi];
+      if (avi == eddGrid.lonIndex()) {
+        if (maxx <= av.destinationMinDouble() || minx >= av.destinationMaxDouble()) {
+          if (reallyVerbose)
+            String2.log("  layer=" + destVar + " rejected because request is out of lon range.");
+          return false;
+        }
+        int first = av.destinationToClosestIndex(minx);
+        int last = av.destinationToClosestIndex(maxx);
+        if (first > last) {
+          int ti = first;
+          first = last;
+          last = ti;
+        }
+        int stride = DataHelper.findStride(last - first + 1, width);
+        tQuery.append("[" + first + ":" + stride + ":" + last + "]");
+        continue;
+      }
+
+      if (avi == eddGrid.latIndex()) {
+        if (maxy <= av.destinationMinDouble() || miny >= av.destinationMaxDouble()) {
+          if (reallyVerbose)
+            String2.log("  layer=" + destVar + " rejected because request is out of lat range.");
+          return false;
+        }
+        int first = av.destinationToClosestIndex(miny);
+        int last = av.destinationToClosestIndex(maxy);
+        if (first > last) {
+          int ti = first;
+          first = last;
+          last = ti;
+        }
+        int stride = DataHelper.findStride(last - first + 1, height);
+        tQuery.append("[" + first + ":" + stride + ":" + last + "]");
+        continue;
+      }
+
+      // all other axes
+      int index = WmsTileCache.wmsAxisIndex(eddGrid, avi, queryMap);
+      if (index < 0) {
+        if (reallyVerbose)
+          String2.log(
+              "  layer="
+                  + destVar
+                  + " rejected because the "
+                  + av.destinationName()
+                  + " value is out of range.");
+        return false;
+      }
+      tQuery.append("[" + index + "]");
+    }
+
+    // get the data
+    GridDataAccessor gda =
+        new GridDataAccessor(
+            language,
+            eddGrid,
+            "/" + EDStatic.warName + "/griddap/" + datasetID + ".dods",
+            tQuery.toString(),
+            false, // Grid needs column-major order
+            true); // convertToNaN
+    long requestNL = gda.totalIndex().size();
+    Math2.ensureArraySizeOkay(requestNL, "doWmsGetMap");
+    int nBytesPerElement = 8;
+    int requestN = (int) requestNL; // safe since checked by ensureArraySizeOkay above
+    Math2.ensureMemoryAvailable(requestNL * nBytesPerElement, "doWmsGetMap");
+    Grid grid = new Grid();
+    grid.data = new double[requestN];
+    int po = 0;
+    try {
+      while (gda.increment()) grid.data[po++] = gda.getDataValueAsDouble(0);
+    } finally {
+      gda.releaseResources();
+    }
+    grid.lon = gda.axisValues(eddGrid.lonIndex()).toDoubleArray();
+    grid.lat = gda.axisValues(eddGrid.latIndex()).toDoubleArray();
+    gda = null; // free up memory if possible
+
+    // make the palette
+    // I checked hasColorBarMinMax above.
+    // Note that EDV checks validity of values.
+    double minData = tDataVariable.combinedAttributes().getDouble("colorBarMinimum");
+    double maxData = tDataVariable.combinedAttributes().getDouble("colorBarMaximum");
+    String palette = tDataVariable.combinedAttributes().getString("colorBarPalette");
+    if (String2.indexOf(EDStatic.palettes, palette) < 0)
+      palette = Math2.almostEqual(3, -minData, maxData) ? "BlueWhiteRed" : "Rainbow";
+    int nSections = tDataVariable.combinedAttributes().getInt("colorBarNSections");
+    if (nSections > 100) nSections = -1;
+    boolean paletteContinuous =
+        String2.parseBoolean( // defaults to true
+            tDataVariable.combinedAttributes().getString("colorBarContinuous"));
+    String scale = tDataVariable.combinedAttributes().getString("colorBarScale");
+    if (String2.indexOf(EDV.VALID_SCALES, scale) < 0) scale = "Linear";
+    String cptFullName =
+        CompoundColorMap.makeCPT(
+            EDStatic.fullPaletteDirectory,
+            palette,
+            scale,
+            minData,
+            maxData,
+            nSections,
+            paletteContinuous,
+            EDStatic.fullCptCacheDirectory);
+
+    // draw the data on the map
+    // for now, just cartesian  -- BEWARE: it may be stretched!
+    SgtMap.makeCleanMap(
+        minx,
+        maxx,
+        miny,
+        maxy,
+        false,
+        grid,
+        1,
+        1,
+        0,
+        cptFullName,
+        false,
+        false,
+        SgtMap.NO_LAKES_AND_RIVERS,
+        false,
+        false,
+        g2,
+        width,
+        height,
+        0,
+        0,
+        width,
+        height);
+    return true;
+  }
+
+  /**
+   * This renders a tile for the WmsTileCache's background renderer. See WmsTileCache.Renderer.
+   */
+  private static void renderWmsTile(
+      EDDGrid eddGrid,
+      int dvi,
+      WmsTileCache.Tile tile,
+      int size,
+      boolean transparent,
+      int bgColori,
+      String fullName)
+      throws Throwable {
+    BufferedImage bufferedImage = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g2 = (Graphics2D) bufferedImage.getGraphics();
+    g2.setRenderingHint(GridCartesianRenderer.KEY_RASTER_DESTINATION, Boolean.TRUE);
+    Color bgColor = new Color(0xFF000000 | bgColori); // 0xFF000000 makes it opaque
+    g2.setColor(bgColor);
+    g2.fillRect(0, 0, size, size);
+    drawWmsGridLayer(
+        0,
+        eddGrid,
+        dvi,
+        new HashMap<>(), // the last value of the other axes
+        tile.minLon(),
+        tile.maxLon(),
+        tile.minLat(),
+        tile.maxLat(),
+        size,
+        size,
+        g2);
+    SgtUtil.saveAsTransparentPng(bufferedImage, transparent ? bgColor : null, fullName);
+  }
+
   /**
    * Respond to WMS GetCapabilities request for doWms. To become a Layer, a grid variable must use
    * evenly-spaced longitude and latitude variables.
@@ -15629,89 +15696,20 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
     boolean testLat = !Double.isNaN(minLat) || !Double.isNaN(maxLat);
     boolean testTime = !Double.isNaN(minTimeD) || !Double.isNaN(maxTimeD);
     if (testLon || testLat || testTime) {
-      if (matchingDatasetIDs == null) matchingDatasetIDs = allDatasetIDs();
-      int dsn = matchingDatasetIDs.size();
-      BitSet keep = new BitSet(dsn);
-      keep.set(0, dsn, true); // so look for a reason not to keep it
-      for (int dsi = 0; dsi < dsn; dsi++) {
-        String tDatasetID = matchingDatasetIDs.get(dsi);
-        EDDGrid eddg = gridDatasetHashMap.get(tDatasetID);
-        EDV lonEdv = null, latEdv = null, timeEdv = null;
-        if (eddg == null) {
-          EDDTable eddt = tableDatasetHashMap.get(tDatasetID);
-          if (eddt != null) {
-            if (eddt.lonIndex() >= 0) lonEdv = eddt.dataVariables()[eddt.lonIndex()];
-            if (eddt.latIndex() >= 0) latEdv = eddt.dataVariables()[eddt.latIndex()];
-            if (eddt.timeIndex() >= 0) timeEdv = eddt.dataVariables()[eddt.timeIndex()];
-          }
-        } else {
-          if (eddg.lonIndex() >= 0) lonEdv = eddg.axisVariables()[eddg.lonIndex()];
-          if (eddg.latIndex() >= 0) latEdv = eddg.axisVariables()[eddg.latIndex()];
-          if (eddg.timeIndex() >= 0) timeEdv = eddg.axisVariables()[eddg.timeIndex()];
-        }
-
-        // testLon
-        if (testLon) {
-          if (lonEdv == null) {
-            keep.clear(dsi);
-          } else {
-            if (!Double.isNaN(minLon)) {
-              if (Double.isNaN(lonEdv.destinationMaxDouble())
-                  || minLon > lonEdv.destinationMaxDouble()) {
-                keep.clear(dsi);
-              }
-            }
-            if (!Double.isNaN(maxLon)) {
-              if (Double.isNaN(lonEdv.destinationMinDouble())
-                  || maxLon < lonEdv.destinationMinDouble()) {
-                keep.clear(dsi);
-              }
-            }
-          }
-        }
-
-        // testLat
-        if (testLat) {
-          if (latEdv == null) {
-            keep.clear(dsi);
-          } else {
-            if (!Double.isNaN(minLat)) {
-              if (Double.isNaN(latEdv.destinationMaxDouble())
-                  || minLat > latEdv.destinationMaxDouble()) {
-                keep.clear(dsi);
-              }
-            }
-            if (!Double.isNaN(maxLat)) {
-              if (Double.isNaN(latEdv.destinationMinDouble())
-                  || maxLat < latEdv.destinationMinDouble()) {
-                keep.clear(dsi);
-              }
-            }
-          }
-        }
-
-        // testTime
-        if (testTime) {
-          if (timeEdv == null) {
-            keep.clear(dsi);
-          } else {
-            if (!Double.isNaN(minTimeD)) {
-              if (Double.isNaN(timeEdv.destinationMaxDouble())) {
-                // test is ambiguous, since destMax=NaN may mean current time
-              } else if (minTimeD > timeEdv.destinationMaxDouble()) {
-                keep.clear(dsi);
-              }
-            }
-            if (!Double.isNaN(maxTimeD)) {
-              if (Double.isNaN(timeEdv.destinationMinDouble())
-                  || maxTimeD < timeEdv.destinationMinDouble()) {
-                keep.clear(dsi);
-              }
-            }
-          }
-        }
+      // the extentIndex finds the datasets which match (see ExtentIndex for the rules)
+      HashSet<String> inBox =
+          EDStatic.extentIndex.search(
+              new double[] {minLon, minLat, minTimeD}, new double[] {maxLon, maxLat, maxTimeD});
+      if (matchingDatasetIDs == null) {
+        matchingDatasetIDs = new StringArray(inBox.iterator());
+        matchingDatasetIDs.sort();
+      } else {
+        int dsn = matchingDatasetIDs.size();
+        BitSet keep = new BitSet(dsn);
+        for (int dsi = 0; dsi < dsn; dsi++)
+          if (inBox.contains(matchingDatasetIDs.get(dsi))) keep.set(dsi);
+        matchingDatasetIDs.justKeep(keep);
       }
-      matchingDatasetIDs.justKeep(keep);
       // String2.log("  after boundingBox, nMatching=" + matchingDatasetIDs.size());
     }
 
@@ -16191,6 +16189,25 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
       jumpB[w] = String2.makeJumpTable(searchWordsB[w]);
     }
 
+    // If the original searchEngine is the only one, its index says which datasets may match
+    // (every loaded dataset is indexed by addRemoveDatasetInfo).
+    // Only those need to be searched by searchRank.
+    if (tSearchEngine.equals("original") && !EDStatic.useLuceneSearchEngine) {
+      HashSet<String> candidates =
+          EDStatic.originalSearchIndex.candidates(isNegative, searchWordsB);
+      if (candidates != null) { // null if the index can't narrow the search
+        // keep the candidates which are in tDatasetIDs
+        StringArray indexIDs = new StringArray();
+        if (!candidates.isEmpty()) {
+          HashSet<String> hashSet = new HashSet(Math2.roundToInt(1.4 * ntDatasetIDs));
+          for (int i = 0; i < ntDatasetIDs; i++) hashSet.add(tDatasetIDs.get(i));
+          for (String tId : candidates) if (hashSet.contains(tId)) indexIDs.add(tId);
+        }
+        tDatasetIDs = indexIDs;
+        ntDatasetIDs = tDatasetIDs.size();
+      }
+    }
+
     for (int i = 0; i < ntDatasetIDs; i++) {
       String tId = tDatasetIDs.get(i);
       EDD edd = gridDatasetHashMap.get(tId);
@@ -16228,6 +16245,8 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
               // "nDatasetsSearched=" + nDatasetsSearched +
               " nWords="
               + nSearchWords
+              + " nSearched="
+              + nDatasetsSearched
               + " nMatches="
               + rankPa.size()
               + " totalTime="
@@ -23688,6 +23707,23 @@ widgets.select("frequencyOption", "", 1, frequencyOptions, frequencyOption, "")
     // go through the gridDatasets
     String id = edd.datasetID();
 
+    // the original search engine's index
+    if (!EDStatic.useLuceneSearchEngine) {
+      if (add) EDStatic.originalSearchIndex.put(id, edd.searchBytes());
+      else EDStatic.originalSearchIndex.remove(id);
+    }
+
+    // Advanced Search's index of lon, lat, and time extents
+    if (add) EDStatic.extentIndex.put(id, edd);
+    else EDStatic.extentIndex.remove(id);
+
+    // the WMS tile cache checks the dataset's axis values and pre-renders its latest tiles
+    // (A reload removes then adds the dataset, so tiles are only removed when it is unloaded.)
+    if (add && edd instanceof EDDGrid eddGrid) {
+      WmsTileCache wmsTileCache = WmsTileCache.shared();
+      if (wmsTileCache != null) wmsTileCache.datasetLoaded(eddGrid, Erddap::renderWmsTile);
+    }
+
     // globalAtts
     categorizeGlobalAtts(add, catInfo, edd, id);
 
@@ -12,6 +12,7 @@ import com.cohort.util.Math2;
 import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import com.sun.management.UnixOperatingSystemMXBean;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
 import gov.noaa.pfel.coastwatch.util.SSR;
@@ -140,6 +141,9 @@ public class LoadDatasets extends Thread {
         Thread.sleep(Math2.shortSleep); // before get memoryString
         memoryInUse = Math2.getMemoryInUse();
         String2.log(Math2.memoryString() + " " + Math2.xmxMemoryString());
+        // close cached NetcdfFiles which haven't been used recently
+        // (the cache also does this whenever it is used)
+        NcFileCache.shared().evictExpired();
         // delete decompressed files if not used in last nMinutes (to keep cumulative size down)
         String2.log(
             "After deleting decompressed files not used in the last "
@@ -178,10 +182,15 @@ public class LoadDatasets extends Thread {
       // ensure EDDTableFromAllDatasets exists
       // If something causes it to not exist, this will recreate it soon.
       try {
-        if (!erddap.tableDatasetHashMap.containsKey(EDDTableFromAllDatasets.DATASET_ID))
-          erddap.tableDatasetHashMap.put(
-              EDDTableFromAllDatasets.DATASET_ID,
-              new EDDTableFromAllDatasets(erddap.gridDatasetHashMap, erddap.tableDatasetHashMap));
+        if (!erddap.tableDatasetHashMap.containsKey(EDDTableFromAllDatasets.DATASET_ID)) {
+          EDDTable allDatasets =
+              new EDDTableFromAllDatasets(erddap.gridDatasetHashMap, erddap.tableDatasetHashMap);
+          erddap.tableDatasetHashMap.put(EDDTableFromAllDatasets.DATASET_ID, allDatasets);
+          // it isn't added via addRemoveDatasetInfo, so add it to the original search index here
+          if (!EDStatic.useLuceneSearchEngine)
+            EDStatic.originalSearchIndex.put(
+                EDDTableFromAllDatasets.DATASET_ID, allDatasets.searchBytes());
+        }
       } catch (Throwable t) {
         String2.log(MustBe.throwableToString(t));
       }
@@ -656,6 +665,7 @@ public class LoadDatasets extends Thread {
 
               } else if (dataset instanceof EDDTable eddTable) {
                 if (oldDataset != null) erddap.gridDatasetHashMap.remove(tId); // was grid
+                if (oldDataset != null) removeFromTileCaches(tId);
                 erddap.tableDatasetHashMap.put(tId, eddTable); // now table
               }
 
@@ -690,6 +700,7 @@ public class LoadDatasets extends Thread {
               EDD tDataset = erddap.gridDatasetHashMap.remove(tId); // always ensure it was removed
               if (tDataset == null) tDataset = erddap.tableDatasetHashMap.remove(tId);
               if (oldDataset == null) oldDataset = tDataset;
+              if (oldDataset != null) removeFromTileCaches(tId);
 
               // if oldDataset existed, remove it from categoryInfo
               if (oldDataset != null && !oldCatInfoRemoved)
@@ -855,6 +866,13 @@ public class LoadDatasets extends Thread {
           EDStatic.ipAddressMaxRequestsActive = tnt;
           String2.log("ipAddressMaxRequestsActive=" + tnt);
 
+        } else if (tags.equals("<erddapDatasets><maxActiveRequests>")) {
+        } else if (tags.equals("<erddapDatasets></maxActiveRequests>")) {
+          int tnt = String2.parseInt(xmlReader.content());
+          tnt = tnt < 0 || tnt > 100000 ? EDStatic.DEFAULT_maxActiveRequests : tnt;
+          EDStatic.maxActiveRequests = tnt;
+          String2.log("maxActiveRequests=" + tnt);
+
         } else if (tags.equals("<erddapDatasets><ipAddressUnlimited>")) {
         } else if (tags.equals("<erddapDatasets></ipAddressUnlimited>")) {
           String ts = xmlReader.content();
@@ -862,12 +880,9 @@ public class LoadDatasets extends Thread {
               StringArray.fromCSVNoBlanks(ts + EDStatic.DEFAULT_ipAddressUnlimited).toArray();
           EDStatic.ipAddressUnlimited =
               new HashSet<String>(String2.toArrayList(sar)); // atomically swap into place
-          // then remove all these from ipAddressQueue
-          // This also offers a way to solve problem where a user has a
-          // request permanently in the ipAddressQueue so s/he only receives
-          // "Timeout waiting for your other requests to process.":
-          // This clears his/her ipAddressQueue.
-          for (int i = 0; i < sar.length; i++) EDStatic.ipAddressQueue.remove(sar[i]);
+          // then remove all these from the admissionController
+          // (their waiting requests are admitted immediately)
+          for (int i = 0; i < sar.length; i++) EDStatic.admissionController.removeIpAddress(sar[i]);
           String2.log("ipAddressUnlimited=" + String2.toCSVString(EDStatic.ipAddressUnlimited));
 
         } else if (tags.equals("<erddapDatasets><loadDatasetsMinMinutes>")) {
@@ -895,6 +910,34 @@ public class LoadDatasets extends Thread {
           EDStatic.setLogLevel(
               xmlReader.content()); // ""->"info".  It prints diagnostic to log.txt.
 
+        } else if (tags.equals("<erddapDatasets><gridReadAheadChunks>")) {
+        } else if (tags.equals("<erddapDatasets></gridReadAheadChunks>")) {
+          int tnt = String2.parseInt(xmlReader.content());
+          EDStatic.gridReadAheadChunks =
+              tnt < 0 || tnt > 100 ? EDStatic.DEFAULT_gridReadAheadChunks : tnt;
+          String2.log("gridReadAheadChunks=" + EDStatic.gridReadAheadChunks);
+
+        } else if (tags.equals("<erddapDatasets><gridTileCacheMB>")) {
+        } else if (tags.equals("<erddapDatasets></gridTileCacheMB>")) {
+          int tnt = String2.parseInt(xmlReader.content());
+          EDStatic.gridTileCacheMB =
+              tnt < 0 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_gridTileCacheMB : tnt;
+          String2.log("gridTileCacheMB=" + EDStatic.gridTileCacheMB);
+
+        } else if (tags.equals("<erddapDatasets><gridTileCacheDiskMB>")) {
+        } else if (tags.equals("<erddapDatasets></gridTileCacheDiskMB>")) {
+          int tnt = String2.parseInt(xmlReader.content());
+          EDStatic.gridTileCacheDiskMB =
+              tnt < 0 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_gridTileCacheDiskMB : tnt;
+          String2.log("gridTileCacheDiskMB=" + EDStatic.gridTileCacheDiskMB);
+
+        } else if (tags.equals("<erddapDatasets><wmsTileCacheMB>")) {
+        } else if (tags.equals("<erddapDatasets></wmsTileCacheMB>")) {
+          int tnt = String2.parseInt(xmlReader.content());
+          EDStatic.wmsTileCacheMB =
+              tnt < 0 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_wmsTileCacheMB : tnt;
+          String2.log("wmsTileCacheMB=" + EDStatic.wmsTileCacheMB);
+
         } else if (tags.equals("<erddapDatasets><nGridThreads>")) {
         } else if (tags.equals("<erddapDatasets></nGridThreads>")) {
           int tnt = String2.parseInt(xmlReader.content());
@@ -1490,6 +1533,7 @@ public class LoadDatasets extends Thread {
     String2.log("*** unloading datasetID=" + tId);
     erddap.addRemoveDatasetInfo(REMOVE, erddap.categoryInfo, oldEdd);
     File2.deleteAllFiles(EDD.cacheDirectory(tId));
+    removeFromTileCaches(tId);
     changedDatasetIDs.add(tId);
     if (needToUpdateLucene) erddap.updateLucene(changedDatasetIDs);
     // do dataset actions so subscribers know it is gone
@@ -1502,6 +1546,19 @@ public class LoadDatasets extends Thread {
     return true;
   }
 
+  /**
+   * This removes an unloaded dataset's tiles and statistics from the WmsTileCache and the
+   * GridTileCache (if they exist).
+   *
+   * @param tId a datasetID
+   */
+  private static void removeFromTileCaches(String tId) {
+    WmsTileCache wmsTileCache = WmsTileCache.sharedIfExists();
+    if (wmsTileCache != null) wmsTileCache.invalidate(tId);
+    GridTileCache gridTileCache = GridTileCache.sharedIfExists();
+    if (gridTileCache != null) gridTileCache.remove(tId);
+  }
+
   /**
    * This low level method adds/removes the global attribute categories of an EDD.
    *
@@ -2834,7 +2834,10 @@ public abstract class EDD {
       return false;
     } // else: this thread got the lock. Do the update!
     try {
-      return lowUpdate(language, msg, startUpdateMillis);
+      boolean changed = lowUpdate(language, msg, startUpdateMillis);
+      // lowUpdate may have replaced a variable (e.g., the time axis), so remake the extent
+      if (changed) EDStatic.extentIndex.changed(this);
+      return changed;
 
     } finally {
       lastUpdate = startUpdateMillis; // say dataset is now up-to-date (or at least tried)
@@ -37,6 +37,7 @@ import gov.noaa.pfel.coastwatch.util.HtmlWidgets;
 import gov.noaa.pfel.coastwatch.util.SSR;
 import gov.noaa.pfel.erddap.util.*;
 import gov.noaa.pfel.erddap.variable.*;
+import gov.noaa.pmel.sgt.GridCartesianRenderer;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.awt.Color;
@@ -2566,6 +2567,45 @@ public abstract class EDDGrid extends EDD {
       int language, Table tDirTable, Table tFileTable, EDV tDataVariables[], IntArray tConstraints)
       throws Throwable;
 
+  /** This gets data from the data source (see getSourceData). */
+  protected interface SourceDataGetter {
+    PrimitiveArray[] get(EDV tDataVariables[], IntArray tConstraints) throws Throwable;
+  }
+
+  /**
+   * Subclasses for remote sources call this from getSourceData to get the data via the server-wide
+   * GridTileCache (if it is active, see EDStatic.gridTileCacheMB), so popular regions aren't
+   * requested from the remote server over and over.
+   *
+   * @param tDataVariables EDV[] with just the requested data variables
+   * @param tConstraints the constraints, as for getSourceData
+   * @param getter gets data (for some of tDataVariables and tile-aligned constraints) from the
+   *     source
+   * @return the results, as for getSourceData
+   * @throws Throwable if trouble (notably, WaitThenTryAgainException)
+   */
+  protected PrimitiveArray[] getSourceDataViaTileCache(
+      EDV tDataVariables[], IntArray tConstraints, SourceDataGetter getter) throws Throwable {
+    GridTileCache tileCache = GridTileCache.shared();
+    if (tileCache == null) return getter.get(tDataVariables, tConstraints);
+    PrimitiveArray axisValues[] = new PrimitiveArray[axisVariables.length];
+    for (int av = 0; av < axisVariables.length; av++)
+      axisValues[av] = axisVariables[av].sourceValues();
+    String dvNames[] = new String[tDataVariables.length];
+    for (int dv = 0; dv < tDataVariables.length; dv++)
+      dvNames[dv] = tDataVariables[dv].sourceName();
+    return tileCache.getSourceData(
+        datasetID,
+        axisValues,
+        dvNames,
+        tConstraints,
+        (dvs, constraints) -> {
+          EDV tDvs[] = new EDV[dvs.length];
+          for (int i = 0; i < dvs.length; i++) tDvs[i] = tDataVariables[dvs[i]];
+          return getter.get(tDvs, constraints);
+        });
+  }
+
   /**
    * This makes a sibling dataset, based on the new sourceUrl.
    *
@@ -7108,6 +7148,7 @@ public abstract class EDDGrid extends EDD {
     String drawLegend = LEGEND_BOTTOM;
     int trim = Integer.MAX_VALUE;
     boolean ok = true;
+    GridDataAccessor gda = null;
 
     try {
       // can't handle axis request
@@ -7845,7 +7886,7 @@ public abstract class EDDGrid extends EDD {
       }
       String newQuery = buildDapQuery(newReqDataNames, constraints);
       if (reallyVerbose) String2.log("  newQuery=" + newQuery);
-      GridDataAccessor gda =
+      gda =
           new GridDataAccessor(
               language,
               this,
@@ -8431,6 +8472,7 @@ public abstract class EDDGrid extends EDD {
 
         bufferedImage = SgtUtil.getBufferedImage(imageWidth, imageHeight);
         g2 = (Graphics2D) bufferedImage.getGraphics();
+        g2.setRenderingHint(GridCartesianRenderer.KEY_RASTER_DESTINATION, Boolean.TRUE);
       }
 
       if (transparentPng) {
@@ -8683,6 +8725,7 @@ public abstract class EDDGrid extends EDD {
             // make a new image (I don't think pdf can work this way -- sent as created)
             bufferedImage = SgtUtil.getBufferedImage(imageWidth, imageHeight);
             g2 = (Graphics2D) bufferedImage.getGraphics();
+            g2.setRenderingHint(GridCartesianRenderer.KEY_RASTER_DESTINATION, Boolean.TRUE);
           }
           if (transparentPng) {
             // don't write the message
@@ -8713,6 +8756,8 @@ public abstract class EDDGrid extends EDD {
         }
         // else fall through to close/save image below
       }
+    } finally {
+      if (gda != null) gda.releaseResources();
     }
 
     // save image
@@ -10342,13 +10387,16 @@ public abstract class EDDGrid extends EDD {
 
     // make the data miMatrix
     for (int dv = 0; dv < ntDv; dv++) {
-      writeNDimensionalMatlabArray(
-          language,
-          stream,
-          "", // name is written above
-          tGda[dv],
-          dvNDIndex[dv]);
-      tGda[dv].releaseResources();
+      try {
+        writeNDimensionalMatlabArray(
+            language,
+            stream,
+            "", // name is written above
+            tGda[dv],
+            dvNDIndex[dv]);
+      } finally {
+        tGda[dv].releaseResources();
+      }
     }
 
     // this doesn't write attributes because .mat files don't store attributes
@@ -11527,30 +11575,35 @@ public abstract class EDDGrid extends EDD {
     }
 
     // write the data
-    int tRows = 0;
-    while (gridDataAccessor.increment()) {
-      // add a row of data to the table
-      for (int av = 0; av < nAv; av++)
-        gridDataAccessor.getAxisValueAsPAOne(av, avPAOne[av]).addTo(avPa[av]);
-
-      for (int dv = 0; dv < nDv; dv++)
-        gridDataAccessor.getDataValueAsPAOne(dv, dvPAOne[dv]).addTo(dvPa[dv]);
-
-      tRows++;
-
-      // write the table
-      if (tRows >= nBufferRows) {
-        tw.writeSome(table);
-        table.removeAllRows();
-        tRows = 0;
-        if (tw.noMoreDataPlease) {
-          tw.logCaughtNoMoreDataPlease(datasetID);
-          break;
+    // (and stop the read ahead, e.g., if the tableWriter wants no more data)
+    try {
+      int tRows = 0;
+      while (gridDataAccessor.increment()) {
+        // add a row of data to the table
+        for (int av = 0; av < nAv; av++)
+          gridDataAccessor.getAxisValueAsPAOne(av, avPAOne[av]).addTo(avPa[av]);
+
+        for (int dv = 0; dv < nDv; dv++)
+          gridDataAccessor.getDataValueAsPAOne(dv, dvPAOne[dv]).addTo(dvPa[dv]);
+
+        tRows++;
+
+        // write the table
+        if (tRows >= nBufferRows) {
+          tw.writeSome(table);
+          table.removeAllRows();
+          tRows = 0;
+          if (tw.noMoreDataPlease) {
+            tw.logCaughtNoMoreDataPlease(datasetID);
+            break;
+          }
         }
       }
+      if (tRows > 0) tw.writeSome(table);
+      tw.finish();
+    } finally {
+      gridDataAccessor.releaseGetResources();
     }
-    if (tRows > 0) tw.writeSome(table);
-    tw.finish();
   }
 
   /**
@@ -32,6 +32,7 @@ import gov.noaa.pfel.erddap.Erddap;
 import gov.noaa.pfel.erddap.handlers.EDDGridFromDapHandler;
 import gov.noaa.pfel.erddap.handlers.SaxHandlerClass;
 import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.ThreadedWorkManager;
 import gov.noaa.pfel.erddap.variable.*;
 import java.io.ByteArrayInputStream;
 import java.io.Writer;
@@ -40,6 +41,9 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
 import thredds.client.catalog.Access;
 import thredds.client.catalog.Catalog;
 import thredds.client.catalog.Dataset;
@@ -67,6 +71,25 @@ public class EDDGridFromDap extends EDDGrid {
    */
   public static boolean acceptDeflate = true;
 
+  /**
+   * For each source server (protocol+domain), the permits for extra connections (see
+   * extraConnectionPermits).
+   */
+  private static final ConcurrentHashMap<String, Semaphore> extraConnectionPermits =
+      new ConcurrentHashMap<>();
+
+  /** This gets the source data for one data variable (see getSourceDataArrays). */
+  @FunctionalInterface
+  interface DataVariableFetcher {
+    PrimitiveArray[] fetch(int dv) throws Throwable;
+  }
+
+  /** This checks and stores the source data for one data variable (see storeSourceData). */
+  @FunctionalInterface
+  interface DataVariableStorer {
+    void store(int dv, PrimitiveArray pa[]) throws Throwable;
+  }
+
   /**
    * This constructs an EDDGridFromDap based on the information in an .xml file.
    *
@@ -964,102 +987,213 @@ public class EDDGridFromDap extends EDDGrid {
   public PrimitiveArray[] getSourceData(
       int language, Table tDirTable, Table tFileTable, EDV tDataVariables[], IntArray tConstraints)
       throws Throwable {
+    return getSourceDataViaTileCache(
+        tDataVariables, tConstraints, (dvs, c) -> getSourceDataFromSource(language, dvs, c));
+  }
+
+  /**
+   * This gets source data from the remote server (not via the GridTileCache). See getSourceData.
+   */
+  private PrimitiveArray[] getSourceDataFromSource(
+      int language, EDV tDataVariables[], IntArray tConstraints) throws Throwable {
 
     // build String form of the constraint
     // String errorInMethod = "Error in EDDGridFromDap.getSourceData for " + datasetID + ": ";
     String constraint = buildDapArrayQuery(tConstraints);
+    int ndv = tDataVariables.length;
+    PrimitiveArray results[] = new PrimitiveArray[axisVariables.length + ndv];
+
+    // ???why not get all the dataVariables at once?
+    // thredds has (and other servers may have) limits to the size of a given request
+    // so breaking into parts avoids the problem.
+    // But the parts can be gotten at the same time (up to nThreads at once,
+    // and limited by the number of extra connections to this source's server).
+    int tnThreads =
+        nThreads >= 1 && nThreads < Integer.MAX_VALUE ? nThreads : EDStatic.nGridThreads;
+    tnThreads = adjustNThreads(Math.min(tnThreads, ndv));
+    getDataVariables(
+        datasetID,
+        tnThreads,
+        extraConnectionPermits(localSourceUrl),
+        ndv,
+        dv -> getSourceDataArrays(language, "?" + tDataVariables[dv].sourceName() + constraint),
+        (dv, pa) -> storeSourceData(language, tConstraints, results, dv, pa));
+    return results;
+  }
 
-    DConnect dConnect = new DConnect(localSourceUrl, acceptDeflate, 1, 1);
-    PrimitiveArray results[] = new PrimitiveArray[axisVariables.length + tDataVariables.length];
-    for (int dv = 0; dv < tDataVariables.length; dv++) {
-      // ???why not get all the dataVariables at once?
-      // thredds has (and other servers may have) limits to the size of a given request
-      // so breaking into parts avoids the problem.
+  /**
+   * This gets the source data for nDv data variables, up to tnThreads at once, and stores the
+   * results in data variable order. Each request always gets one connection to the source's
+   * server. The others come from extraConnections; if none are free, fewer threads are used. If a
+   * fetch or store fails, the unfinished fetches are cancelled and the original exception is
+   * thrown.
+   *
+   * @param group the WorkScheduler group (the datasetID)
+   * @param tnThreads the maximum number of data variables to get at once
+   * @param extraConnections the permits for extra connections to the source's server (see
+   *     extraConnectionPermits). The permits are released before this returns.
+   * @param nDv the number of data variables
+   * @param fetcher gets the source data for a data variable. This may be run in a WorkScheduler
+   *     thread.
+   * @param storer checks and stores the source data for a data variable (in this thread)
+   * @throws Throwable if trouble
+   */
+  static void getDataVariables(
+      String group,
+      int tnThreads,
+      Semaphore extraConnections,
+      int nDv,
+      DataVariableFetcher fetcher,
+      DataVariableStorer storer)
+      throws Throwable {
+    int nExtra = 0;
+    while (nExtra < tnThreads - 1 && extraConnections.tryAcquire()) nExtra++;
+    int[] nextDv = {0};
+    ThreadedWorkManager<PrimitiveArray[]> workManager =
+        new ThreadedWorkManager<>(group, 1 + nExtra, pa -> storer.store(nextDv[0]++, pa));
+    try {
+      for (int dv = 0; dv < nDv; dv++) {
+        int tDv = dv;
+        workManager.addTask(
+            () -> {
+              try {
+                return fetcher.fetch(tDv);
+              } catch (Exception e) {
+                throw e; // allowed in call()
+              } catch (Throwable t) {
+                // not allowed in call(), so wrap it so it will be unwrapped below
+                throw new ExecutionException(t);
+              }
+            });
+      }
+      workManager.finishedEnqueing();
+      workManager.processResults();
+    } catch (ExecutionException e) {
+      Throwable t = e;
+      while (t instanceof ExecutionException && t.getCause() != null) // may be doubly wrapped
+      t = t.getCause();
+      throw t;
+    } finally {
+      // cancel any unfinished tasks (e.g., if there was an exception)
+      workManager.forceShutdown();
+      extraConnections.release(nExtra);
+    }
+  }
 
-      // get the data
-      PrimitiveArray pa[] = null;
-      try {
-        pa =
-            OpendapHelper.getPrimitiveArrays(
-                dConnect, "?" + tDataVariables[dv].sourceName() + constraint);
-      } catch (Throwable t) {
-        EDStatic.rethrowClientAbortException(t); // first thing in catch{}
+  /**
+   * This returns the semaphore which limits the number of extra connections (beyond one per
+   * request) that getSourceData uses to get data variables in parallel from the server of
+   * tLocalSourceUrl. The limit is the JVM's http.maxConnections (default 5), which is the number of
+   * idle connections to each server that the JVM keeps alive for reuse.
+   */
+  static Semaphore extraConnectionPermits(String tLocalSourceUrl) {
+    String key = File2.getProtocolDomain(tLocalSourceUrl);
+    return extraConnectionPermits.computeIfAbsent(
+        key, k -> new Semaphore(Math.max(0, Integer.getInteger("http.maxConnections", 5))));
+  }
 
-        // if OutOfMemoryError or too much data, rethrow t
-        String tToString = t.toString();
-        if (Thread.currentThread().isInterrupted()
-            || t instanceof InterruptedException
-            || t instanceof OutOfMemoryError
-            || tToString.indexOf(Math2.memoryTooMuchData) >= 0
-            || tToString.indexOf(Math2.TooManyOpenFiles) >= 0) throw t;
+  /**
+   * This gets the source data for one data variable. This may be run in a WorkScheduler thread, so
+   * it uses its own DConnect (a DConnect isn't thread-safe).
+   *
+   * @param language the index of the selected language
+   * @param query the OPeNDAP query, e.g., ?sst[0:1:10][0:1:20]
+   * @return the PrimitiveArray[] from OpendapHelper.getPrimitiveArrays
+   * @throws Throwable if trouble (notably, WaitThenTryAgainException)
+   */
+  private PrimitiveArray[] getSourceDataArrays(int language, String query) throws Throwable {
+    try {
+      DConnect dConnect = new DConnect(localSourceUrl, acceptDeflate, 1, 1);
+      return OpendapHelper.getPrimitiveArrays(dConnect, query);
+    } catch (Throwable t) {
+      EDStatic.rethrowClientAbortException(t); // first thing in catch{}
+
+      // if OutOfMemoryError or too much data, rethrow t
+      String tToString = t.toString();
+      if (Thread.currentThread().isInterrupted()
+          || t instanceof InterruptedException
+          || t instanceof OutOfMemoryError
+          || tToString.indexOf(Math2.memoryTooMuchData) >= 0
+          || tToString.indexOf(Math2.TooManyOpenFiles) >= 0) throw t;
+
+      String2.log(MustBe.throwableToString(t));
+      throw t instanceof WaitThenTryAgainException
+          ? t
+          : new WaitThenTryAgainException(
+              EDStatic.simpleBilingual(language, EDStatic.waitThenTryAgainAr)
+                  + "\n("
+                  + EDStatic.errorFromDataSource
+                  + t.toString()
+                  + ")",
+              t);
+    }
+  }
 
-        String2.log(MustBe.throwableToString(t));
-        throw t instanceof WaitThenTryAgainException
-            ? t
-            : new WaitThenTryAgainException(
-                EDStatic.simpleBilingual(language, EDStatic.waitThenTryAgainAr)
-                    + "\n("
-                    + EDStatic.errorFromDataSource
-                    + t.toString()
-                    + ")",
-                t);
+  /**
+   * This checks the source data for one data variable (in the order of tDataVariables) and stores
+   * it in results.
+   *
+   * @param language the index of the selected language
+   * @param tConstraints the constraints passed to getSourceData
+   * @param results the results of getSourceData
+   * @param dv the data variable's number in tDataVariables
+   * @param pa the PrimitiveArray[] from getSourceDataArrays
+   * @throws WaitThenTryAgainException if pa isn't as expected
+   */
+  private void storeSourceData(
+      int language, IntArray tConstraints, PrimitiveArray results[], int dv, PrimitiveArray pa[])
+      throws WaitThenTryAgainException {
+    if (pa.length == 1) {
+      // it's a DArray
+      if (dv == 0) {
+        // GridDataAccessor compares observed and expected axis values
+        int av3 = 0;
+        for (int av = 0; av < axisVariables.length; av++) {
+          results[av] =
+              axisVariables[av]
+                  .sourceValues()
+                  .subset(
+                      tConstraints.get(av3), tConstraints.get(av3 + 1), tConstraints.get(av3 + 2));
+          av3 += 3;
+        }
       }
 
-      if (pa.length == 1) {
-        // it's a DArray
-        if (dv == 0) {
-          // GridDataAccessor compares observed and expected axis values
-          int av3 = 0;
-          for (int av = 0; av < axisVariables.length; av++) {
-            results[av] =
-                axisVariables[av]
-                    .sourceValues()
-                    .subset(
-                        tConstraints.get(av3),
-                        tConstraints.get(av3 + 1),
-                        tConstraints.get(av3 + 2));
-            av3 += 3;
-          }
+    } else if (pa.length == axisVariables.length + 1) {
+      // it's a DGrid;  test the axes
+      if (dv == 0) {
+        // GridDataAccessor compares observed and expected axis values
+        for (int av = 0; av < axisVariables.length; av++) {
+          results[av] = pa[av + 1];
         }
-
-      } else if (pa.length == axisVariables.length + 1) {
-        // it's a DGrid;  test the axes
-        if (dv == 0) {
-          // GridDataAccessor compares observed and expected axis values
-          for (int av = 0; av < axisVariables.length; av++) {
-            results[av] = pa[av + 1];
-          }
-        } else if (pa.length != 1) {
-          for (int av = 0; av < axisVariables.length; av++) {
-            String tError = results[av].almostEqual(pa[av + 1]);
-            if (tError.length() > 0)
-              throw new WaitThenTryAgainException(
-                  EDStatic.simpleBilingual(language, EDStatic.waitThenTryAgainAr)
-                      + "\nDetails: The axis values for dataVariable=0,axis="
-                      + av
-                      + ")\ndon't equal the axis values for dataVariable="
-                      + dv
-                      + ",axis="
-                      + av
-                      + ".\n"
-                      + tError);
-          }
+      } else if (pa.length != 1) {
+        for (int av = 0; av < axisVariables.length; av++) {
+          String tError = results[av].almostEqual(pa[av + 1]);
+          if (tError.length() > 0)
+            throw new WaitThenTryAgainException(
+                EDStatic.simpleBilingual(language, EDStatic.waitThenTryAgainAr)
+                    + "\nDetails: The axis values for dataVariable=0,axis="
+                    + av
+                    + ")\ndon't equal the axis values for dataVariable="
+                    + dv
+                    + ",axis="
+                    + av
+                    + ".\n"
+                    + tError);
         }
-
-      } else {
-        throw new WaitThenTryAgainException(
-            EDStatic.simpleBilingual(language, EDStatic.waitThenTryAgainAr)
-                + "\nDetails: An unexpected data structure was returned from the source (size observed="
-                + pa.length
-                + ", expected="
-                + (axisVariables.length + 1)
-                + ").");
       }
 
-      // store the grid data
-      results[axisVariables.length + dv] = pa[0];
+    } else {
+      throw new WaitThenTryAgainException(
+          EDStatic.simpleBilingual(language, EDStatic.waitThenTryAgainAr)
+              + "\nDetails: An unexpected data structure was returned from the source (size observed="
+              + pa.length
+              + ", expected="
+              + (axisVariables.length + 1)
+              + ").");
     }
-    return results;
+
+    // store the grid data
+    results[axisVariables.length + dv] = pa[0];
   }
 
   /**
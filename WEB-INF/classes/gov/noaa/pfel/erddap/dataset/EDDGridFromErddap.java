@@ -899,6 +899,15 @@ public class EDDGridFromErddap extends EDDGrid implements FromErddap {
   public PrimitiveArray[] getSourceData(
       int language, Table tDirTable, Table tFileTable, EDV tDataVariables[], IntArray tConstraints)
       throws Throwable {
+    return getSourceDataViaTileCache(
+        tDataVariables, tConstraints, (dvs, c) -> getSourceDataFromSource(language, dvs, c));
+  }
+
+  /**
+   * This gets source data from the remote server (not via the GridTileCache). See getSourceData.
+   */
+  private PrimitiveArray[] getSourceDataFromSource(
+      int language, EDV tDataVariables[], IntArray tConstraints) throws Throwable {
 
     // build String form of the constraint
     // String errorInMethod = "Error in EDDGridFromErddap.getSourceData for " + datasetID + ": ";
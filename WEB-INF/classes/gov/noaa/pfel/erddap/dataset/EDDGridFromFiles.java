@@ -22,6 +22,7 @@ import com.cohort.util.String2;
 import com.cohort.util.Test;
 import com.cohort.util.Units2;
 import com.google.common.base.Strings;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
 import gov.noaa.pfel.coastwatch.util.RegexFilenameFilter;
@@ -1871,6 +1872,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
         throw new SimpleException("EDDGridFromFiles.lowUpdate" + EDStatic.caughtInterruptedAr[0]);
 
       String fullName = contexts.get(evi);
+      NcFileCache.shared().invalidate(fullName); // it may have changed or been deleted
       String dirName = File2.getDirectory(fullName);
       String fileName = File2.getNameAndExtension(fullName); // matched to fileNameRegex above
 
@@ -2795,6 +2797,7 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
     tnThreads = adjustNThreads(tnThreads);
     ThreadedWorkManager<PrimitiveArray[]> workManager =
         new ThreadedWorkManager<>(
+            datasetID,
             tnThreads,
             result -> {
               // merge dataVariables   (converting to sourceDataPAType if needed)
@@ -2805,65 +2808,70 @@ public abstract class EDDGridFromFiles extends EDDGrid implements WatchUpdateHan
               // String2.log("!merged tResults[1stDV]=" + results[nav].toString());
             });
 
-    while (axis0Start <= axis0Stop) {
-      if (Thread.currentThread().isInterrupted()) {
-        if (workManager != null) workManager.forceShutdown();
-        throw new SimpleException(
-            "EDDGridFromFiles.getDataForDapQuery" + EDStatic.caughtInterruptedAr[0]);
+    try {
+      while (axis0Start <= axis0Stop) {
+        if (Thread.currentThread().isInterrupted()) {
+          if (workManager != null) workManager.forceShutdown();
+          throw new SimpleException(
+              "EDDGridFromFiles.getDataForDapQuery" + EDStatic.caughtInterruptedAr[0]);
+        }
+
+        // find next relevant file
+        ftRow = ftStartIndex.binaryFindLastLE(ftRow, nFiles - 1, PAOne.fromInt(axis0Start));
+        int tNValues = ftNValues.get(ftRow);
+        int tStart = axis0Start - ftStartIndex.get(ftRow);
+        int tStop = tStart;
+        // get as many axis0 values as possible from this file
+        //                    (in this file, if this file had all the remaining values)
+        int lookMax = Math.min(tNValues - 1, axis0Stop - ftStartIndex.get(ftRow));
+        while (tStop + axis0Stride <= lookMax) tStop += axis0Stride;
+        // String2.log("!tStart=" + tStart + " stride=" + axis0Stride + " tStop=" + tStop + "
+        // tNValues=" + tNValues);
+
+        // set ttConstraints
+        ttConstraints.set(0, tStart);
+        ttConstraints.set(2, tStop);
+        String tFileDir = dirList.get(ftDirIndex.get(ftRow));
+        String tFileName = ftFileList.get(ftRow);
+        if (reallyVerbose)
+          String2.log(
+              "ftRow="
+                  + ftRow
+                  + " axis0Start="
+                  + axis0Start
+                  + " local="
+                  + tStart
+                  + ":"
+                  + axis0Stride
+                  + ":"
+                  + tStop
+                  + " "
+                  + tFileDir
+                  + tFileName);
+
+        workManager.addTask(
+            new GetGridFromFileCallable(
+                this,
+                tFileDir,
+                tFileName, // it calls ensureInCache()
+                tDataVariables,
+                ttConstraints,
+                ftDirIndex.get(ftRow),
+                ftLastMod.get(ftRow)));
+
+        // set up for next while-iteration
+        axis0Start += (tStop - tStart) + axis0Stride;
+        ftRow++; // first possible file is next file
       }
 
-      // find next relevant file
-      ftRow = ftStartIndex.binaryFindLastLE(ftRow, nFiles - 1, PAOne.fromInt(axis0Start));
-      int tNValues = ftNValues.get(ftRow);
-      int tStart = axis0Start - ftStartIndex.get(ftRow);
-      int tStop = tStart;
-      // get as many axis0 values as possible from this file
-      //                    (in this file, if this file had all the remaining values)
-      int lookMax = Math.min(tNValues - 1, axis0Stop - ftStartIndex.get(ftRow));
-      while (tStop + axis0Stride <= lookMax) tStop += axis0Stride;
-      // String2.log("!tStart=" + tStart + " stride=" + axis0Stride + " tStop=" + tStop + "
-      // tNValues=" + tNValues);
-
-      // set ttConstraints
-      ttConstraints.set(0, tStart);
-      ttConstraints.set(2, tStop);
-      String tFileDir = dirList.get(ftDirIndex.get(ftRow));
-      String tFileName = ftFileList.get(ftRow);
-      if (reallyVerbose)
-        String2.log(
-            "ftRow="
-                + ftRow
-                + " axis0Start="
-                + axis0Start
-                + " local="
-                + tStart
-                + ":"
-                + axis0Stride
-                + ":"
-                + tStop
-                + " "
-                + tFileDir
-                + tFileName);
-
-      workManager.addTask(
-          new GetGridFromFileCallable(
-              this,
-              tFileDir,
-              tFileName, // it calls ensureInCache()
-              tDataVariables,
-              ttConstraints,
-              ftDirIndex.get(ftRow),
-              ftLastMod.get(ftRow)));
-
-      // set up for next while-iteration
-      axis0Start += (tStop - tStart) + axis0Stride;
-      ftRow++; // first possible file is next file
+      workManager.finishedEnqueing();
+      // Make sure all of the work has been processed.
+      workManager.processResults();
+    } finally {
+      // cancel any unfinished tasks (e.g., if there was an exception)
+      workManager.forceShutdown();
     }
 
-    workManager.finishedEnqueing();
-    // Make sure all of the work has been processed.
-    workManager.processResults();
-
     return results;
   }
 
@@ -19,6 +19,7 @@ import com.cohort.util.String2;
 import com.cohort.util.Units2;
 import com.cohort.util.XML;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
@@ -154,7 +155,8 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
     String getWhat = "globalAttributes";
     String group = "";
     int groupSlashCount = 0;
-    NetcdfFile ncFile = NcHelper.openFile(tFullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(tFullName);
+    NetcdfFile ncFile = lease.file();
     try {
 
       // This is cognizant of special axis0
@@ -236,7 +238,7 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
           t);
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -261,7 +263,8 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
       String tFullName, StringArray sourceAxisNames, StringArray sourceDataNames) throws Throwable {
 
     String getWhat = "?";
-    NetcdfFile ncFile = NcHelper.openFile(tFullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(tFullName);
+    NetcdfFile ncFile = lease.file();
     try {
       PrimitiveArray[] avPa = new PrimitiveArray[sourceAxisNames.size()];
 
@@ -314,7 +317,7 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
           t);
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -357,7 +360,8 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
     int nValues = -1; // not yet calculated
     EDV edv = null;
 
-    NetcdfFile ncFile = NcHelper.openFile(tFullName);
+    NcFileCache.Lease lease = NcHelper.acquireFile(tFullName);
+    NetcdfFile ncFile = lease.file();
     try {
 
       for (int dvi = 0; dvi < ndv; dvi++) {
@@ -458,10 +462,11 @@ public abstract class EDDGridFromNcLow extends EDDGridFromFiles {
               + "["
               + selection
               + "] (start:STOP:stride).");
+      lease.discard(); // don't reuse this open file
       throw t;
     } finally {
       try {
-        if (ncFile != null) ncFile.close();
+        lease.close();
       } catch (Exception e9) {
       }
     }
@@ -614,6 +614,11 @@ public abstract class EDDTable extends EDD {
    */
   private String subsetVariables[] = null;
 
+  /** The in-memory index of the subsetVariables data (or null if not made yet). */
+  private volatile SubsetIndex subsetIndex = null;
+
+  private final Object subsetIndexLock = new Object();
+
   public static String DEFAULT_SUBSET_VIEWS = // viewDistinctData will default to 1000
       "&.viewDistinctMap=true";
 
@@ -883,6 +888,16 @@ public abstract class EDDTable extends EDD {
       Table table = distinctSubsetVariablesDataTable(0, null, null);
       // it calls subsetVariablesDataTable(0, null);
 
+      // if the dataset is being reloaded and the subset data hasn't changed,
+      // reuse the previous instance's subsetIndex
+      EDDTable previous =
+          EDStatic.tableDatasetHashMap == null ? null : EDStatic.tableDatasetHashMap.get(datasetID);
+      SubsetIndex previousIndex = previous == null ? null : previous.subsetIndex;
+      if (previousIndex != null && previousIndex.isFor(subsetVariablesDataTable(0, null))) {
+        subsetIndex = previousIndex;
+        if (verbose) String2.log("  reusing the previous subsetIndex");
+      }
+
       // now go back and set destinationMin/Max
       // see EDDTableFromDap.testSubsetVariablesRange()
       int nCol = table.nColumns();
@@ -13635,8 +13650,10 @@ public abstract class EDDTable extends EDD {
       }
     }
 
-    // make/read all of the subsetVariable data
-    Table subsetTable = subsetVariablesDataTable(language, loggedInAs);
+    // get the index of all of the subsetVariable data
+    // (subsetIndex.table() is not a copy, so don't change it)
+    SubsetIndex subsetIndex = subsetIndex(language, loggedInAs);
+    Table subsetTable = subsetIndex.table();
 
     // if either map is possible, make consistent lonLatConstraints (specifies map extent)
     boolean distinctMapIsPossible =
@@ -13699,9 +13716,9 @@ public abstract class EDDTable extends EDD {
     }
 
     // reduce subsetTable to "bigTable"  (as if lastP param was set to ANY)
-    int nRows = subsetTable.nRows();
-    BitSet keep = new BitSet(nRows);
-    keep.set(0, nRows); // set all to true
+    // Test each column's distinct values, then get the rows with the allowed values.
+    // subsetTable becomes a new table (which can be changed).
+    BitSet allowed[] = new BitSet[subsetVariables.length];
     for (int p = 0; p < subsetVariables.length; p++) {
       String tParam = param[p];
       if (tParam == null || p == lastP) // don't include lastP param in bigTable
@@ -13710,20 +13727,26 @@ public abstract class EDDTable extends EDD {
       EDV edv = findDataVariableByDestinationName(subsetVariables[p]);
       EDVTimeStamp edvTimeStamp = edv instanceof EDVTimeStamp t ? t : null;
       String tTime_precision = edvTimeStamp == null ? null : edvTimeStamp.time_precision();
-      PrimitiveArray pa = subsetTable.findColumn(subsetVariables[p]);
+      int col = subsetIndex.findColumnNumber(subsetVariables[p]);
+      PrimitiveArray pa = subsetIndex.values(col);
       if (edvTimeStamp == null && !(pa instanceof StringArray) && tParam.equals("NaN"))
         tParam = ""; // e.g., doubleArray.getString() for NaN returns ""
-      for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
+      int nValues = pa.size();
+      allowed[col] = new BitSet(nValues);
+      for (int code = 0; code < nValues; code++) {
         String value =
             edvTimeStamp == null
-                ? pa.getString(row)
+                ? pa.getString(code)
                 : Calendar2.epochSecondsToLimitedIsoStringT(
-                    tTime_precision, pa.getDouble(row), "NaN");
-        keep.set(row, tParam.equals(value)); // tParam isn't null; pa.getString might be
+                    tTime_precision, pa.getDouble(code), "NaN");
+        if (tParam.equals(value)) // tParam isn't null; pa.getString might be
+        allowed[col].set(code);
       }
     }
-    subsetTable.justKeep(keep);
-    nRows = subsetTable.nRows(); // valid params should always yield at least 1, but don't sometimes
+    subsetTable = subsetIndex.subset(subsetIndex.select(allowed));
+    // valid params should always yield at least 1, but don't sometimes
+    int nRows = subsetTable.nRows();
+    BitSet keep;
     if (reallyVerbose) String2.log("  bigTable nRows=" + nRows);
 
     // save lastP column  in a different PrimitiveArray
@@ -15091,6 +15114,10 @@ public abstract class EDDTable extends EDD {
    * @throws Throwable if trouble (e.g., not accessibleViaSubset())
    */
   public Table subsetVariablesDataTable(int language, String loggedInAs) throws Throwable {
+    // get a copy from subsetIndex?
+    SubsetIndex index = subsetIndex;
+    if (index != null) return index.subset(null);
+
     String subsetFileName = subsetVariablesFileName(loggedInAs);
 
     // The .subset.nc file is made by the constructor.
@@ -15335,6 +15362,56 @@ public abstract class EDDTable extends EDD {
     return table;
   }
 
+  /**
+   * This indicates if subsetVariablesDataTable() and distinctSubsetVariablesDataTable() are made on
+   * the fly and may be different for each loggedInAs (e.g., EDDTableFromAllDatasets only lists the
+   * datasets the user has access to), so the subsetIndex mustn't be cached.
+   *
+   * @return true if the subsetVariables data depends on loggedInAs. This returns false.
+   */
+  protected boolean subsetVariablesDataIsPerUser() {
+    return false;
+  }
+
+  /**
+   * This returns the in-memory index of the subsetVariables data table and the distinct
+   * subsetVariables data table, making it (from those tables) if needed. Once it exists,
+   * subsetVariablesDataTable() and distinctSubsetVariablesDataTable() return copies of its data
+   * (instead of reading the files). If subsetVariablesDataIsPerUser(), a new, uncached index is
+   * made for each call.
+   *
+   * @param language the index of the selected language
+   * @param loggedInAs the name of the logged in user (or null if not logged in)
+   * @return the SubsetIndex
+   * @throws Throwable if trouble (e.g., not accessibleViaSubset())
+   */
+  public SubsetIndex subsetIndex(int language, String loggedInAs) throws Throwable {
+    if (subsetVariablesDataIsPerUser())
+      return new SubsetIndex(
+          subsetVariablesDataTable(language, loggedInAs),
+          distinctSubsetVariablesDataTable(language, loggedInAs, null));
+    SubsetIndex index = subsetIndex;
+    if (index != null) return index;
+    synchronized (subsetIndexLock) {
+      if (subsetIndex == null) {
+        long time = System.currentTimeMillis();
+        Table table = subsetVariablesDataTable(language, loggedInAs);
+        Table distinctTable = distinctSubsetVariablesDataTable(language, loggedInAs, null);
+        subsetIndex = new SubsetIndex(table, distinctTable);
+        if (verbose)
+          String2.log(
+              "* "
+                  + datasetID
+                  + " made subsetIndex nRows="
+                  + table.nRows()
+                  + " time="
+                  + (System.currentTimeMillis() - time)
+                  + "ms");
+      }
+      return subsetIndex;
+    }
+  }
+
   /**
    * This returns the distinct subsetVariables data table. NOTE: the columns are unrelated! Each
    * column is sorted separately! NOTE: this fully supports all data types (including 2byte chars,
@@ -15357,13 +15434,17 @@ public abstract class EDDTable extends EDD {
     String fullDistinctFileName = datasetDir() + distinctSubsetVariablesFileName(loggedInAs);
     Table distinctTable = null;
 
-    // read from cached distinct.nc file?
-    if (File2.isFile(fullDistinctFileName)) {
+    // get a copy from subsetIndex or read from cached distinct.nc file?
+    SubsetIndex index = subsetIndex;
+    if (index != null || File2.isFile(fullDistinctFileName)) {
       distinctTable = new Table();
       StringArray varNames = new StringArray();
       // this fully supports all data types (including 2byte chars, longs, unsigned, and Unicode
       // Strings)
-      PrimitiveArray pas[] = NcHelper.readPAsInNc3(fullDistinctFileName, loadVars, varNames);
+      PrimitiveArray pas[] =
+          index != null
+              ? index.distinctColumns(loadVars, varNames)
+              : NcHelper.readPAsInNc3(fullDistinctFileName, loadVars, varNames);
       for (int v = 0; v < varNames.size(); v++)
         distinctTable.addColumn(
             v,
@@ -15747,7 +15828,12 @@ public abstract class EDDTable extends EDD {
           distinctSubsetVariablesDataTable(
               language, loggedInAs, new String[] {resultsVariables.get(0)});
     } else {
-      table = subsetVariablesDataTable(language, loggedInAs);
+      // just get the rows which pass the constraints
+      // (applyConstraints tests them again and makes the same changes to the values)
+      SubsetIndex index = subsetIndex(language, loggedInAs);
+      table =
+          index.subset(
+              selectSubsetRows(index, constraintVariables, constraintOps, constraintValues));
     }
 
     // apply constraints, rearrange columns, add metadata
@@ -15774,6 +15860,51 @@ public abstract class EDDTable extends EDD {
     return true;
   }
 
+  /**
+   * This finds the rows of the subsetVariables data table which pass the constraints (which must
+   * all be on subsetVariables). Each constraint is tested (as by applyConstraints) on the distinct
+   * values of its column, not on every row.
+   *
+   * @param index the subsetIndex
+   * @param constraintVariables destinationNames
+   * @param constraintOps any ops are ok.
+   * @param constraintValues
+   * @return the rows which pass
+   * @throws Throwable if trouble
+   */
+  private BitSet selectSubsetRows(
+      SubsetIndex index,
+      StringArray constraintVariables,
+      StringArray constraintOps,
+      StringArray constraintValues)
+      throws Throwable {
+    int nColumns = index.nColumns();
+    PrimitiveArray values[] = new PrimitiveArray[nColumns];
+    BitSet allowed[] = new BitSet[nColumns];
+    for (int cv = 0; cv < constraintVariables.size(); cv++) {
+      String constraintVariable = constraintVariables.get(cv);
+      EDV edv = findDataVariableByDestinationName(constraintVariable);
+      int col = index.findColumnNumber(constraintVariable);
+      if (values[col] == null) {
+        // work on a copy, since the values are changed as in applyConstraints
+        values[col] = (PrimitiveArray) index.values(col).clone();
+        allowed[col] = new BitSet();
+        allowed[col].set(0, values[col].size());
+      }
+      PrimitiveArray pa = values[col];
+      int nSwitched =
+          pa.convertToStandardMissingValues(
+              "" + edv.destinationFillValue(), "" + edv.destinationMissingValue());
+      pa.applyConstraint(
+          edv instanceof EDVTimeStamp,
+          allowed[col],
+          constraintOps.get(cv),
+          constraintValues.get(cv));
+      if (nSwitched > 0) pa.switchNaNToFakeMissingValue(edv.safeStringMissingValue());
+    }
+    return index.select(allowed);
+  }
+
   /**
    * This sets accessibleViaSubset and returns the array of dataVariable destinationNames for use by
    * .subset (or String[0] if unused).
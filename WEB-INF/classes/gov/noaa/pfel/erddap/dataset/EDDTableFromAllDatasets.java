@@ -140,6 +140,15 @@ public class EDDTableFromAllDatasets extends EDDTable {
     return true;
   } // but irrelevant, because this will never be a child dataset
 
+  /**
+   * This overwrites the superclass because the subsetVariables tables are made on the fly for each
+   * loggedInAs.
+   */
+  @Override
+  protected boolean subsetVariablesDataIsPerUser() {
+    return true;
+  }
+
   /**
    * This overwrites the superclass to give the on-the-fly subsetVariables table.
    *
@@ -655,35 +655,38 @@ public class EDDTableFromEDDGrid extends EDDTable {
       }
 
       // walk through it, periodically saving to tableWriter
-      int cumNRows = 0;
-      while (gda.increment()) {
-        for (int av = 0; av < childDatasetNAV; av++)
-          gda.getAxisValueAsPAOne(av, paOne[av]).addTo(paAr[av]);
-        for (int dv = 0; dv < nQueryDV; dv++)
-          gda.getDataValueAsPAOne(dv, paOne[childDatasetNAV + dv])
-              .addTo(paAr[childDatasetNAV + dv]);
-        if (++cumNRows >= chunkNRows) {
-          if (debugMode) String2.log(tTable.dataToString(5));
-          if (Thread.currentThread().isInterrupted())
-            throw new SimpleException(
-                "EDDTableFromEDDGrid.getDataForDapQuery" + EDStatic.caughtInterruptedAr[0]);
+      try {
+        int cumNRows = 0;
+        while (gda.increment()) {
+          for (int av = 0; av < childDatasetNAV; av++)
+            gda.getAxisValueAsPAOne(av, paOne[av]).addTo(paAr[av]);
+          for (int dv = 0; dv < nQueryDV; dv++)
+            gda.getDataValueAsPAOne(dv, paOne[childDatasetNAV + dv])
+                .addTo(paAr[childDatasetNAV + dv]);
+          if (++cumNRows >= chunkNRows) {
+            if (debugMode) String2.log(tTable.dataToString(5));
+            if (Thread.currentThread().isInterrupted())
+              throw new SimpleException(
+                  "EDDTableFromEDDGrid.getDataForDapQuery" + EDStatic.caughtInterruptedAr[0]);
 
-          standardizeResultsTable(
-              language,
-              requestUrl, // applies all constraints
-              userDapQuery,
-              tTable);
-          tableWriter.writeSome(tTable);
-          tTable = makeEmptySourceTable(sourceTableVars, chunkNRows);
-          for (int col = 0; col < tTable.nColumns(); col++) paAr[col] = tTable.getColumn(col);
-          cumNRows = 0;
-          if (tableWriter.noMoreDataPlease) {
-            tableWriter.logCaughtNoMoreDataPlease(datasetID);
-            break;
+            standardizeResultsTable(
+                language,
+                requestUrl, // applies all constraints
+                userDapQuery,
+                tTable);
+            tableWriter.writeSome(tTable);
+            tTable = makeEmptySourceTable(sourceTableVars, chunkNRows);
+            for (int col = 0; col < tTable.nColumns(); col++) paAr[col] = tTable.getColumn(col);
+            cumNRows = 0;
+            if (tableWriter.noMoreDataPlease) {
+              tableWriter.logCaughtNoMoreDataPlease(datasetID);
+              break;
+            }
           }
         }
+      } finally {
+        gda.releaseResources();
       }
-      gda.releaseResources();
 
       // finish
       if (tTable.nRows() > 0) {
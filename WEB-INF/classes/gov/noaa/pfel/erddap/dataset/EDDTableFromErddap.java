@@ -13,6 +13,7 @@ import com.cohort.array.StringArray;
 import com.cohort.util.File2;
 import com.cohort.util.Math2;
 import com.cohort.util.MustBe;
+import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
 import com.cohort.util.XML;
@@ -592,13 +593,51 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
     // in order to bypass removal of numeric regex.
     // ERDDAP can handle anything (by definition).
 
-    // Read all data, then write to tableWriter.
     Table table = new Table();
     String udq = String2.isSomething(userDapQuery) ? "?" + userDapQuery : "";
 
     if (useNccsv) {
-      // FUTURE: could repeatedly: read part/ write part
-      table.readNccsv(localSourceUrl + ".nccsv" + udq, true); // readData?
+      // Read part, write part, so a huge response never has to be in memory all at once.
+      // The first batch is held back: if it is the only one, it is written with
+      // writeAllAndFinish (which some tableWriters optimize), as before.
+      int nRowsPerBatch =
+          Math.max(1000, EDStatic.partialRequestMaxCells / Math.max(1, dataVariables.length));
+      Table firstBatch[] = new Table[1];
+      int nBatches[] = new int[1];
+      String url = localSourceUrl + ".nccsv" + udq;
+      BufferedReader reader = SSR.getBufferedUrlReader(url);
+      long nRows;
+      try {
+        nRows =
+            table.readNccsvInBatches(
+                url,
+                reader,
+                nRowsPerBatch,
+                batch -> {
+                  standardizeResultsTable(language, requestUrl, userDapQuery, batch);
+                  if (++nBatches[0] == 1) {
+                    firstBatch[0] = batch;
+                    return true;
+                  }
+                  if (firstBatch[0] != null) {
+                    tableWriter.writeSome(firstBatch[0]);
+                    firstBatch[0] = null;
+                  }
+                  tableWriter.writeSome(batch);
+                  if (tableWriter.noMoreDataPlease) {
+                    tableWriter.logCaughtNoMoreDataPlease(datasetID);
+                    return false;
+                  }
+                  return true;
+                });
+      } finally {
+        reader.close();
+      }
+      if (nRows == 0)
+        throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (pre-standardize: nRows = 0)");
+      if (firstBatch[0] != null) tableWriter.writeAllAndFinish(firstBatch[0]);
+      else tableWriter.finish();
+      return;
 
     } else {
       // Very unfortunate: JDAP reads all rows when it deserializes
@@ -612,6 +651,7 @@ public class EDDTableFromErddap extends EDDTable implements FromErddap {
       table.readOpendapSequence(localSourceUrl + udq, false);
     }
 
+    // Read all data, then write to tableWriter.
     // String2.log(table.toString());
     standardizeResultsTable(language, requestUrl, userDapQuery, table); // not necessary?
     tableWriter.writeAllAndFinish(table);
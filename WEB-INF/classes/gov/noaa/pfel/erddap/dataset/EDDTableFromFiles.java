@@ -23,6 +23,7 @@ import com.cohort.util.String2;
 import com.cohort.util.Test;
 import com.cohort.util.Units2;
 import com.google.common.base.Strings;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.coastwatch.util.FileVisitorDNLS;
@@ -49,6 +50,7 @@ import java.util.HashSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.*;
 
 /**
@@ -161,6 +163,11 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
   protected boolean fileTableInMemory = false;
   protected Table dirTable; // one column with dir names
   protected Table fileTable;
+  // index of fileTable's min/max values (for the current fileTable, even if it isn't in memory)
+  protected volatile FileTableIndex fileTableIndex;
+  // incremented before each change to the fileTable (on disk or in memory), so a request can tell
+  // if fileTableIndex is for the fileTable it has (see FileTableIndex.isFor)
+  protected final AtomicLong fileTableVersion = new AtomicLong();
 
   // things just for EDDTableFromHttpGet
   public static final String HTTP_GET_REQUIRED_VARIABLES = "httpGetRequiredVariables";
@@ -2039,20 +2046,22 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
           // read all of the data and metadata in the file
           nReadFile++;
           long rfcTime = System.currentTimeMillis();
-          Table tTable =
-              getSourceDataFromFile(
-                  dirList.get(tDirI),
-                  tFileS,
-                  sourceDataNames,
-                  sourceDataTypes,
-                  -1,
-                  Double.NaN,
-                  Double.NaN,
-                  null,
-                  null,
-                  null,
-                  true,
-                  true); // getMetadata, mustGetData
+          Table tTable = lowGetFileSummaryFromFile(dirList.get(tDirI), tFileS);
+          if (tTable == null)
+            tTable =
+                getSourceDataFromFile(
+                    dirList.get(tDirI),
+                    tFileS,
+                    sourceDataNames,
+                    sourceDataTypes,
+                    -1,
+                    Double.NaN,
+                    Double.NaN,
+                    null,
+                    null,
+                    null,
+                    true,
+                    true); // getMetadata, mustGetData
           // String2.log(">> getSourceDataFromFile " + tFileS + "\n" +
           // tTable.toString(5));
           readFileCumTime += System.currentTimeMillis() - rfcTime;
@@ -2599,6 +2608,10 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     // sourceName=" + edv.sourceName() +
     // " type=" + edv.sourceDataType() + " min=" + edv.destinationMinDouble());
 
+    // make the (initially empty) fileTableIndex. Variables are indexed when first constrained.
+    fileTableIndex =
+        new FileTableIndex(dataVariables, fileTable, dv0, fileTableVersion.get(), null, null);
+
     // dirTable and fileTable InMemory?
     if (!fileTableInMemory) {
       dirTable = null;
@@ -3229,9 +3242,23 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     }
 
     // get BadFile and FileTable info and make local copies
+    // (get fileTableIndex first, so it is for tFileTable if it is for the current version)
+    FileTableIndex oldFileTableIndex = fileTableIndex;
     ConcurrentHashMap badFileMap = readBadFileMap(); // already a copy of what's in file
     Table tDirTable = getDirTableCopy(); // not null, throws Throwable
     Table tFileTable = getFileTableCopy(); // not null, throws Throwable
+    // the old file info, so the new fileTableIndex can reuse info for unchanged files
+    if (oldFileTableIndex != null && !oldFileTableIndex.isFor(fileTableVersion.get()))
+      oldFileTableIndex = null;
+    Table oldFileTable = null;
+    if (oldFileTableIndex != null) {
+      oldFileTable = fileTableInMemory ? fileTable : new Table();
+      if (!fileTableInMemory) {
+        for (int col = 0; col <= FT_SIZE_COL; col++)
+          oldFileTable.addColumn(
+              tFileTable.getColumnName(col), (PrimitiveArray) tFileTable.getColumn(col).clone());
+      }
+    }
     if (debugMode)
       String2.log(
           msg
@@ -3257,6 +3284,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
         throw new SimpleException("EDDTableFromFiles.lowUpdate" + EDStatic.caughtInterruptedAr[0]);
 
       String fullName = contexts.get(evi);
+      NcFileCache.shared().invalidate(fullName); // it may have changed or been deleted
       String dirName = File2.getDirectory(fullName);
       String fileName = File2.getNameAndExtension(fullName); // matched to fileNameRegex above
 
@@ -3270,20 +3298,22 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
         String reasonBad = null;
         try {
           // check the columns for compatible metadata
-          tTable =
-              getSourceDataFromFile(
-                  dirName,
-                  fileName,
-                  sourceDataNames,
-                  sourceDataTypes,
-                  -1,
-                  Double.NaN,
-                  Double.NaN,
-                  null,
-                  null,
-                  null,
-                  true,
-                  true); // getMetadata, getData
+          tTable = lowGetFileSummaryFromFile(dirName, fileName);
+          if (tTable == null)
+            tTable =
+                getSourceDataFromFile(
+                    dirName,
+                    fileName,
+                    sourceDataNames,
+                    sourceDataTypes,
+                    -1,
+                    Double.NaN,
+                    Double.NaN,
+                    null,
+                    null,
+                    null,
+                    true,
+                    true); // getMetadata, getData
           for (int dv = 0; dv < sourceDataNames.size(); dv++) {
 
             // skip this variable if not in this source file
@@ -3438,6 +3468,16 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
       }
       // make the new minMaxTable
       Table tMinMaxTable = makeMinMaxTable(dirList, tFileTable);
+      // make the new fileTableIndex (reusing info for unchanged files)
+      // for the new version of the fileTable, which is saved below
+      FileTableIndex tFileTableIndex =
+          new FileTableIndex(
+              dataVariables,
+              tFileTable,
+              dv0,
+              fileTableVersion.incrementAndGet(),
+              oldFileTableIndex,
+              oldFileTable);
 
       // then, change secondary parts of instance variables
       // e.g., update all variable destinationMinMax
@@ -3448,6 +3488,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
       saveDirTableFileTableBadFiles(
           standardizeWhat, tDirTable, tFileTable, badFileMap); // throws Throwable
       minMaxTable = tMinMaxTable;
+      fileTableIndex = tFileTableIndex;
       if (fileTableInMemory) {
         // quickly swap into place
         dirTable = tDirTable;
@@ -4057,6 +4098,23 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     }
   }
 
+  /**
+   * This lets a subclass make a file's fileTable row information without reading the file's data,
+   * e.g., from the file's own statistics. This default implementation returns null.
+   *
+   * @param tFileDir the file's directory (with a trailing slash)
+   * @param tFileName the file's name.ext
+   * @return null if not available (so the caller must read the file's data with
+   *     getSourceDataFromFile). Otherwise, a (usually tiny) table with the sourceDataNames columns
+   *     which are in the file (with the sourceDataTypes) whose data has exactly the same min and
+   *     max as the file's standardized data, which has a missing value if the file's data might,
+   *     and whose column attributes are the same as the file's.
+   * @throws Throwable if trouble
+   */
+  protected Table lowGetFileSummaryFromFile(String tFileDir, String tFileName) throws Throwable {
+    return null;
+  }
+
   /**
    * This parent method for lowGetSourceDataFromFile handles global: sourceDataNames specially (to
    * convert a file's global metadata to be a data column). See lowGetSourceDataFromFile params.
@@ -4361,6 +4419,8 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     boolean isFromHttpGet = "EDDTableFromHttpGet".equals(className);
 
     // get a local reference to dirTable and fileTable
+    // (and fileTableIndex first, so it is for tFileTable if it is for the current version)
+    FileTableIndex tFileTableIndex = fileTableIndex;
     Table tDirTable = getDirTable();
     Table tFileTable = getFileTable();
     StringArray dirList = (StringArray) tDirTable.getColumn(0);
@@ -4648,6 +4708,46 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     Table distinctTable = null;
     int task = 0; // number for next task to be created
     long nNotRead = 0; // either don't have matching data or do ('distinct' and 1 value matches)
+
+    // If possible, use fileTableIndex to find the files which may match the most selective
+    // numeric or time constraint (instead of testing every file).
+    // The candidate files are still tested against all of the constraints below.
+    if (tFileTableIndex != null && !tFileTableIndex.isFor(fileTableVersion.get()))
+      tFileTableIndex = null;
+    int candidateRows[] = null; // null = test all files
+    if (tFileTableIndex != null) {
+      int bestCon = -1;
+      int bestN = (int) (nFiles * FileTableIndex.MAX_CANDIDATE_FRACTION);
+      for (int con = 0; con < nCon; con++) {
+        String op = conOps.get(con);
+        if (op.equals("!=")
+            || op.equals(PrimitiveArray.REGEX_OP)
+            || Double.isNaN(conValuesD[con])
+            || !tFileTableIndex.ensureIndexed(cdvi[con], tFileTable)) continue;
+        int tN = tFileTableIndex.nCandidates(cdvi[con], op, conValuesD[con]);
+        if (tN < bestN) {
+          bestN = tN;
+          bestCon = con;
+        }
+      }
+      if (bestCon >= 0) {
+        candidateRows =
+            tFileTableIndex.candidates(cdvi[bestCon], conOps.get(bestCon), conValuesD[bestCon]);
+        if (reallyVerbose)
+          String2.log(
+              "fileTableIndex: "
+                  + conVars.get(bestCon)
+                  + conOps.get(bestCon)
+                  + conValues.get(bestCon)
+                  + " leaves "
+                  + candidateRows.length
+                  + " of "
+                  + nFiles
+                  + " files to test.");
+      }
+    }
+    int nToTest = candidateRows == null ? nFiles : candidateRows.length;
+    nNotRead += nFiles - nToTest;
     ResultStatisticsAccumulator accumulator = new ResultStatisticsAccumulator();
     int tnThreads =
         nThreads >= 1 && nThreads < Integer.MAX_VALUE ? nThreads : EDStatic.nTableThreads;
@@ -4655,6 +4755,7 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
     tnThreads = adjustNThreads(tnThreads);
     ThreadedWorkManager<Table> workManager =
         new ThreadedWorkManager<>(
+            datasetID,
             tnThreads,
             result -> {
               if (result == null) {
@@ -4677,7 +4778,8 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
 
     try {
       FILE_LOOP:
-      for (int f = 0; f < nFiles; f++) {
+      for (int fi = 0; fi < nToTest; fi++) {
+        int f = candidateRows == null ? fi : candidateRows[fi];
         if (Thread.interrupted()) {
           if (workManager != null) workManager.forceShutdown();
           throw new InterruptedException(); // consume the interrupted status
@@ -4732,10 +4834,17 @@ public abstract class EDDTableFromFiles extends EDDTable implements WatchUpdateH
 
             } else {
               // numeric timestamp, or yyyy... String timestamp
-              double fMin =
-                  tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv * 3 + 0, f));
-              double fMax =
-                  tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv * 3 + 1, f));
+              double fMin, fMax;
+              if (tFileTableIndex != null
+                  && tFileTableIndex.isIndexed(dv)
+                  && f < tFileTableIndex.nRows()) {
+                // already converted to epochSeconds (with same NaN handling as below)
+                fMin = tFileTableIndex.min(dv, f);
+                fMax = tFileTableIndex.max(dv, f);
+              } else {
+                fMin = tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv * 3 + 0, f));
+                fMax = tdv.sourceTimeToEpochSeconds(tFileTable.getStringData(dv0 + dv * 3 + 1, f));
+              }
               int fNaN = tFileTable.getIntData(dv0 + dv * 3 + 2, f);
               // if min/max String times are invalid, act as if far in past/future
               if (Double.isNaN(fMin)) fMin = -1e100;
@@ -765,6 +765,9 @@ public class EDDTableFromHttpGet extends EDDTableFromFiles {
       throw new SimpleException("dirTable and/or fileTable are null!");
     }
 
+    // fileTable is changed in place (new rows, wider min/max), so the old fileTableIndex is
+    // out-of-date from now on
+    long tFileTableVersion = fileTableVersion.incrementAndGet();
     String response =
         insertOrDelete(
             language,
@@ -807,8 +810,13 @@ public class EDDTableFromHttpGet extends EDDTableFromFiles {
     // e.g., update all variable destinationMinMax
     updateDestinationMinMax(tMinMaxTable);
 
+    // make a new fileTableIndex. Variables are indexed again when first constrained.
+    FileTableIndex tFileTableIndex =
+        new FileTableIndex(dataVariables, tFileTable, dv0, tFileTableVersion, null, null);
+
     // then put in place as quickly/atomically as possible
     minMaxTable = tMinMaxTable; // swap into place quickly
+    fileTableIndex = tFileTableIndex;
     if (fileTableInMemory) { // it will always be true
       // quickly swap into place
       dirTable = tDirTable;
@@ -160,8 +160,17 @@ public class EDDTableFromParquetFiles extends EDDTableFromFiles {
       return Table.makeEmptyTable(sourceDataNames.toArray(), sourceDataTypes);
 
     // read the file
+    // The constraints can only be used to skip row groups if the data isn't changed by standardize.
+    boolean pushdown = standardizeWhat == 0;
     Table table = new Table();
-    table.readParquet(tFileDir + tFileName, sourceDataNames, sourceDataTypes, true); // simplify
+    table.readParquet(
+        tFileDir + tFileName,
+        sourceDataNames,
+        sourceDataTypes,
+        true, // simplify
+        pushdown ? sourceConVars : null,
+        pushdown ? sourceConOps : null,
+        pushdown ? sourceConValues : null);
 
     // unpack
     table.standardize(standardizeWhat);
@@ -169,6 +178,33 @@ public class EDDTableFromParquetFiles extends EDDTableFromFiles {
     return table;
   }
 
+  /**
+   * This makes a file's fileTable row information from the parquet file's footer (its row group
+   * statistics), so the file's data doesn't have to be read. This is only done if the summary is
+   * sure to be the same as from the data: if the data isn't changed by standardize, the dataset
+   * doesn't specify a _FillValue or missing_value, doesn't have a sorted column (which needs the
+   * data to find the spacing), and just has ordinary source variables.
+   */
+  @Override
+  protected Table lowGetFileSummaryFromFile(String tFileDir, String tFileName) throws Throwable {
+    if (standardizeWhat != 0 || sortedDVI >= 0) return null;
+    for (int dv = 0; dv < sourceDataNames.size(); dv++) {
+      String name = sourceDataNames.get(dv);
+      if (!Double.isNaN(addAttFillValue[dv])
+          || !Double.isNaN(addAttMissingValue[dv])
+          || name.equals(columnNameForExtract)
+          || name.startsWith("global:")
+          || name.startsWith("variable:")
+          || name.startsWith("***")
+          || name.startsWith("=")) return null;
+    }
+    ensureInCache(tFileDir + tFileName); // throws Exception
+    Table table = new Table();
+    return table.readParquetSummary(tFileDir + tFileName, sourceDataNames, sourceDataTypes)
+        ? table
+        : null;
+  }
+
   /**
    * This generates a ready-to-use datasets.xml entry for an EDDTableFromParquetFiles. The XML can
    * then be edited by hand and added to the datasets.xml file.
@@ -0,0 +1,370 @@
+/*
+ * FileTableIndex Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVTimeStamp;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * This is a sorted-endpoint index of the per-file min and max values of the numeric and time
+ * variables in an EDDTableFromFiles fileTable. It lets getDataForDapQuery find the files which may
+ * match a constraint with a binary search, instead of testing every row of the fileTable.
+ *
+ * <p>The index is just a pre-filter: it returns a superset of the files which pass
+ * EDDTableFromFiles.isOK, and the caller still runs isOK on each candidate. Time values are stored
+ * as epochSeconds (converted once, when the variable's index is made), so the caller can use min()
+ * and max() instead of re-parsing the fileTable's source time strings.
+ *
+ * <p>To save memory, each variable's index is made the first time a constraint uses that variable.
+ * When the fileTable changes, make a new FileTableIndex with the old one as a parameter: the
+ * variables which were indexed in the old one are indexed right away, reusing the converted values
+ * for unchanged files.
+ *
+ * <p>Each index is for one version of the fileTable (see EDDTableFromFiles.fileTableVersion), so
+ * isFor() doesn't have to look at the fileTable's rows.
+ */
+public class FileTableIndex {
+
+  /** If the best constraint leaves more than this fraction of the files, a full scan is used. */
+  public static final double MAX_CANDIDATE_FRACTION = 0.5;
+
+  private final EDV[] dataVariables;
+  private final int dv0;
+  private final int nRows;
+  private final long version;
+  private final DvIndex[] dvIndexes; // [dv] null until made
+
+  /** The index for one dataVariable. */
+  private static class DvIndex {
+    final PAType paType; // the source PAType (or LONG for timestamps)
+    final double[] min, max; // [row]
+    final int[] byMin, byMax; // rows sorted by min (or max). Rows with NaN are excluded.
+
+    DvIndex(PAType paType, double min[], double max[]) {
+      this.paType = paType;
+      this.min = min;
+      this.max = max;
+      byMin = sortedRows(min);
+      byMax = sortedRows(max);
+    }
+  }
+
+  /**
+   * This makes an index for a new version of a dataset's fileTable.
+   *
+   * @param dataVariables the dataset's dataVariables
+   * @param fileTable the fileTable (with the dirIndex, fileName, lastMod, size, sortedSpacing
+   *     columns, then min, max, hasNaN columns for each dataVariable, starting at column dv0)
+   * @param dv0 the column number of the first dataVariable's min column
+   * @param version the version of the fileTable (see isFor())
+   * @param oldIndex the index of the previous version of the fileTable (or null). The variables
+   *     indexed in oldIndex are indexed in the new index right away. Converted min/max values for
+   *     files with the same dirIndex, fileName and lastMod are reused.
+   * @param oldFileTable the previous version of the fileTable, i.e., the one oldIndex was made for
+   *     (or null)
+   */
+  public FileTableIndex(
+      EDV[] dataVariables,
+      Table fileTable,
+      int dv0,
+      long version,
+      FileTableIndex oldIndex,
+      Table oldFileTable) {
+    this.dataVariables = dataVariables;
+    this.dv0 = dv0;
+    this.version = version;
+    nRows = fileTable.nRows();
+    dvIndexes = new DvIndex[dataVariables.length];
+
+    if (oldIndex == null
+        || oldFileTable == null
+        || oldIndex.dataVariables != dataVariables
+        || oldIndex.nRows != oldFileTable.nRows()) return;
+    long time = System.currentTimeMillis();
+
+    // map each new row to the same file's row in the old table (or -1)
+    HashMap<String, Integer> oldRows = new HashMap<>(Math.max(16, oldIndex.nRows * 2));
+    for (int row = 0; row < oldIndex.nRows; row++) oldRows.put(fileKey(oldFileTable, row), row);
+    int oldRow[] = new int[nRows];
+    for (int row = 0; row < nRows; row++) {
+      Integer tRow = oldRows.get(fileKey(fileTable, row));
+      oldRow[row] = tRow == null ? -1 : tRow;
+    }
+
+    int nIndexed = 0;
+    for (int dv = 0; dv < dvIndexes.length; dv++) {
+      DvIndex old = oldIndex.dvIndexes[dv];
+      if (old != null) {
+        dvIndexes[dv] = makeDvIndex(dv, fileTable, old, oldRow);
+        nIndexed++;
+      }
+    }
+    if (EDDTableFromFiles.reallyVerbose)
+      String2.log(
+          "FileTableIndex updated nRows="
+              + nRows
+              + " nIndexedVariables="
+              + nIndexed
+              + " time="
+              + (System.currentTimeMillis() - time)
+              + "ms");
+  }
+
+  /**
+   * This returns true if the dataVariable can be indexed: i.e., it is numeric, or it is a timestamp
+   * with numeric source values or String source values with a yyyy... format (which sort
+   * correctly).
+   */
+  public static boolean isIndexable(EDV edv) {
+    PAType paType = edv.sourceDataPAType();
+    if (edv instanceof EDVTimeStamp tdv)
+      return paType != PAType.STRING || tdv.sourceTimeFormat().toLowerCase().startsWith("yyyy");
+    return paType != PAType.STRING && paType != PAType.CHAR;
+  }
+
+  /**
+   * This returns true if this index was made for a version of the fileTable. The dataset increments
+   * its fileTableVersion before it changes its fileTable (on disk or in memory, including
+   * EDDTableFromHttpGet.insertOrDelete's changes in place), so an index made before the change is
+   * for an older version.
+   *
+   * @param tVersion the version of the fileTable (e.g., EDDTableFromFiles.fileTableVersion)
+   * @return true if this index was made for tVersion
+   */
+  public boolean isFor(long tVersion) {
+    return tVersion == version;
+  }
+
+  /**
+   * This ensures that dv is indexed (if it can be).
+   *
+   * @param dv the dataVariable index
+   * @param tFileTable the fileTable this index is for (see isFor())
+   * @return true if dv is indexed
+   */
+  public boolean ensureIndexed(int dv, Table tFileTable) {
+    if (dvIndexes[dv] != null) return true;
+    if (!isIndexable(dataVariables[dv])) return false;
+    synchronized (this) {
+      if (dvIndexes[dv] == null) {
+        long time = System.currentTimeMillis();
+        dvIndexes[dv] = makeDvIndex(dv, tFileTable, null, null);
+        if (EDDTableFromFiles.reallyVerbose)
+          String2.log(
+              "FileTableIndex made index for "
+                  + dataVariables[dv].destinationName()
+                  + " nRows="
+                  + nRows
+                  + " time="
+                  + (System.currentTimeMillis() - time)
+                  + "ms");
+      }
+    }
+    return true;
+  }
+
+  /** This returns true if dv is indexed. */
+  public boolean isIndexed(int dv) {
+    return dvIndexes[dv] != null;
+  }
+
+  /**
+   * This returns the file's min value for an indexed dv. For timestamps, this is the epochSeconds
+   * value (or -1e100 if the source value was invalid).
+   */
+  public double min(int dv, int row) {
+    return dvIndexes[dv].min[row];
+  }
+
+  /**
+   * This returns the file's max value for an indexed dv. For timestamps, this is the epochSeconds
+   * value (or 1e100 if the source value was invalid).
+   */
+  public double max(int dv, int row) {
+    return dvIndexes[dv].max[row];
+  }
+
+  /**
+   * This returns the number of candidate files for a constraint on an indexed dv (or nRows if the
+   * index can't reduce the number of files for this constraint).
+   *
+   * @param dv the dataVariable index
+   * @param op the constraint operator
+   * @param conValue the constraint value (epochSeconds for timestamps)
+   */
+  public int nCandidates(int dv, String op, double conValue) {
+    DvIndex dvIndex = dvIndexes[dv];
+    if (dvIndex == null || Double.isNaN(conValue)) return nRows;
+    double slack = slack(dvIndex.paType, conValue);
+    switch (op) {
+      case "<", "<=":
+        return upperBound(dvIndex.byMin, dvIndex.min, conValue + slack);
+      case ">", ">=":
+        return dvIndex.byMax.length - lowerBound(dvIndex.byMax, dvIndex.max, conValue - slack);
+      case "=":
+        return Math.min(
+            upperBound(dvIndex.byMin, dvIndex.min, conValue + slack),
+            dvIndex.byMax.length - lowerBound(dvIndex.byMax, dvIndex.max, conValue - slack));
+      default: // "!=" and regex can't be pruned
+        return nRows;
+    }
+  }
+
+  /**
+   * This returns the rows (in ascending order) of the files which may match a constraint on an
+   * indexed dv. This is a superset of the files that pass EDDTableFromFiles.isOK.
+   *
+   * @param dv the dataVariable index
+   * @param op the constraint operator
+   * @param conValue the constraint value (epochSeconds for timestamps)
+   * @return the sorted candidate rows, or null if the index can't reduce the number of files for
+   *     this constraint.
+   */
+  public int[] candidates(int dv, String op, double conValue) {
+    DvIndex dvIndex = dvIndexes[dv];
+    if (dvIndex == null || Double.isNaN(conValue)) return null;
+    double slack = slack(dvIndex.paType, conValue);
+    int nLE = upperBound(dvIndex.byMin, dvIndex.min, conValue + slack); // files with min <= value
+    int firstGE = lowerBound(dvIndex.byMax, dvIndex.max, conValue - slack); // max >= value
+    int nGE = dvIndex.byMax.length - firstGE;
+    int rows[];
+    switch (op) {
+      case "<", "<=":
+        rows = Arrays.copyOfRange(dvIndex.byMin, 0, nLE);
+        break;
+      case ">", ">=":
+        rows = Arrays.copyOfRange(dvIndex.byMax, firstGE, dvIndex.byMax.length);
+        break;
+      case "=":
+        rows =
+            nLE <= nGE
+                ? Arrays.copyOfRange(dvIndex.byMin, 0, nLE)
+                : Arrays.copyOfRange(dvIndex.byMax, firstGE, dvIndex.byMax.length);
+        break;
+      default: // "!=" and regex can't be pruned
+        return null;
+    }
+    Arrays.sort(rows);
+    return rows;
+  }
+
+  /** This returns the number of rows in the fileTable this index was made from. */
+  public int nRows() {
+    return nRows;
+  }
+
+  /**
+   * This makes the index for one dv.
+   *
+   * @param old the old index for this dv (or null)
+   * @param oldRow for each row in fileTable, the corresponding row in old (or -1). Use null if old
+   *     is null.
+   */
+  private DvIndex makeDvIndex(int dv, Table fileTable, DvIndex old, int oldRow[]) {
+    EDV edv = dataVariables[dv];
+    EDVTimeStamp tdv = edv instanceof EDVTimeStamp ? (EDVTimeStamp) edv : null;
+    PrimitiveArray minPA = fileTable.getColumn(dv0 + dv * 3 + 0);
+    PrimitiveArray maxPA = fileTable.getColumn(dv0 + dv * 3 + 1);
+    double tMin[] = new double[nRows];
+    double tMax[] = new double[nRows];
+    for (int row = 0; row < nRows; row++) {
+      if (old != null && oldRow[row] >= 0) {
+        tMin[row] = old.min[oldRow[row]];
+        tMax[row] = old.max[oldRow[row]];
+      } else if (tdv == null) {
+        tMin[row] = minPA.getDouble(row);
+        tMax[row] = maxPA.getDouble(row);
+      } else {
+        // this matches the conversion in EDDTableFromFiles.getDataForDapQuery:
+        // if min/max String times are invalid, act as if far in past/future
+        tMin[row] = tdv.sourceTimeToEpochSeconds(minPA.getString(row));
+        tMax[row] = tdv.sourceTimeToEpochSeconds(maxPA.getString(row));
+        if (Double.isNaN(tMin[row])) tMin[row] = -1e100;
+        if (Double.isNaN(tMax[row])) tMax[row] = 1e100;
+      }
+    }
+    return new DvIndex(tdv == null ? edv.sourceDataPAType() : PAType.LONG, tMin, tMax);
+  }
+
+  /**
+   * This returns a value which is bigger than the tolerance used by EDDTableFromFiles.isOK (for
+   * lessThanAE, greaterThanAE and timestamp floor/ceil), so pruning never drops a file that isOK
+   * would accept.
+   */
+  private static double slack(PAType paType, double conValue) {
+    double abs = Math.abs(conValue);
+    if (paType == PAType.FLOAT) return abs * 1e-4 + 1e-4; // isOK uses 5 significant digits
+    if (paType == PAType.DOUBLE) return abs * 1e-8 + 1e-12; // 9 significant digits
+    if (paType == PAType.LONG) return abs * 1e-12 + 1; // min, max are floor()/ceil()ed
+    return abs * 1e-12 + 1e-12;
+  }
+
+  /** This returns the rows with non-NaN values, sorted (stably) by value. */
+  private static int[] sortedRows(double values[]) {
+    int n = values.length;
+    int rows[] = new int[n];
+    int nValid = 0;
+    for (int row = 0; row < n; row++) {
+      if (!Double.isNaN(values[row])) rows[nValid++] = row;
+    }
+    rows = Arrays.copyOf(rows, nValid);
+    mergeSort(rows, new int[nValid], 0, nValid, values);
+    return rows;
+  }
+
+  /** A stable merge sort of rows[from..to) by values[row], using temp as scratch space. */
+  private static void mergeSort(int rows[], int temp[], int from, int to, double values[]) {
+    if (to - from < 2) return;
+    int mid = (from + to) >>> 1;
+    mergeSort(rows, temp, from, mid, values);
+    mergeSort(rows, temp, mid, to, values);
+    if (values[rows[mid - 1]] <= values[rows[mid]]) return; // already in order
+    System.arraycopy(rows, from, temp, from, to - from);
+    int i = from, j = mid, k = from;
+    while (i < mid && j < to) rows[k++] = values[temp[j]] < values[temp[i]] ? temp[j++] : temp[i++];
+    while (i < mid) rows[k++] = temp[i++];
+    while (j < to) rows[k++] = temp[j++];
+  }
+
+  /** This returns the number of rows (in sortedRows order) with values &lt;= value. */
+  private static int upperBound(int sortedRows[], double values[], double value) {
+    int lo = 0, hi = sortedRows.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (values[sortedRows[mid]] <= value) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  /** This returns the position (in sortedRows order) of the first value &gt;= value. */
+  private static int lowerBound(int sortedRows[], double values[], double value) {
+    int lo = 0, hi = sortedRows.length;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (values[sortedRows[mid]] < value) lo = mid + 1;
+      else hi = mid;
+    }
+    return lo;
+  }
+
+  /** This returns a key which identifies a version of a file. */
+  private static String fileKey(Table fileTable, int row) {
+    return ((ShortArray) fileTable.getColumn(EDDTableFromFiles.FT_DIR_INDEX_COL)).get(row)
+        + "/"
+        + ((StringArray) fileTable.getColumn(EDDTableFromFiles.FT_FILE_LIST_COL)).get(row)
+        + "/"
+        + ((LongArray) fileTable.getColumn(EDDTableFromFiles.FT_LAST_MOD_COL)).get(row);
+  }
+}
@@ -21,11 +21,15 @@ import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.MemoryBudget;
+import gov.noaa.pfel.erddap.util.WorkScheduler;
 import gov.noaa.pfel.erddap.variable.EDV;
 import gov.noaa.pfel.erddap.variable.EDVGridAxis;
 import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * This class provides sequential access to the grid data requested by a grid data query to an
@@ -41,6 +45,13 @@ import java.util.concurrent.ExecutionException;
  * <p>The constructor does not get any data from the source. The first call to increment() causes
  * the first partial response to be obtained from the source.
  *
+ * <p>If there is more than one chunk and EDStatic.gridReadAheadChunks &gt; 0, the next chunks are
+ * obtained from the source (on WorkScheduler threads) while the caller is processing the current
+ * chunk. The chunks are still returned in order and errors are still thrown by increment() and
+ * incrementChunk() for the chunk that had the error. So callers which may stop before getting all
+ * of the data (e.g., because of an exception) must call releaseGetResources() or releaseResources()
+ * in a finally block to stop reading ahead.
+ *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2007-07-06
  */
 public class GridDataAccessor {
@@ -89,6 +100,16 @@ public class GridDataAccessor {
 
   protected Table tDirTable, tFileTable; // null, unless eddGrid is EDDGridFromFiles
 
+  // for reading ahead
+  protected int readAhead = 0; // the max number of chunks to get ahead of time (0 = don't)
+  private WorkScheduler.Client readAheadClient = null; // null until the first chunk is needed
+  private NDimensionalIndex readAheadDriverIndex; // the last chunk submitted
+  private boolean readAheadDone = false; // true when all the chunks have been submitted
+  private final ArrayDeque<ReadAheadTask> readAheadTasks = new ArrayDeque<>();
+
+  /** A chunk which has been submitted to be gotten ahead of time. */
+  private record ReadAheadTask(int[] driverCurrent, FutureTask<PrimitiveArray[]> task) {}
+
   /**
    * This is the constructor. This constructor sets everything up, but doesn't get any grid data.
    *
@@ -350,6 +371,9 @@ public class GridDataAccessor {
 
     // finish up
     Math2.ensureMemoryAvailable(nBytesPerPartialRequest, "GridDataAccessor");
+    // each partial request's data is held in memory (the total request is not)
+    EDStatic.memoryBudget.reserveForCurrentRequest(
+        nBytesPerPartialRequest, EDStatic.memoryReserveTimeoutMillis, "GridDataAccessor");
     driverIndex = new NDimensionalIndex(driverShape);
     partialIndex = new NDimensionalIndex(partialShape);
     Math2.ensureArraySizeOkay(
@@ -358,6 +382,7 @@ public class GridDataAccessor {
     Math2.ensureArraySizeOkay(
         partialIndex.size(), "GridDataAccessor"); // ensure each chunk size() is ok
     totalNBytes = driverIndex.size() * nBytesPerPartialRequest; // driverIndex.size() is a long
+    readAhead = chooseReadAhead(nBytesPerPartialRequest);
     if (reallyVerbose)
       String2.log(
           "      getAllOfNAxes="
@@ -373,7 +398,33 @@ public class GridDataAccessor {
               + "\n      nBytesPerPartialRequest="
               + nBytesPerPartialRequest
               + " totalNBytes="
-              + totalNBytes);
+              + totalNBytes
+              + " readAhead="
+              + readAhead);
+  }
+
+  /**
+   * This decides how many chunks to get ahead of time: EDStatic.gridReadAheadChunks, reduced to
+   * what this request's memory budget allows (since each chunk gotten ahead of time is held in
+   * memory until it is used).
+   *
+   * @param bytesPerChunk the number of bytes in each chunk
+   * @return the number of chunks to get ahead of time (0 = don't read ahead)
+   */
+  private int chooseReadAhead(long bytesPerChunk) {
+    int tReadAhead = (int) Math.min(EDStatic.gridReadAheadChunks, driverIndex.size() - 1);
+    // a task on a WorkScheduler thread must not wait for other tasks on the same pool
+    if (tReadAhead <= 0 || WorkScheduler.isWorkerThread()) return 0;
+    MemoryBudget.Reservation reservation = EDStatic.memoryBudget.current();
+    if (reservation == null) {
+      // not a request thread, so just make sure that lots of memory is available
+      return EDD.adjustNThreads(tReadAhead + 1) - 1;
+    }
+    while (tReadAhead > 0
+        && !EDStatic.memoryBudget.tryReserve(reservation, bytesPerChunk * (tReadAhead + 1))) {
+      tReadAhead--;
+    }
+    return tReadAhead;
   }
 
   /**
@@ -597,7 +648,7 @@ public class GridDataAccessor {
 
     try {
       System.arraycopy(
-          getChunk(this, driverIndex.getCurrent()),
+          readAhead > 0 ? getReadAheadChunk() : getChunk(this, driverIndex.getCurrent()),
           0,
           partialDataValues,
           0,
@@ -606,6 +657,7 @@ public class GridDataAccessor {
     } catch (Throwable t) {
       // throwable while getting a chunk
       // shut everything down
+      cancelReadAhead();
 
       while (t instanceof ExecutionException) // may be doubly wrapped
       t = t.getCause();
@@ -640,6 +692,59 @@ public class GridDataAccessor {
     // String2.pressEnterToContinue("chunk=" + chunk + " task=" + task + " at end of getChunk.");
   }
 
+  /**
+   * This gets the current chunk (driverIndex.getCurrent()) from the read ahead tasks, after making
+   * sure that tasks for up to readAhead subsequent chunks have been submitted.
+   *
+   * @return the chunk's partialDataValues
+   * @throws Throwable if trouble (e.g., an ExecutionException if the task failed)
+   */
+  private PrimitiveArray[] getReadAheadChunk() throws Throwable {
+    if (readAheadClient == null) {
+      // start with the current chunk
+      readAheadClient = WorkScheduler.shared().newClient(eddGrid.datasetID(), readAhead);
+      readAheadDriverIndex = (NDimensionalIndex) driverIndex.clone();
+      readAheadDriverIndex.setCurrent(driverIndex.getCurrent());
+      submitReadAhead(readAheadDriverIndex.getCurrent());
+    }
+    ReadAheadTask head = readAheadTasks.poll();
+    if (head == null || !Arrays.equals(head.driverCurrent(), driverIndex.getCurrent()))
+      throw new RuntimeException(
+          "GridDataAccessor.getReadAheadChunk: the read ahead chunk doesn't match"
+              + " driverIndex.current="
+              + String2.toCSSVString(driverIndex.getCurrent()));
+
+    // get the next chunks while this one is being processed
+    while (!readAheadDone && readAheadTasks.size() < readAhead) {
+      if (rowMajor ? readAheadDriverIndex.increment() : readAheadDriverIndex.incrementCM()) {
+        submitReadAhead(readAheadDriverIndex.getCurrent());
+      } else {
+        readAheadDone = true;
+        readAheadClient.close(); // the submitted tasks will still be run
+      }
+    }
+    return head.task().get();
+  }
+
+  /** This submits a task to get the chunk at driverCurrent. */
+  private void submitReadAhead(int[] driverCurrent) {
+    int[] tDriverCurrent = driverCurrent.clone(); // driverCurrent is an index's internal array
+    FutureTask<PrimitiveArray[]> task = new FutureTask<>(() -> getChunk(this, tDriverCurrent));
+    readAheadTasks.add(new ReadAheadTask(tDriverCurrent, task));
+    readAheadClient.submit(task);
+  }
+
+  /**
+   * This cancels the read ahead tasks (e.g., because of an error or because the caller is done) and
+   * stops reading ahead.
+   */
+  private void cancelReadAhead() {
+    if (readAheadClient != null) readAheadClient.cancelAll(); // interrupts running tasks
+    readAheadTasks.clear();
+    readAheadDone = true;
+    readAhead = 0;
+  }
+
   private PrimitiveArray[] getChunk(GridDataAccessor gda, int[] driverCurrent) throws Exception {
     try {
       long time = System.currentTimeMillis();
@@ -888,6 +993,7 @@ public class GridDataAccessor {
    * threads).
    */
   public void releaseGetResources() {
+    cancelReadAhead();
     tDirTable = null;
     tFileTable = null;
   }
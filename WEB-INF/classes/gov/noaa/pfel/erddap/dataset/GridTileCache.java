@@ -0,0 +1,725 @@
+/*
+ * GridTileCache Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.IntArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.WeightedCache;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This caches the source data of remote grid datasets (EDDGridFromDap and EDDGridFromErddap) in
+ * fixed-size tiles, so that the many requests for the same popular region (e.g., WMS and griddap
+ * requests for the latest time point at various zoom levels) don't all go back to the remote
+ * server.
+ *
+ * <p>A request's constraints are aligned to tiles along each axis: TILE_LENGTH values along each of
+ * the last 2 axes (usually latitude and longitude) and 1 value along each of the other axes (e.g.,
+ * time). Each axis's tiles are laid out on the request's stride (and the start index's position on
+ * that stride), so requests with the same stride (e.g., the same WMS zoom level) share tiles. All
+ * of a request's missing tiles are gotten from the source with one request (for the box which
+ * contains them). Each data variable's tiles are cached separately.
+ *
+ * <p>Tiles are kept in memory (a WeightedCache bounded by bytes) and, optionally, on disk (compact
+ * binary files, bounded by bytes, Least-Recently-Used first). The disk cache is emptied when the
+ * GridTileCache is created (e.g., when ERDDAP starts).
+ *
+ * <p>The first time a dataset (i.e., a new EDDGrid object) uses the cache, its axis values are
+ * compared to the axis values used for the dataset's cached tiles. If any of the old values have
+ * changed (appended values are okay), the dataset's tiles are removed.
+ */
+public class GridTileCache {
+
+  /** The number of values along each of the last 2 axes in a tile. */
+  public static final int TILE_LENGTH = 256;
+
+  /** If a request needs more tiles than this, the cache isn't used. */
+  public static final int MAX_TILES_PER_REQUEST = 1024;
+
+  private static GridTileCache shared = null; // guarded by GridTileCache.class
+
+  /** This gets the source data for some of the data variables. */
+  public interface Source {
+    /**
+     * @param dvs the indices of the desired data variables
+     * @param tConstraints the constraints, as for EDDGrid.getSourceData()
+     * @return a PrimitiveArray[], as from EDDGrid.getSourceData()
+     */
+    PrimitiveArray[] getSourceData(int dvs[], IntArray tConstraints) throws Throwable;
+  }
+
+  /** This identifies one data variable's tile. */
+  private record TileKey(String datasetID, int generation, String dvName, String tile) {
+    @Override
+    public String toString() {
+      return datasetID + "|" + generation + "|" + dvName + "|" + tile;
+    }
+  }
+
+  /** The axis values that a dataset's cached tiles are for. */
+  private record Registration(PrimitiveArray[] axisValues, int generation) {}
+
+  /** The cache statistics for one dataset. */
+  public static final class Stats {
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /** The number of tiles found in memory. */
+    public long memoryHits() {
+      return memoryHits.sum();
+    }
+
+    /** The number of tiles found on disk. */
+    public long diskHits() {
+      return diskHits.sum();
+    }
+
+    /** The number of tiles which had to be gotten from the source. */
+    public long misses() {
+      return misses.sum();
+    }
+
+    /** The number of requests which didn't use the cache (e.g., because they were too big). */
+    public long bypassed() {
+      return bypassed.sum();
+    }
+  }
+
+  /** One axis's tiles for one request. Tiles are numbered along the request's stride. */
+  private static final class AxisTiles {
+    final int stride;
+    final int phase; // the index of the first value on the stride
+    final int tileLength;
+    final int nK; // the number of values on the stride
+    final int k0, k1; // the request's first and last value on the stride
+    final int t0, t1; // the request's first and last tile
+
+    AxisTiles(int start, int stride, int stop, int axisSize, int tileLength) {
+      this.stride = stride;
+      this.tileLength = tileLength;
+      phase = start % stride;
+      nK = (axisSize - 1 - phase) / stride + 1;
+      k0 = (start - phase) / stride;
+      k1 = (stop - phase) / stride;
+      t0 = k0 / tileLength;
+      t1 = k1 / tileLength;
+    }
+
+    /** The first value (on the stride) of tile t. */
+    int kStart(int t) {
+      return t * tileLength;
+    }
+
+    /** The number of values in tile t. */
+    int tileSize(int t) {
+      return Math.min((t + 1) * tileLength, nK) - t * tileLength;
+    }
+
+    /** The axis index of the kth value on the stride. */
+    int index(int k) {
+      return phase + k * stride;
+    }
+  }
+
+  private final WeightedCache<TileKey, PrimitiveArray> memory; // null if not caching in memory
+  private final long maxDiskBytes;
+  private final String dir; // with slash at end
+  private final long maxCellsPerRequest;
+
+  // oldest first.  guarded by disk
+  private final LinkedHashMap<TileKey, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+  private long diskBytes = 0; // guarded by disk
+  private final ConcurrentHashMap<String, Registration> registrations = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<String, Stats> stats = new ConcurrentHashMap<>();
+  private final LongAdder nInvalidated = new LongAdder();
+
+  /**
+   * The constructor. This deletes any files in dir.
+   *
+   * @param tName the name of the memory cache (for WeightedCache statistics), or null
+   * @param maxMemoryBytes the maximum number of bytes of tiles kept in memory (0 = none)
+   * @param maxDiskBytes the maximum number of bytes of tiles kept on disk (0 = none)
+   * @param tDir the directory for the disk cache (with slash at end)
+   * @param tMaxCellsPerRequest if a request's aligned tiles have more than this number of values
+   *     (per data variable), the cache isn't used
+   */
+  public GridTileCache(
+      String tName, long maxMemoryBytes, long maxDiskBytes, String tDir, long tMaxCellsPerRequest) {
+    memory =
+        maxMemoryBytes <= 0
+            ? null
+            : new WeightedCache<>(
+                tName, maxMemoryBytes, Integer.MAX_VALUE, 0, GridTileCache::estimateBytes);
+    this.maxDiskBytes = Math.max(0, maxDiskBytes);
+    dir = tDir;
+    maxCellsPerRequest = tMaxCellsPerRequest;
+    if (this.maxDiskBytes > 0) {
+      File2.makeDirectory(dir);
+      File2.deleteAllFiles(dir, true, true);
+    }
+  }
+
+  /**
+   * This returns the server-wide cache, based on the current EDStatic.gridTileCacheMB and
+   * gridTileCacheDiskMB settings (and makes a new cache if they have changed).
+   *
+   * @return the shared cache, or null if both settings are 0 (the default)
+   */
+  public static synchronized GridTileCache shared() {
+    long tMemoryBytes = (long) EDStatic.gridTileCacheMB * Math2.BytesPerMB;
+    long tDiskBytes = (long) EDStatic.gridTileCacheDiskMB * Math2.BytesPerMB;
+    if (tMemoryBytes <= 0 && tDiskBytes <= 0) {
+      shared = null;
+    } else if (shared == null
+        || shared.maxMemoryBytes() != tMemoryBytes
+        || shared.maxDiskBytes != tDiskBytes) {
+      if (shared != null) shared.clear();
+      shared =
+          new GridTileCache(
+              "GridTileCache",
+              tMemoryBytes,
+              tDiskBytes,
+              EDStatic.fullCacheDirectory + "_gridTiles/",
+              Math.max(EDStatic.partialRequestMaxCells, TILE_LENGTH * TILE_LENGTH));
+    }
+    return shared;
+  }
+
+  /**
+   * This returns the server-wide cache (without creating it).
+   *
+   * @return the shared cache, or null if none
+   */
+  public static synchronized GridTileCache sharedIfExists() {
+    return shared;
+  }
+
+  private static long estimateBytes(PrimitiveArray pa) {
+    return 64 + (long) pa.size() * Math.max(1, pa.elementSize());
+  }
+
+  /**
+   * This gets source data (as EDDGrid.getSourceData() does), from the cache if possible.
+   *
+   * @param datasetID the dataset's datasetID
+   * @param axisValues the source values of each of the dataset's axis variables
+   * @param dvNames the source names of the requested data variables
+   * @param tConstraints int[nAxisVariables*3] where av*3+0=startIndex, av*3+1=stride,
+   *     av*3+2=stopIndex
+   * @param source gets data from the source
+   * @return a PrimitiveArray[] where the first axisVariables.length elements are the axisValues and
+   *     the next dvNames.length elements are the dataValues.
+   * @throws Throwable if trouble (e.g., from source)
+   */
+  public PrimitiveArray[] getSourceData(
+      String datasetID,
+      PrimitiveArray axisValues[],
+      String dvNames[],
+      IntArray tConstraints,
+      Source source)
+      throws Throwable {
+
+    int nAv = axisValues.length;
+    int nDv = dvNames.length;
+    Stats tStats = stats(datasetID);
+    int allDvs[] = new int[nDv];
+    for (int dv = 0; dv < nDv; dv++) allDvs[dv] = dv;
+
+    // align the request to tiles
+    AxisTiles axes[] = new AxisTiles[nAv];
+    long nTiles = 1;
+    long nAlignedCells = 1;
+    for (int av = 0; av < nAv; av++) {
+      AxisTiles at =
+          new AxisTiles(
+              tConstraints.get(av * 3),
+              tConstraints.get(av * 3 + 1),
+              tConstraints.get(av * 3 + 2),
+              axisValues[av].size(),
+              av >= nAv - 2 ? TILE_LENGTH : 1);
+      axes[av] = at;
+      nTiles *= at.t1 - at.t0 + 1;
+      nAlignedCells *= Math.min((at.t1 + 1) * at.tileLength, at.nK) - at.t0 * at.tileLength;
+    }
+    if (nDv == 0 || nTiles > MAX_TILES_PER_REQUEST || nAlignedCells > maxCellsPerRequest) {
+      tStats.bypassed.increment();
+      return source.getSourceData(allDvs, tConstraints);
+    }
+    int generation = register(datasetID, axisValues);
+
+    // look for the tiles
+    int nt[] = new int[nAv]; // the number of tiles along each axis
+    for (int av = 0; av < nAv; av++) nt[av] = axes[av].t1 - axes[av].t0 + 1;
+    PrimitiveArray tiles[][] = new PrimitiveArray[nDv][(int) nTiles];
+    TileKey keys[][] = new TileKey[nDv][(int) nTiles];
+    int missingMin[] = null; // the box of missing tiles (in tile numbers)
+    int missingMax[] = null;
+    boolean dvMissing[] = new boolean[nDv];
+    int tc[] = new int[nAv]; // the current tile number along each axis
+    for (int ti = 0; ti < nTiles; ti++) {
+      tileCoordinates(ti, axes, nt, tc);
+      String tileString = tileString(axes, tc);
+      for (int dv = 0; dv < nDv; dv++) {
+        TileKey key = new TileKey(datasetID, generation, dvNames[dv], tileString);
+        keys[dv][ti] = key;
+        PrimitiveArray pa = memory == null ? null : memory.get(key);
+        if (pa != null) {
+          tStats.memoryHits.increment();
+        } else {
+          pa = readFromDisk(key);
+          if (pa != null) {
+            tStats.diskHits.increment();
+            if (memory != null) memory.put(key, pa);
+          }
+        }
+        if (pa == null) {
+          tStats.misses.increment();
+          dvMissing[dv] = true;
+          if (missingMin == null) {
+            missingMin = tc.clone();
+            missingMax = tc.clone();
+          } else {
+            for (int av = 0; av < nAv; av++) {
+              missingMin[av] = Math.min(missingMin[av], tc[av]);
+              missingMax[av] = Math.max(missingMax[av], tc[av]);
+            }
+          }
+        }
+        tiles[dv][ti] = pa;
+      }
+    }
+
+    // get the missing tiles from the source with one request
+    if (missingMin != null) {
+      IntArray boxConstraints = new IntArray(nAv * 3, true);
+      int boxShape[] = new int[nAv];
+      int boxKStart[] = new int[nAv];
+      for (int av = 0; av < nAv; av++) {
+        AxisTiles at = axes[av];
+        boxKStart[av] = at.kStart(missingMin[av]);
+        int kEnd = at.kStart(missingMax[av]) + at.tileSize(missingMax[av]) - 1;
+        boxShape[av] = kEnd - boxKStart[av] + 1;
+        boxConstraints.set(av * 3, at.index(boxKStart[av]));
+        boxConstraints.set(av * 3 + 1, at.stride);
+        boxConstraints.set(av * 3 + 2, at.index(kEnd));
+      }
+      IntArray fetchDvs = new IntArray();
+      for (int dv = 0; dv < nDv; dv++) if (dvMissing[dv]) fetchDvs.add(dv);
+      PrimitiveArray fetched[] = source.getSourceData(fetchDvs.toArray(), boxConstraints);
+      long nBoxCells = 1;
+      for (int av = 0; av < nAv; av++) nBoxCells *= boxShape[av];
+      for (int f = 0; f < fetchDvs.size(); f++) {
+        PrimitiveArray pa = fetched.length == nAv + fetchDvs.size() ? fetched[nAv + f] : null;
+        if (pa == null || pa.size() != nBoxCells) {
+          String2.log(
+              "WARNING: GridTileCache got an unexpected response from the source of "
+                  + datasetID
+                  + ", so the cache won't be used for this request.");
+          tStats.bypassed.increment();
+          return source.getSourceData(allDvs, tConstraints);
+        }
+      }
+
+      // split the box into tiles
+      int offset[] = new int[nAv];
+      int count[] = new int[nAv];
+      for (int ti = 0; ti < nTiles; ti++) {
+        tileCoordinates(ti, axes, nt, tc);
+        boolean inBox = true;
+        for (int av = 0; av < nAv; av++) {
+          if (tc[av] < missingMin[av] || tc[av] > missingMax[av]) {
+            inBox = false;
+            break;
+          }
+          offset[av] = axes[av].kStart(tc[av]) - boxKStart[av];
+          count[av] = axes[av].tileSize(tc[av]);
+        }
+        if (!inBox) continue;
+        for (int f = 0; f < fetchDvs.size(); f++) {
+          int dv = fetchDvs.get(f);
+          if (tiles[dv][ti] != null) continue;
+          PrimitiveArray box = fetched[nAv + f];
+          PrimitiveArray pa =
+              PrimitiveArray.factory(box.elementType(), (int) product(count), false);
+          appendRegion(box, boxShape, offset, count, pa);
+          tiles[dv][ti] = pa;
+          if (memory != null) memory.put(keys[dv][ti], pa);
+          writeToDisk(keys[dv][ti], pa);
+        }
+      }
+    }
+
+    // assemble the results
+    PrimitiveArray results[] = new PrimitiveArray[nAv + nDv];
+    int resultShape[] = new int[nAv];
+    for (int av = 0; av < nAv; av++) {
+      results[av] =
+          axisValues[av].subset(
+              tConstraints.get(av * 3), tConstraints.get(av * 3 + 1), tConstraints.get(av * 3 + 2));
+      resultShape[av] = axes[av].k1 - axes[av].k0 + 1;
+    }
+    int nResultCells = (int) product(resultShape);
+    AxisTiles last = axes[nAv - 1];
+    int kk[] = new int[nAv]; // the current value (on the stride) along each axis
+    int within[] = new int[nAv]; // the position within the tile
+    for (int dv = 0; dv < nDv; dv++) {
+      PrimitiveArray pa = PrimitiveArray.factory(tiles[dv][0].elementType(), nResultCells, false);
+      for (int av = 0; av < nAv; av++) kk[av] = axes[av].k0;
+      do { // for each row of values along the last axis
+        for (int av = 0; av < nAv - 1; av++) {
+          tc[av] = kk[av] / axes[av].tileLength;
+          within[av] = kk[av] - axes[av].kStart(tc[av]);
+        }
+        for (int t = last.t0; t <= last.t1; t++) {
+          tc[nAv - 1] = t;
+          int kFrom = Math.max(last.k0, last.kStart(t));
+          int kTo = Math.min(last.k1, last.kStart(t) + last.tileSize(t) - 1);
+          within[nAv - 1] = kFrom - last.kStart(t);
+          // the offset in the tile (row-major)
+          int tileOffset = 0;
+          for (int av = 0; av < nAv; av++)
+            tileOffset = tileOffset * axes[av].tileSize(tc[av]) + within[av];
+          pa.addFromPA(tiles[dv][tileIndex(axes, nt, tc)], tileOffset, kTo - kFrom + 1);
+        }
+      } while (nextRow(kk, axes));
+      results[nAv + dv] = pa;
+    }
+    return results;
+  }
+
+  /** This sets tc to the tile numbers (along each axis) of the request's ti'th tile. */
+  private static void tileCoordinates(int ti, AxisTiles axes[], int nt[], int tc[]) {
+    for (int av = axes.length - 1; av >= 0; av--) {
+      tc[av] = axes[av].t0 + ti % nt[av];
+      ti /= nt[av];
+    }
+  }
+
+  /** This returns the index (in the request's tiles) of the tile with tile numbers tc. */
+  private static int tileIndex(AxisTiles axes[], int nt[], int tc[]) {
+    int ti = 0;
+    for (int av = 0; av < axes.length; av++) ti = ti * nt[av] + tc[av] - axes[av].t0;
+    return ti;
+  }
+
+  /** This returns the tile's constraints (e.g., "0:1:0,256:2:766,0:2:510"), for its key. */
+  private static String tileString(AxisTiles axes[], int tc[]) {
+    StringBuilder sb = new StringBuilder();
+    for (int av = 0; av < axes.length; av++) {
+      AxisTiles at = axes[av];
+      if (av > 0) sb.append(',');
+      sb.append(at.index(at.kStart(tc[av])))
+          .append(':')
+          .append(at.stride)
+          .append(':')
+          .append(at.index(at.kStart(tc[av]) + at.tileSize(tc[av]) - 1));
+    }
+    return sb.toString();
+  }
+
+  /**
+   * This advances kk to the next row of the request (all axes but the last).
+   *
+   * @return false if there are no more rows
+   */
+  private static boolean nextRow(int kk[], AxisTiles axes[]) {
+    for (int av = axes.length - 2; av >= 0; av--) {
+      if (++kk[av] <= axes[av].k1) return true;
+      kk[av] = axes[av].k0;
+    }
+    return false;
+  }
+
+  private static long product(int values[]) {
+    long n = 1;
+    for (int value : values) n *= value;
+    return n;
+  }
+
+  /**
+   * This appends the values in a (row-major) region of src to dest.
+   *
+   * @param src the source values
+   * @param srcShape the size of each of src's dimensions
+   * @param offset the position of the region in src
+   * @param count the size of each of the region's dimensions
+   * @param dest receives the values (in row-major order)
+   */
+  static void appendRegion(
+      PrimitiveArray src, int srcShape[], int offset[], int count[], PrimitiveArray dest) {
+    int n = srcShape.length;
+    int idx[] = new int[n]; // the current position in the region (the last one isn't used)
+    while (true) {
+      int srcOffset = 0;
+      for (int d = 0; d < n - 1; d++)
+        srcOffset = (srcOffset + offset[d] + idx[d]) * srcShape[d + 1];
+      dest.addFromPA(src, srcOffset + offset[n - 1], count[n - 1]);
+      int d = n - 2;
+      for (; d >= 0; d--) {
+        if (++idx[d] < count[d]) break;
+        idx[d] = 0;
+      }
+      if (d < 0) return;
+    }
+  }
+
+  /**
+   * This notes the axis values of a dataset's cached tiles. If they aren't an extension of the
+   * previous axis values, the dataset's cached tiles are removed.
+   *
+   * @return the generation number for the dataset's tiles
+   */
+  private int register(String datasetID, PrimitiveArray axisValues[]) {
+    Registration reg = registrations.get(datasetID);
+    if (reg != null && sameArrays(reg.axisValues(), axisValues)) return reg.generation();
+    synchronized (registrations) {
+      reg = registrations.get(datasetID);
+      if (reg != null && sameArrays(reg.axisValues(), axisValues)) return reg.generation();
+      int generation = 0;
+      if (reg != null) {
+        generation = reg.generation();
+        if (!isExtension(reg.axisValues(), axisValues)) {
+          generation++;
+          invalidate(datasetID);
+        }
+      }
+      registrations.put(datasetID, new Registration(axisValues.clone(), generation));
+      return generation;
+    }
+  }
+
+  /** This returns true if the arrays have the same objects (i.e., it's the same dataset object). */
+  private static boolean sameArrays(PrimitiveArray a[], PrimitiveArray b[]) {
+    if (a.length != b.length) return false;
+    for (int i = 0; i < a.length; i++) if (a[i] != b[i]) return false;
+    return true;
+  }
+
+  /** This returns true if each of newValues starts with the values in the oldValues. */
+  private static boolean isExtension(PrimitiveArray oldValues[], PrimitiveArray newValues[]) {
+    if (oldValues.length != newValues.length) return false;
+    for (int av = 0; av < oldValues.length; av++) {
+      PrimitiveArray o = oldValues[av];
+      PrimitiveArray n = newValues[av];
+      int size = o.size();
+      if (o.elementType() != n.elementType() || size > n.size()) return false;
+      for (int i = 0; i < size; i++) if (!o.getString(i).equals(n.getString(i))) return false;
+    }
+    return true;
+  }
+
+  /**
+   * This removes a dataset's tiles from the cache (in memory and on disk).
+   *
+   * @param datasetID the dataset's datasetID
+   */
+  public void invalidate(String datasetID) {
+    if (memory != null) memory.removeIf(key -> key.datasetID().equals(datasetID));
+    ArrayList<TileKey> toDelete = new ArrayList<>();
+    synchronized (disk) {
+      Iterator<Map.Entry<TileKey, Long>> it = disk.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<TileKey, Long> entry = it.next();
+        if (entry.getKey().datasetID().equals(datasetID)) {
+          toDelete.add(entry.getKey());
+          diskBytes -= entry.getValue();
+          it.remove();
+        }
+      }
+    }
+    for (TileKey key : toDelete) File2.delete(fileName(key));
+    nInvalidated.increment();
+  }
+
+  /**
+   * This forgets a dataset which has been unloaded: its tiles (in memory and on disk), its axis
+   * values, and its statistics (so it is no longer listed in the metrics).
+   *
+   * @param datasetID the dataset's datasetID
+   */
+  public void remove(String datasetID) {
+    synchronized (registrations) {
+      registrations.remove(datasetID);
+      invalidate(datasetID);
+    }
+    stats.remove(datasetID);
+  }
+
+  /** This removes all the tiles from the cache (in memory and on disk). */
+  public void clear() {
+    if (memory != null) memory.clear();
+    synchronized (disk) {
+      disk.clear();
+      diskBytes = 0;
+    }
+    if (maxDiskBytes > 0) File2.deleteAllFiles(dir, true, true);
+  }
+
+  private String fileName(TileKey key) {
+    return dir + key.datasetID() + "/" + String2.md5Hex12(key.toString()) + ".tile";
+  }
+
+  /** This returns the tile (or null if it isn't in the disk cache or there was trouble). */
+  private PrimitiveArray readFromDisk(TileKey key) {
+    if (maxDiskBytes <= 0) return null;
+    synchronized (disk) {
+      if (disk.get(key) == null) return null; // get() marks it as recently used
+    }
+    String fileName = fileName(key);
+    try (DataInputStream dis =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+      if (!dis.readUTF().equals(key.toString())) return null; // a hash collision
+      PAType paType = PAType.fromCohortString(dis.readUTF());
+      int n = dis.readInt();
+      PrimitiveArray pa = PrimitiveArray.factory(paType, n, false);
+      pa.readDis(dis, n);
+      return pa;
+    } catch (Throwable t) {
+      String2.log(
+          String2.ERROR
+              + " while reading GridTileCache file="
+              + fileName
+              + "\n"
+              + MustBe.throwableToString(t));
+      removeFromDisk(key);
+      return null;
+    }
+  }
+
+  /** This writes the tile to the disk cache (if any), then removes the oldest files if needed. */
+  private void writeToDisk(TileKey key, PrimitiveArray pa) {
+    if (maxDiskBytes <= 0) return;
+    String fileName = fileName(key);
+    String tempName = fileName + Math2.random(Integer.MAX_VALUE);
+    try {
+      File2.makeDirectory(File2.getDirectory(fileName));
+      try (DataOutputStream dos =
+          new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempName)))) {
+        dos.writeUTF(key.toString());
+        dos.writeUTF(pa.elementTypeString());
+        dos.writeInt(pa.size());
+        pa.writeDos(dos);
+      }
+      File2.rename(tempName, fileName);
+    } catch (Throwable t) {
+      File2.delete(tempName);
+      String2.log(
+          String2.ERROR
+              + " while writing GridTileCache file="
+              + fileName
+              + "\n"
+              + MustBe.throwableToString(t));
+      return;
+    }
+
+    ArrayList<TileKey> toDelete = new ArrayList<>();
+    synchronized (disk) {
+      Long old = disk.put(key, File2.length(fileName));
+      diskBytes += disk.get(key) - (old == null ? 0 : old);
+      Iterator<Map.Entry<TileKey, Long>> it = disk.entrySet().iterator();
+      while (diskBytes > maxDiskBytes && it.hasNext()) {
+        Map.Entry<TileKey, Long> entry = it.next();
+        toDelete.add(entry.getKey());
+        diskBytes -= entry.getValue();
+        it.remove();
+      }
+    }
+    for (TileKey tKey : toDelete) File2.delete(fileName(tKey));
+  }
+
+  private void removeFromDisk(TileKey key) {
+    synchronized (disk) {
+      Long old = disk.remove(key);
+      if (old != null) diskBytes -= old;
+    }
+    File2.delete(fileName(key));
+  }
+
+  private Stats stats(String datasetID) {
+    return stats.computeIfAbsent(datasetID, k -> new Stats());
+  }
+
+  /** This returns an unmodifiable view of the statistics for each datasetID. */
+  public Map<String, Stats> datasetStats() {
+    return Collections.unmodifiableMap(stats);
+  }
+
+  /** This returns the maximum number of bytes of tiles kept in memory. */
+  public long maxMemoryBytes() {
+    return memory == null ? 0 : memory.maxWeight();
+  }
+
+  /** This returns the number of bytes of tiles in memory. */
+  public long memoryBytes() {
+    return memory == null ? 0 : memory.weight();
+  }
+
+  /** This returns the number of bytes of tiles on disk. */
+  public long diskBytes() {
+    synchronized (disk) {
+      return diskBytes;
+    }
+  }
+
+  /** This returns a one line summary of the statistics. */
+  public String statsString() {
+    long memoryHits = 0, diskHits = 0, misses = 0, bypassed = 0;
+    for (Stats s : stats.values()) {
+      memoryHits += s.memoryHits();
+      diskHits += s.diskHits();
+      misses += s.misses();
+      bypassed += s.bypassed();
+    }
+    long tLookups = memoryHits + diskHits + misses;
+    int nDiskFiles;
+    synchronized (disk) {
+      nDiskFiles = disk.size();
+    }
+    return "GridTileCache: memoryMB="
+        + (memoryBytes() / Math2.BytesPerMB)
+        + " (max "
+        + (maxMemoryBytes() / Math2.BytesPerMB)
+        + "), diskMB="
+        + (diskBytes() / Math2.BytesPerMB)
+        + " (max "
+        + (maxDiskBytes / Math2.BytesPerMB)
+        + "), nDiskFiles="
+        + nDiskFiles
+        + ", nMemoryHits="
+        + memoryHits
+        + ", nDiskHits="
+        + diskHits
+        + ", nMisses="
+        + misses
+        + ", hitRate="
+        + (tLookups == 0
+            ? "NaN"
+            : "" + Math2.roundTo((memoryHits + diskHits) / (double) tLookups, 3))
+        + ", nBypassed="
+        + bypassed
+        + ", nInvalidated="
+        + nInvalidated.sum();
+  }
+}
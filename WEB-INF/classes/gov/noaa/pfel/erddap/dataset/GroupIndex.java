@@ -0,0 +1,218 @@
+/*
+ * GroupIndex Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.Math2;
+import com.cohort.util.SimpleException;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.MemoryBudget;
+
+/**
+ * This is a hash index of groups of rows, keyed on the values in some key columns. It is used by
+ * the TableWriters which gather or summarize groups of rows (e.g., TableWriterDistinct,
+ * TableWriterOrderByMax, TableWriterOrderByMean) so that they can process each chunk of data in one
+ * pass as it arrives, instead of saving all of the rows and sorting them at the end.
+ *
+ * <p>The keys of each group are stored (in the order the groups were found) in key columns, which
+ * have the same types as the incoming key columns. The index is an open addressing hash table of
+ * group numbers (in an int[]), so there is no boxing of the values or the group numbers. Keys are
+ * equal if all of their values are equal according to PrimitiveArray.compare (as in a sort and
+ * PrimitiveArray.removeDuplicates).
+ *
+ * <p>This isn't thread-safe.
+ */
+public class GroupIndex {
+
+  /**
+   * The maximum number of bytes (roughly) of groups which TableWriters gather in memory before
+   * they spill them to their file. This is public so it can be changed for testing.
+   */
+  public static long maxHashBytes = Math2.alwaysOkayMemoryRequest;
+
+  private final PrimitiveArray keys[];
+  private int slots[] = new int[1024]; // group + 1 (0 if empty)
+  private int hashes[] = new int[1024]; // the hash of the group in each slot
+  private int size = 0;
+
+  /**
+   * The constructor.
+   *
+   * @param tKeys empty PrimitiveArrays (with the same types as the key columns which will be
+   *     passed to add()) which will receive the keys of each group. They are kept and used by this
+   *     index.
+   */
+  public GroupIndex(PrimitiveArray tKeys[]) {
+    keys = tKeys;
+  }
+
+  /**
+   * This returns a hash of a row's keys. Equal values have equal hashes, regardless of maxIsMV (so
+   * it doesn't matter if maxIsMV is changed later).
+   */
+  private static int hash(PrimitiveArray pas[], int row) {
+    int h = 0;
+    for (PrimitiveArray pa : pas) {
+      long bits =
+          pa instanceof StringArray
+              ? pa.getString(row).hashCode()
+              : pa instanceof LongArray la
+                  ? la.get(row)
+                  : Double.doubleToLongBits(pa.getRawDouble(row));
+      h = 31 * h + Long.hashCode(bits);
+    }
+    // spread the bits (from MurmurHash3's fmix32)
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * This finds the group with a row's keys, and adds a new group if there isn't one. If the result
+   * equals the size() before this call, it is a new group.
+   *
+   * @param pas the key columns (with the same types as the keys)
+   * @param row the row in pas
+   * @return the group number (0..)
+   */
+  public int add(PrimitiveArray pas[], int row) {
+    int h = hash(pas, row);
+    int mask = slots.length - 1;
+    int i = h & mask;
+    while (slots[i] != 0) {
+      if (hashes[i] == h && equal(pas, row, slots[i] - 1)) return slots[i] - 1;
+      i = (i + 1) & mask;
+    }
+    int group = size++;
+    for (int k = 0; k < keys.length; k++) keys[k].addFromPA(pas[k], row);
+    slots[i] = group + 1;
+    hashes[i] = h;
+    if (size > slots.length / 2) grow();
+    return group;
+  }
+
+  private boolean equal(PrimitiveArray pas[], int row, int group) {
+    for (int k = 0; k < keys.length; k++)
+      if (keys[k].compare(group, pas[k], row) != 0) return false;
+    return true;
+  }
+
+  private void grow() {
+    Math2.ensureArraySizeOkay(slots.length * 2L, "GroupIndex");
+    int oSlots[] = slots;
+    int oHashes[] = hashes;
+    slots = new int[oSlots.length * 2];
+    hashes = new int[oSlots.length * 2];
+    int mask = slots.length - 1;
+    for (int j = 0; j < oSlots.length; j++) {
+      if (oSlots[j] == 0) continue;
+      int i = oHashes[j] & mask;
+      while (slots[i] != 0) i = (i + 1) & mask;
+      slots[i] = oSlots[j];
+      hashes[i] = oHashes[j];
+    }
+  }
+
+  /**
+   * If maxIsMV is true for one of the incoming key columns, this sets it for the corresponding key
+   * column, so they are compared the same way. (As with TableWriter.columnMaxIsMV, once maxIsMV is
+   * true, it stays true.) Call this before adding the rows from a new chunk of data.
+   *
+   * @param pas the key columns from a new chunk of data
+   */
+  public void ensureMaxIsMV(PrimitiveArray pas[]) {
+    for (int k = 0; k < keys.length; k++) if (pas[k].getMaxIsMV()) keys[k].setMaxIsMV(true);
+  }
+
+  /** This returns the number of groups. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * This returns the key values of the groups in one of the key columns.
+   *
+   * @param k the number of the key column
+   * @return the key values (in the order the groups were found). Don't change it!
+   */
+  public PrimitiveArray keyColumn(int k) {
+    return keys[k];
+  }
+
+  /** This returns the approximate number of bytes used by the hash table (not the keys). */
+  public long estimatedBytes() {
+    return slots.length * 8L;
+  }
+
+  /**
+   * This returns true if a TableWriter's groups can stay in memory: they take up no more than
+   * maxHashBytes and the current request (if any) can reserve that much memory now (without
+   * waiting). If not, the TableWriter should spill them to its file.
+   *
+   * @param nBytes the approximate number of bytes used by the groups
+   * @return true if the groups can stay in memory
+   */
+  public static boolean fitsInMemory(long nBytes) {
+    MemoryBudget.Reservation reservation = EDStatic.memoryBudget.current();
+    return nBytes <= maxHashBytes
+        && (reservation == null || EDStatic.memoryBudget.tryReserve(reservation, nBytes));
+  }
+
+  /**
+   * This returns a key column with the missing values converted to standard missing values (like
+   * Table.temporarilyConvertToStandardMissingValues), without changing the column.
+   *
+   * @param pa a column from a chunk of data
+   * @param atts the column's attributes (with the _FillValue and missing_value, if any)
+   * @return pa (if there is nothing to convert) or a converted copy
+   */
+  public static PrimitiveArray standardized(PrimitiveArray pa, Attributes atts) {
+    if (pa.elementType() == PAType.STRING) return pa;
+    String fv = atts.getString("_FillValue");
+    String mv = atts.getString("missing_value");
+    if (fv == null && mv == null) return pa;
+    pa = (PrimitiveArray) pa.clone();
+    pa.convertToStandardMissingValues(fv, mv);
+    return pa;
+  }
+
+  /**
+   * This returns a key column's rounded values (like Table.withRounding, e.g., for time/1day).
+   *
+   * @param pa a numeric column from a chunk of data
+   * @param rounder the rounder
+   * @param responsible the name of the orderBy option, e.g., orderByMax
+   * @param name the orderBy item, e.g., time/1day
+   * @return a new DoubleArray with the rounded values
+   * @throws SimpleException if trouble
+   */
+  public static DoubleArray rounded(
+      PrimitiveArray pa, Table.Rounder rounder, String responsible, String name) {
+    DoubleArray da = new DoubleArray(pa);
+    int nRows = da.size();
+    for (int row = 0; row < nRows; row++) {
+      double value = da.getNiceDouble(row);
+      if (!Double.isNaN(value)) {
+        try {
+          double rounded = rounder.round(value);
+          if (rounded != value) da.setDouble(row, rounded);
+        } catch (Exception e) {
+          throw new SimpleException(
+              responsible + " problem rounding " + name + " for value=" + value + " because " + e,
+              e);
+        }
+      }
+    }
+    return da;
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * SubsetIndex Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.LongArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.array.ULongArray;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * This is an in-memory index of an EDDTable's subsetVariables data table (the distinct combinations
+ * of the subsetVariables' values) and its distinct values table, so that .subset requests and
+ * requests which just involve subsetVariables don't have to read those tables from the files in
+ * datasetDir() and then test every row.
+ *
+ * <p>Each column is dictionary-encoded: each distinct value in the column gets a code (an index in
+ * the column's values PA) and each row has the code of its value. For each code, there is a sorted
+ * list of the rows with that value. So a constraint on a column is tested once for each distinct
+ * value (not once for each row) and then the rows with the values which pass are found from the
+ * lists (for the most selective column) and checked against the other columns' codes.
+ *
+ * <p>A SubsetIndex is immutable, so it can be used by several threads and reused by a new instance
+ * of the dataset (after a reload) if the dataset's subset data hasn't changed.
+ */
+public class SubsetIndex {
+
+  /** The subset table. Don't change it! */
+  private final Table table;
+
+  /** The distinct values table. Don't change it! */
+  private final Table distinctTable;
+
+  /** For each column, the distinct values (in order of first appearance). */
+  private final PrimitiveArray values[];
+
+  /** For each column, each row's code (an index in values[col]). */
+  private final int codes[][];
+
+  /** For each column, the rows, grouped by code (and in order within each code). */
+  private final int rowsByCode[][];
+
+  /** For each column, the start of each code's rows in rowsByCode (with an extra, final value). */
+  private final int codeStart[][];
+
+  /**
+   * This makes a SubsetIndex.
+   *
+   * @param tTable the subsetVariables data table. This keeps it, so don't change it after this.
+   * @param tDistinctTable the distinct subsetVariables data table (the columns have different
+   *     sizes). This keeps it, so don't change it after this.
+   */
+  public SubsetIndex(Table tTable, Table tDistinctTable) {
+    table = tTable;
+    distinctTable = tDistinctTable;
+    int nColumns = table.nColumns();
+    int nRows = table.nRows();
+    values = new PrimitiveArray[nColumns];
+    codes = new int[nColumns][];
+    rowsByCode = new int[nColumns][];
+    codeStart = new int[nColumns][];
+    for (int col = 0; col < nColumns; col++) {
+      PrimitiveArray pa = table.getColumn(col);
+      PrimitiveArray tValues = PrimitiveArray.factory(pa.elementType(), 16, false);
+      tValues.setMaxIsMV(pa.getMaxIsMV());
+      int tCodes[] = new int[nRows];
+      HashMap<Object, Integer> codeOf = new HashMap<>();
+      for (int row = 0; row < nRows; row++) {
+        Object key = key(pa, row);
+        Integer code = codeOf.get(key);
+        if (code == null) {
+          code = tValues.size();
+          codeOf.put(key, code);
+          tValues.addFromPA(pa, row);
+        }
+        tCodes[row] = code;
+      }
+
+      // group the rows by code (a counting sort, so the rows stay in order)
+      int nValues = tValues.size();
+      int start[] = new int[nValues + 1];
+      for (int row = 0; row < nRows; row++) start[tCodes[row] + 1]++;
+      for (int code = 0; code < nValues; code++) start[code + 1] += start[code];
+      int next[] = new int[nValues];
+      System.arraycopy(start, 0, next, 0, nValues);
+      int tRowsByCode[] = new int[nRows];
+      for (int row = 0; row < nRows; row++) tRowsByCode[next[tCodes[row]]++] = row;
+
+      values[col] = tValues;
+      codes[col] = tCodes;
+      rowsByCode[col] = tRowsByCode;
+      codeStart[col] = start;
+    }
+  }
+
+  /**
+   * This returns a key for a value, so that rows with equal keys have identical values (so they
+   * pass and fail the same tests).
+   */
+  private static Object key(PrimitiveArray pa, int row) {
+    if (pa instanceof StringArray || pa instanceof LongArray || pa instanceof ULongArray)
+      return pa.getString(row);
+    if (pa.isIntegerType() && !pa.getMaxIsMV()) return pa.getLong(row); // chars, too
+    return Double.doubleToLongBits(pa.getDouble(row)); // exact for int types and floats
+  }
+
+  /**
+   * This indicates if this index is for the specified tables (e.g., from a new instance of the
+   * dataset). The metadata is compared too, since a reload may just change the metadata, and
+   * table() and subset() return this index's metadata.
+   *
+   * @param tTable a subsetVariables data table
+   * @return true if the tables have the same column names, data, and (global and column) attributes
+   */
+  public boolean isFor(Table tTable) {
+    int nColumns = table.nColumns();
+    if (tTable.nColumns() != nColumns
+        || tTable.nRows() != table.nRows()
+        || !tTable.globalAttributes().equals(table.globalAttributes())) return false;
+    for (int col = 0; col < nColumns; col++) {
+      if (!tTable.getColumnName(col).equals(table.getColumnName(col))
+          || !tTable.columnAttributes(col).equals(table.columnAttributes(col))
+          || tTable.getColumn(col).testEquals(table.getColumn(col)).length() > 0) return false;
+    }
+    return true;
+  }
+
+  /**
+   * This returns the subset table. Don't change it! Use subset() to get a copy.
+   *
+   * @return the subset table
+   */
+  public Table table() {
+    return table;
+  }
+
+  /** This returns the number of columns (subsetVariables) in the subset table. */
+  public int nColumns() {
+    return table.nColumns();
+  }
+
+  /** This returns the number of rows in the subset table. */
+  public int nRows() {
+    return table.nRows();
+  }
+
+  /**
+   * This returns the column number of a subsetVariable.
+   *
+   * @param name a subsetVariable's destinationName
+   * @return the column number, or -1 if not found
+   */
+  public int findColumnNumber(String name) {
+    return table.findColumnNumber(name);
+  }
+
+  /**
+   * This returns the distinct values in a column (in no particular order). Tests of these values
+   * are equivalent to tests of the rows with those values. Don't change the PA! Clone it first.
+   *
+   * @param col a column number
+   * @return the distinct values. A value's index is its code.
+   */
+  public PrimitiveArray values(int col) {
+    return values[col];
+  }
+
+  /**
+   * This finds the rows which have one of the allowed values in each of the constrained columns.
+   *
+   * @param allowed for each column, the allowed codes (or null if any value is allowed)
+   * @return the rows which pass
+   */
+  public BitSet select(BitSet allowed[]) {
+    int nRows = table.nRows();
+
+    // start with the column with the fewest allowed rows
+    int driver = -1;
+    long driverNRows = Long.MAX_VALUE;
+    for (int col = 0; col < allowed.length; col++) {
+      if (allowed[col] == null) continue;
+      long n = 0;
+      int start[] = codeStart[col];
+      for (int code = allowed[col].nextSetBit(0);
+          code >= 0 && code < values[col].size();
+          code = allowed[col].nextSetBit(code + 1)) n += start[code + 1] - start[code];
+      if (n < driverNRows) {
+        driver = col;
+        driverNRows = n;
+      }
+    }
+    BitSet rows = new BitSet(nRows);
+    if (driver < 0) {
+      rows.set(0, nRows);
+      return rows;
+    }
+    int start[] = codeStart[driver];
+    int tRowsByCode[] = rowsByCode[driver];
+    for (int code = allowed[driver].nextSetBit(0);
+        code >= 0 && code < values[driver].size();
+        code = allowed[driver].nextSetBit(code + 1)) {
+      for (int i = start[code]; i < start[code + 1]; i++) rows.set(tRowsByCode[i]);
+    }
+
+    // check the other constrained columns
+    for (int col = 0; col < allowed.length; col++) {
+      if (allowed[col] == null || col == driver) continue;
+      BitSet tAllowed = allowed[col];
+      int tCodes[] = codes[col];
+      for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1))
+        if (!tAllowed.get(tCodes[row])) rows.clear(row);
+    }
+    return rows;
+  }
+
+  /**
+   * This makes a new table (a deep copy) with some of the rows of the subset table.
+   *
+   * @param rows the rows to be included (or null for all)
+   * @return a new table with the rows (in order) and a copy of the metadata
+   */
+  public Table subset(BitSet rows) {
+    if (rows == null) return (Table) table.clone();
+    int nColumns = table.nColumns();
+    int n = rows.cardinality();
+    Table tTable = new Table();
+    tTable.globalAttributes().add(table.globalAttributes());
+    for (int col = 0; col < nColumns; col++) {
+      PrimitiveArray pa = table.getColumn(col);
+      PrimitiveArray tPa = PrimitiveArray.factory(pa.elementType(), n, false);
+      tPa.setMaxIsMV(pa.getMaxIsMV());
+      // add runs of rows
+      for (int row = rows.nextSetBit(0); row >= 0; ) {
+        int end = rows.nextClearBit(row);
+        tPa.addFromPA(pa, row, end - row);
+        row = rows.nextSetBit(end);
+      }
+      tTable.addColumn(
+          col,
+          table.getColumnName(col),
+          tPa,
+          (Attributes) table.columnAttributes(col).clone());
+    }
+    return tTable;
+  }
+
+  /**
+   * This gets copies of some of the columns of the distinct values table (like
+   * NcHelper.readPAsInNc3 does from the distinct values file).
+   *
+   * @param loadVars the destinationNames of the desired columns (or null for all)
+   * @param varNames receives the names of the columns
+   * @return copies of the columns (which have different sizes)
+   * @throws RuntimeException if one of the loadVars isn't found
+   */
+  public PrimitiveArray[] distinctColumns(String loadVars[], StringArray varNames) {
+    varNames.clear();
+    int n = loadVars == null ? distinctTable.nColumns() : loadVars.length;
+    PrimitiveArray pas[] = new PrimitiveArray[n];
+    for (int v = 0; v < n; v++) {
+      int col = loadVars == null ? v : distinctTable.findColumnNumber(loadVars[v]);
+      if (col < 0)
+        throw new RuntimeException(
+            String2.ERROR
+                + ": Expected variable #"
+                + v
+                + " not found in the distinct subset table (loadVars="
+                + String2.toCSSVString(loadVars)
+                + ").");
+      varNames.add(distinctTable.getColumnName(col));
+      pas[v] = (PrimitiveArray) distinctTable.getColumn(col).clone();
+    }
+    return pas;
+  }
+}
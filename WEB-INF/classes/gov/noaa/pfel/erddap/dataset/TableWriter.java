@@ -11,6 +11,7 @@ import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 
 /**
@@ -85,6 +86,12 @@ public abstract class TableWriter {
    * @throws Throwable if not compatible or other trouble
    */
   protected void ensureCompatible(Table table) throws Throwable {
+    // each chunk of data is in memory while it is being written
+    EDStatic.memoryBudget.reserveForCurrentRequest(
+        table.nRows() * (long) table.estimatedBytesPerRow(),
+        EDStatic.memoryReserveTimeoutMillis,
+        "TableWriter");
+
     String[] tColumnNames = table.getColumnNames();
     int nColumns = tColumnNames.length;
     PAType[] tColumnTypes = new PAType[nColumns];
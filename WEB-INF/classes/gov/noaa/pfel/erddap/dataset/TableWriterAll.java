@@ -4,7 +4,10 @@
  */
 package gov.noaa.pfel.erddap.dataset;
 
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
 import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
 import com.cohort.util.File2;
 import com.cohort.util.Math2;
 import com.cohort.util.MustBe;
@@ -12,42 +15,117 @@ import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
 
 /**
- * TableWriterAll provides a way to write a table to a series of DataOutputStreams (one per column)
- * in chunks so that the whole table is available but doesn't have to be in memory at one time. This
- * is used by EDDTable.
+ * TableWriterAll provides a way to write a table to a temporary file in chunks so that the whole
+ * table is available but doesn't have to be in memory at one time. This is used by EDDTable.
  *
  * <p>This is different from most TableWriters in that finish() doesn't write the data anywhere (to
  * an outputStream or to another tableWriter), it just makes all of the data available.
  *
+ * <p>All of the columns are written to one file. Each column's values (as written by
+ * PrimitiveArray.writeDos) are gathered into chunks of about CHUNK_BYTES, which are appended to the
+ * file as they fill up, LZ4-compressed if that makes them significantly smaller. The chunk
+ * directory (each chunk's column, first row, offset, and length) is kept in memory. After finish(),
+ * a column (or a range of rows) is read by reading just the chunks which are needed. The file isn't
+ * memory-mapped, since a mapped file can't be deleted (on Windows) until the mapping is garbage
+ * collected.
+ *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2007-08-23
  */
 public class TableWriterAll extends TableWriter {
 
   public static String attributeTo = "gathering data in TableWriterAll";
 
+  /** The approximate number of bytes in a chunk of one column's values (before compression). */
+  public static final int CHUNK_BYTES = 1 << 16;
+
+  /**
+   * If true (the default), chunks are LZ4-compressed if that makes them at least 1/8 smaller. This
+   * is public so it can be changed for testing.
+   */
+  public static boolean lz4Compress = true;
+
+  // the pure Java implementation (no native library to extract to a temp directory)
+  private static final LZ4Factory lz4Factory = LZ4Factory.fastestJavaInstance();
+
   protected int randomInt = Math2.random(Integer.MAX_VALUE);
 
   // set by constructor
   protected String dir;
   protected String fileNameNoExt;
 
+  /**
+   * A ByteArrayOutputStream which provides access to its buffer. It starts small and grows as
+   * needed, so columns with few rows don't each use CHUNK_BYTES.
+   */
+  private static final class ChunkBuffer extends ByteArrayOutputStream {
+    ChunkBuffer() {
+      super(256);
+    }
+
+    byte[] buffer() {
+      return buf;
+    }
+  }
+
+  /** The chunk directory for one column, and the values which haven't been written yet. */
+  protected static final class ColumnChunks {
+    final LongArray firstRow = new LongArray(); // of each chunk
+    final LongArray offset = new LongArray(); // in the file
+    final IntArray storedLength = new IntArray(); // < rawLength if compressed
+    final IntArray rawLength = new IntArray();
+
+    // the values which haven't been written to a chunk yet (null after finish())
+    ChunkBuffer buffer = new ChunkBuffer();
+    DataOutputStream dos = new DataOutputStream(buffer);
+    long bufferFirstRow = 0;
+
+    /** This returns the chunk with the row. */
+    int chunkWithRow(long row) {
+      int lo = 0, hi = firstRow.size() - 1;
+      while (lo < hi) {
+        int mid = (lo + hi + 1) >>> 1;
+        if (firstRow.get(mid) <= row) lo = mid;
+        else hi = mid - 1;
+      }
+      return lo;
+    }
+  }
+
   // set firstTime
   // POLICY: because this class may be used in more than one thread,
-  // each instance makes unique temp files names by adding randomInt to name.
-  protected volatile DataOutputStream[] columnStreams;
+  // each instance makes a unique temp file name by adding randomInt to name.
+  protected volatile ColumnChunks[] columnChunks;
+  protected volatile OutputStream spillStream; // null after finish()
   protected volatile long totalNRows = 0;
+  protected long spillNBytes = 0;
+  private byte[] compressed; // reused by writeChunk
+
+  // set by openForReading
+  private FileChannel spillChannel;
 
   protected Table cumulativeTable; // set by writeAllAndFinish, if used
 
   /**
-   * The constructor. TableWriterAll will create several temporary files using the dir+name as the
-   * starting point. TableWriterAll will delete all of the files when garbage-collected.
+   * The constructor. TableWriterAll will create a temporary file using the dir+name as the starting
+   * point. TableWriterAll will delete the file when garbage-collected.
    *
    * @param tDir a private cache directory for storing the intermediate files, usually
    *     cacheDirectory(datasetID)
@@ -68,10 +146,10 @@ public class TableWriterAll extends TableWriter {
   }
 
   /**
-   * This adds the current contents of table (a chunk of data) to the columnStreams. This calls
+   * This adds the current contents of table (a chunk of data) to the temporary file. This calls
    * ensureCompatible each time it is called. If this is the first time this is called, this does
-   * first time things (e.g., open the columnStreams). The number of columns, the column names, and
-   * the types of columns must be the same each time this is called.
+   * first time things (e.g., open the file). The number of columns, the column names, and the types
+   * of columns must be the same each time this is called.
    *
    * @param table with destinationValues. The table should have missing values stored as
    *     destinationMissingValues or destinationFillValues. This implementation doesn't change them.
@@ -82,47 +160,79 @@ public class TableWriterAll extends TableWriter {
     if (table.nRows() == 0) return;
 
     // ensure the table's structure is the same as before
-    boolean firstTime = columnNames == null;
+    boolean firstTime = columnChunks == null; // ensureCompatible may have been called already
     ensureCompatible(table);
 
     // do firstTime stuff
     int nColumns = table.nColumns();
     if (firstTime) {
-      columnStreams = new DataOutputStream[nColumns];
-      for (int col = 0; col < nColumns; col++) {
-        String tFileName = columnFileName(col);
-        columnStreams[col] =
-            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tFileName)));
-        if (col == 0 && reallyVerbose)
-          String2.log(
-              "TableWriterAll nColumns="
-                  + nColumns
-                  + " colNames="
-                  + table.getColumnNamesCSVString()
-                  + " col0 file="
-                  + tFileName);
-      }
+      columnChunks = new ColumnChunks[nColumns];
+      for (int col = 0; col < nColumns; col++) columnChunks[col] = new ColumnChunks();
+      String tFileName = spillFileName();
+      spillStream = new BufferedOutputStream(new FileOutputStream(tFileName));
+      if (reallyVerbose)
+        String2.log(
+            "TableWriterAll nColumns="
+                + nColumns
+                + " colNames="
+                + table.getColumnNamesCSVString()
+                + " file="
+                + tFileName);
     }
 
     // avoid gathering more data than can be processed
     // (although in some cases, perhaps more could be handled)
-    long newTotalNRows = totalNRows + table.nRows();
+    int nRows = table.nRows();
+    long newTotalNRows = totalNRows + nRows;
     Math2.ensureArraySizeOkay(newTotalNRows, attributeTo);
     Math2.ensureMemoryAvailable(newTotalNRows * 8, attributeTo);
 
     // do everyTime stuff
     // write the data
+    Test.ensureNotNull(spillStream, "spillStream is null! nColumns=" + nColumns);
     for (int col = 0; col < nColumns; col++) {
-      Test.ensureNotNull(
-          columnStreams[col], "columnStreams[" + col + "] is null! nColumns=" + nColumns);
+      ColumnChunks cc = columnChunks[col];
       PrimitiveArray pa = table.getColumn(col);
-      pa.writeDos(columnStreams[col]);
+      for (int row = 0; row < nRows; row++) {
+        pa.writeDos(cc.dos, row);
+        if (cc.buffer.size() >= CHUNK_BYTES) writeChunk(cc, totalNRows + row + 1);
+      }
     }
     totalNRows = newTotalNRows;
   }
 
   /**
-   * This writes any end-of-file info to the stream and flushes the stream. If ignoreFinish=true,
+   * This appends a column's buffered values to the file as a chunk.
+   *
+   * @param cc the column
+   * @param endRow the row after the last buffered row
+   */
+  private void writeChunk(ColumnChunks cc, long endRow) throws IOException {
+    int rawLength = cc.buffer.size();
+    byte[] bytes = cc.buffer.buffer();
+    int storedLength = rawLength;
+    if (lz4Compress) {
+      LZ4Compressor compressor = lz4Factory.fastCompressor();
+      int max = compressor.maxCompressedLength(rawLength);
+      if (compressed == null || compressed.length < max) compressed = new byte[max];
+      int n = compressor.compress(bytes, 0, rawLength, compressed, 0, max);
+      if (n < rawLength - rawLength / 8) {
+        bytes = compressed;
+        storedLength = n;
+      }
+    }
+    spillStream.write(bytes, 0, storedLength);
+    cc.firstRow.add(cc.bufferFirstRow);
+    cc.offset.add(spillNBytes);
+    cc.storedLength.add(storedLength);
+    cc.rawLength.add(rawLength);
+    spillNBytes += storedLength;
+    cc.bufferFirstRow = endRow;
+    cc.buffer.reset();
+  }
+
+  /**
+   * This writes the remaining buffered values to the file and closes it. If ignoreFinish=true,
    * nothing will be done.
    *
    * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
@@ -132,22 +242,85 @@ public class TableWriterAll extends TableWriter {
     if (ignoreFinish) return;
 
     // check for MustBe.THERE_IS_NO_DATA
-    if (columnStreams == null) throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
-    // String2.log("TableWriterAll.finish  n columnStreams=" + columnStreams.length);
-    for (int col = 0; col < columnStreams.length; col++) {
-      // close the stream
-      try {
-        if (columnStreams[col] != null) columnStreams[col].close();
-      } catch (Exception e) {
+    if (columnChunks == null) throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
+    if (spillStream != null) {
+      for (ColumnChunks cc : columnChunks) {
+        if (cc.buffer.size() > 0) writeChunk(cc, totalNRows);
+        cc.buffer = null;
+        cc.dos = null;
       }
-      // an attempt to solve File2.delete problem on these files: it couldn't hurt
-      columnStreams[col] = null;
+      spillStream.close();
+      spillStream = null;
+      compressed = null;
     }
-    columnStreams = null;
 
     // diagnostic
     if (verbose)
-      String2.log("TableWriterAll done. TIME=" + (System.currentTimeMillis() - time) + "ms\n");
+      String2.log(
+          "TableWriterAll done. nBytes="
+              + spillNBytes
+              + " TIME="
+              + (System.currentTimeMillis() - time)
+              + "ms\n");
+  }
+
+  /** This opens the file for reading (if it isn't already open). */
+  private synchronized void openForReading() throws IOException {
+    if (spillChannel != null) return;
+    spillChannel = FileChannel.open(Path.of(spillFileName()), StandardOpenOption.READ);
+  }
+
+  /** This reads a chunk's stored bytes from the file and decompresses them (if needed). */
+  private byte[] readChunk(long offset, int storedLength, int rawLength) throws IOException {
+    byte[] stored = new byte[storedLength];
+    ByteBuffer bb = ByteBuffer.wrap(stored);
+    // positional reads are thread-safe
+    while (bb.hasRemaining())
+      if (spillChannel.read(bb, offset + bb.position()) < 0)
+        throw new IOException("Unexpected end of file in " + spillFileName());
+    if (storedLength == rawLength) return stored;
+    byte[] raw = new byte[rawLength];
+    lz4Factory.fastDecompressor().decompress(stored, 0, raw, 0, rawLength);
+    return raw;
+  }
+
+  /** This reads one column's values from a chunk to the end of the column. */
+  private class ColumnInputStream extends InputStream {
+    private final ColumnChunks cc;
+    private int chunk;
+    private byte[] bytes; // the current chunk's bytes
+    private int po = 0, end = 0;
+
+    ColumnInputStream(ColumnChunks cc, int firstChunk) {
+      this.cc = cc;
+      chunk = firstChunk - 1;
+    }
+
+    /** This moves to the next chunk. It returns false if there are no more chunks. */
+    private boolean nextChunk() throws IOException {
+      if (++chunk >= cc.offset.size()) return false;
+      int rawLength = cc.rawLength.get(chunk);
+      bytes = readChunk(cc.offset.get(chunk), cc.storedLength.get(chunk), rawLength);
+      po = 0;
+      end = rawLength;
+      return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+      while (po >= end) if (!nextChunk()) return -1;
+      return bytes[po++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) return 0;
+      while (po >= end) if (!nextChunk()) return -1;
+      int n = Math.min(len, end - po);
+      System.arraycopy(bytes, po, b, off, n);
+      po += n;
+      return n;
+    }
   }
 
   /**
@@ -166,19 +339,9 @@ public class TableWriterAll extends TableWriter {
     // get it from cumulativeTable
     if (cumulativeTable != null) return cumulativeTable.getColumn(col);
 
-    // get it from DOSFile
+    // get it from the file
     Math2.ensureArraySizeOkay(totalNRows, "TableWriterAll");
-    PrimitiveArray pa =
-        PrimitiveArray.factory(
-            columnType(col), (int) totalNRows, false); // safe since checked above
-    pa.setMaxIsMV(columnMaxIsMV[col]);
-    DataInputStream dis = dataInputStream(col);
-    try {
-      pa.readDis(dis, (int) totalNRows); // safe since checked above
-    } finally {
-      dis.close();
-    }
-    return pa;
+    return column(col, 0, (int) totalNRows); // safe since checked above
   }
 
   /**
@@ -203,21 +366,70 @@ public class TableWriterAll extends TableWriter {
     // get it from cumulativeTable
     if (cumulativeTable != null) return cumulativeTable.getColumn(col);
 
-    // get it from DOSFile
-    Math2.ensureArraySizeOkay(totalNRows, "TableWriterAll");
-    PrimitiveArray pa =
-        PrimitiveArray.factory(
-            columnType(col), (int) totalNRows, false); // safe since checked above
+    // get it from the file
+    return column(col, 0, firstNRows);
+  }
+
+  /**
+   * Call this after finish() to get some of the rows of one of the columns. This only reads the
+   * chunks of the file which have those rows.
+   *
+   * @param col 0..
+   * @param firstRow the first row
+   * @param nRows the number of rows. If there are fewer rows after firstRow, this just returns the
+   *     available rows.
+   * @return a PrimitiveArray with the requested data for one of the columns.
+   * @throws Throwable if trouble
+   */
+  public PrimitiveArray column(int col, long firstRow, int nRows) throws Throwable {
+    firstRow = Math.max(0, firstRow);
+    nRows = (int) Math.max(0, Math.min(nRows, nRows() - firstRow));
+
+    // get it from cumulativeTable
+    if (cumulativeTable != null) {
+      PrimitiveArray pa = cumulativeTable.getColumn(col);
+      return nRows == 0
+          ? columnEmptyPA(col)
+          : pa.subset((int) firstRow, 1, (int) firstRow + nRows - 1);
+    }
+
+    // get it from the file
+    PrimitiveArray pa = PrimitiveArray.factory(columnType(col), nRows, false);
     pa.setMaxIsMV(columnMaxIsMV[col]);
-    DataInputStream dis = dataInputStream(col);
-    try {
-      pa.readDis(dis, Math.min(firstNRows, Math2.narrowToInt(totalNRows)));
-    } finally {
-      dis.close();
+    // big String columns use much less memory in compact mode
+    if (pa instanceof StringArray sa) sa.compact();
+    if (nRows == 0) return pa;
+    openForReading();
+    ColumnChunks cc = columnChunks[col];
+    int chunk = cc.chunkWithRow(firstRow);
+    try (DataInputStream dis =
+        new DataInputStream(new BufferedInputStream(new ColumnInputStream(cc, chunk)))) {
+      // skip the chunk's rows before firstRow (there are fewer than 1 chunk's worth)
+      int nSkip = Math2.narrowToInt(firstRow - cc.firstRow.get(chunk));
+      if (nSkip > 0) PrimitiveArray.factory(columnType(col), nSkip, false).readDis(dis, nSkip);
+      pa.readDis(dis, nRows);
     }
     return pa;
   }
 
+  /**
+   * Call this after finish() to get some of the rows of all of the columns. This only reads the
+   * chunks of the file which have those rows.
+   *
+   * @param firstRow the first row
+   * @param nRows the number of rows. If there are fewer rows after firstRow, this just returns the
+   *     available rows.
+   * @return a table with the requested rows (and the metadata)
+   * @throws Throwable if trouble
+   */
+  public Table rows(long firstRow, int nRows) throws Throwable {
+    Table table = makeEmptyTable();
+    int nColumns = nColumns();
+    for (int col = 0; col < nColumns; col++)
+      table.setColumn(col, column(col, firstRow, nRows));
+    return table;
+  }
+
   /**
    * Call this after finish() to get the data from a DataInputStream with all of the data for one of
    * the columns. IT IS UP TO THE CALLER TO CLOSE THE DataInputStream. THIS USES ALMOST NO MEMORY.
@@ -230,19 +442,14 @@ public class TableWriterAll extends TableWriter {
    * @throws Throwable if trouble (e.g., totalNRows > Integer.MAX_VALUE)
    */
   public DataInputStream dataInputStream(int col) throws Throwable {
-    DataInputStream dis =
-        new DataInputStream(File2.getDecompressedBufferedInputStream(columnFileName(col)));
-    return dis;
+    openForReading();
+    return new DataInputStream(
+        new BufferedInputStream(new ColumnInputStream(columnChunks[col], 0)));
   }
 
-  public String columnFileName(int col) {
-    return dir
-        + fileNameNoExt
-        + "."
-        + randomInt
-        + "."
-        + String2.encodeFileNameSafe(columnNames[col])
-        + ".temp";
+  /** This returns the name of the temporary file. */
+  public String spillFileName() {
+    return dir + fileNameNoExt + "." + randomInt + ".temp";
   }
 
   /**
@@ -274,6 +481,10 @@ public class TableWriterAll extends TableWriter {
     Math2.ensureMemoryAvailable(
         nColumns * nRows() * table.estimatedBytesPerRow(), // nRows() is a long
         "TableWriterAll.cumulativeTable");
+    EDStatic.memoryBudget.reserveForCurrentRequest(
+        nRows() * table.estimatedBytesPerRow(),
+        EDStatic.memoryReserveTimeoutMillis,
+        "TableWriterAll.cumulativeTable");
 
     // actually get the data
     for (int col = 0; col < nColumns; col++) table.setColumn(col, column(col));
@@ -281,8 +492,7 @@ public class TableWriterAll extends TableWriter {
   }
 
   /**
-   * This deletes the columnStreams files and cumulativeTable (if any). This won't throw an
-   * exception.
+   * This deletes the temporary file and cumulativeTable (if any). This won't throw an exception.
    *
    * <p>It isn't essential that the user call this. It will be called automatically then java
    * garbage collector calls finalize. And/or the cache cleaning system will do this in ~1 hour if
@@ -292,28 +502,28 @@ public class TableWriterAll extends TableWriter {
     try {
       cumulativeTable = null;
 
-      // delete columnStreams (if it was still saving data)
-      if (columnStreams != null) {
-        for (int col = 0; col < columnStreams.length; col++) {
-          // close the stream
+      // close the file (if it was still saving data or was opened for reading)
+      if (spillStream != null) {
+        try {
+          spillStream.close();
+        } catch (Exception e) {
+        }
+        spillStream = null;
+      }
+      synchronized (this) {
+        if (spillChannel != null) {
           try {
-            if (columnStreams[col] != null) columnStreams[col].close();
+            spillChannel.close();
           } catch (Exception e) {
           }
-          // an attempt to solve File2.delete problem on these files: it couldn't hurt
-          columnStreams[col] = null;
+          spillChannel = null;
         }
-        columnStreams = null;
       }
 
-      // delete the files
-      if (columnNames == null) return;
-      int nColumns = nColumns();
-      for (int col = 0; col < nColumns; col++) {
-        // deletion isn't essential or urgent.
-        // We don't want to tie up the garbage collector thread.
-        File2.simpleDelete(columnFileName(col));
-      }
+      // delete the file
+      // deletion isn't essential or urgent.
+      // We don't want to tie up the garbage collector thread.
+      if (columnNames != null) File2.simpleDelete(spillFileName());
     } catch (Throwable t) {
       String2.log("TableWriterAll.releaseResources caught:\n" + MustBe.throwableToString(t));
     }
@@ -4,6 +4,7 @@
  */
 package gov.noaa.pfel.erddap.dataset;
 
+import com.cohort.array.PrimitiveArray;
 import com.cohort.util.MustBe;
 import com.cohort.util.SimpleException;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
@@ -12,6 +13,12 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
  * TableWriterDistinct provides a way to gather just the unique rows, sort them, then write to some
  * other TableWriter. This functions like SQL's DISTINCT.
  *
+ * <p>As chunks of data arrive, the unique rows are gathered in memory in a GroupIndex (keyed on all
+ * of the columns), so duplicates are absorbed right away and the work is proportional to the number
+ * of unique rows. If there are too many unique rows, they are sorted and spilled (see
+ * TableWriterSpillGroups). Then finish() sorts and removes duplicates from the whole cumulative
+ * table (as before).
+ *
  * <p>This doesn't do anything to missing values and doesn't assume they are stored as NaN or fake
  * missing values.
  *
@@ -21,11 +28,15 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
  *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2009-05-08
  */
-public class TableWriterDistinct extends TableWriterAll {
+public class TableWriterDistinct extends TableWriterSpillGroups {
 
   // set by constructor
   protected TableWriter otherTableWriter;
 
+  // the unique rows which haven't been spilled yet
+  protected Table distinctTable;
+  protected GroupIndex groupIndex; // all of the columns are keys
+
   /**
    * The constructor.
    *
@@ -62,20 +73,52 @@ public class TableWriterDistinct extends TableWriterAll {
    */
   @Override
   public void writeSome(Table table) throws Throwable {
-    if (table.nRows() == 0) return;
+    int nRows = table.nRows();
+    if (nRows == 0) return;
+
+    // ensure the table's structure is the same as before (this also sets maxIsMV like before)
+    ensureCompatible(table);
+    int nColumns = table.nColumns();
+    if (distinctTable == null) newGroups();
+    for (int col = 0; col < nColumns; col++)
+      distinctTable.getColumn(col).setMaxIsMV(columnMaxIsMV[col]);
+
+    // add the new unique rows to distinctTable
+    PrimitiveArray pas[] = new PrimitiveArray[nColumns];
+    for (int col = 0; col < nColumns; col++) pas[col] = table.getColumn(col);
+    for (int row = 0; row < nRows; row++) groupIndex.add(pas, row);
+
+    long nBytes =
+        distinctTable.nRows() * (long) distinctTable.estimatedBytesPerRow()
+            + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
 
-    // to save memory, this just does a feeble job (remove duplicates from this partial table)
-    //  and leaves perfect job to finish()
-    sortAndRemoveDuplicates(table);
+  /** This returns the unique rows which haven't been spilled yet. */
+  @Override
+  protected Table unspilledRows() {
+    return distinctTable;
+  }
+
+  /** This sorts the unique rows which haven't been spilled yet, then spills them. */
+  @Override
+  protected void spill() throws Throwable {
+    sortAndRemoveDuplicates(distinctTable);
+    super.spill();
+  }
 
-    // ensure the table's structure is the same as before
-    // and write to dataOutputStreams
-    super.writeSome(table);
+  /** This makes a new, empty distinctTable and a GroupIndex which uses its columns as its keys. */
+  @Override
+  protected void newGroups() {
+    distinctTable = makeEmptyTable();
+    PrimitiveArray keys[] = new PrimitiveArray[distinctTable.nColumns()];
+    for (int col = 0; col < keys.length; col++) keys[col] = distinctTable.getColumn(col);
+    groupIndex = new GroupIndex(keys);
   }
 
   /**
-   * This reconstructs the table, sorts and removes duplicates, and sends table to otherTableWriter.
-   * If ignoreFinish=true, nothing will be done.
+   * This sorts the unique rows, removes duplicates (if some rows were spilled), and sends the table
+   * to otherTableWriter. If ignoreFinish=true, nothing will be done.
    *
    * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
    */
@@ -83,15 +126,8 @@ public class TableWriterDistinct extends TableWriterAll {
   public void finish() throws Throwable {
     if (ignoreFinish) return;
 
-    // close the dataOutputStreams
-    super.finish(); // this throws Throwable if no data
-
-    // makeCumulativeTable
-    Table table = cumulativeTable();
-    releaseResources();
-
     // sorts and remove duplicates, and sends table to otherTableWriter.
-    lowFinish(table);
+    lowFinish(gatheredTable());
   }
 
   /**
@@ -134,4 +170,12 @@ public class TableWriterDistinct extends TableWriterAll {
     // removeDuplicates
     table.removeDuplicates();
   }
+
+  /** This deletes the temporary file and the unique rows (if any). This won't throw exceptions. */
+  @Override
+  public void releaseResources() {
+    distinctTable = null;
+    groupIndex = null;
+    super.releaseResources();
+  }
 }
@@ -4,7 +4,11 @@
  */
 package gov.noaa.pfel.erddap.dataset;
 
+import com.cohort.array.DoubleArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
+import com.cohort.util.Math2;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
@@ -21,19 +25,42 @@ import gov.noaa.pfel.erddap.util.EDStatic;
  * are stored as NaNs, those rows are removed. And if missing values are stored as values, then this
  * will keep the closest row.
  *
+ * <p>As chunks of data arrive, the rows are grouped (with a GroupIndex) by the other orderBy
+ * columns and the interval that the last column's value is closest to, and just the closest row for
+ * each group and interval is kept in memory. So the memory needed is proportional to the number of
+ * groups and intervals, not to the number of rows. As with Table.orderByClosest, for ties, the row
+ * with the lower value is kept. At the end, the kept rows are processed by Table.orderByClosest,
+ * which sorts them and handles the missing values. If there are too many kept rows, they are
+ * spilled (see TableWriterSpillGroups).
+ *
  * <p>Unlike TableWriterAllWithMetadata, this doesn't keep track of min,max for actual_range or
  * update metadata at end. It is assumed that this is like a filter, and that a subsequent
  * TableWriter will handle that if needed.
  *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2017-02-21
  */
-public class TableWriterOrderByClosest extends TableWriterAll {
+public class TableWriterOrderByClosest extends TableWriterSpillGroups {
 
   // set by constructor
   protected TableWriter otherTableWriter;
   public String orderBy[]; // the orderBy var names. The last one will be a numeric column.
   protected double numberTimeUnits[]; // eg 10 minutes -> [10, 60]
 
+  // set by configure()
+  private int groupCols[]; // the first nKeys-1 orderBy columns
+  private int lastCol;
+  private int field; // Calendar2.MONTH or YEAR, or Integer.MAX_VALUE for a simple interval
+  private double simpleInterval;
+  private int intNumber; // the number of months or years
+
+  // the closest row for each group and interval
+  private GroupIndex groupIndex;
+  private Table kept;
+  private DoubleArray keptDistance; // the distance to the closest interval
+  private DoubleArray keptLast; // the last orderBy column's standardized values
+  private Table loneRow; // if there is just one row (so far)
+  private long nRowsIn = 0;
+
   /**
    * The constructor.
    *
@@ -100,35 +127,148 @@ public class TableWriterOrderByClosest extends TableWriterAll {
   }
 
   /**
-   * This adds the current contents of table (a chunk of data) to the OutputStream. This calls
-   * ensureCompatible each time it is called. If this is the first time this is called, this does
-   * first time things (e.g., call OutputStreamSource.outputStream() and write file header). The
-   * number of columns, the column names, and the types of columns must be the same each time this
-   * is called.
+   * This finds the orderBy columns and checks the interval. The checks and error messages are like
+   * Table.orderByClosest's.
+   */
+  private void configure(Table table) {
+    int nGroupCols = orderBy.length - 1;
+    groupCols = new int[nGroupCols];
+    for (int k = 0; k <= nGroupCols; k++) {
+      int col = table.findColumnNumber(orderBy[k]);
+      if (col < 0)
+        throw new SimpleException(
+            Table.QUERY_ERROR + "orderByClosest: unknown orderBy column=" + orderBy[k] + ".");
+      if (k < nGroupCols) groupCols[k] = col;
+      else lastCol = col;
+    }
+    if (table.getColumn(lastCol) instanceof StringArray)
+      throw new IllegalArgumentException(
+          Table.QUERY_ERROR
+              + "orderByClosest: The last orderBy column="
+              + table.getColumnName(lastCol)
+              + " isn't numeric.");
+    field = Table.orderByClosestField(numberTimeUnits);
+    simpleInterval = numberTimeUnits[0] * numberTimeUnits[1];
+    intNumber = Math2.roundToInt(numberTimeUnits[0]);
+  }
+
+  /** This starts a new GroupIndex and a new table of kept rows. */
+  @Override
+  protected void newGroups() {
+    PrimitiveArray keys[] = new PrimitiveArray[groupCols.length + 1];
+    for (int k = 0; k < groupCols.length; k++)
+      keys[k] = PrimitiveArray.factory(columnTypes[groupCols[k]], 1024, false);
+    keys[groupCols.length] = new DoubleArray(); // the closest interval
+    groupIndex = new GroupIndex(keys);
+    kept = makeEmptyTable();
+    keptDistance = new DoubleArray();
+    keptLast = new DoubleArray();
+  }
+
+  /**
+   * This adds the closest rows in the current contents of table (a chunk of data) to the kept rows.
+   * This calls ensureCompatible each time it is called. The number of columns, the column names,
+   * and the types of columns must be the same each time this is called.
    *
    * @param table with destinationValues. The table should have missing values stored as
-   *     destinationMissingValues or destinationFillValues. This implementation converts them to
-   *     NaNs for processing, then back to destinationMV and FV when finished.
+   *     destinationMissingValues or destinationFillValues. This implementation doesn't change them.
    * @throws Throwable if trouble
    */
   @Override
   public void writeSome(Table table) throws Throwable {
-    if (table.nRows() == 0) return;
+    int nRows = table.nRows();
+    if (nRows == 0) return;
 
-    // to save time and disk space, this just does a partial job
-    //  (remove non-closest rows from this partial table)
-    //  and leaves perfect job to finish()
-    table.orderByClosest(
-        orderBy, numberTimeUnits); // it handles missing_values and _FillValues temporarily
+    // ensure the table's structure is the same as before (this also sets maxIsMV like before)
+    ensureCompatible(table);
+    int nColumns = table.nColumns();
+    if (groupCols == null) configure(table);
+    if (groupIndex == null) newGroups();
+    for (int col = 0; col < nColumns; col++) kept.getColumn(col).setMaxIsMV(columnMaxIsMV[col]);
 
-    // ensure the table's structure is the same as before
-    // and write to dataOutputStreams
-    super.writeSome(table);
+    // like Table.orderByClosest, a table with just one row is just checked for NaN
+    nRowsIn += nRows;
+    if (nRowsIn == 1) {
+      loneRow = makeEmptyTable();
+      if (!Double.isNaN(table.getColumn(lastCol).getDouble(0)))
+        for (int col = 0; col < nColumns; col++)
+          loneRow.getColumn(col).addFromPA(table.getColumn(col), 0);
+    } else {
+      loneRow = null;
+    }
+
+    // the keys are the group columns and the closest interval
+    int nGroupCols = groupCols.length;
+    PrimitiveArray keys[] = new PrimitiveArray[nGroupCols + 1];
+    for (int k = 0; k < nGroupCols; k++)
+      keys[k] =
+          GroupIndex.standardized(table.getColumn(groupCols[k]), columnAttributes[groupCols[k]]);
+    PrimitiveArray last =
+        GroupIndex.standardized(table.getColumn(lastCol), columnAttributes[lastCol]);
+    DoubleArray closest = new DoubleArray(nRows, true);
+    double distance[] = new double[nRows];
+    for (int row = 0; row < nRows; row++) {
+      double rt = last.getDouble(row);
+      if (Double.isNaN(rt)) {
+        closest.set(row, Double.NaN);
+      } else if (field == Integer.MAX_VALUE) {
+        // use simpleInterval (the distances are compared like Table.orderByClosest's)
+        rt /= simpleInterval;
+        double rint = Math.rint(rt);
+        closest.set(row, rint);
+        distance[row] = Math.abs(rt - rint);
+      } else {
+        double tClosest = Table.orderByClosestCalendar(rt, field, intNumber);
+        closest.set(row, tClosest);
+        distance[row] = Math.abs(rt - tClosest);
+      }
+    }
+    keys[nGroupCols] = closest;
+    groupIndex.ensureMaxIsMV(keys);
+
+    PrimitiveArray pas[] = new PrimitiveArray[nColumns];
+    for (int col = 0; col < nColumns; col++) pas[col] = table.getColumn(col);
+    for (int row = 0; row < nRows; row++) {
+      double rt = last.getDouble(row);
+      if (Double.isNaN(rt)) continue; // rows with time=NaN are not kept
+      int nGroups = groupIndex.size();
+      int group = groupIndex.add(keys, row);
+      if (group == nGroups) {
+        for (int col = 0; col < nColumns; col++) kept.getColumn(col).addFromPA(pas[col], row);
+        keptDistance.add(distance[row]);
+        keptLast.add(rt);
+        continue;
+      }
+      // keep the closer row. For ties, keep the lower value (as with a sort).
+      double keptD = keptDistance.get(group);
+      if (distance[row] < keptD || (distance[row] == keptD && rt < keptLast.get(group))) {
+        for (int col = 0; col < nColumns; col++)
+          kept.getColumn(col).setFromPA(group, pas[col], row);
+        keptDistance.set(group, distance[row]);
+        keptLast.set(group, rt);
+      }
+    }
+
+    long nBytes =
+        kept.nRows() * ((long) kept.estimatedBytesPerRow() + 16) + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
+
+  /** This returns the kept rows which haven't been spilled yet. */
+  @Override
+  protected Table unspilledRows() {
+    return kept;
+  }
+
+  /** Like Table.orderByClosest, if there is just one row, it is the result. */
+  @Override
+  protected Table unspilledResult() {
+    return loneRow != null ? loneRow : kept;
   }
 
   /**
-   * This finishes orderByMax and writes results to otherTableWriter If ignoreFinish=true, nothing
-   * will be done.
+   * This finishes orderByClosest and writes results to otherTableWriter If ignoreFinish=true,
+   * nothing will be done.
    *
    * @throws Throwable if trouble (e.g., EDStatic.THERE_IS_NO_DATA if there is no data)
    */
@@ -136,13 +276,10 @@ public class TableWriterOrderByClosest extends TableWriterAll {
   public void finish() throws Throwable {
     if (ignoreFinish) return;
 
-    super.finish();
-
-    Table cumulativeTable = cumulativeTable();
-    releaseResources();
-    cumulativeTable.orderByClosest(
+    Table table = gatheredTable();
+    table.orderByClosest(
         orderBy, numberTimeUnits); // it handles missing_values and _FillValues temporarily
-    otherTableWriter.writeAllAndFinish(cumulativeTable);
+    otherTableWriter.writeAllAndFinish(table);
 
     // clean up
     otherTableWriter = null;
@@ -166,4 +303,15 @@ public class TableWriterOrderByClosest extends TableWriterAll {
     otherTableWriter.writeAllAndFinish(tCumulativeTable);
     otherTableWriter = null;
   }
+
+  /** This deletes the temporary file and the kept rows (if any). This won't throw exceptions. */
+  @Override
+  public void releaseResources() {
+    groupIndex = null;
+    kept = null;
+    keptDistance = null;
+    keptLast = null;
+    loneRow = null;
+    super.releaseResources();
+  }
 }
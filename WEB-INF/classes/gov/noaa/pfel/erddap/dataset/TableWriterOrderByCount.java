@@ -17,6 +17,11 @@ import java.util.BitSet;
  *
  * <p>This sort is stable: equal elements will not be reordered as a result of the sort.
  *
+ * <p>Each chunk of data is reduced to counts (by Table.orderByCount) and then the counts are added
+ * to the totals for each group, which are found with a GroupIndex (a hash index of the key values).
+ * If there are too many groups, they are spilled (see TableWriterSpillGroups) and finish() merges
+ * them.
+ *
  * <p>This doesn't do anything to missing values and doesn't assume they are stored as NaN or fake
  * missing values.
  *
@@ -26,12 +31,18 @@ import java.util.BitSet;
  *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2017-07-12
  */
-public class TableWriterOrderByCount extends TableWriterAll {
+public class TableWriterOrderByCount extends TableWriterSpillGroups {
 
   // set by constructor
   protected TableWriter otherTableWriter;
   public String orderBy[];
 
+  // the totals for each group which haven't been spilled yet
+  protected Table groupTable;
+  protected GroupIndex groupIndex; // group number = row in groupTable
+  private int keyCols[];
+  private boolean isKeyCol[];
+
   /**
    * The constructor.
    *
@@ -83,8 +94,68 @@ public class TableWriterOrderByCount extends TableWriterAll {
     table.orderByCount(orderBy); // this handles missingValues and _FillValues permanently
 
     // ensure the table's structure is the same as before
-    // and write to dataOutputStreams
-    super.writeSome(table);
+    ensureCompatible(table);
+    int nRows = table.nRows();
+    int nCols = table.nColumns();
+    if (groupTable == null) {
+      configure(table);
+      newGroups();
+    }
+    PrimitiveArray pas[] = new PrimitiveArray[nCols];
+    for (int col = 0; col < nCols; col++) pas[col] = table.getColumn(col);
+    PrimitiveArray keys[] = new PrimitiveArray[keyCols.length];
+    for (int kc = 0; kc < keyCols.length; kc++) keys[kc] = pas[keyCols[kc]];
+    groupIndex.ensureMaxIsMV(keys);
+
+    // add the counts to the totals for each group
+    for (int row = 0; row < nRows; row++) {
+      int nGroups = groupIndex.size();
+      int group = groupIndex.add(keys, row);
+      for (int col = 0; col < nCols; col++) {
+        if (isKeyCol[col]) continue;
+        PrimitiveArray pa = groupTable.getColumn(col);
+        if (group == nGroups) pa.addFromPA(pas[col], row);
+        else pa.setInt(group, pa.getInt(group) + pas[col].getInt(row));
+      }
+    }
+
+    long nBytes =
+        groupIndex.size() * (long) groupTable.estimatedBytesPerRow()
+            + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
+
+  /**
+   * This finds the key columns.
+   *
+   * @param table a chunk of data which has been reduced by orderByCount
+   */
+  private void configure(Table table) throws Exception {
+    keyCols =
+        table.keyColumnNamesToNumbers(
+            "orderByCount",
+            // just get the column names, ignoring rounding e.g. time not time/1day
+            Arrays.stream(orderBy).map((s) -> s.split("/")[0]).toArray(size -> new String[size]));
+    isKeyCol = new boolean[table.nColumns()]; // all false
+    for (int kc = 0; kc < keyCols.length; kc++) isKeyCol[keyCols[kc]] = true;
+  }
+
+  /**
+   * This makes a new, empty groupTable and a GroupIndex which uses groupTable's key columns as its
+   * keys.
+   */
+  @Override
+  protected void newGroups() {
+    groupTable = makeEmptyTable();
+    PrimitiveArray keys[] = new PrimitiveArray[keyCols.length];
+    for (int kc = 0; kc < keyCols.length; kc++) keys[kc] = groupTable.getColumn(keyCols[kc]);
+    groupIndex = new GroupIndex(keys);
+  }
+
+  /** This returns the groups which haven't been spilled yet. */
+  @Override
+  protected Table unspilledRows() {
+    return groupTable;
   }
 
   /**
@@ -97,10 +168,7 @@ public class TableWriterOrderByCount extends TableWriterAll {
   public void finish() throws Throwable {
     if (ignoreFinish) return;
 
-    super.finish();
-
-    Table cumTable = cumulativeTable();
-    releaseResources();
+    Table cumTable = gatheredTable();
 
     // combine results
     // missing_value and _FillValue are all done. All data are counts.
@@ -188,4 +256,11 @@ public class TableWriterOrderByCount extends TableWriterAll {
 
   // This uses super.writeAllAndFinish() because writeSome stores processed info
 
+  /** This deletes the temporary file and the groups (if any). This won't throw exceptions. */
+  @Override
+  public void releaseResources() {
+    groupTable = null;
+    groupIndex = null;
+    super.releaseResources();
+  }
 }
@@ -0,0 +1,309 @@
+/*
+ * TableWriterOrderByExtremes Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.util.BitSet;
+
+/**
+ * This is the superclass of TableWriterOrderByMax, TableWriterOrderByMin, and
+ * TableWriterOrderByMinMax. For each group of rows (with the same values of all but the last
+ * orderBy variable), they just keep the row with the max (and/or min) value of the last orderBy
+ * variable.
+ *
+ * <p>As chunks of data arrive, the groups are found with a GroupIndex and just the candidate row(s)
+ * for each group are kept in memory, so there is one pass through the data and the work is
+ * proportional to the number of groups. At the end, the candidate rows (usually a small table) are
+ * processed by the Table.orderByMax (or ...Min or ...MinMax) method, which sorts them and handles
+ * the missing values and metadata exactly as it would for the whole table. If there are too many
+ * candidate rows, they are spilled (see TableWriterSpillGroups).
+ *
+ * <p>The groups and the comparisons are like Table.orderByMax's: the orderBy columns' missing
+ * values are converted to standard missing values, rounding (e.g., time/1day) is applied to the
+ * group columns, rows with a missing value for the last orderBy column are ignored, and for ties,
+ * the first row is the min and the last row is the max.
+ *
+ * <p>Unlike TableWriterAllWithMetadata, this doesn't keep track of min,max for actual_range or
+ * update metadata at end. It is assumed that this is like a filter, and that a subsequent
+ * TableWriter will handle that if needed.
+ */
+public abstract class TableWriterOrderByExtremes extends TableWriterSpillGroups {
+
+  // set by constructor
+  protected TableWriter otherTableWriter;
+  public String orderBy[];
+  protected final String responsible; // e.g., orderByMax
+  private final boolean keepMin, keepMax;
+  private final int nPerGroup;
+
+  // set by configure()
+  private int groupCols[]; // the first nKeys-1 orderBy columns
+  private Table.Rounder rounders[]; // for each groupCol, null if no rounding
+  private int lastCol;
+  private String lastMV;
+
+  // the candidate rows: nPerGroup rows for each group (the min row, then the max row)
+  private GroupIndex groupIndex;
+  private Table candidates;
+  private PrimitiveArray candidateLast; // the last orderBy column's standardized values
+  private Table loneRow; // if there is just one row (so far)
+  private long nRowsIn = 0;
+
+  /**
+   * The constructor.
+   *
+   * @param language the index of the selected language
+   * @param tDir a private cache directory for storing the intermediate files, usually
+   *     cacheDirectory(datasetID)
+   * @param tFileNameNoExt is the fileName without dir or extension (used as basis for temp files).
+   *     A random number will be added to it for safety.
+   * @param tOtherTableWriter the tableWriter that will receive the rows found by this tableWriter.
+   * @param tOrderByCsv the names of the columns to sort by (most to least important)
+   * @param tResponsible the name of the orderBy option, e.g., orderByMax
+   * @param tKeepMin if true, the row with the min value is kept for each group
+   * @param tKeepMax if true, the row with the max value is kept for each group
+   */
+  protected TableWriterOrderByExtremes(
+      int tLanguage,
+      EDD tEdd,
+      String tNewHistory,
+      String tDir,
+      String tFileNameNoExt,
+      TableWriter tOtherTableWriter,
+      String tOrderByCsv,
+      String tResponsible,
+      boolean tKeepMin,
+      boolean tKeepMax) {
+
+    super(tLanguage, tEdd, tNewHistory, tDir, tFileNameNoExt);
+    otherTableWriter = tOtherTableWriter;
+    responsible = tResponsible;
+    keepMin = tKeepMin;
+    keepMax = tKeepMax;
+    nPerGroup = keepMin && keepMax ? 2 : 1;
+    String err =
+        EDStatic.simpleBilingual(language, EDStatic.queryErrorAr)
+            + "No column names were specified for '"
+            + responsible
+            + "'.";
+    if (tOrderByCsv == null || tOrderByCsv.trim().length() == 0) throw new SimpleException(err);
+    orderBy = String2.split(tOrderByCsv, ',');
+    if (orderBy.length == 0) throw new SimpleException(err);
+  }
+
+  /**
+   * This does the final processing of the candidate rows (or the whole table), e.g.,
+   * table.orderByMax(orderBy).
+   *
+   * @param table a table
+   * @throws Exception if trouble
+   */
+  protected abstract void reduce(Table table) throws Exception;
+
+  /**
+   * This finds the orderBy columns and makes the rounders. The checks and error messages are like
+   * Table.orderByMax's.
+   */
+  private void configure(Table table) {
+    int nGroupCols = orderBy.length - 1;
+    groupCols = new int[nGroupCols];
+    rounders = new Table.Rounder[nGroupCols];
+    for (int k = 0; k <= nGroupCols; k++) {
+      String name = orderBy[k];
+      String actualName = Table.deriveActualColumnName(name);
+      boolean isRounded = !actualName.equals(name.trim());
+      if (isRounded && k == nGroupCols)
+        throw new IllegalArgumentException(
+            Table.QUERY_ERROR
+                + responsible
+                + " cannot apply rounding to "
+                + name
+                + " because it is the last variable in the CSV list.");
+      int col = table.keyColumnNameToNumber(responsible, actualName);
+      if (k == nGroupCols) {
+        lastCol = col;
+        break;
+      }
+      groupCols[k] = col;
+      if (isRounded) {
+        PrimitiveArray pa = table.getColumn(col);
+        if (!(pa.isFloatingPointType() || pa.isIntegerType()))
+          throw new IllegalArgumentException(
+              Table.QUERY_ERROR
+                  + responsible
+                  + " cannot apply rounding to "
+                  + name
+                  + " because it is not a numeric data type.");
+        rounders[k] = Table.createRounder(responsible, name);
+      }
+    }
+    lastMV = table.getColumn(lastCol).elementType() == PAType.STRING ? "" : "NaN";
+  }
+
+  /** This starts a new GroupIndex and a new table of candidate rows. */
+  @Override
+  protected void newGroups() {
+    PrimitiveArray keys[] = new PrimitiveArray[groupCols.length];
+    for (int k = 0; k < groupCols.length; k++)
+      keys[k] =
+          PrimitiveArray.factory(
+              rounders[k] == null ? columnTypes[groupCols[k]] : PAType.DOUBLE, 1024, false);
+    groupIndex = new GroupIndex(keys);
+    candidates = makeEmptyTable();
+    candidateLast = PrimitiveArray.factory(columnTypes[lastCol], 1024, false);
+  }
+
+  /**
+   * This adds the current contents of table (a chunk of data) to the candidate rows. This calls
+   * ensureCompatible each time it is called. The number of columns, the column names, and the types
+   * of columns must be the same each time this is called.
+   *
+   * @param table with destinationValues. The table should have missing values stored as
+   *     destinationMissingValues or destinationFillValues. This implementation doesn't change them.
+   * @throws Throwable if trouble
+   */
+  @Override
+  public void writeSome(Table table) throws Throwable {
+    int nRows = table.nRows();
+    if (nRows == 0) return;
+
+    // ensure the table's structure is the same as before (this also sets maxIsMV like before)
+    ensureCompatible(table);
+    int nColumns = table.nColumns();
+    if (groupCols == null) configure(table);
+    if (groupIndex == null) newGroups();
+    for (int col = 0; col < nColumns; col++)
+      candidates.getColumn(col).setMaxIsMV(columnMaxIsMV[col]);
+
+    // like Table.orderByMax and orderByMin, a table with just one row is left as is
+    nRowsIn += nRows;
+    if (nRowsIn == 1 && nPerGroup == 1) {
+      loneRow = makeEmptyTable();
+      for (int col = 0; col < nColumns; col++)
+        loneRow.getColumn(col).addFromPA(table.getColumn(col), 0);
+    } else {
+      loneRow = null;
+    }
+
+    // get the group columns and the last column
+    PrimitiveArray keys[] = new PrimitiveArray[groupCols.length];
+    for (int k = 0; k < groupCols.length; k++) {
+      PrimitiveArray pa = table.getColumn(groupCols[k]);
+      keys[k] =
+          rounders[k] == null
+              ? GroupIndex.standardized(pa, columnAttributes[groupCols[k]])
+              : GroupIndex.rounded(pa, rounders[k], responsible, orderBy[k]);
+    }
+    groupIndex.ensureMaxIsMV(keys);
+    PrimitiveArray last =
+        GroupIndex.standardized(table.getColumn(lastCol), columnAttributes[lastCol]);
+    if (last.getMaxIsMV()) candidateLast.setMaxIsMV(true);
+
+    // ignore rows with a missing value for the last column
+    BitSet keep = new BitSet(nRows);
+    keep.set(0, nRows);
+    last.applyConstraint(false, keep, "!=", lastMV);
+
+    PrimitiveArray pas[] = new PrimitiveArray[nColumns];
+    for (int col = 0; col < nColumns; col++) pas[col] = table.getColumn(col);
+    for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
+      int nGroups = groupIndex.size();
+      int group = groupIndex.add(keys, row);
+      if (group == nGroups) {
+        // a new group: the row is the min and the max
+        for (int i = 0; i < nPerGroup; i++) {
+          for (int col = 0; col < nColumns; col++)
+            candidates.getColumn(col).addFromPA(pas[col], row);
+          candidateLast.addFromPA(last, row);
+        }
+        continue;
+      }
+      // for ties, the first row is the min and the last row is the max (as with a stable sort)
+      int minRow = group * nPerGroup;
+      if (keepMin && last.compare(row, candidateLast, minRow) < 0)
+        setCandidate(minRow, pas, last, row);
+      int maxRow = minRow + nPerGroup - 1;
+      if (keepMax && last.compare(row, candidateLast, maxRow) >= 0)
+        setCandidate(maxRow, pas, last, row);
+    }
+
+    long nBytes =
+        (candidates.nRows() + (long) groupIndex.size()) * candidates.estimatedBytesPerRow()
+            + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
+
+  /** This replaces a candidate row with a row from a chunk of data. */
+  private void setCandidate(int candidateRow, PrimitiveArray pas[], PrimitiveArray last, int row) {
+    for (int col = 0; col < pas.length; col++)
+      candidates.getColumn(col).setFromPA(candidateRow, pas[col], row);
+    candidateLast.setFromPA(candidateRow, last, row);
+  }
+
+  /** This returns the candidate rows which haven't been spilled yet. */
+  @Override
+  protected Table unspilledRows() {
+    return candidates;
+  }
+
+  /** Like Table.orderByMax, if there is just one row, it is the result. */
+  @Override
+  protected Table unspilledResult() {
+    return loneRow != null ? loneRow : candidates;
+  }
+
+  /**
+   * This finishes the orderBy and writes the results to otherTableWriter. If ignoreFinish=true,
+   * nothing will be done.
+   *
+   * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+   */
+  @Override
+  public void finish() throws Throwable {
+    if (ignoreFinish) return;
+
+    Table table = gatheredTable();
+    reduce(table); // this handles missingValues and _FillValues temporarily
+    otherTableWriter.writeAllAndFinish(table);
+
+    // clean up
+    otherTableWriter = null;
+  }
+
+  /**
+   * If caller has the entire table, use this instead of repeated writeSome() + finish(). This
+   * overwrites the superclass method.
+   *
+   * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+   */
+  @Override
+  public void writeAllAndFinish(Table tCumulativeTable) throws Throwable {
+    if (ignoreFinish) {
+      writeSome(tCumulativeTable);
+      tCumulativeTable.removeAllRows();
+      return;
+    }
+    reduce(tCumulativeTable); // this handles missingValues and _FillValues temporarily
+    otherTableWriter.writeAllAndFinish(tCumulativeTable);
+    otherTableWriter = null;
+  }
+
+  /**
+   * This deletes the temporary file and the candidate rows (if any). This won't throw exceptions.
+   */
+  @Override
+  public void releaseResources() {
+    groupIndex = null;
+    candidates = null;
+    candidateLast = null;
+    loneRow = null;
+    super.releaseResources();
+  }
+}
@@ -4,6 +4,9 @@
  */
 package gov.noaa.pfel.erddap.dataset;
 
+import com.cohort.array.IntArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
 import com.cohort.util.SimpleException;
 import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
@@ -19,19 +22,35 @@ import gov.noaa.pfel.erddap.util.EDStatic;
  * are stored as NaNs, those rows are removed. And if missing values are stored as values, then this
  * will keep the Limit row.
  *
+ * <p>As chunks of data arrive, the groups are found with a GroupIndex and just the first limitN
+ * rows of each group are kept in memory (later rows in a full group are dropped right away), so the
+ * memory needed is proportional to nGroups * limitN, not to the number of rows. At the end, the
+ * kept rows are processed by Table.orderByLimit, which sorts them and handles the missing values
+ * exactly as it would for the whole table. If there are too many kept rows, they are spilled (see
+ * TableWriterSpillGroups).
+ *
  * <p>Unlike TableWriterAllWithMetadata, this doesn't keep track of min,max for actual_range or
  * update metadata at end. It is assumed that this is like a filter, and that a subsequent
  * TableWriter will handle that if needed.
  *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2017-02-21
  */
-public class TableWriterOrderByLimit extends TableWriterAll {
+public class TableWriterOrderByLimit extends TableWriterSpillGroups {
 
   // set by constructor
   protected TableWriter otherTableWriter;
   public String orderBy[]; // the orderBy var names. The last one will be a numeric column.
   protected int limitN; // eg 1000 rows
 
+  // set by configure()
+  private int keyCols[];
+  private Table.Rounder rounders[]; // for each keyCol, null if no rounding
+
+  // the first limitN rows of each group
+  private GroupIndex groupIndex;
+  private IntArray groupNRows; // the number of rows kept for each group
+  private Table kept;
+
   /**
    * The constructor.
    *
@@ -84,33 +103,103 @@ public class TableWriterOrderByLimit extends TableWriterAll {
   }
 
   /**
-   * This adds the current contents of table (a chunk of data) to the OutputStream. This calls
-   * ensureCompatible each time it is called. If this is the first time this is called, this does
-   * first time things (e.g., call OutputStreamSource.outputStream() and write file header). The
-   * number of columns, the column names, and the types of columns must be the same each time this
-   * is called.
+   * This finds the orderBy columns and makes the rounders. The checks and error messages are like
+   * Table.orderByLimit's.
+   */
+  private void configure(Table table) {
+    int nKeyCols = orderBy.length;
+    keyCols = new int[nKeyCols];
+    rounders = new Table.Rounder[nKeyCols];
+    for (int k = 0; k < nKeyCols; k++) {
+      String name = orderBy[k];
+      String actualName = Table.deriveActualColumnName(name);
+      keyCols[k] = table.keyColumnNameToNumber("orderByLimit", actualName);
+      if (!actualName.equals(name.trim())) {
+        PrimitiveArray pa = table.getColumn(keyCols[k]);
+        if (!(pa.isFloatingPointType() || pa.isIntegerType()))
+          throw new IllegalArgumentException(
+              Table.QUERY_ERROR
+                  + "orderByLimit cannot apply rounding to "
+                  + name
+                  + " because it is not a numeric data type.");
+        rounders[k] = Table.createRounder("orderByLimit", name);
+      }
+    }
+  }
+
+  /** This starts a new GroupIndex and a new table of kept rows. */
+  @Override
+  protected void newGroups() {
+    PrimitiveArray keys[] = new PrimitiveArray[keyCols.length];
+    for (int k = 0; k < keyCols.length; k++)
+      keys[k] =
+          PrimitiveArray.factory(
+              rounders[k] == null ? columnTypes[keyCols[k]] : PAType.DOUBLE, 1024, false);
+    groupIndex = new GroupIndex(keys);
+    groupNRows = new IntArray();
+    kept = makeEmptyTable();
+  }
+
+  /**
+   * This adds the first limitN rows of each group in the current contents of table (a chunk of
+   * data) to the kept rows. This calls ensureCompatible each time it is called. The number of
+   * columns, the column names, and the types of columns must be the same each time this is called.
    *
    * @param table with destinationValues. The table should have missing values stored as
-   *     destinationMissingValues or destinationFillValues. This implementation converts them to
-   *     NaNs for processing, then back to destinationMV and FV when finished.
+   *     destinationMissingValues or destinationFillValues. This implementation doesn't change them.
    * @throws Throwable if trouble
    */
   @Override
   public void writeSome(Table table) throws Throwable {
-    if (table.nRows() == 0) return;
+    int nRows = table.nRows();
+    if (nRows == 0) return;
 
-    // to save time and disk space, this just does a partial job
-    //  (remove the beyond limitN rows from this partial table)
-    //  and leaves perfect job to finish()
-    table.orderByLimit(orderBy, limitN); // this handles missingValues and _FillValues temporarily
+    // ensure the table's structure is the same as before (this also sets maxIsMV like before)
+    ensureCompatible(table);
+    int nColumns = table.nColumns();
+    if (keyCols == null) configure(table);
+    if (groupIndex == null) newGroups();
+    for (int col = 0; col < nColumns; col++) kept.getColumn(col).setMaxIsMV(columnMaxIsMV[col]);
 
-    // ensure the table's structure is the same as before
-    // and write to dataOutputStreams
-    super.writeSome(table);
+    // get the key columns
+    PrimitiveArray keys[] = new PrimitiveArray[keyCols.length];
+    for (int k = 0; k < keyCols.length; k++) {
+      PrimitiveArray pa = table.getColumn(keyCols[k]);
+      keys[k] =
+          rounders[k] == null
+              ? GroupIndex.standardized(pa, columnAttributes[keyCols[k]])
+              : GroupIndex.rounded(pa, rounders[k], "orderByLimit", orderBy[k]);
+    }
+    groupIndex.ensureMaxIsMV(keys);
+
+    // keep the row if its group isn't full
+    PrimitiveArray pas[] = new PrimitiveArray[nColumns];
+    for (int col = 0; col < nColumns; col++) pas[col] = table.getColumn(col);
+    for (int row = 0; row < nRows; row++) {
+      int nGroups = groupIndex.size();
+      int group = groupIndex.add(keys, row);
+      if (group == nGroups) groupNRows.add(0);
+      int n = groupNRows.get(group);
+      if (n >= limitN) continue;
+      groupNRows.set(group, n + 1);
+      for (int col = 0; col < nColumns; col++) kept.getColumn(col).addFromPA(pas[col], row);
+    }
+
+    long nBytes =
+        kept.nRows() * (long) kept.estimatedBytesPerRow()
+            + groupIndex.size() * 4L
+            + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
+
+  /** This returns the kept rows which haven't been spilled yet. */
+  @Override
+  protected Table unspilledRows() {
+    return kept;
   }
 
   /**
-   * This finishes orderByMax and writes results to otherTableWriter If ignoreFinish=true, nothing
+   * This finishes orderByLimit and writes results to otherTableWriter If ignoreFinish=true, nothing
    * will be done.
    *
    * @throws Throwable if trouble (e.g., EDStatic.THERE_IS_NO_DATA if there is no data)
@@ -119,13 +208,9 @@ public class TableWriterOrderByLimit extends TableWriterAll {
   public void finish() throws Throwable {
     if (ignoreFinish) return;
 
-    super.finish();
-
-    Table cumulativeTable = cumulativeTable();
-    releaseResources();
-    cumulativeTable.orderByLimit(
-        orderBy, limitN); // this handles missingValues and _FillValues temporarily
-    otherTableWriter.writeAllAndFinish(cumulativeTable);
+    Table table = gatheredTable();
+    table.orderByLimit(orderBy, limitN); // this handles missingValues and _FillValues temporarily
+    otherTableWriter.writeAllAndFinish(table);
 
     // clean up
     otherTableWriter = null;
@@ -149,4 +234,13 @@ public class TableWriterOrderByLimit extends TableWriterAll {
     otherTableWriter.writeAllAndFinish(tCumulativeTable);
     otherTableWriter = null;
   }
+
+  /** This deletes the temporary file and the kept rows (if any). This won't throw exceptions. */
+  @Override
+  public void releaseResources() {
+    groupIndex = null;
+    groupNRows = null;
+    kept = null;
+    super.releaseResources();
+  }
 }
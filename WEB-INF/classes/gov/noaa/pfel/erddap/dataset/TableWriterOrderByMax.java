@@ -4,10 +4,7 @@
  */
 package gov.noaa.pfel.erddap.dataset;
 
-import com.cohort.util.SimpleException;
-import com.cohort.util.String2;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
-import gov.noaa.pfel.erddap.util.EDStatic;
 
 /**
  * TableWriterOrderByMax provides a way to sort the response table's rows, and just keep the row
@@ -23,11 +20,7 @@ import gov.noaa.pfel.erddap.util.EDStatic;
  *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2009-05-13
  */
-public class TableWriterOrderByMax extends TableWriterAll {
-
-  // set by constructor
-  protected TableWriter otherTableWriter;
-  public String orderBy[];
+public class TableWriterOrderByMax extends TableWriterOrderByExtremes {
 
   /**
    * The constructor.
@@ -50,78 +43,27 @@ public class TableWriterOrderByMax extends TableWriterAll {
       TableWriter tOtherTableWriter,
       String tOrderByCsv) {
 
-    super(tLanguage, tEdd, tNewHistory, tDir, tFileNameNoExt);
-    otherTableWriter = tOtherTableWriter;
-    String err =
-        EDStatic.simpleBilingual(language, EDStatic.queryErrorAr)
-            + "No column names were specified for 'orderByMax'.";
-    if (tOrderByCsv == null || tOrderByCsv.trim().length() == 0) throw new SimpleException(err);
-    orderBy = String2.split(tOrderByCsv, ',');
-    if (orderBy.length == 0) throw new SimpleException(err);
+    super(
+        tLanguage,
+        tEdd,
+        tNewHistory,
+        tDir,
+        tFileNameNoExt,
+        tOtherTableWriter,
+        tOrderByCsv,
+        "orderByMax",
+        false,
+        true);
   }
 
   /**
-   * This adds the current contents of table (a chunk of data) to the OutputStream. This calls
-   * ensureCompatible each time it is called. If this is the first time this is called, this does
-   * first time things (e.g., call OutputStreamSource.outputStream() and write file header). The
-   * number of columns, the column names, and the types of columns must be the same each time this
-   * is called.
+   * This does the final processing of the candidate rows (or the whole table).
    *
-   * @param table with destinationValues. The table should have missing values stored as
-   *     destinationMissingValues or destinationFillValues. This implementation converts them to
-   *     NaNs for processing, then back to destinationMV and FV when finished.
-   * @throws Throwable if trouble
+   * @param table a table
+   * @throws Exception if trouble
    */
   @Override
-  public void writeSome(Table table) throws Throwable {
-    if (table.nRows() == 0) return;
-
-    // to save time and disk space, this just does a partial job
-    //  (remove non-max rows from this partial table)
-    //  and leaves perfect job to finish()
+  protected void reduce(Table table) throws Exception {
     table.orderByMax(orderBy); // this handles missingValues and _FillValues temporarily
-
-    // ensure the table's structure is the same as before
-    // and write to dataOutputStreams
-    super.writeSome(table);
-  }
-
-  /**
-   * This finishes orderByMax and writes results to otherTableWriter If ignoreFinish=true, nothing
-   * will be done.
-   *
-   * @throws Throwable if trouble (e.g., EDStatic.THERE_IS_NO_DATA if there is no data)
-   */
-  @Override
-  public void finish() throws Throwable {
-    if (ignoreFinish) return;
-
-    super.finish();
-
-    Table cumulativeTable = cumulativeTable();
-    releaseResources();
-    cumulativeTable.orderByMax(orderBy); // this handles missingValues and _FillValues temporarily
-    otherTableWriter.writeAllAndFinish(cumulativeTable);
-
-    // clean up
-    otherTableWriter = null;
-  }
-
-  /**
-   * If caller has the entire table, use this instead of repeated writeSome() + finish(). This
-   * overwrites the superclass method.
-   *
-   * @throws Throwable if trouble (e.g., EDStatic.THERE_IS_NO_DATA if there is no data)
-   */
-  @Override
-  public void writeAllAndFinish(Table tCumulativeTable) throws Throwable {
-    if (ignoreFinish) {
-      writeSome(tCumulativeTable);
-      tCumulativeTable.removeAllRows();
-      return;
-    }
-    tCumulativeTable.orderByMax(orderBy); // this handles missingValues and _FillValues temporarily
-    otherTableWriter.writeAllAndFinish(tCumulativeTable);
-    otherTableWriter = null;
   }
 }
@@ -5,9 +5,11 @@
 package gov.noaa.pfel.erddap.dataset;
 
 import com.cohort.array.Attributes;
+import com.cohort.array.ByteArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
-import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
 import com.cohort.util.Math2;
 import com.cohort.util.SimpleException;
@@ -15,6 +17,7 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -30,22 +33,25 @@ import java.util.regex.Matcher;
  * <p>This uses the incremental-averaging algorithm to calculate the means, e.g.,
  * https://math.stackexchange.com/questions/106700/incremental-averageing
  *
+ * <p>The groups are found with a GroupIndex (a hash index of the key values), so each chunk of data
+ * is processed in one pass as it arrives and each group's mean is updated in place. If there are
+ * too many groups, each group's partial results (the means and the number of values in them) are
+ * spilled (see TableWriterSpillGroups) and finish() merges them with count-weighted means.
+ *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2018-09-11
  * @author Rob Fuller (rob.fuller@marine.ie) 2018-09-11
  * @author Adam Leadbetter (adam.leadbetter@marine.ie) 2018-09-11
  */
-public class TableWriterOrderByMean extends TableWriterAll {
+public class TableWriterOrderByMean extends TableWriterSpillGroups {
 
   // set by constructor
   protected final TableWriter otherTableWriter;
   public String orderBy[];
-  // maintains count of the number of values in average
-  protected final Map<String, int[]> counts = new HashMap<String, int[]>();
-  protected final Map<String, Integer> rowmap = new HashMap<String, Integer>();
-  // used when calculating degree means at the end, one key for each row.
-  protected final StringArray keymap = new StringArray();
-  protected final Map<String, DegreesAccumulator> degreesMap =
-      new HashMap<String, DegreesAccumulator>();
+  // maintains count of the number of values in average, one int[nCols] for each group (row)
+  protected final ArrayList<int[]> counts = new ArrayList<int[]>();
+  // used when calculating degree means at the end, one DegreesAccumulator[nCols] for each group
+  protected final ArrayList<DegreesAccumulator[]> degreesAccums =
+      new ArrayList<DegreesAccumulator[]>();
 
   protected Attributes oColumnAtts[] = null; // from incoming table or edd
 
@@ -57,8 +63,16 @@ public class TableWriterOrderByMean extends TableWriterAll {
   private BitSet degreesTrueCol;
   private BitSet wasDecimalCol;
   private int timeCol = -1;
+  private int roundedCol[]; // for each column, the number of its rounded key (or -1)
   private boolean configured = false;
+  private String colNames[];
+  private String dataTypes[];
+  private PAType keyTypes[];
   private Table meansTable;
+  private GroupIndex groupIndex; // group number = row in meansTable
+
+  // the prefix of the names of the extra columns in the spilled partial results
+  private static final String PARTIAL = "orderByMean_";
   private final Map<String, Table.Rounder> rounders = new HashMap<String, Table.Rounder>();
 
   /**
@@ -142,48 +156,23 @@ public class TableWriterOrderByMean extends TableWriterAll {
       // note that metadata hasn't been changed yet
     }
 
-    StringBuilder sbKey = new StringBuilder();
-    double[] roundedValue = new double[nCols];
-    BitSet isRounded = new BitSet(nCols);
-    ROW:
+    // find each row's group
+    BitSet skip = new BitSet(nRows);
+    PrimitiveArray keys[] = groupKeys(table, skip);
+    groupIndex.ensureMaxIsMV(keys);
     for (int row = 0; row < nRows; row++) {
-      sbKey.setLength(0);
-      for (int i = 0; i < keyCols.length; i++) {
-        int col = keyCols[i];
-        PrimitiveArray column = table.getColumn(col);
-        String columnName = table.getColumnName(col);
-        if (column.isFloatingPointType() || column.isIntegerType()) {
-          double value = column.getNiceDouble(row);
-          if (rounders.containsKey(columnName)) {
-            if (Double.isNaN(value)) {
-              // No value, cannot group by this...
-              continue ROW;
-            }
-            value = rounders.get(columnName).round(value);
-            isRounded.set(col);
-            roundedValue[col] = value;
-          }
-          sbKey.append(value);
-        } else {
-          sbKey.append(column.getString(row));
-        }
-        sbKey.append(":");
-      }
-      String key = sbKey.toString();
-      int[] tCounts = counts.get(key);
-      if (tCounts == null) {
-        tCounts = new int[nCols];
-        int idx = counts.size();
-        counts.put(key, tCounts);
+      if (skip.get(row)) continue; // No value, cannot group by this...
+      int idx = groupIndex.add(keys, row);
+      if (idx == counts.size()) {
+        counts.add(new int[nCols]);
+        degreesAccums.add(null);
         for (int col = 0; col < nCols; col++) {
           PrimitiveArray column = table.getColumn(col);
           String value = column.getRawString(row);
           meansTable.getColumn(col).addString(value);
         }
-        rowmap.put(key, idx);
-        keymap.add(key);
       }
-      int idx = rowmap.get(key);
+      int[] tCounts = counts.get(idx);
       for (int col = 0; col < nCols; col++) {
         PrimitiveArray column = table.getColumn(col);
         if (cannotMeanCol.get(col)) {
@@ -199,17 +188,16 @@ public class TableWriterOrderByMean extends TableWriterAll {
           meansTable.setStringData(col, idx, column.getRawString(row));
           continue;
         }
-        double value = isRounded.get(col) ? roundedValue[col] : table.getNiceDoubleData(col, row);
+        double value =
+            roundedCol[col] >= 0
+                ? keys[roundedCol[col]].getDouble(row)
+                : table.getNiceDoubleData(col, row);
         if (Double.isNaN(value)) {
           continue;
         }
         // String2.log(">> row=" + row + " col=" + col + " val=" + value + " mean=" + mean);
-        if (degreesTrueCol.get(col)) {
-          accumulateDegreesTrue(key + ":" + col, value);
-          continue;
-        }
-        if (degreesCol.get(col)) {
-          accumulateDegrees(key + ":" + col, value);
+        if (degreesTrueCol.get(col) || degreesCol.get(col)) {
+          accumulateDegrees(idx, col, value);
           continue;
         }
         tCounts[col] += 1;
@@ -222,6 +210,189 @@ public class TableWriterOrderByMean extends TableWriterAll {
         meansTable.setDoubleData(col, idx, mean);
       }
     }
+
+    long nBytes =
+        groupIndex.size()
+                * (meansTable.estimatedBytesPerRow()
+                    + 4L * nCols
+                    + 40L * (degreesCol.cardinality() + degreesTrueCol.cardinality()))
+            + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
+
+  /**
+   * This makes a new, empty meansTable and GroupIndex, and clears the counts and degreesAccums.
+   */
+  @Override
+  protected void newGroups() {
+    meansTable = Table.makeEmptyTable(colNames, dataTypes);
+    PrimitiveArray groupKeys[] = new PrimitiveArray[keyTypes.length];
+    for (int k = 0; k < keyTypes.length; k++)
+      groupKeys[k] = PrimitiveArray.factory(keyTypes[k], 16, false);
+    groupIndex = new GroupIndex(groupKeys);
+    counts.clear();
+    degreesAccums.clear();
+  }
+
+  /**
+   * This returns the partial results of the groups which haven't been spilled yet: meansTable's
+   * columns (with the degree columns' means not calculated yet), then the GroupIndex's key columns,
+   * then the number of values in each column's mean, then each degree column's accumulator.
+   */
+  @Override
+  protected Table unspilledRows() {
+    if (meansTable == null) return null;
+    int nCols = meansTable.nColumns();
+    int nGroups = meansTable.nRows();
+    Table partials = new Table();
+    for (int col = 0; col < nCols; col++)
+      partials.addColumn(meansTable.getColumnName(col), meansTable.getColumn(col));
+    for (int k = 0; k < keyTypes.length; k++)
+      partials.addColumn(PARTIAL + "key" + k, groupIndex.keyColumn(k));
+    for (int col = 0; col < nCols; col++) {
+      boolean isDegrees = degreesCol.get(col) || degreesTrueCol.get(col);
+      IntArray count = new IntArray(nGroups, false);
+      for (int row = 0; row < nGroups; row++) {
+        DegreesAccumulator accum = isDegrees ? degreesAccumulator(row, col) : null;
+        count.add(isDegrees ? (accum == null ? 0 : accum.count) : counts.get(row)[col]);
+      }
+      partials.addColumn(PARTIAL + "count" + col, count);
+    }
+    for (int col = 0; col < nCols; col++) {
+      if (!(degreesCol.get(col) || degreesTrueCol.get(col))) continue;
+      DoubleArray meanx = new DoubleArray(nGroups, false);
+      DoubleArray meany = new DoubleArray(nGroups, false);
+      DoubleArray deg = new DoubleArray(nGroups, false);
+      ByteArray allSame = new ByteArray(nGroups, false);
+      for (int row = 0; row < nGroups; row++) {
+        DegreesAccumulator accum = degreesAccumulator(row, col);
+        meanx.add(accum == null ? Double.NaN : accum.meanx);
+        meany.add(accum == null ? Double.NaN : accum.meany);
+        deg.add(accum == null ? Double.NaN : accum.deg);
+        allSame.add((byte) (accum == null || accum.allSame ? 1 : 0));
+      }
+      partials.addColumn(PARTIAL + "meanx" + col, meanx);
+      partials.addColumn(PARTIAL + "meany" + col, meany);
+      partials.addColumn(PARTIAL + "deg" + col, deg);
+      partials.addColumn(PARTIAL + "allSame" + col, allSame);
+    }
+    return partials;
+  }
+
+  /**
+   * This merges the spilled partial results (from unspilledRows) into new groups, as if the values
+   * had been added to one set of groups.
+   *
+   * @param partials all of the spilled partial results
+   */
+  private void mergePartials(Table partials) {
+    newGroups();
+    int nCols = meansTable.nColumns();
+    int nRows = partials.nRows();
+    PrimitiveArray keys[] = new PrimitiveArray[keyTypes.length];
+    for (int k = 0; k < keys.length; k++) keys[k] = partials.getColumn(nCols + k);
+    groupIndex.ensureMaxIsMV(keys);
+    int countCol0 = nCols + keys.length;
+    int degreesCol0 = countCol0 + nCols; // the next degree column's accumulator
+    int accumCol[] = new int[nCols];
+    for (int col = 0; col < nCols; col++) {
+      if (degreesCol.get(col) || degreesTrueCol.get(col)) {
+        accumCol[col] = degreesCol0;
+        degreesCol0 += 4;
+      }
+    }
+    for (int row = 0; row < nRows; row++) {
+      int idx = groupIndex.add(keys, row);
+      boolean isNew = idx == counts.size();
+      if (isNew) {
+        counts.add(new int[nCols]);
+        degreesAccums.add(null);
+        for (int col = 0; col < nCols; col++)
+          meansTable.getColumn(col).addString(partials.getColumn(col).getRawString(row));
+      }
+      int[] tCounts = counts.get(idx);
+      for (int col = 0; col < nCols; col++) {
+        PrimitiveArray column = partials.getColumn(col);
+        int n = partials.getColumn(countCol0 + col).getInt(row);
+        if (degreesCol.get(col) || degreesTrueCol.get(col)) {
+          if (n == 0) continue;
+          DegreesAccumulator other = new DegreesAccumulator(degreesTrueCol.get(col));
+          other.count = n;
+          other.meanx = partials.getDoubleData(accumCol[col], row);
+          other.meany = partials.getDoubleData(accumCol[col] + 1, row);
+          other.deg = partials.getDoubleData(accumCol[col] + 2, row);
+          other.allSame = partials.getColumn(accumCol[col] + 3).getInt(row) == 1;
+          mergeDegrees(idx, col, other);
+          continue;
+        }
+        if (isNew) {
+          tCounts[col] = n;
+          continue;
+        }
+        if (cannotMeanCol.get(col)) {
+          // Keep the value only if all rows are the same.
+          String value = column.getRawString(row);
+          String prev = meansTable.getColumn(col).getRawString(idx);
+          if (!("".equals(prev) || prev.equals(value))) {
+            meansTable.setStringData(col, idx, "");
+          }
+          continue;
+        }
+        if (!(column.isFloatingPointType() || column.isIntegerType())) {
+          meansTable.setStringData(col, idx, column.getRawString(row));
+          continue;
+        }
+        if (n == 0) continue;
+        double value = partials.getDoubleData(col, row);
+        tCounts[col] += n;
+        if (tCounts[col] == n) {
+          meansTable.setDoubleData(col, idx, value);
+          continue;
+        }
+        double mean = meansTable.getDoubleData(col, idx);
+        mean += (value - mean) * n / tCounts[col];
+        meansTable.setDoubleData(col, idx, mean);
+      }
+    }
+
+    // the metadata (from the first spill) of the original columns
+    meansTable.globalAttributes().set(partials.globalAttributes());
+    for (int col = 0; col < nCols; col++)
+      meansTable.columnAttributes(col).set(partials.columnAttributes(col));
+  }
+
+  /**
+   * This gets the key columns for a chunk of data. Numeric key columns are converted to nice
+   * doubles (rounded, if requested), so the groups are the same as if the keys were written as
+   * Strings.
+   *
+   * @param table a chunk of data
+   * @param skip receives the rows which can't be grouped (a rounded key column's value is NaN)
+   * @return the key columns
+   */
+  private PrimitiveArray[] groupKeys(Table table, BitSet skip) {
+    int nRows = table.nRows();
+    PrimitiveArray keys[] = new PrimitiveArray[keyCols.length];
+    for (int i = 0; i < keyCols.length; i++) {
+      int col = keyCols[i];
+      PrimitiveArray column = table.getColumn(col);
+      if (column.isFloatingPointType() || column.isIntegerType()) {
+        Table.Rounder rounder = rounders.get(table.getColumnName(col));
+        DoubleArray da = new DoubleArray(nRows, false);
+        for (int row = 0; row < nRows; row++) {
+          double value = column.getNiceDouble(row);
+          if (rounder != null) {
+            if (Double.isNaN(value)) skip.set(row);
+            else value = rounder.round(value);
+          }
+          da.add(value);
+        }
+        keys[i] = da;
+      } else {
+        keys[i] = column;
+      }
+    }
+    return keys;
   }
 
   private boolean isDegreeUnitsColumn(Table table, int col) {
@@ -274,6 +445,15 @@ public class TableWriterOrderByMean extends TableWriterAll {
               }
             });
     keyCols = tKeyCols.stream().mapToInt(i -> i).toArray();
+    roundedCol = new int[ncols];
+    Arrays.fill(roundedCol, -1);
+    keyTypes = new PAType[keyCols.length];
+    for (int k = 0; k < keyCols.length; k++) {
+      PrimitiveArray column = table.getColumn(keyCols[k]);
+      boolean isNumeric = column.isFloatingPointType() || column.isIntegerType();
+      if (isNumeric && rounders.containsKey(orderBy[k])) roundedCol[keyCols[k]] = k;
+      keyTypes[k] = isNumeric ? PAType.DOUBLE : column.elementType();
+    }
     String colName[] = new String[ncols];
     String dataType[] = new String[ncols];
     oColumnAtts = new Attributes[ncols];
@@ -312,7 +492,9 @@ public class TableWriterOrderByMean extends TableWriterAll {
         }
       }
     }
-    meansTable = Table.makeEmptyTable(colName, dataType);
+    colNames = colName;
+    dataTypes = dataType;
+    newGroups();
     return true;
   }
 
@@ -340,24 +522,31 @@ public class TableWriterOrderByMean extends TableWriterAll {
     */
   }
 
-  private void accumulateDegrees(String key, double value) {
-    DegreesAccumulator accum = degreesMap.get(key);
-    if (accum == null) {
-      accum = new DegreesAccumulator(false); // not degrees true
-      degreesMap.put(key, accum);
+  private void accumulateDegrees(int idx, int col, double value) {
+    DegreesAccumulator accums[] = degreesAccums.get(idx);
+    if (accums == null) {
+      accums = new DegreesAccumulator[meansTable.nColumns()];
+      degreesAccums.set(idx, accums);
     }
-    // String2.log(">> accumulateDegrees " + key + " value=" + value);
-    accum.add(value);
+    if (accums[col] == null) accums[col] = new DegreesAccumulator(degreesTrueCol.get(col));
+    // String2.log(">> accumulateDegrees idx=" + idx + " col=" + col + " value=" + value);
+    accums[col].add(value);
   }
 
-  private void accumulateDegreesTrue(String key, double value) {
-    DegreesAccumulator accum = degreesMap.get(key);
-    if (accum == null) {
-      accum = new DegreesAccumulator(true); // is degrees true
-      degreesMap.put(key, accum);
+  private void mergeDegrees(int idx, int col, DegreesAccumulator other) {
+    DegreesAccumulator accums[] = degreesAccums.get(idx);
+    if (accums == null) {
+      accums = new DegreesAccumulator[meansTable.nColumns()];
+      degreesAccums.set(idx, accums);
     }
-    // String2.log(">> accumulateDegrees " + key + " value=" + value);
-    accum.add(value);
+    if (accums[col] == null) accums[col] = other;
+    else accums[col].merge(other);
+  }
+
+  /** This returns a group's DegreesAccumulator for a column (or null if it has no values). */
+  private DegreesAccumulator degreesAccumulator(int idx, int col) {
+    DegreesAccumulator accums[] = degreesAccums.get(idx);
+    return accums == null ? null : accums[col];
   }
 
   private void calculateDegreeMeans() {
@@ -369,13 +558,10 @@ public class TableWriterOrderByMean extends TableWriterAll {
       if (degreesCol.get(col) || degreesTrueCol.get(col)) {
         int nRows = meansTable.nRows();
         for (int row = 0; row < nRows; row++) {
-          String key = keymap.get(row) + ":" + col;
-          DegreesAccumulator accum = degreesMap.get(key); // will be null if 0 values for that group
+          DegreesAccumulator accums[] = degreesAccums.get(row);
+          // accum will be null if 0 values for that group
+          DegreesAccumulator accum = accums == null ? null : accums[col];
           meansTable.setDoubleData(col, row, accum == null ? Double.NaN : accum.getMean());
-          // String2.log(">> " + key + " row=" + row + (accum == null? " null" : " mean=" +
-          // accum.getMean()));
-          // if (accum != null)
-          //    meansTable.setDoubleData(col, row, accum.getMean());
         }
       }
     }
@@ -408,6 +594,15 @@ public class TableWriterOrderByMean extends TableWriterAll {
       }
     }
 
+    /** This adds the values of another accumulator (e.g., from spilled partial results). */
+    void merge(DegreesAccumulator other) {
+      if (other.count == 0) return;
+      if (allSame && !(other.allSame && other.deg == deg)) allSame = false;
+      count += other.count;
+      meanx += (other.meanx - meanx) * other.count / count;
+      meany += (other.meany - meany) * other.count / count;
+    }
+
     public double getMean() {
       if (count == 0) return Double.NaN;
       double d = allSame ? deg : Math.toDegrees(Math.atan2(meany, meanx));
@@ -425,15 +620,25 @@ public class TableWriterOrderByMean extends TableWriterAll {
   public void finish() throws Throwable {
     if (ignoreFinish) return;
 
-    if (keyCols != null) {
+    Table cumulativeTable;
+    if (nSpilledRows == 0) {
+      // all of the groups are in memory
+      if (keyCols != null) {
+        calculateDegreeMeans();
+        useIntegersWhereSensible();
+        if (keyCols.length > 0) meansTable.sort(keyCols);
+        super.writeSome(meansTable);
+      }
+      super.finish(); // this ensures there is data and thus configured=true
+      cumulativeTable = cumulativeTable();
+    } else {
+      // merge the spilled partial results
+      mergePartials(spilledTable());
       calculateDegreeMeans();
       useIntegersWhereSensible();
       if (keyCols.length > 0) meansTable.sort(keyCols);
-      super.writeSome(meansTable);
+      cumulativeTable = meansTable;
     }
-    super.finish(); // this ensures there is data and thus configured=true
-
-    Table cumulativeTable = cumulativeTable();
     releaseResources();
 
     // improve metadata
@@ -455,9 +660,9 @@ public class TableWriterOrderByMean extends TableWriterAll {
 
     // clean up
     meansTable = null;
-    degreesMap.clear();
+    groupIndex = null;
+    degreesAccums.clear();
     counts.clear();
-    rowmap.clear();
   }
 
   /**
@@ -5,6 +5,8 @@
 package gov.noaa.pfel.erddap.dataset;
 
 import com.cohort.array.Attributes;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
 import com.cohort.util.Calendar2;
@@ -13,6 +15,7 @@ import gov.noaa.pfel.coastwatch.pointdata.Table;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import gov.noaa.pfel.erddap.variable.EDV;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,19 +30,23 @@ import java.util.regex.Matcher;
  *
  * <p>TableWriterOrderBySum is derived from TableWriterOrderByMean
  *
+ * <p>The groups are found with a GroupIndex (a hash index of the key values), so each chunk of data
+ * is processed in one pass as it arrives and each group's sum is updated in place. If there are
+ * too many groups, each group's partial results (the sums and the number of values in them) are
+ * spilled (see TableWriterSpillGroups) and finish() merges them.
+ *
  * @author Bob Simons (was bob.simons@noaa.gov, now BobSimons2.00@gmail.com) 2018-09-11
  * @author Rob Fuller (rob.fuller@marine.ie) 2018-09-11
  * @author Adam Leadbetter (adam.leadbetter@marine.ie) 2018-09-11
  * @author Marco Alba (marco.alba@ettsolutions.com) 2021-09-10
  */
-public class TableWriterOrderBySum extends TableWriterAll {
+public class TableWriterOrderBySum extends TableWriterSpillGroups {
 
   // set by constructor
   protected final TableWriter otherTableWriter;
   public String orderBy[];
-  // maintains count of the number of values in sum
-  protected final Map<String, int[]> counts = new HashMap<String, int[]>();
-  protected final Map<String, Integer> rowmap = new HashMap<String, Integer>();
+  // maintains count of the number of values in sum, one int[nCols] for each group (row)
+  protected final ArrayList<int[]> counts = new ArrayList<int[]>();
 
   protected Attributes oColumnAtts[] = null; // from incoming table or edd
 
@@ -49,8 +56,17 @@ public class TableWriterOrderBySum extends TableWriterAll {
   private BitSet cannotSumCol;
   private BitSet wasDecimalCol;
   private int timeCol = -1;
+  private int roundedCol[]; // for each column, the number of its rounded key (or -1)
+  private BitSet isTimeCol; // these are averaged, not summed
   private boolean configured = false;
+  private String colNames[];
+  private String dataTypes[];
+  private PAType keyTypes[];
   private Table sumsTable;
+  private GroupIndex groupIndex; // group number = row in sumsTable
+
+  // the prefix of the names of the extra columns in the spilled partial results
+  private static final String PARTIAL = "orderBySum_";
   private final Map<String, Table.Rounder> rounders = new HashMap<String, Table.Rounder>();
 
   /**
@@ -134,39 +150,15 @@ public class TableWriterOrderBySum extends TableWriterAll {
       // note that metadata hasn't been changed yet
     }
 
-    StringBuilder sbKey = new StringBuilder();
-    double[] roundedValue = new double[nCols];
-    BitSet isRounded = new BitSet(nCols);
-    ROW:
+    // find each row's group
+    BitSet skip = new BitSet(nRows);
+    PrimitiveArray keys[] = groupKeys(table, skip);
+    groupIndex.ensureMaxIsMV(keys);
     for (int row = 0; row < nRows; row++) {
-      sbKey.setLength(0);
-      for (int i = 0; i < keyCols.length; i++) {
-        int col = keyCols[i];
-        PrimitiveArray column = table.getColumn(col);
-        String columnName = table.getColumnName(col);
-        if (column.isFloatingPointType() || column.isIntegerType()) {
-          double value = column.getNiceDouble(row);
-          if (rounders.containsKey(columnName)) {
-            if (Double.isNaN(value)) {
-              // No value, cannot group by this...
-              continue ROW;
-            }
-            value = rounders.get(columnName).round(value);
-            isRounded.set(col);
-            roundedValue[col] = value;
-          }
-          sbKey.append(value);
-        } else {
-          sbKey.append(column.getString(row));
-        }
-        sbKey.append(":");
-      }
-      String key = sbKey.toString();
-      int[] tCounts = counts.get(key);
-      if (tCounts == null) {
-        tCounts = new int[nCols];
-        int idx = counts.size();
-        counts.put(key, tCounts);
+      if (skip.get(row)) continue; // No value, cannot group by this...
+      int idx = groupIndex.add(keys, row);
+      if (idx == counts.size()) {
+        counts.add(new int[nCols]);
         for (int col = 0; col < nCols; col++) {
           PrimitiveArray column = table.getColumn(col);
           String value =
@@ -177,9 +169,8 @@ public class TableWriterOrderBySum extends TableWriterAll {
           // if (table.getColumnName(col).equals("wd"))  String2.log(">>wd addString=" + value);
           sumsTable.getColumn(col).addString(value);
         }
-        rowmap.put(key, idx);
       }
-      int idx = rowmap.get(key);
+      int[] tCounts = counts.get(idx);
       for (int col = 0; col < nCols; col++) {
         PrimitiveArray column = table.getColumn(col);
         if (cannotSumCol.get(col)) {
@@ -195,7 +186,10 @@ public class TableWriterOrderBySum extends TableWriterAll {
           sumsTable.setStringData(col, idx, column.getRawString(row));
           continue;
         }
-        double value = isRounded.get(col) ? roundedValue[col] : table.getNiceDoubleData(col, row);
+        double value =
+            roundedCol[col] >= 0
+                ? keys[roundedCol[col]].getDouble(row)
+                : table.getNiceDoubleData(col, row);
         // if (table.getColumnName(col).equals("wd")) String2.log(">>wd value=" + value + "\n" +
         // sumsTable.dataToString());
         if (Double.isNaN(value)) continue;
@@ -205,12 +199,147 @@ public class TableWriterOrderBySum extends TableWriterAll {
           continue;
         }
         double sum = sumsTable.getDoubleData(col, idx);
-        if (isTimeColumn(sumsTable, col)) sum += (value - sum) / tCounts[col];
+        if (isTimeCol.get(col)) sum += (value - sum) / tCounts[col];
         else sum += value;
 
         sumsTable.setDoubleData(col, idx, sum);
       }
     }
+
+    long nBytes =
+        groupIndex.size() * (sumsTable.estimatedBytesPerRow() + 4L * nCols)
+            + groupIndex.estimatedBytes();
+    if (!GroupIndex.fitsInMemory(nBytes)) spill();
+  }
+
+  /** This makes a new, empty sumsTable and GroupIndex, and clears the counts. */
+  @Override
+  protected void newGroups() {
+    sumsTable = Table.makeEmptyTable(colNames, dataTypes);
+    PrimitiveArray groupKeys[] = new PrimitiveArray[keyTypes.length];
+    for (int k = 0; k < keyTypes.length; k++)
+      groupKeys[k] = PrimitiveArray.factory(keyTypes[k], 16, false);
+    groupIndex = new GroupIndex(groupKeys);
+    counts.clear();
+  }
+
+  /**
+   * This returns the partial results of the groups which haven't been spilled yet: sumsTable's
+   * columns, then the GroupIndex's key columns, then the number of values in each column's sum.
+   */
+  @Override
+  protected Table unspilledRows() {
+    if (sumsTable == null) return null;
+    int nCols = sumsTable.nColumns();
+    int nGroups = sumsTable.nRows();
+    Table partials = new Table();
+    for (int col = 0; col < nCols; col++)
+      partials.addColumn(sumsTable.getColumnName(col), sumsTable.getColumn(col));
+    for (int k = 0; k < keyTypes.length; k++)
+      partials.addColumn(PARTIAL + "key" + k, groupIndex.keyColumn(k));
+    for (int col = 0; col < nCols; col++) {
+      IntArray count = new IntArray(nGroups, false);
+      for (int row = 0; row < nGroups; row++) count.add(counts.get(row)[col]);
+      partials.addColumn(PARTIAL + "count" + col, count);
+    }
+    return partials;
+  }
+
+  /**
+   * This merges the spilled partial results (from unspilledRows) into new groups, as if the values
+   * had been added to one set of groups.
+   *
+   * @param partials all of the spilled partial results
+   */
+  private void mergePartials(Table partials) {
+    newGroups();
+    int nCols = sumsTable.nColumns();
+    int nRows = partials.nRows();
+    PrimitiveArray keys[] = new PrimitiveArray[keyTypes.length];
+    for (int k = 0; k < keys.length; k++) keys[k] = partials.getColumn(nCols + k);
+    groupIndex.ensureMaxIsMV(keys);
+    int countCol0 = nCols + keys.length;
+    for (int row = 0; row < nRows; row++) {
+      int idx = groupIndex.add(keys, row);
+      boolean isNew = idx == counts.size();
+      if (isNew) {
+        counts.add(new int[nCols]);
+        for (int col = 0; col < nCols; col++)
+          sumsTable.getColumn(col).addString(partials.getColumn(col).getRawString(row));
+      }
+      int[] tCounts = counts.get(idx);
+      for (int col = 0; col < nCols; col++) {
+        PrimitiveArray column = partials.getColumn(col);
+        int n = partials.getColumn(countCol0 + col).getInt(row);
+        if (isNew) {
+          tCounts[col] = n;
+          continue;
+        }
+        if (cannotSumCol.get(col)) {
+          // Keep the value only if all rows are the same.
+          String value = column.getRawString(row);
+          String prev = sumsTable.getColumn(col).getRawString(idx);
+          if (!("".equals(prev) || prev.equals(value))) {
+            sumsTable.setStringData(col, idx, "");
+          }
+          continue;
+        }
+        if (!(column.isFloatingPointType() || column.isIntegerType())) {
+          sumsTable.setStringData(col, idx, column.getRawString(row));
+          continue;
+        }
+        if (n == 0) continue;
+        double value = partials.getDoubleData(col, row);
+        tCounts[col] += n;
+        if (tCounts[col] == n) {
+          sumsTable.setDoubleData(col, idx, value);
+          continue;
+        }
+        double sum = sumsTable.getDoubleData(col, idx);
+        if (isTimeCol.get(col)) sum += (value - sum) * n / tCounts[col];
+        else sum += value;
+        sumsTable.setDoubleData(col, idx, sum);
+      }
+    }
+
+    // the metadata (from the first spill) of the original columns
+    sumsTable.globalAttributes().set(partials.globalAttributes());
+    for (int col = 0; col < nCols; col++)
+      sumsTable.columnAttributes(col).set(partials.columnAttributes(col));
+  }
+
+  /**
+   * This gets the key columns for a chunk of data. Numeric key columns are converted to nice
+   * doubles (rounded, if requested), so the groups are the same as if the keys were written as
+   * Strings.
+   *
+   * @param table a chunk of data
+   * @param skip receives the rows which can't be grouped (a rounded key column's value is NaN)
+   * @return the key columns
+   */
+  private PrimitiveArray[] groupKeys(Table table, BitSet skip) {
+    int nRows = table.nRows();
+    PrimitiveArray keys[] = new PrimitiveArray[keyCols.length];
+    for (int i = 0; i < keyCols.length; i++) {
+      int col = keyCols[i];
+      PrimitiveArray column = table.getColumn(col);
+      if (column.isFloatingPointType() || column.isIntegerType()) {
+        Table.Rounder rounder = rounders.get(table.getColumnName(col));
+        DoubleArray da = new DoubleArray(nRows, false);
+        for (int row = 0; row < nRows; row++) {
+          double value = column.getNiceDouble(row);
+          if (rounder != null) {
+            if (Double.isNaN(value)) skip.set(row);
+            else value = rounder.round(value);
+          }
+          da.add(value);
+        }
+        keys[i] = da;
+      } else {
+        keys[i] = column;
+      }
+    }
+    return keys;
   }
 
   private boolean isTimeColumn(Table table, int col) {
@@ -256,6 +385,15 @@ public class TableWriterOrderBySum extends TableWriterAll {
               }
             });
     keyCols = tKeyCols.stream().mapToInt(i -> i).toArray();
+    roundedCol = new int[ncols];
+    Arrays.fill(roundedCol, -1);
+    keyTypes = new PAType[keyCols.length];
+    for (int k = 0; k < keyCols.length; k++) {
+      PrimitiveArray column = table.getColumn(keyCols[k]);
+      boolean isNumeric = column.isFloatingPointType() || column.isIntegerType();
+      if (isNumeric && rounders.containsKey(orderBy[k])) roundedCol[keyCols[k]] = k;
+      keyTypes[k] = isNumeric ? PAType.DOUBLE : column.elementType();
+    }
     String colName[] = new String[ncols];
     String dataType[] = new String[ncols];
     oColumnAtts = new Attributes[ncols];
@@ -289,7 +427,11 @@ public class TableWriterOrderBySum extends TableWriterAll {
         }
       }
     }
-    sumsTable = Table.makeEmptyTable(colName, dataType);
+    colNames = colName;
+    dataTypes = dataType;
+    newGroups();
+    isTimeCol = new BitSet(ncols);
+    for (int col = 0; col < ncols; col++) if (isTimeColumn(sumsTable, col)) isTimeCol.set(col);
     // String2.log(">> make sumsTable colNames=" + String2.toCSVString(colName) + " dataTypes=" +
     // String2.toCSVString(dataType));
     return true;
@@ -329,14 +471,23 @@ public class TableWriterOrderBySum extends TableWriterAll {
   public void finish() throws Throwable {
     if (ignoreFinish) return;
 
-    if (keyCols != null) {
+    Table cumulativeTable;
+    if (nSpilledRows == 0) {
+      // all of the groups are in memory
+      if (keyCols != null) {
+        useIntegersWhereSensible();
+        if (keyCols.length > 0) sumsTable.sort(keyCols);
+        super.writeSome(sumsTable);
+      }
+      super.finish(); // this ensures there is data and thus configured=true
+      cumulativeTable = cumulativeTable();
+    } else {
+      // merge the spilled partial results
+      mergePartials(spilledTable());
       useIntegersWhereSensible();
       if (keyCols.length > 0) sumsTable.sort(keyCols);
-      super.writeSome(sumsTable);
+      cumulativeTable = sumsTable;
     }
-    super.finish(); // this ensures there is data and thus configured=true
-
-    Table cumulativeTable = cumulativeTable();
     releaseResources();
 
     // improve metadata
@@ -358,8 +509,8 @@ public class TableWriterOrderBySum extends TableWriterAll {
 
     // clean up
     sumsTable = null;
+    groupIndex = null;
     counts.clear();
-    rowmap.clear();
   }
 
   /**
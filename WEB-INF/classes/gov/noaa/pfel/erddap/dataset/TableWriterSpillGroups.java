@@ -0,0 +1,111 @@
+/*
+ * TableWriterSpillGroups Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.MustBe;
+import com.cohort.util.SimpleException;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+
+/**
+ * This is the superclass of the TableWriters which gather one or a few rows for each group of rows
+ * in memory (found with a GroupIndex) as chunks of data arrive, e.g., TableWriterDistinct and
+ * TableWriterOrderByMax.
+ *
+ * <p>After each chunk, the subclass estimates how much memory its groups take up. If that is more
+ * than GroupIndex.maxHashBytes (or more memory than the request can reserve now, see
+ * GroupIndex.fitsInMemory), the subclass calls spill(), which writes the gathered rows to the file
+ * (via TableWriterAll) and starts new groups. Then, in finish(), gatheredTable() (or
+ * spilledTable()) returns all of the gathered rows, so the subclass can merge the groups which were
+ * spilled more than once.
+ */
+public abstract class TableWriterSpillGroups extends TableWriterAll {
+
+  protected long nSpilledRows = 0;
+
+  /**
+   * The constructor.
+   *
+   * @param language the index of the selected language
+   * @param tDir a private cache directory for storing the intermediate files, usually
+   *     cacheDirectory(datasetID)
+   * @param tFileNameNoExt is the fileName without dir or extension (used as basis for temp files).
+   *     A random number will be added to it for safety.
+   */
+  protected TableWriterSpillGroups(
+      int tLanguage, EDD tEdd, String tNewHistory, String tDir, String tFileNameNoExt) {
+
+    super(tLanguage, tEdd, tNewHistory, tDir, tFileNameNoExt);
+  }
+
+  /**
+   * This returns the rows gathered in memory since the last spill. They all have the same columns.
+   *
+   * @return the rows (or null if no data has arrived yet)
+   * @throws Exception if trouble
+   */
+  protected abstract Table unspilledRows() throws Exception;
+
+  /** This discards the groups gathered in memory and starts new, empty groups. */
+  protected abstract void newGroups();
+
+  /**
+   * This returns the result if nothing was spilled. By default, this is unspilledRows().
+   *
+   * @return the result (or null if no data has arrived yet)
+   * @throws Exception if trouble
+   */
+  protected Table unspilledResult() throws Exception {
+    return unspilledRows();
+  }
+
+  /** This writes the rows gathered in memory (if any) to the file and starts new groups. */
+  protected void spill() throws Throwable {
+    Table table = unspilledRows();
+    int nRows = table.nRows();
+    if (nRows > 0) {
+      if (reallyVerbose)
+        String2.log(
+            getClass().getSimpleName() + " spilling nRows=" + nRows + " after " + nSpilledRows);
+      nSpilledRows += nRows;
+      super.writeSome(table);
+    }
+    newGroups();
+  }
+
+  /**
+   * Use this in finish() if some rows were spilled (nSpilledRows &gt; 0). This spills the rest of
+   * the rows, closes the file, and returns all of the spilled rows.
+   *
+   * @return all of the spilled rows
+   * @throws Throwable if trouble
+   */
+  protected Table spilledTable() throws Throwable {
+    spill();
+    super.finish(); // this throws Throwable if no data
+    return cumulativeTable();
+  }
+
+  /**
+   * Use this in finish(). This returns all of the gathered rows (in memory if nothing was spilled,
+   * else from the file), then releases the resources.
+   *
+   * @return all of the gathered rows
+   * @throws Throwable if trouble (e.g., MustBe.THERE_IS_NO_DATA if there is no data)
+   */
+  protected Table gatheredTable() throws Throwable {
+    Table table;
+    if (nSpilledRows == 0) {
+      // all of the rows are in memory
+      table = unspilledResult();
+      if (table == null || table.nRows() == 0)
+        throw new SimpleException(MustBe.THERE_IS_NO_DATA + " (nRows = 0)");
+    } else {
+      table = spilledTable();
+    }
+    releaseResources();
+    return table;
+  }
+}
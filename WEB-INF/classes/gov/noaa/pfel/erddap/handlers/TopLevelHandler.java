@@ -255,13 +255,22 @@ public class TopLevelHandler extends State {
           String2.log("ipAddressMaxRequestsActive=" + tnt);
         }
       }
+      case "maxActiveRequests" -> {
+        int tnt = String2.parseInt(data.toString());
+        tnt = tnt < 0 || tnt > 100000 ? EDStatic.DEFAULT_maxActiveRequests : tnt;
+        EDStatic.maxActiveRequests = tnt;
+
+        if (reallyVerbose) {
+          String2.log("maxActiveRequests=" + tnt);
+        }
+      }
       case "ipAddressUnlimited" -> {
         String ts = data.toString();
         String[] sar =
             StringArray.fromCSVNoBlanks(ts + EDStatic.DEFAULT_ipAddressUnlimited).toArray();
         EDStatic.ipAddressUnlimited = new HashSet<String>(String2.toArrayList(sar));
         for (String s : sar) {
-          EDStatic.ipAddressQueue.remove(s);
+          EDStatic.admissionController.removeIpAddress(s);
         }
 
         if (reallyVerbose) {
@@ -293,6 +302,42 @@ public class TopLevelHandler extends State {
         }
       }
       case "logLevel" -> EDStatic.setLogLevel(data.toString());
+      case "gridReadAheadChunks" -> {
+        int tnt = String2.parseInt(data.toString());
+        EDStatic.gridReadAheadChunks =
+            tnt < 0 || tnt > 100 ? EDStatic.DEFAULT_gridReadAheadChunks : tnt;
+
+        if (reallyVerbose) {
+          String2.log("gridReadAheadChunks=" + EDStatic.gridReadAheadChunks);
+        }
+      }
+      case "gridTileCacheMB" -> {
+        int tnt = String2.parseInt(data.toString());
+        EDStatic.gridTileCacheMB =
+            tnt < 0 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_gridTileCacheMB : tnt;
+
+        if (reallyVerbose) {
+          String2.log("gridTileCacheMB=" + EDStatic.gridTileCacheMB);
+        }
+      }
+      case "gridTileCacheDiskMB" -> {
+        int tnt = String2.parseInt(data.toString());
+        EDStatic.gridTileCacheDiskMB =
+            tnt < 0 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_gridTileCacheDiskMB : tnt;
+
+        if (reallyVerbose) {
+          String2.log("gridTileCacheDiskMB=" + EDStatic.gridTileCacheDiskMB);
+        }
+      }
+      case "wmsTileCacheMB" -> {
+        int tnt = String2.parseInt(data.toString());
+        EDStatic.wmsTileCacheMB =
+            tnt < 0 || tnt == Integer.MAX_VALUE ? EDStatic.DEFAULT_wmsTileCacheMB : tnt;
+
+        if (reallyVerbose) {
+          String2.log("wmsTileCacheMB=" + EDStatic.wmsTileCacheMB);
+        }
+      }
       case "nGridThreads" -> {
         int tnt = String2.parseInt(data.toString());
         EDStatic.nGridThreads =
@@ -0,0 +1,326 @@
+/*
+ * AdmissionController Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/**
+ * This is the "on-ramp metering" system which limits the number of simultaneous requests from each
+ * IP address (and, optionally, from all IP addresses combined). Erddap.doGet() calls register()
+ * for each request, then (unless the request is exempt) awaitActive(), then (always, in a finally
+ * block) Ticket.release().
+ *
+ * <ul>
+ *   <li>Each IP address may have up to maxActivePerIp requests being processed. Its other requests
+ *       wait in a first-come, first-served queue.
+ *   <li>If maxActive (for all IP addresses) is &gt; 0 and has been reached, IP addresses which are
+ *       under their own limit take turns (round-robin) getting the next free slot, so one IP
+ *       address with lots of waiting requests (e.g., a WMS client) can't starve the others.
+ * </ul>
+ *
+ * Waiting requests are parked (not polling) until they are admitted or their deadline passes.
+ */
+public class AdmissionController {
+
+  /** The upper bounds (in seconds) of the buckets of the wait time histogram. */
+  public static final double[] WAIT_BUCKETS = {0.001, 0.01, 0.1, 0.5, 1, 5, 10, 30, 60, 120};
+
+  private final IntSupplier maxActivePerIp;
+  private final IntSupplier maxActive;
+  private final ReentrantLock lock = new ReentrantLock();
+
+  // all of these are guarded by lock
+  private final HashMap<String, IpAddress> ipAddresses = new HashMap<>();
+  private final ArrayDeque<IpAddress> readyIpAddresses = new ArrayDeque<>();
+  private int nActive = 0;
+  private int nWaiting = 0;
+  private long nAdmitted = 0;
+  private long nWaited = 0;
+  private long nTimedOut = 0;
+  private final long[] waitCounts = new long[WAIT_BUCKETS.length + 1]; // last is +Inf
+
+  private final Set<String> ipAddressesSeen = ConcurrentHashMap.newKeySet();
+
+  /** The requests from one IP address. Guarded by lock. */
+  private static class IpAddress {
+    final String name;
+    final ArrayDeque<Ticket> waiting = new ArrayDeque<>();
+    int nRegistered = 0;
+    int nActive = 0;
+    boolean inReadyIpAddresses = false;
+    boolean unlimited = false; // set by removeIpAddress()
+
+    IpAddress(String name) {
+      this.name = name;
+    }
+  }
+
+  /** One request's place in line. Always call release() when the request is done. */
+  public final class Ticket {
+    private final IpAddress ipAddress;
+    private final int nRegistered;
+    private final Condition admitted;
+    // these are guarded by lock
+    private boolean waiting = false;
+    private boolean active = false;
+    private boolean released = false;
+
+    private Ticket(IpAddress ipAddress, int nRegistered) {
+      this.ipAddress = ipAddress;
+      this.nRegistered = nRegistered;
+      this.admitted = lock.newCondition();
+    }
+
+    /**
+     * This returns the number of this IP address's registered requests (including this one) when
+     * this request was registered.
+     */
+    public int nRegistered() {
+      return nRegistered;
+    }
+
+    /** This returns true if this request has been admitted (and not yet released). */
+    public boolean isActive() {
+      lock.lock();
+      try {
+        return active;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * This removes this request from the controller (and lets the next waiting request in). This
+     * may be called more than once and whether or not the request was ever admitted.
+     */
+    public void release() {
+      lock.lock();
+      try {
+        if (released) return;
+        released = true;
+        IpAddress ip = ipAddress;
+        ip.nRegistered--;
+        if (waiting) {
+          waiting = false;
+          ip.waiting.remove(this);
+          nWaiting--;
+        }
+        if (active) {
+          active = false;
+          ip.nActive--;
+          nActive--;
+        }
+        if (ip.nRegistered == 0 && ipAddresses.get(ip.name) == ip) ipAddresses.remove(ip.name);
+        markReady(ip);
+        dispatch();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param maxActivePerIp supplies the current maximum number of active requests per IP address
+   *     (e.g., EDStatic.ipAddressMaxRequestsActive)
+   * @param maxActive supplies the current maximum number of active requests for all IP addresses
+   *     combined (&lt;=0 means no limit)
+   */
+  public AdmissionController(IntSupplier maxActivePerIp, IntSupplier maxActive) {
+    this.maxActivePerIp = maxActivePerIp;
+    this.maxActive = maxActive;
+  }
+
+  /**
+   * This registers a new request from an IP address. Use ticket.nRegistered() to see if the IP
+   * address has too many requests.
+   *
+   * @param ipAddress the requester's IP address
+   * @return the request's ticket. The caller must call ticket.release() when the request is done.
+   */
+  public Ticket register(String ipAddress) {
+    ipAddressesSeen.add(ipAddress);
+    lock.lock();
+    try {
+      IpAddress ip = ipAddresses.computeIfAbsent(ipAddress, IpAddress::new);
+      ip.nRegistered++;
+      return new Ticket(ip, ip.nRegistered);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This waits until the request can be processed (or the timeout passes).
+   *
+   * @param ticket the ticket from register()
+   * @param timeoutMillis the maximum time to wait
+   * @return true if the request was admitted (or was already active), or false if it timed out
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public boolean awaitActive(Ticket ticket, long timeoutMillis) throws InterruptedException {
+    long start = System.nanoTime();
+    lock.lock();
+    try {
+      if (ticket.active) return true;
+      if (ticket.released) throw new IllegalStateException("The ticket has been released.");
+      ticket.waiting = true;
+      ticket.ipAddress.waiting.add(ticket);
+      nWaiting++;
+      markReady(ticket.ipAddress);
+      dispatch();
+
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+        while (!ticket.active && remaining > 0) remaining = ticket.admitted.awaitNanos(remaining);
+      } finally {
+        if (!ticket.active) { // timed out or interrupted
+          ticket.waiting = false;
+          ticket.ipAddress.waiting.remove(ticket);
+          nWaiting--;
+        }
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+      recordWait(seconds, ticket.active);
+      return ticket.active;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This is used when an IP address is added to ipAddressUnlimited: its waiting requests are
+   * admitted immediately and its future requests are counted separately.
+   *
+   * @param ipAddress the IP address
+   */
+  public void removeIpAddress(String ipAddress) {
+    lock.lock();
+    try {
+      IpAddress ip = ipAddresses.remove(ipAddress);
+      if (ip == null) return;
+      ip.unlimited = true;
+      while (!ip.waiting.isEmpty()) admit(ip.waiting.poll());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** If ip has waiting requests and is under its own limit, this adds it to readyIpAddresses. */
+  private void markReady(IpAddress ip) {
+    if (!ip.inReadyIpAddresses
+        && !ip.waiting.isEmpty()
+        && (ip.unlimited || ip.nActive < Math.max(1, maxActivePerIp.getAsInt()))) {
+      ip.inReadyIpAddresses = true;
+      readyIpAddresses.add(ip);
+    }
+  }
+
+  /** This admits waiting requests (round-robin by IP address) while there are free slots. */
+  private void dispatch() {
+    int tMaxActive = maxActive.getAsInt();
+    int tMaxActivePerIp = Math.max(1, maxActivePerIp.getAsInt());
+    while (!readyIpAddresses.isEmpty() && (tMaxActive <= 0 || nActive < tMaxActive)) {
+      IpAddress ip = readyIpAddresses.poll();
+      ip.inReadyIpAddresses = false;
+      if (ip.waiting.isEmpty() || (!ip.unlimited && ip.nActive >= tMaxActivePerIp)) continue;
+      admit(ip.waiting.poll());
+      markReady(ip); // to the end of the line
+    }
+  }
+
+  private void admit(Ticket ticket) {
+    ticket.waiting = false;
+    ticket.active = true;
+    ticket.ipAddress.nActive++;
+    nActive++;
+    nWaiting--;
+    nAdmitted++;
+    ticket.admitted.signal();
+  }
+
+  private void recordWait(double seconds, boolean wasAdmitted) {
+    if (!wasAdmitted) nTimedOut++;
+    else if (seconds >= WAIT_BUCKETS[0]) nWaited++;
+    int bucket = 0;
+    while (bucket < WAIT_BUCKETS.length && seconds > WAIT_BUCKETS[bucket]) bucket++;
+    waitCounts[bucket]++;
+    Metrics.observeAdmissionWait(wasAdmitted ? "admitted" : "timeout", seconds);
+  }
+
+  /** This returns the number of requests currently being processed. */
+  public int nActive() {
+    lock.lock();
+    try {
+      return nActive;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of requests currently waiting to be admitted. */
+  public int nWaiting() {
+    lock.lock();
+    try {
+      return nWaiting;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of requests which timed out while waiting (since startup). */
+  public long nTimedOut() {
+    lock.lock();
+    try {
+      return nTimedOut;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of different IP addresses which have made requests since startup. */
+  public int nIpAddressesSeen() {
+    return ipAddressesSeen.size();
+  }
+
+  /** This returns a summary of the current state and the wait times (for status.html). */
+  public String statsString() {
+    lock.lock();
+    try {
+      StringBuilder sb = new StringBuilder();
+      sb.append(
+          "Admission: nActive="
+              + nActive
+              + (maxActive.getAsInt() > 0 ? " (max " + maxActive.getAsInt() + ")" : "")
+              + ", nWaiting="
+              + nWaiting
+              + ", nAdmitted="
+              + nAdmitted
+              + ", nWaited>1ms="
+              + nWaited
+              + ", nTimedOut="
+              + nTimedOut
+              + "\n  wait time (seconds) histogram:");
+      for (int i = 0; i <= WAIT_BUCKETS.length; i++)
+        sb.append(
+            " "
+                + (i < WAIT_BUCKETS.length ? "<=" + WAIT_BUCKETS[i] : ">" + WAIT_BUCKETS[i - 1])
+                + ":"
+                + waitCounts[i]);
+      sb.append('\n');
+      return sb.toString();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
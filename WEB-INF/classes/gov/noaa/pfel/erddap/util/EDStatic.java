@@ -5,7 +5,6 @@
 package gov.noaa.pfel.erddap.util;
 
 import com.cohort.array.Attributes;
-import com.cohort.array.IntArray;
 import com.cohort.array.LongArray;
 import com.cohort.array.PAType;
 import com.cohort.array.PrimitiveArray;
@@ -24,6 +23,7 @@ import com.cohort.util.Units2;
 import com.cohort.util.XML;
 import com.google.common.io.Resources;
 import com.sun.management.UnixOperatingSystemMXBean;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
 import gov.noaa.pfel.coastwatch.griddata.NcHelper;
 import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
@@ -48,6 +48,7 @@ import gov.noaa.pfel.erddap.dataset.EDDGrid;
 import gov.noaa.pfel.erddap.dataset.EDDTable;
 import gov.noaa.pfel.erddap.dataset.EDDTableFromCassandra;
 import gov.noaa.pfel.erddap.dataset.GridDataAccessor;
+import gov.noaa.pfel.erddap.dataset.GridTileCache;
 import gov.noaa.pfel.erddap.dataset.OutputStreamFromHttpResponse;
 import gov.noaa.pfel.erddap.dataset.TableWriterHtmlTable;
 import gov.noaa.pfel.erddap.variable.EDV;
@@ -309,11 +310,18 @@ public class EDStatic {
       new ConcurrentHashMap(); // request# -> 1 line info about request
   public static volatile long lastActiveRequestReportTime =
       0; // 0 means not currently in dangerousMemory inUse event
+  // The memory that active requests may reserve (see shedThisRequest, GridDataAccessor,
+  // TableWriter). The rest of the heap is for datasets' metadata, caches, and estimate errors.
+  public static final MemoryBudget memoryBudget = new MemoryBudget(() -> Math2.halfMemory);
+  // The original search engine's index of the datasets' searchBytes (see getSearchDatasetIDs).
+  // It is only maintained if !useLuceneSearchEngine.
+  public static final SearchIndex originalSearchIndex = new SearchIndex();
+  // The index of the datasets' lon, lat, and time extents (see Erddap.doAdvancedSearch).
+  public static final ExtentIndex extentIndex = new ExtentIndex();
+  public static final long memoryReserveTimeoutMillis = 30000; // max wait for a reservation
 
   public static final String ipAddressNotSetYet = "NotSetYet";
   public static final String ipAddressUnknown = "(unknownIPAddress)";
-  public static final ConcurrentHashMap<String, IntArray> ipAddressQueue =
-      new ConcurrentHashMap(); // ipAddress -> list of request#
   public static final int DEFAULT_ipAddressMaxRequestsActive = 2; // in datasets.xml
   public static final int DEFAULT_ipAddressMaxRequests =
       15; // in datasets.xml //more requests will see Too Many Requests error. This must be at least
@@ -331,6 +339,11 @@ public class EDStatic {
           new HashSet<String>(
               String2.toArrayList(
                   StringArray.fromCSVNoBlanks(DEFAULT_ipAddressUnlimited).toArray()));
+  public static final int DEFAULT_maxActiveRequests = 0; // in datasets.xml. 0 = no limit
+  public static int maxActiveRequests =
+      DEFAULT_maxActiveRequests; // in datasets.xml //max active requests for all (limited) users
+  public static final AdmissionController admissionController =
+      new AdmissionController(() -> ipAddressMaxRequestsActive, () -> maxActiveRequests);
   public static int tooManyRequests =
       0; // nRequests exceeding ipAddressMaxRequests, since last major datasets reload
   public static final String translationDisclaimer =
@@ -381,12 +394,25 @@ public class EDStatic {
   public static final int DEFAULT_decompressedCacheMaxMinutesOld = 15;
   public static final int DEFAULT_nGridThreads = 1;
   public static final int DEFAULT_nTableThreads = 1;
+  public static final int DEFAULT_gridReadAheadChunks = 0;
+  public static final int DEFAULT_gridTileCacheMB = 0;
+  public static final int DEFAULT_gridTileCacheDiskMB = 0;
+  public static final int DEFAULT_wmsTileCacheMB = 0;
   public static String DEFAULT_palettes[] = null; // set when messages.xml is read
   public static HashSet<String> DEFAULT_palettes_set = null; // set when messages.xml is read
   public static int decompressedCacheMaxGB = DEFAULT_decompressedCacheMaxGB;
   public static int decompressedCacheMaxMinutesOld = DEFAULT_decompressedCacheMaxMinutesOld;
   public static int nGridThreads = DEFAULT_nGridThreads; // will be a valid number 1+
   public static int nTableThreads = DEFAULT_nTableThreads; // will be a valid number 1+
+  // number of chunks GridDataAccessor gets ahead of time (0 = none)
+  public static int gridReadAheadChunks = DEFAULT_gridReadAheadChunks; // in datasets.xml
+  // max size of GridTileCache's tiles of remote grid data in memory and on disk (0 = none)
+  public static int gridTileCacheMB = DEFAULT_gridTileCacheMB; // in datasets.xml
+  public static int gridTileCacheDiskMB = DEFAULT_gridTileCacheDiskMB; // in datasets.xml
+  // max size of WmsTileCache's tile-aligned WMS images on disk (0 = none)
+  public static int wmsTileCacheMB = DEFAULT_wmsTileCacheMB; // in datasets.xml
+  // max number of threads in the server-wide WorkScheduler (shared by all requests)
+  public static int workThreadPoolSize = WorkScheduler.DEFAULT_maxThreads; // in setup.xml
   public static String convertInterpolateRequestCSVExample = null; // may be null or ""
   public static String convertInterpolateDatasetIDVariableList[] = new String[0]; // may be [0]
 
@@ -1894,8 +1920,15 @@ public class EDStatic {
       usePrometheusMetrics = getSetupEVBoolean(setup, ev, "usePrometheusMetrics", true);
       if (usePrometheusMetrics) {
         JvmMetrics.builder().register(); // initialize the out-of-the-box JVM metrics
+        Metrics.register(); // ERDDAP's own metrics
       }
 
+      workThreadPoolSize =
+          Math2.minMax(
+              1,
+              1000,
+              getSetupEVInt(setup, ev, "workThreadPoolSize", WorkScheduler.DEFAULT_maxThreads));
+
       bigParentDirectory = getSetupEVNotNothingString(setup, ev, "bigParentDirectory", "");
       bigParentDirectory = File2.addSlash(bigParentDirectory);
       Path bpd = Path.of(bigParentDirectory);
@@ -5184,8 +5217,17 @@ public class EDStatic {
     sb.append(errorsDuringMajorReload);
     sb.append(
         "Unique users (since startup)                            n = "
-            + ipAddressQueue.size()
+            + admissionController.nIpAddressesSeen()
             + "\n");
+    sb.append(admissionController.statsString());
+    sb.append(memoryBudget.statsString());
+    sb.append(NcFileCache.shared().statsString() + "\n");
+    GridTileCache gridTileCache = GridTileCache.sharedIfExists();
+    if (gridTileCache != null) sb.append(gridTileCache.statsString() + "\n");
+    WmsTileCache wmsTileCache = WmsTileCache.sharedIfExists();
+    if (wmsTileCache != null) sb.append(wmsTileCache.statsString() + "\n");
+    if (!useLuceneSearchEngine) sb.append(originalSearchIndex.statsString());
+    sb.append(extentIndex.statsString());
     sb.append("Response Failed    Time (since last major LoadDatasets) ");
     sb.append(
         String2.getBriefTimeDistributionStatistics(failureTimesDistributionLoadDatasets) + "\n");
@@ -5301,6 +5343,8 @@ public class EDStatic {
     } catch (Exception e) {
     }
     sb.append("Number of active requests=" + activeRequests.size() + "\n");
+    WorkScheduler workScheduler = WorkScheduler.sharedIfExists();
+    if (workScheduler != null) sb.append(workScheduler.toString() + "\n");
   }
 
   /** This adds the common, publicly accessible statistics to the StringBuffer. */
@@ -5997,6 +6041,12 @@ public class EDStatic {
       // shutdown Cassandra clusters/sessions
       EDDTableFromCassandra.shutdown();
 
+      // let the shared WorkScheduler's threads stop
+      WorkScheduler.shutdownShared();
+
+      // close the cached NetcdfFiles
+      NcFileCache.shared().clear();
+
       // interrupt all of them
       for (int i = 0; i < names.length; i++) {
         try {
@@ -7262,9 +7312,12 @@ public class EDStatic {
   }
 
   /**
-   * This checks if this request should be shed because not much free memory available. Note that
-   * shedThisRequest is more eager to reject a request, than Math2.ensureMemoryAvailable is to cause
-   * an in-process request to be stopped.
+   * This checks if this request should be shed because not much memory is available. For requests
+   * which may need lots of memory, this reserves (see memoryBudget) an initial estimate of the
+   * memory this request will need, waiting (up to memoryReserveTimeoutMillis) if the budget is
+   * already reserved by other requests. (GridDataAccessor and TableWriter later raise the
+   * reservation when they know more.) All requests are shed if memory use is dangerously high,
+   * even after calling the garbage collector (which is done at most every few seconds).
    *
    * @param lotsMemoryNeeded Use true if this request may require lots of memory. Use false if this
    *     request probably doesn't need much memory. If memory use is super high, all requests will
@@ -7274,32 +7327,31 @@ public class EDStatic {
   public static boolean shedThisRequest(
       int language, int requestNumber, HttpServletResponse response, boolean lotsMemoryNeeded)
       throws InterruptedException {
-    // If shed (maybe in another thread) just called gc, memory use was recently high. Wait until
-    // shortSleep is finished.
-    long timeSinceGc = System.currentTimeMillis() - Math2.timeGCLastCalled;
-    if (timeSinceGc < Math2.shortSleep) {
-      // A problem with this is that multiple threads may wait for gc to finish,
-      //  see enough memory, then all start and each use lots of memory.
-      Thread.sleep(Math2.shortSleep - timeSinceGc);
-      timeSinceGc = Math2.shortSleep;
-    }
 
-    // always: if >=2000ms since gc and memory use is high, call gc
-    long inUse = Math2.getMemoryInUse();
-    if (timeSinceGc >= 3 * Math2.shortSleep
-        && inUse
-            >= Math2
-                .halfMemory) { // This is arbitrary. I don't want to call gc too often but I don't
-      // want to shed needlessly.
-      inUse =
-          Math2.gcAndWait(
-              "shedThisRequest"); // waits Math2.shortSleep   //in shedThisRequest   //a diagnostic
-      // is always logged
+    // reserve an initial estimate of the memory this request will need
+    long tReserve = lotsMemoryNeeded ? Math2.alwaysOkayMemoryRequest : 0;
+    MemoryBudget.Reservation reservation = memoryBudget.current();
+    boolean reserved =
+        reservation == null
+            || tReserve == 0
+            || memoryBudget.reserve(reservation, tReserve, memoryReserveTimeoutMillis);
+
+    // if memory use is okay and the reservation succeeded, return false
+    long inUse = Math2.getMemoryInUse(); // cheap. It may include garbage.
+    if (reserved && inUse >= Math2.dangerousMemory) {
+      // inUse may be mostly garbage, so call gc (if not just called) and check again
+      long timeSinceGc = System.currentTimeMillis() - Math2.timeGCLastCalled;
+      if (timeSinceGc < Math2.shortSleep) {
+        // gc was just called (maybe in another thread). Wait until shortSleep is finished.
+        Thread.sleep(Math2.shortSleep - timeSinceGc);
+        inUse = Math2.getMemoryInUse();
+      } else if (timeSinceGc >= 3 * Math2.shortSleep) {
+        inUse = Math2.gcAndWait("shedThisRequest"); // waits Math2.shortSleep
+      } else {
+        inUse = Math2.getMemoryInUse();
+      }
     }
-
-    // if memory use is now low enough for this request, return false
-    long tLimit = lotsMemoryNeeded ? Math2.halfMemory : Math2.highMemory; // 0.5*max : .65*max
-    if (inUse <= tLimit) {
+    if (reserved && inUse < Math2.dangerousMemory) {
       if (inUse <= Math2.maxMemory / 4)
         lastActiveRequestReportTime = 0; // the previous dangerousMemory inUse has been solved
       return false;
@@ -7342,11 +7394,21 @@ public class EDStatic {
             + requestNumber
             + ", lotsOfMemoryNeeded="
             + lotsMemoryNeeded
-            + ", memoryInUse="
-            + (inUse / Math2.BytesPerMB)
-            + "MB > tLimit="
-            + (tLimit / Math2.BytesPerMB)
-            + "MB");
+            + (reserved
+                ? ", memoryInUse="
+                    + (inUse / Math2.BytesPerMB)
+                    + "MB >= dangerousMemory="
+                    + (Math2.dangerousMemory / Math2.BytesPerMB)
+                    + "MB"
+                : ", couldn't reserve "
+                    + (tReserve / Math2.BytesPerMB)
+                    + "MB within "
+                    + (memoryReserveTimeoutMillis / 1000)
+                    + "s (reserved="
+                    + (memoryBudget.reservedBytes() / Math2.BytesPerMB)
+                    + "MB of "
+                    + (memoryBudget.budget() / Math2.BytesPerMB)
+                    + "MB)"));
     lowSendError( // it sleeps for slowDownTroubleMillis
         requestNumber,
         response,
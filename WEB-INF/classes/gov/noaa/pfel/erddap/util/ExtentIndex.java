@@ -0,0 +1,325 @@
+/*
+ * ExtentIndex Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import gov.noaa.pfel.erddap.dataset.EDD;
+import gov.noaa.pfel.erddap.dataset.EDDGrid;
+import gov.noaa.pfel.erddap.dataset.EDDTable;
+import gov.noaa.pfel.erddap.variable.EDV;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * This is an index (a bulk-loaded R-tree) of the datasets' longitude, latitude, and time extents,
+ * so that Advanced Search's bounding box and time constraints are index lookups instead of a test
+ * of every dataset.
+ *
+ * <p>Each dataset's extent is a box with a [min, max] range for each of LON, LAT and TIME, made
+ * from its variables' destinationMin and destinationMax (see extentOf). The ranges are made so that
+ * the plain box intersection test gives the same results as Advanced Search's original tests (e.g.,
+ * a dataset without a longitude variable never matches a longitude constraint, and a dataset with
+ * time destinationMax=NaN (which may mean "now") matches any minTime).
+ *
+ * <p>Datasets are added, replaced, and removed incrementally (see Erddap.addRemoveDatasetInfo).
+ * Those changes (and changes to an indexed variable's destinationMin or destinationMax, see
+ * EDV.destinationMinMaxListener, and updates which replace a variable, e.g., when a grid dataset's
+ * time axis is updated, see EDD.update) are kept in a small list of pending datasets, which are
+ * tested one by one. When that list gets long, the tree is rebuilt (on the next search).
+ *
+ * <p>This is thread-safe.
+ */
+public class ExtentIndex {
+
+  public static final int LON = 0, LAT = 1, TIME = 2;
+  private static final int NDIMS = 3;
+  private static final int NODE_SIZE = 16;
+
+  /** A node of the tree: a leaf (with ids) or a branch (with children), and their bounding box. */
+  private static final class Node {
+    final double box[] = new double[2 * NDIMS];
+    final Node children[];
+    final String ids[];
+    final double boxes[][];
+
+    Node(Node children[], String ids[], double boxes[][]) {
+      this.children = children;
+      this.ids = ids;
+      this.boxes = boxes;
+      for (int d = 0; d < NDIMS; d++) {
+        box[2 * d] = Double.POSITIVE_INFINITY;
+        box[2 * d + 1] = Double.NEGATIVE_INFINITY;
+      }
+      int n = children == null ? ids.length : children.length;
+      for (int i = 0; i < n; i++) {
+        double b[] = children == null ? boxes[i] : children[i].box;
+        for (int d = 0; d < NDIMS; d++) {
+          box[2 * d] = Math.min(box[2 * d], b[2 * d]);
+          box[2 * d + 1] = Math.max(box[2 * d + 1], b[2 * d + 1]);
+        }
+      }
+    }
+  }
+
+  /**
+   * A dataset's current extent, the dataset (or null), and the variables the extent was made from
+   * (or null).
+   */
+  private record Entry(double[] box, EDD edd, EDV[] edvs) {}
+
+  // all of these are guarded by this
+  private final HashMap<String, Entry> entries = new HashMap<>();
+  private final HashSet<String> pending = new HashSet<>(); // changed since the tree was built
+  private final IdentityHashMap<EDV, String> edvToID = new IdentityHashMap<>();
+  private final HashSet<String> needsRefresh = new HashSet<>(); // the dataset's extent changed
+  private Node root = null;
+  private long nRebuilds = 0;
+
+  /**
+   * This adds (or replaces) a dataset's extent.
+   *
+   * @param datasetID the datasetID
+   * @param edd the dataset
+   */
+  public void put(String datasetID, EDD edd) {
+    EDV edvs[] = extentVariables(edd);
+    synchronized (this) {
+      putEdvs(datasetID, edd, edvs);
+    }
+  }
+
+  /**
+   * This adds (or replaces) a dataset's extent.
+   *
+   * @param datasetID the datasetID
+   * @param box the extent, see extentOf
+   */
+  synchronized void put(String datasetID, double box[]) {
+    removeEdvs(datasetID);
+    entries.put(datasetID, new Entry(box, null, null));
+    pending.add(datasetID);
+  }
+
+  /**
+   * This removes a dataset from the index (if it is in the index).
+   *
+   * @param datasetID the datasetID
+   */
+  public synchronized void remove(String datasetID) {
+    removeEdvs(datasetID);
+    if (entries.remove(datasetID) != null) pending.add(datasetID);
+  }
+
+  /**
+   * This is called when an EDV's destinationMin or destinationMax has been changed, so that the
+   * extent of the dataset it belongs to (if it is in the index) is remade before the next search.
+   *
+   * @param edv the variable
+   */
+  public synchronized void changed(EDV edv) {
+    String datasetID = edvToID.get(edv);
+    if (datasetID != null) needsRefresh.add(datasetID);
+  }
+
+  /**
+   * This is called when a dataset's variables may have been replaced (e.g., by an update which
+   * makes a new time axis variable), so that the dataset's extent is remade from its current
+   * variables before the next search.
+   *
+   * @param edd the dataset
+   */
+  public synchronized void changed(EDD edd) {
+    Entry entry = entries.get(edd.datasetID());
+    if (entry != null && entry.edd() == edd) needsRefresh.add(edd.datasetID());
+  }
+
+  /**
+   * This finds the datasets whose extents intersect the constraints. A NaN constraint is
+   * unconstrained. If a dimension is constrained, datasets without that dimension don't match.
+   *
+   * @param min the minimum LON, LAT, and TIME (epochSeconds) (or NaN)
+   * @param max the maximum LON, LAT, and TIME (epochSeconds) (or NaN)
+   * @return the datasetIDs of the matching datasets
+   */
+  public synchronized HashSet<String> search(double min[], double max[]) {
+    // refresh the changed datasets
+    for (String datasetID : needsRefresh.toArray(new String[0])) {
+      Entry entry = entries.get(datasetID);
+      if (entry != null && entry.edd() != null)
+        putEdvs(datasetID, entry.edd(), extentVariables(entry.edd()));
+    }
+    needsRefresh.clear();
+    if (root == null || pending.size() > Math.max(64, Math.sqrt(entries.size()))) rebuild();
+
+    // make the query box
+    double query[] = new double[2 * NDIMS];
+    boolean tested[] = new boolean[NDIMS];
+    for (int d = 0; d < NDIMS; d++) {
+      tested[d] = !Double.isNaN(min[d]) || !Double.isNaN(max[d]);
+      query[2 * d] = Double.isNaN(min[d]) ? Double.NEGATIVE_INFINITY : min[d];
+      query[2 * d + 1] = Double.isNaN(max[d]) ? Double.POSITIVE_INFINITY : max[d];
+    }
+
+    HashSet<String> results = new HashSet<>();
+    search(root, query, tested, results);
+    for (String datasetID : pending) {
+      Entry entry = entries.get(datasetID);
+      if (entry != null && intersects(entry.box(), query, tested)) results.add(datasetID);
+    }
+    return results;
+  }
+
+  /** This returns the number of datasets in the index. */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /** This returns a one line summary of the index (for status.html). */
+  public synchronized String statsString() {
+    return "Extent index: nDatasets="
+        + entries.size()
+        + ", nPending="
+        + pending.size()
+        + ", nRebuilds="
+        + nRebuilds
+        + "\n";
+  }
+
+  private void search(Node node, double query[], boolean tested[], HashSet<String> results) {
+    if (!intersects(node.box, query, tested)) return;
+    if (node.children != null) {
+      for (Node child : node.children) search(child, query, tested, results);
+    } else {
+      for (int i = 0; i < node.ids.length; i++)
+        if (intersects(node.boxes[i], query, tested) && !pending.contains(node.ids[i]))
+          results.add(node.ids[i]);
+    }
+  }
+
+  private static boolean intersects(double box[], double query[], boolean tested[]) {
+    for (int d = 0; d < NDIMS; d++) {
+      if (tested[d] && (query[2 * d] > box[2 * d + 1] || query[2 * d + 1] < box[2 * d]))
+        return false;
+    }
+    return true;
+  }
+
+  private void putEdvs(String datasetID, EDD edd, EDV edvs[]) {
+    removeEdvs(datasetID);
+    for (EDV edv : edvs) if (edv != null) edvToID.put(edv, datasetID);
+    entries.put(datasetID, new Entry(extentOf(edvs), edd, edvs));
+    pending.add(datasetID);
+  }
+
+  private void removeEdvs(String datasetID) {
+    Entry entry = entries.get(datasetID);
+    if (entry != null && entry.edvs() != null)
+      for (EDV edv : entry.edvs()) if (edv != null) edvToID.remove(edv);
+    needsRefresh.remove(datasetID);
+  }
+
+  /** This rebuilds the tree (Sort-Tile-Recursive bulk loading) from all the entries. */
+  private void rebuild() {
+    int n = entries.size();
+    String ids[] = entries.keySet().toArray(new String[0]);
+    double boxes[][] = new double[n][];
+    for (int i = 0; i < n; i++) boxes[i] = entries.get(ids[i]).box();
+    Integer order[] = new Integer[n];
+    for (int i = 0; i < n; i++) order[i] = i;
+
+    // sort by lon, then cut into slices and sort each slice by time, then pack into leaves
+    Arrays.sort(order, Comparator.comparingDouble(i -> center(boxes[i], LON)));
+    int nLeaves = (n + NODE_SIZE - 1) / NODE_SIZE;
+    int sliceSize = NODE_SIZE * (int) Math.ceil(Math.sqrt(Math.max(1, nLeaves)));
+    for (int start = 0; start < n; start += sliceSize)
+      Arrays.sort(
+          order,
+          start,
+          Math.min(n, start + sliceSize),
+          Comparator.comparingDouble(i -> center(boxes[i], TIME)));
+    List<Node> level = new ArrayList<>();
+    for (int start = 0; start < n; start += NODE_SIZE) {
+      int end = Math.min(n, start + NODE_SIZE);
+      String tIds[] = new String[end - start];
+      double tBoxes[][] = new double[end - start][];
+      for (int i = start; i < end; i++) {
+        tIds[i - start] = ids[order[i]];
+        tBoxes[i - start] = boxes[order[i]];
+      }
+      level.add(new Node(null, tIds, tBoxes));
+    }
+
+    // make the upper levels
+    while (level.size() > 1) {
+      List<Node> upper = new ArrayList<>();
+      for (int start = 0; start < level.size(); start += NODE_SIZE)
+        upper.add(
+            new Node(
+                level
+                    .subList(start, Math.min(level.size(), start + NODE_SIZE))
+                    .toArray(new Node[0]),
+                null,
+                null));
+      level = upper;
+    }
+    root = level.isEmpty() ? new Node(null, new String[0], new double[0][]) : level.get(0);
+    pending.clear();
+    nRebuilds++;
+  }
+
+  /** The sort key for a dimension (missing or unbounded ranges sort at the ends). */
+  private static double center(double box[], int d) {
+    double lo = box[2 * d], hi = box[2 * d + 1];
+    if (lo > hi) return Double.MAX_VALUE; // no such variable
+    if (Double.isInfinite(lo) || Double.isInfinite(hi)) return Double.isInfinite(lo) ? hi : lo;
+    return (lo + hi) / 2;
+  }
+
+  /**
+   * This returns the dataset's longitude, latitude, and time variables.
+   *
+   * @param edd a dataset
+   * @return the LON, LAT, and TIME variables (an element is null if the dataset doesn't have it)
+   */
+  public static EDV[] extentVariables(EDD edd) {
+    EDV edvs[] = new EDV[NDIMS];
+    if (edd instanceof EDDGrid eddg) {
+      if (eddg.lonIndex() >= 0) edvs[LON] = eddg.axisVariables()[eddg.lonIndex()];
+      if (eddg.latIndex() >= 0) edvs[LAT] = eddg.axisVariables()[eddg.latIndex()];
+      if (eddg.timeIndex() >= 0) edvs[TIME] = eddg.axisVariables()[eddg.timeIndex()];
+    } else if (edd instanceof EDDTable eddt) {
+      if (eddt.lonIndex() >= 0) edvs[LON] = eddt.dataVariables()[eddt.lonIndex()];
+      if (eddt.latIndex() >= 0) edvs[LAT] = eddt.dataVariables()[eddt.latIndex()];
+      if (eddt.timeIndex() >= 0) edvs[TIME] = eddt.dataVariables()[eddt.timeIndex()];
+    }
+    return edvs;
+  }
+
+  /**
+   * This makes an extent from the LON, LAT, and TIME variables' destinationMin and destinationMax.
+   *
+   * @param edvs the LON, LAT, and TIME variables (an element may be null)
+   * @return the extent: [lonMin, lonMax, latMin, latMax, timeMin, timeMax]
+   */
+  public static double[] extentOf(EDV edvs[]) {
+    double box[] = new double[2 * NDIMS];
+    for (int d = 0; d < NDIMS; d++) {
+      double lo = edvs[d] == null ? Double.NaN : edvs[d].destinationMinDouble();
+      double hi = edvs[d] == null ? Double.NaN : edvs[d].destinationMaxDouble();
+      box[2 * d] = Double.isNaN(lo) ? Double.POSITIVE_INFINITY : lo;
+      box[2 * d + 1] =
+          Double.isNaN(hi)
+              ? (d == TIME && edvs[d] != null
+                  ? Double.POSITIVE_INFINITY // max time NaN may mean "now"
+                  : Double.NEGATIVE_INFINITY)
+              : hi;
+    }
+    return box;
+  }
+}
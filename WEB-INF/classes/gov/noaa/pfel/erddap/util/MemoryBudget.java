@@ -0,0 +1,399 @@
+/*
+ * MemoryBudget Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Calendar2;
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * This keeps track of how much memory the active requests expect to need, so that a new request
+ * which needs lots of memory waits (or is rejected) when the memory is already spoken for, instead
+ * of everyone starting, allocating, and running out of memory together.
+ *
+ * <p>Erddap.doGet() calls open() at the start of each request and (always, in a finally block)
+ * Reservation.close(). The code which knows how much memory a request will need (e.g.,
+ * GridDataAccessor, TableWriter) calls reserve(). A request's reservation is its peak estimate:
+ * reserve(nBytes) raises the request's reservation to nBytes (if it is less than that), it doesn't
+ * add nBytes to it. A reservation bigger than the whole budget is reduced to the budget (so the
+ * request can still run, but only by itself).
+ *
+ * <p>This doesn't call the garbage collector and doesn't look at how much memory is actually in
+ * use. It just ensures that the sum of the estimates stays within the budget.
+ * Math2.ensureMemoryAvailable is still the last line of defense.
+ *
+ * <p>Requests which need more memory while they are running (they already have a reservation) are
+ * given priority over new requests, since finishing them is the way to free up memory. If the
+ * growing requests which are waiting hold so much memory that the first of them couldn't be granted
+ * even after all of the other requests finish, none of them could ever continue, so the youngest of
+ * them is rejected right away (instead of all of them waiting until they time out).
+ */
+public class MemoryBudget {
+
+  private final LongSupplier budget;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final ThreadLocal<Reservation> current = new ThreadLocal<>();
+
+  // all of these are guarded by lock
+  private final LinkedHashSet<Reservation> reservations = new LinkedHashSet<>();
+  private final ArrayDeque<Waiter> growing = new ArrayDeque<>(); // requests with a reservation
+  private final ArrayDeque<Waiter> starting = new ArrayDeque<>(); // requests without a reservation
+  private long reservedBytes = 0;
+  private long peakReservedBytes = 0;
+  private long nReserved = 0; // reserve() calls which increased a reservation
+  private long nWaited = 0;
+  private long nRejected = 0;
+
+  /** One request's reservation. Always call close() when the request is done. */
+  public final class Reservation implements AutoCloseable {
+    private final String owner;
+    private final long startMillis = System.currentTimeMillis();
+    private long nBytes = 0; // guarded by lock
+    private volatile boolean closed = false; // written while holding lock
+
+    private Reservation(String owner) {
+      this.owner = owner;
+    }
+
+    /** This returns the number of bytes currently reserved by this request. */
+    public long nBytes() {
+      lock.lock();
+      try {
+        return nBytes;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * This releases this request's reservation (so waiting requests may start). This may be called
+     * more than once.
+     */
+    @Override
+    public void close() {
+      lock.lock();
+      try {
+        if (closed) return;
+        closed = true;
+        reservedBytes -= nBytes;
+        nBytes = 0;
+        reservations.remove(this);
+        dispatch();
+      } finally {
+        lock.unlock();
+      }
+      if (current.get() == this) current.remove();
+    }
+  }
+
+  /** A reserve() call which is waiting for enough memory. Guarded by lock. */
+  private static final class Waiter {
+    final Reservation reservation;
+    final long nBytes; // the new total for the reservation
+    final Condition granted;
+    boolean done = false;
+    boolean shed = false; // rejected to end a deadlock
+
+    Waiter(Reservation reservation, long nBytes, Condition granted) {
+      this.reservation = reservation;
+      this.nBytes = nBytes;
+      this.granted = granted;
+    }
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param budget supplies the current number of bytes that may be reserved by all requests
+   *     combined
+   */
+  public MemoryBudget(LongSupplier budget) {
+    this.budget = budget;
+  }
+
+  /**
+   * This starts a (0 byte) reservation for a request and makes it the current thread's reservation
+   * (see reserveForCurrentRequest).
+   *
+   * @param owner a description of the request (e.g., "#1234"), for status.html
+   * @return the reservation. The caller must call close() when the request is done.
+   */
+  public Reservation open(String owner) {
+    Reservation reservation = new Reservation(owner);
+    lock.lock();
+    try {
+      reservations.add(reservation);
+    } finally {
+      lock.unlock();
+    }
+    current.set(reservation);
+    return reservation;
+  }
+
+  /**
+   * This returns the current thread's reservation.
+   *
+   * @return the current thread's reservation (or null if none, e.g., this isn't a request thread)
+   */
+  public Reservation current() {
+    return current.get();
+  }
+
+  /**
+   * This raises the reservation to nBytes (if it is less than that), waiting (up to timeoutMillis)
+   * until there is enough memory in the budget.
+   *
+   * @param reservation the request's reservation
+   * @param nBytes the number of bytes that the request expects to need at its peak
+   * @param timeoutMillis the maximum time to wait
+   * @return true if the reservation is now at least nBytes (or the budget), or false if it timed
+   *     out (and the reservation is unchanged)
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public boolean reserve(Reservation reservation, long nBytes, long timeoutMillis)
+      throws InterruptedException {
+    lock.lock();
+    try {
+      if (reservation.closed) throw new IllegalStateException("The reservation has been closed.");
+      nBytes = Math.min(nBytes, Math.max(0, budget.getAsLong()));
+      if (nBytes <= reservation.nBytes) return true;
+      boolean isGrowing = reservation.nBytes > 0;
+      ArrayDeque<Waiter> queue = isGrowing ? growing : starting;
+      // don't jump ahead of waiting requests (growing requests only wait for growing requests)
+      if (queue.isEmpty() && (isGrowing || growing.isEmpty()) && fits(reservation, nBytes)) {
+        grant(reservation, nBytes);
+        return true;
+      }
+
+      // wait
+      Waiter waiter = new Waiter(reservation, nBytes, lock.newCondition());
+      queue.add(waiter);
+      nWaited++;
+      if (isGrowing) shedDeadlockedWaiters();
+      long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+      try {
+        while (!waiter.done && !waiter.shed && remaining > 0)
+          remaining = waiter.granted.awaitNanos(remaining);
+      } finally {
+        if (!waiter.done) { // timed out or interrupted
+          queue.remove(waiter);
+          nRejected++;
+          dispatch(); // a waiter behind this one may fit
+        }
+      }
+      return waiter.done;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This raises the reservation to nBytes (if it is less than that) only if that can be done now,
+   * without waiting and without going ahead of waiting requests. This is for optional uses of
+   * memory (e.g., reading ahead), so a failure isn't counted as a rejection.
+   *
+   * @param reservation the request's reservation
+   * @param nBytes the number of bytes that the request would need at its peak
+   * @return true if the reservation is now at least nBytes
+   */
+  public boolean tryReserve(Reservation reservation, long nBytes) {
+    lock.lock();
+    try {
+      if (reservation.closed) return false;
+      if (nBytes <= reservation.nBytes) return true;
+      boolean isGrowing = reservation.nBytes > 0;
+      if ((isGrowing ? growing.isEmpty() : growing.isEmpty() && starting.isEmpty())
+          && fits(reservation, nBytes)) {
+        grant(reservation, nBytes);
+        return true;
+      }
+      return false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This raises the current thread's reservation (if any) to nBytes (if it is less than that),
+   * waiting (up to timeoutMillis) until there is enough memory in the budget. If the current thread
+   * doesn't have a reservation (e.g., it isn't a request thread), this does nothing.
+   *
+   * @param nBytes the number of bytes that the request expects to need at its peak
+   * @param timeoutMillis the maximum time to wait
+   * @param attributeTo for an error message, the thing this memory is for
+   * @throws RuntimeException if there isn't enough memory in the budget before the timeout
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public void reserveForCurrentRequest(long nBytes, long timeoutMillis, String attributeTo)
+      throws InterruptedException {
+    Reservation reservation = current.get();
+    if (reservation == null || reservation.closed) return;
+    if (reserve(reservation, nBytes, timeoutMillis)) return;
+    throw new RuntimeException(
+        Math2.memoryTooMuchData
+            + "  "
+            + MessageFormat.format(
+                Math2.memoryThanCurrentlySafe,
+                "" + (nBytes / Math2.BytesPerMB),
+                "" + (Math.max(0, budget.getAsLong() - reservedBytes()) / Math2.BytesPerMB))
+            + (attributeTo == null || attributeTo.length() == 0 ? "" : " (" + attributeTo + ")"));
+  }
+
+  private boolean fits(Reservation reservation, long nBytes) {
+    return reservedBytes - reservation.nBytes + nBytes <= budget.getAsLong();
+  }
+
+  private void grant(Reservation reservation, long nBytes) {
+    reservedBytes += nBytes - reservation.nBytes;
+    reservation.nBytes = nBytes;
+    peakReservedBytes = Math.max(peakReservedBytes, reservedBytes);
+    nReserved++;
+  }
+
+  /**
+   * Growing requests only wait for memory which will be released by the requests which aren't
+   * waiting. If the first growing waiter wouldn't fit even if all of those requests finished, the
+   * growing waiters would wait for each other until they time out. So this rejects the youngest
+   * growing waiter (which has probably done the least work) until the first one could fit.
+   */
+  private void shedDeadlockedWaiters() {
+    while (growing.size() > 1) {
+      HashSet<Reservation> waiting = new HashSet<>();
+      long held = 0; // the memory which won't be released while they wait
+      for (Waiter w : growing) if (waiting.add(w.reservation)) held += w.reservation.nBytes;
+      Waiter first = growing.peek();
+      if (held - first.reservation.nBytes + first.nBytes <= budget.getAsLong()) return;
+
+      // reservations is in the order the requests started
+      Reservation youngest = null;
+      for (Reservation r : reservations) if (waiting.contains(r)) youngest = r;
+      Iterator<Waiter> it = growing.descendingIterator();
+      while (it.hasNext()) {
+        Waiter w = it.next();
+        if (w.reservation != youngest) continue;
+        it.remove();
+        w.shed = true;
+        w.granted.signal();
+        String2.log(
+            "MemoryBudget rejected a reservation of "
+                + (w.nBytes / Math2.BytesPerMB)
+                + " MB for "
+                + youngest.owner
+                + " because the growing requests which are waiting couldn't all continue.");
+        break;
+      }
+    }
+  }
+
+  /** This grants waiting reservations (in order, growing requests first) while they fit. */
+  private void dispatch() {
+    shedDeadlockedWaiters(); // e.g., if the budget shrank
+    for (ArrayDeque<Waiter> queue : new ArrayDeque[] {growing, starting}) {
+      while (!queue.isEmpty()) {
+        Waiter waiter = queue.peek();
+        if (waiter.reservation.closed) { // shouldn't happen
+          queue.poll();
+          continue;
+        }
+        if (!fits(waiter.reservation, waiter.nBytes)) return;
+        queue.poll();
+        grant(waiter.reservation, Math.max(waiter.nBytes, waiter.reservation.nBytes));
+        waiter.done = true;
+        waiter.granted.signal();
+      }
+    }
+  }
+
+  /** This returns the current budget (in bytes). */
+  public long budget() {
+    return budget.getAsLong();
+  }
+
+  /** This returns the number of bytes reserved by all active requests. */
+  public long reservedBytes() {
+    lock.lock();
+    try {
+      return reservedBytes;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of reserve() calls currently waiting. */
+  public int nWaiting() {
+    lock.lock();
+    try {
+      return growing.size() + starting.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of reserve() calls which timed out (since startup). */
+  public long nRejected() {
+    lock.lock();
+    try {
+      return nRejected;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns a summary of the current state and the biggest reservations (for status.html). */
+  public String statsString() {
+    lock.lock();
+    try {
+      long tBudget = budget.getAsLong();
+      StringBuilder sb = new StringBuilder();
+      sb.append(
+          "Memory budget: reserved="
+              + (reservedBytes / Math2.BytesPerMB)
+              + " MB of "
+              + (tBudget / Math2.BytesPerMB)
+              + " MB ("
+              + (tBudget <= 0 ? 0 : Math2.roundToInt(reservedBytes * 100.0 / tBudget))
+              + "%), peak="
+              + (peakReservedBytes / Math2.BytesPerMB)
+              + " MB, nRequests="
+              + reservations.size()
+              + ", nWaiting="
+              + (growing.size() + starting.size())
+              + ", nReserved="
+              + nReserved
+              + ", nWaited="
+              + nWaited
+              + ", nRejected="
+              + nRejected
+              + "\n");
+      ArrayList<Reservation> biggest = new ArrayList<>();
+      for (Reservation r : reservations) if (r.nBytes > 0) biggest.add(r);
+      biggest.sort((a, b) -> Long.compare(b.nBytes, a.nBytes));
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < Math.min(5, biggest.size()); i++) {
+        Reservation r = biggest.get(i);
+        sb.append(
+            "  "
+                + String2.left(r.owner, 12)
+                + String2.right("" + (r.nBytes / Math2.BytesPerMB), 8)
+                + " MB for "
+                + Calendar2.elapsedTimeString(now - r.startMillis)
+                + "\n");
+      }
+      return sb.toString();
+    } finally {
+      lock.unlock();
+    }
+  }
+}
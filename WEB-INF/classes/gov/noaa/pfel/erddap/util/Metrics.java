@@ -0,0 +1,248 @@
+/*
+ * Metrics Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.String2;
+import com.cohort.util.WeightedCache;
+import gov.noaa.pfel.coastwatch.griddata.NcFileCache;
+import gov.noaa.pfel.erddap.dataset.GridTileCache;
+import io.prometheus.metrics.core.metrics.CounterWithCallback;
+import io.prometheus.metrics.core.metrics.GaugeWithCallback;
+import io.prometheus.metrics.core.metrics.Histogram;
+
+/**
+ * This registers ERDDAP's own metrics (in addition to the out-of-the-box JVM metrics) with the
+ * default Prometheus registry. They are visible at /erddap/metrics.
+ */
+public class Metrics {
+
+  private static boolean registered = false;
+
+  /** How long requests waited to be admitted by the AdmissionController. Set by register(). */
+  private static volatile Histogram admissionWait = null;
+
+  /**
+   * The AdmissionController calls this each time a request has finished waiting to be admitted.
+   *
+   * @param outcome "admitted" or "timeout"
+   * @param seconds the time the request waited
+   */
+  public static void observeAdmissionWait(String outcome, double seconds) {
+    Histogram tAdmissionWait = admissionWait;
+    if (tAdmissionWait != null) tAdmissionWait.labelValues(outcome).observe(seconds);
+  }
+
+  /** This registers the metrics. Calling this more than once has no additional effect. */
+  public static synchronized void register() {
+    if (registered) return;
+    registered = true;
+
+    // the server-wide WorkScheduler used by ThreadedWorkManager
+    GaugeWithCallback.builder()
+        .name("erddap_work_scheduler_queue_depth")
+        .help("Number of file-reading tasks waiting for a WorkScheduler thread")
+        .callback(
+            callback -> {
+              WorkScheduler ws = WorkScheduler.sharedIfExists(); // don't recreate it
+              if (ws != null) callback.call(ws.queueDepth());
+            })
+        .register();
+    GaugeWithCallback.builder()
+        .name("erddap_work_scheduler_active_tasks")
+        .help("Number of file-reading tasks currently running on WorkScheduler threads")
+        .callback(
+            callback -> {
+              WorkScheduler ws = WorkScheduler.sharedIfExists(); // don't recreate it
+              if (ws != null) callback.call(ws.nActive());
+            })
+        .register();
+    GaugeWithCallback.builder()
+        .name("erddap_work_scheduler_threads")
+        .help("Number of WorkScheduler threads that currently exist")
+        .callback(
+            callback -> {
+              WorkScheduler ws = WorkScheduler.sharedIfExists(); // don't recreate it
+              if (ws != null) callback.call(ws.nThreads());
+            })
+        .register();
+
+    // the AdmissionController (Erddap.doGet's "on-ramp metering")
+    admissionWait =
+        Histogram.builder()
+            .name("erddap_admission_wait_seconds")
+            .help("Time requests waited for a free slot (per IP address or global active limit)")
+            .labelNames("outcome")
+            .classicOnly()
+            .classicUpperBounds(AdmissionController.WAIT_BUCKETS)
+            .register();
+    GaugeWithCallback.builder()
+        .name("erddap_admission_active_requests")
+        .help("Number of requests currently admitted by the AdmissionController")
+        .callback(callback -> callback.call(EDStatic.admissionController.nActive()))
+        .register();
+    GaugeWithCallback.builder()
+        .name("erddap_admission_waiting_requests")
+        .help("Number of requests currently waiting to be admitted")
+        .callback(callback -> callback.call(EDStatic.admissionController.nWaiting()))
+        .register();
+
+    // the MemoryBudget (see EDStatic.shedThisRequest)
+    GaugeWithCallback.builder()
+        .name("erddap_memory_budget_bytes")
+        .help("Number of bytes that active requests may reserve")
+        .callback(callback -> callback.call(EDStatic.memoryBudget.budget()))
+        .register();
+    GaugeWithCallback.builder()
+        .name("erddap_memory_reserved_bytes")
+        .help("Number of bytes currently reserved by active requests")
+        .callback(callback -> callback.call(EDStatic.memoryBudget.reservedBytes()))
+        .register();
+    GaugeWithCallback.builder()
+        .name("erddap_memory_reservations_waiting")
+        .help("Number of memory reservations currently waiting for memory")
+        .callback(callback -> callback.call(EDStatic.memoryBudget.nWaiting()))
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_memory_reservations_rejected")
+        .help("Number of memory reservations which timed out")
+        .callback(callback -> callback.call(EDStatic.memoryBudget.nRejected()))
+        .register();
+
+    // the named WeightedCaches (e.g., GSHHS and Boundaries)
+    GaugeWithCallback.builder()
+        .name("erddap_cache_entries")
+        .help("Number of entries in the cache")
+        .labelNames("cache")
+        .callback(
+            callback -> WeightedCache.caches().forEach((n, c) -> callback.call(c.size(), n)))
+        .register();
+    GaugeWithCallback.builder()
+        .name("erddap_cache_weight_bytes")
+        .help("Approximate number of bytes used by the values in the cache")
+        .labelNames("cache")
+        .callback(
+            callback -> WeightedCache.caches().forEach((n, c) -> callback.call(c.weight(), n)))
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_cache_hits")
+        .help("Number of cache lookups which found a value")
+        .labelNames("cache")
+        .callback(
+            callback -> WeightedCache.caches().forEach((n, c) -> callback.call(c.hitCount(), n)))
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_cache_misses")
+        .help("Number of cache lookups which didn't find a value")
+        .labelNames("cache")
+        .callback(
+            callback -> WeightedCache.caches().forEach((n, c) -> callback.call(c.missCount(), n)))
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_cache_evictions")
+        .help("Number of entries removed from the cache to make room for others")
+        .labelNames("cache")
+        .callback(
+            callback ->
+                WeightedCache.caches().forEach((n, c) -> callback.call(c.evictionCount(), n)))
+        .register();
+
+    // NcFileCache (open NetcdfFiles shared by requests)
+    GaugeWithCallback.builder()
+        .name("erddap_nc_file_cache_open_files")
+        .help("Number of NetcdfFiles kept open by the NcFileCache")
+        .labelNames("state")
+        .callback(
+            callback -> {
+              callback.call(NcFileCache.shared().nIdle(), "idle");
+              callback.call(NcFileCache.shared().nLeased(), "leased");
+            })
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_nc_file_cache_lookups")
+        .help("Number of NcFileCache lookups")
+        .labelNames("result")
+        .callback(
+            callback -> {
+              callback.call(NcFileCache.shared().nHits(), "hit");
+              callback.call(NcFileCache.shared().nMisses(), "miss");
+            })
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_nc_file_cache_closed")
+        .help("Number of cached NetcdfFiles closed because they were idle or invalidated")
+        .labelNames("reason")
+        .callback(
+            callback -> {
+              callback.call(NcFileCache.shared().nEvicted(), "evicted");
+              callback.call(NcFileCache.shared().nInvalidated(), "invalidated");
+            })
+        .register();
+
+    // GridTileCache (tiles of remote grid datasets' source data)
+    GaugeWithCallback.builder()
+        .name("erddap_grid_tile_cache_bytes")
+        .help("Number of bytes of tiles in the GridTileCache")
+        .labelNames("tier")
+        .callback(
+            callback -> {
+              GridTileCache cache = GridTileCache.sharedIfExists();
+              if (cache == null) return;
+              callback.call(cache.memoryBytes(), "memory");
+              callback.call(cache.diskBytes(), "disk");
+            })
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_grid_tile_cache_lookups")
+        .help("Number of GridTileCache tile lookups (and bypassed requests), per dataset")
+        .labelNames("dataset_id", "result")
+        .callback(
+            callback -> {
+              GridTileCache cache = GridTileCache.sharedIfExists();
+              if (cache == null) return;
+              cache
+                  .datasetStats()
+                  .forEach(
+                      (id, s) -> {
+                        callback.call(s.memoryHits(), id, "memory_hit");
+                        callback.call(s.diskHits(), id, "disk_hit");
+                        callback.call(s.misses(), id, "miss");
+                        callback.call(s.bypassed(), id, "bypassed");
+                      });
+            })
+        .register();
+
+    // String2.canonical() and canonicalStringHolder()
+    GaugeWithCallback.builder()
+        .name("erddap_canonical_size")
+        .help("Number of canonical (interned) Strings and StringHolders")
+        .labelNames("type")
+        .callback(
+            callback -> {
+              callback.call(String2.canonicalInterner().size(), "String");
+              callback.call(String2.canonicalStringHolderInterner().size(), "StringHolder");
+            })
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_canonical_lookups")
+        .help("Number of calls to String2.canonical() and canonicalStringHolder()")
+        .labelNames("type")
+        .callback(
+            callback -> {
+              callback.call(String2.canonicalInterner().nLookups(), "String");
+              callback.call(String2.canonicalStringHolderInterner().nLookups(), "StringHolder");
+            })
+        .register();
+    CounterWithCallback.builder()
+        .name("erddap_canonical_hits")
+        .help("Number of canonical lookups which found an existing canonical object")
+        .labelNames("type")
+        .callback(
+            callback -> {
+              callback.call(String2.canonicalInterner().nHits(), "String");
+              callback.call(String2.canonicalStringHolderInterner().nHits(), "StringHolder");
+            })
+        .register();
+  }
+}
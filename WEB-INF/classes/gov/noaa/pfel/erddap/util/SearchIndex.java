@@ -0,0 +1,218 @@
+/*
+ * SearchIndex Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * This is an in-memory inverted index of the datasets' searchBytes for the original search engine.
+ * For each 3-byte sequence (trigram) which occurs in any dataset's searchBytes, it has the sorted
+ * list of the datasets (postings) which contain it.
+ *
+ * <p>The original search engine's matching is substring matching (EDD.searchRank uses
+ * String2.indexOf), so a dataset can only match a search word (or phrase) of 3 or more bytes if it
+ * has all of the word's trigrams. candidates() intersects those postings, so the caller only has to
+ * run searchRank on the candidates (which are usually a small fraction of all datasets) to get the
+ * exact matches and the same ranks as before. A dataset which has none of a negative word's
+ * trigrams can't contain it; but a dataset which has them all may or may not contain it, so
+ * negative words are left to searchRank.
+ *
+ * <p>Datasets are added, replaced, and removed incrementally (see Erddap.addRemoveDatasetInfo).
+ * Each put() gets a new docN (so postings are always appended in order). Removed docNs are just
+ * marked as deleted until there are more deleted docNs than active ones, then the index is rebuilt.
+ *
+ * <p>This is thread-safe.
+ */
+public class SearchIndex {
+
+  /** The minimum number of bytes in a word for the index to be used for it. */
+  public static final int GRAM_LENGTH = 3;
+
+  /** A growable sorted list of docNs. */
+  private static final class Postings {
+    int docs[] = new int[2];
+    int size = 0;
+
+    void add(int docN) {
+      if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+      docs[size++] = docN;
+    }
+  }
+
+  // all of these are guarded by this
+  private final HashMap<String, Integer> idToDocN = new HashMap<>();
+  private final ArrayList<String> docNToID = new ArrayList<>(); // null if deleted
+  private final ArrayList<byte[]> docNToBytes = new ArrayList<>(); // null if deleted
+  private final HashMap<Integer, Postings> postings = new HashMap<>();
+  private int nDeleted = 0;
+  private long nPostings = 0;
+  private long nRebuilds = 0;
+
+  /**
+   * This adds (or replaces) a dataset's searchBytes.
+   *
+   * @param datasetID the datasetID
+   * @param searchBytes the dataset's (lowercase) searchBytes. The index keeps a reference to this
+   *     array, which must not be changed.
+   */
+  public synchronized void put(String datasetID, byte searchBytes[]) {
+    Integer oldDocN = idToDocN.get(datasetID);
+    if (oldDocN != null) {
+      if (docNToBytes.get(oldDocN) == searchBytes) return; // already indexed
+      delete(oldDocN);
+    }
+    int docN = docNToID.size();
+    docNToID.add(datasetID);
+    docNToBytes.add(searchBytes);
+    idToDocN.put(datasetID, docN);
+    int grams[] = distinctGrams(searchBytes);
+    for (int gram : grams) postings.computeIfAbsent(gram, k -> new Postings()).add(docN);
+    nPostings += grams.length;
+    if (nDeleted > 1000 && nDeleted > idToDocN.size()) rebuild();
+  }
+
+  /**
+   * This removes a dataset from the index (if it is in the index).
+   *
+   * @param datasetID the datasetID
+   */
+  public synchronized void remove(String datasetID) {
+    Integer docN = idToDocN.remove(datasetID);
+    if (docN != null) delete(docN);
+  }
+
+  /**
+   * This returns true if the dataset is in the index with exactly this searchBytes array (the same
+   * object, not just the same contents).
+   *
+   * @param datasetID the datasetID
+   * @param searchBytes the dataset's current searchBytes
+   * @return true if the index for this dataset is up-to-date
+   */
+  public synchronized boolean isCurrent(String datasetID, byte searchBytes[]) {
+    Integer docN = idToDocN.get(datasetID);
+    return docN != null && docNToBytes.get(docN) == searchBytes;
+  }
+
+  /**
+   * This returns the datasetIDs of the indexed datasets which may match all of the non-negative
+   * words.
+   *
+   * @param isNegative isNegative[w] is true if words[w] is a negative search word
+   * @param words the search words or phrases (already lowercase) as UTF-8 bytes
+   * @return the datasetIDs of the indexed datasets which have all of the trigrams of all of the
+   *     non-negative words, or null if there are no non-negative words with GRAM_LENGTH or more
+   *     bytes (so the index can't narrow the search).
+   */
+  public synchronized HashSet<String> candidates(boolean isNegative[], byte words[][]) {
+    // gather the postings lists of all the trigrams
+    ArrayList<Postings> lists = new ArrayList<>();
+    for (int w = 0; w < words.length; w++) {
+      if (isNegative[w] || words[w].length < GRAM_LENGTH) continue;
+      for (int gram : distinctGrams(words[w])) {
+        Postings p = postings.get(gram);
+        if (p == null) return new HashSet<>(); // no dataset has this trigram
+        lists.add(p);
+      }
+    }
+    if (lists.isEmpty()) return null;
+
+    // intersect them, starting with the shortest
+    lists.sort((a, b) -> Integer.compare(a.size, b.size));
+    Postings shortest = lists.get(0);
+    BitSet bitSet = new BitSet(docNToID.size());
+    for (int i = 0; i < shortest.size; i++) bitSet.set(shortest.docs[i]);
+    for (int li = 1; li < lists.size() && !bitSet.isEmpty(); li++) {
+      Postings p = lists.get(li);
+      BitSet next = new BitSet(docNToID.size());
+      for (int i = 0; i < p.size; i++) if (bitSet.get(p.docs[i])) next.set(p.docs[i]);
+      bitSet = next;
+    }
+
+    HashSet<String> results = new HashSet<>(Math.max(16, bitSet.cardinality() * 2));
+    for (int docN = bitSet.nextSetBit(0); docN >= 0; docN = bitSet.nextSetBit(docN + 1)) {
+      String id = docNToID.get(docN);
+      if (id != null) results.add(id);
+    }
+    return results;
+  }
+
+  /** This returns the number of datasets in the index. */
+  public synchronized int size() {
+    return idToDocN.size();
+  }
+
+  /** This removes all datasets from the index. */
+  public synchronized void clear() {
+    idToDocN.clear();
+    docNToID.clear();
+    docNToBytes.clear();
+    postings.clear();
+    nDeleted = 0;
+    nPostings = 0;
+  }
+
+  /** This returns a one line summary of the index (for status.html). */
+  public synchronized String statsString() {
+    return "Search index: nDatasets="
+        + idToDocN.size()
+        + ", nDeleted="
+        + nDeleted
+        + ", nTrigrams="
+        + postings.size()
+        + ", nPostings="
+        + nPostings
+        + ", nRebuilds="
+        + nRebuilds
+        + "\n";
+  }
+
+  private void delete(int docN) {
+    docNToID.set(docN, null);
+    docNToBytes.set(docN, null);
+    nDeleted++;
+  }
+
+  /** This rebuilds the index from the active datasets, so deleted docNs are removed. */
+  private void rebuild() {
+    ArrayList<String> ids = new ArrayList<>();
+    ArrayList<byte[]> bytes = new ArrayList<>();
+    for (int docN = 0; docN < docNToID.size(); docN++) {
+      if (docNToID.get(docN) != null) {
+        ids.add(docNToID.get(docN));
+        bytes.add(docNToBytes.get(docN));
+      }
+    }
+    clear();
+    nRebuilds++;
+    for (int i = 0; i < ids.size(); i++) put(ids.get(i), bytes.get(i));
+  }
+
+  /**
+   * This returns the sorted distinct trigrams in the bytes.
+   *
+   * @param bytes some bytes
+   * @return the sorted distinct trigrams (each packed into the low 24 bits of an int)
+   */
+  static int[] distinctGrams(byte bytes[]) {
+    int n = bytes.length - GRAM_LENGTH + 1;
+    if (n <= 0) return new int[0];
+    int grams[] = new int[n];
+    int gram = ((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF);
+    for (int i = 0; i < n; i++) {
+      gram = ((gram << 8) | (bytes[i + 2] & 0xFF)) & 0xFFFFFF;
+      grams[i] = gram;
+    }
+    Arrays.sort(grams);
+    int nDistinct = 0;
+    for (int i = 0; i < n; i++)
+      if (i == 0 || grams[i] != grams[nDistinct - 1]) grams[nDistinct++] = grams[i];
+    return Arrays.copyOf(grams, nDistinct);
+  }
+}
@@ -4,32 +4,47 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 
+/**
+ * This manages the tasks for one request. If nThreads &gt; 1, the tasks are run by the server-wide
+ * WorkScheduler (with at most nThreads of them active at once) and the results are processed in
+ * the order the tasks were added. Otherwise, each task is run and processed as it is added.
+ */
 public class ThreadedWorkManager<T> {
-  ExecutorService executorService = null;
+  WorkScheduler.Client schedulerClient = null;
   List<FutureTask<T>> taskList = new ArrayList<>();
   WorkConsumer<T> processor;
 
   int completed = 0;
 
   public ThreadedWorkManager(int nThreads, WorkConsumer<T> processResult) {
-    if (nThreads > 1) {
-      executorService = Executors.newFixedThreadPool(nThreads);
+    this(null, nThreads, processResult);
+  }
+
+  /**
+   * The constructor.
+   *
+   * @param group the name of the group (usually the datasetID) used by the WorkScheduler to share
+   *     threads fairly between datasets. null is treated as "".
+   * @param nThreads the maximum number of this request's tasks that may run at once
+   * @param processResult the consumer of the results
+   */
+  public ThreadedWorkManager(String group, int nThreads, WorkConsumer<T> processResult) {
+    // A task running on a WorkScheduler thread must not wait for other tasks on the
+    // same pool (which could deadlock if the pool is full), so it does its work inline.
+    if (nThreads > 1 && !WorkScheduler.isWorkerThread()) {
+      schedulerClient = WorkScheduler.shared().newClient(group, nThreads);
     }
     processor = processResult;
   }
 
   public void addTask(Callable<T> callable) throws Exception, Throwable {
-    // If we're threaded add the work to the thread.
-    if (executorService != null) {
+    // If we're threaded add the work to the shared scheduler.
+    if (schedulerClient != null) {
       FutureTask<T> task = new FutureTask<T>(callable);
       taskList.add(task);
-      if (executorService != null) {
-        executorService.submit(task);
-      }
+      schedulerClient.submit(task);
     } else {
       // No threading here, just do the work and process it.
       processor.accept(callable.call());
@@ -48,14 +63,14 @@ public class ThreadedWorkManager<T> {
   }
 
   public void finishedEnqueing() {
-    if (executorService != null) {
-      executorService.shutdown();
+    if (schedulerClient != null) {
+      schedulerClient.close();
     }
   }
 
   public void forceShutdown() {
-    if (executorService != null) {
-      executorService.shutdownNow();
+    if (schedulerClient != null) {
+      schedulerClient.cancelAll();
     }
   }
 
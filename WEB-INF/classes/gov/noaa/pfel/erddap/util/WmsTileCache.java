@@ -0,0 +1,714 @@
+/*
+ * WmsTileCache Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.File2;
+import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.dataset.EDD;
+import gov.noaa.pfel.erddap.dataset.EDDGrid;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVGridAxis;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This caches the images of WMS GetMap requests which are tiles of a fixed EPSG:4326 tile grid
+ * (the grid that tiled clients like Leaflet with L.CRS.EPSG4326 use), so that the many requests for
+ * the same tiles of a dataset (e.g., the latest time point at low zoom levels) are rendered just
+ * once, even after the dataset is reloaded.
+ *
+ * <p>At zoom level z, each tile is 180/2^z degrees wide and high, and the tiles are aligned to
+ * longitude=-180 and latitude=-90 (so tiles extend to longitude=360 for 0..360 datasets). A
+ * request is treated as a tile if its width equals its height and its BBOX is within SNAP_TOLERANCE
+ * pixels of a tile's bounds. The image is then drawn for the tile's exact bounds.
+ *
+ * <p>A tile's file name is based on the layers, transparent, bgcolor, image size, the tile, and
+ * the actual values (not the requested values) of the dataset's other axes (e.g., time), so
+ * "current" and an explicit time for the last time point share tiles, and a new time point at the
+ * end of the time axis just leads to new tiles. The images are stored in
+ * [bigParentDirectory]/cache/_wms/_tiles/[datasetID]/ (not the dataset's cache directory, which is
+ * emptied whenever the dataset is reloaded), bounded by bytes, Least-Recently-Used first.
+ *
+ * <p>Whenever a dataset is loaded (see Erddap.addRemoveDatasetInfo) or its axis values change, its
+ * axis values, its data files, and the attributes which affect rendering are compared to the ones
+ * that its cached tiles were made for. If any of the old axis values have changed (values appended
+ * to axes other than longitude and latitude are okay), any of the old data files have changed
+ * (e.g., a file was rewritten in place; new files are okay), any of those attributes have changed,
+ * or its access settings (e.g., accessibleTo) have changed, the dataset's tiles are removed. For
+ * datasets without a fileTable (see fileHashes), the tiles are removed whenever the dataset is
+ * reloaded. Then, if the dataset (or its graphs) is public, some of the missing tiles for zoom
+ * levels 0 through PRERENDER_MAX_ZOOM of the latest values of the other axes are rendered in the
+ * background (one tile at a time, at most PRERENDER_MAX_TILES per change, pausing between tiles),
+ * as the dataset's Leaflet demo page requests them.
+ *
+ * <p>This is thread-safe.
+ */
+public class WmsTileCache {
+
+  /** The maximum zoom level of the tile grid. */
+  public static final int MAX_ZOOM = 28;
+
+  /** A request's BBOX may differ from a tile's bounds by up to this fraction of a pixel. */
+  public static final double SNAP_TOLERANCE = 0.1;
+
+  /** The background renderer renders tiles for zoom levels 0 through this. */
+  public static final int PRERENDER_MAX_ZOOM = 1;
+
+  /** The background renderer renders at most this many tiles each time a dataset changes. */
+  public static final int PRERENDER_MAX_TILES = 32;
+
+  /** The size (in pixels) of the pre-rendered tiles. */
+  public static final int PRERENDER_SIZE = 256;
+
+  /** The bgcolor of the pre-rendered (transparent) tiles, as the Leaflet demo page requests. */
+  public static final int PRERENDER_BGCOLOR = 0x808080;
+
+  private static WmsTileCache shared = null; // guarded by WmsTileCache.class
+
+  /** One tile of the tile grid. */
+  public record Tile(int z, int x, int y) {
+    /** The width and height of the tile (in degrees). */
+    public double span() {
+      return Math.scalb(180.0, -z);
+    }
+
+    public double minLon() {
+      return -180 + x * span();
+    }
+
+    public double maxLon() {
+      return -180 + (x + 1) * span();
+    }
+
+    public double minLat() {
+      return -90 + y * span();
+    }
+
+    public double maxLat() {
+      return -90 + (y + 1) * span();
+    }
+  }
+
+  /**
+   * A request for a tile.
+   *
+   * @param datasetID the datasetID
+   * @param tile the tile
+   * @param key everything which affects the tile's image
+   */
+  public record TileRequest(String datasetID, Tile tile, String key) {
+    /** The name of the image file (without directory or extension). */
+    public String fileName() {
+      return "tile_" + String2.md5Hex12(key);
+    }
+  }
+
+  /** This renders a tile for the background renderer. */
+  public interface Renderer {
+    /**
+     * This renders one data variable's image for the tile (for the last value of each of the other
+     * axes) and saves it as fullName + ".png".
+     *
+     * @param eddGrid the dataset
+     * @param dvi the index of the data variable
+     * @param tile the tile
+     * @param size the width and height of the image (in pixels)
+     * @param transparent if true, bgColori pixels are made transparent
+     * @param bgColori the background color (0xRRGGBB)
+     * @param fullName the directory + name of the file (without extension)
+     */
+    void render(
+        EDDGrid eddGrid,
+        int dvi,
+        Tile tile,
+        int size,
+        boolean transparent,
+        int bgColori,
+        String fullName)
+        throws Throwable;
+  }
+
+  /**
+   * The axis values, data files (see fileHashes), rendering attributes, and access settings that a
+   * dataset's cached tiles are for.
+   */
+  private record Registration(
+      EDDGrid eddGrid,
+      PrimitiveArray[] axisValues,
+      long[] fileHashes,
+      String renderingAtts,
+      String accessSettings) {}
+
+  private final long maxDiskBytes;
+  private final String dir;
+  private final ConcurrentHashMap<String, Registration> registrations = new ConcurrentHashMap<>();
+  private final Set<String> pendingPrerenders = ConcurrentHashMap.newKeySet();
+  private final ExecutorService prerenderer;
+
+  // fullName (with extension) -> nBytes, in Least-Recently-Used order. guarded by files
+  private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(16, 0.75f, true);
+  private long diskBytes = 0; // guarded by files
+
+  private final LongAdder nHits = new LongAdder();
+  private final LongAdder nMisses = new LongAdder();
+  private final LongAdder nPrerendered = new LongAdder();
+  private final LongAdder nInvalidated = new LongAdder();
+
+  /**
+   * The constructor. The directory is emptied.
+   *
+   * @param maxDiskBytes the maximum number of bytes of tiles kept on disk
+   * @param tDir the directory for the tiles (with slash at end)
+   */
+  public WmsTileCache(long maxDiskBytes, String tDir) {
+    this.maxDiskBytes = maxDiskBytes;
+    dir = tDir;
+    File2.makeDirectory(dir);
+    File2.deleteAllFiles(dir, true, true);
+    prerenderer =
+        Executors.newSingleThreadExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "WmsTileCache prerenderer");
+              thread.setDaemon(true);
+              thread.setPriority(Thread.MIN_PRIORITY);
+              return thread;
+            });
+  }
+
+  /**
+   * This returns the server-wide cache, based on the current EDStatic.wmsTileCacheMB setting (and
+   * makes a new cache if it has changed).
+   *
+   * @return the shared cache, or null if the setting is 0 (the default)
+   */
+  public static synchronized WmsTileCache shared() {
+    long tDiskBytes = (long) EDStatic.wmsTileCacheMB * Math2.BytesPerMB;
+    if (tDiskBytes <= 0) {
+      if (shared != null) shared.clear();
+      shared = null;
+    } else if (shared == null || shared.maxDiskBytes != tDiskBytes) {
+      if (shared != null) shared.clear();
+      shared = new WmsTileCache(tDiskBytes, EDStatic.fullWmsCacheDirectory + "_tiles/");
+    }
+    return shared;
+  }
+
+  /**
+   * This returns the server-wide cache (without creating it).
+   *
+   * @return the shared cache, or null if none
+   */
+  public static synchronized WmsTileCache sharedIfExists() {
+    return shared;
+  }
+
+  /**
+   * This returns the tile which matches a request's BBOX and image size.
+   *
+   * @return the tile, or null if the request isn't for a tile
+   */
+  public static Tile snap(
+      double minx, double miny, double maxx, double maxy, int width, int height) {
+    if (width != height || !(maxx > minx) || !(maxy > miny)) return null;
+    long lz = Math.round(Math.log(180 / (maxx - minx)) / Math.log(2));
+    if (lz < 0 || lz > MAX_ZOOM) return null;
+    int z = (int) lz;
+    double span = Math.scalb(180.0, -z);
+    double tx = Math.rint((minx + 180) / span);
+    double ty = Math.rint((miny + 90) / span);
+    if (tx < 0 || tx >= 3L << z || ty < 0 || ty >= 1L << z) return null; // lon -180..360
+    Tile tile = new Tile(z, (int) tx, (int) ty);
+    double tolerance = SNAP_TOLERANCE * span / width;
+    if (Math.abs(minx - tile.minLon()) > tolerance
+        || Math.abs(maxx - tile.maxLon()) > tolerance
+        || Math.abs(miny - tile.minLat()) > tolerance
+        || Math.abs(maxy - tile.maxLat()) > tolerance) return null;
+    return tile;
+  }
+
+  /**
+   * This finds the index of the value of one of the dataset's axes (other than longitude and
+   * latitude) for a WMS request, as doWmsGetMap does.
+   *
+   * @param eddGrid the dataset
+   * @param avi the index of the axis variable
+   * @param queryMap the request's name=value pairs (names are lowercase)
+   * @return the index, or -1 if the requested value is out of range
+   */
+  public static int wmsAxisIndex(EDDGrid eddGrid, int avi, Map<String, String> queryMap) {
+    EDVGridAxis av = eddGrid.axisVariables()[avi];
+    String tAvName =
+        avi == eddGrid.altIndex() || avi == eddGrid.depthIndex() // convert depth to elevation
+            ? "elevation"
+            : avi == eddGrid.timeIndex()
+                ? "time"
+                : "dim_" + av.destinationName().toLowerCase(); // case-insensitive for queryMap
+    String tValueS = queryMap.get(tAvName);
+    if (tValueS == null || (avi == eddGrid.timeIndex() && tValueS.toLowerCase().equals("current")))
+      return av.sourceValues().size() - 1; // default is always the last value
+    double tValueD = av.destinationToDouble(tValueS); // e.g., iso time -> epoch seconds
+    if (avi == eddGrid.depthIndex()) tValueD = -tValueD;
+    if (Double.isNaN(tValueD)
+        || tValueD < av.destinationCoarseMin()
+        || tValueD > av.destinationCoarseMax()) return -1;
+    return av.destinationToClosestIndex(tValueD);
+  }
+
+  /**
+   * This returns the TileRequest for a WMS GetMap request, if it is for a tile and the cache can be
+   * used for it.
+   *
+   * @param eddGrid the dataset whose WMS service got the request
+   * @param layers the requested layers. Data layers must all be from eddGrid.
+   * @param transparent the request's transparent value
+   * @param bgColori the request's bgcolor value (0xRRGGBB)
+   * @param queryMap the request's name=value pairs (names are lowercase)
+   * @param minx the request's BBOX
+   * @param miny the request's BBOX
+   * @param maxx the request's BBOX
+   * @param maxy the request's BBOX
+   * @param width the request's width
+   * @param height the request's height
+   * @param renderer renders tiles in the background (if the dataset's axis values have changed)
+   * @return the TileRequest, or null if the request isn't for a tile
+   */
+  public TileRequest tileRequest(
+      EDDGrid eddGrid,
+      String layers[],
+      boolean transparent,
+      int bgColori,
+      Map<String, String> queryMap,
+      double minx,
+      double miny,
+      double maxx,
+      double maxy,
+      int width,
+      int height,
+      Renderer renderer) {
+    if (eddGrid == null || eddGrid.lonIndex() < 0 || eddGrid.latIndex() < 0) return null;
+    Tile tile = snap(minx, miny, maxx, maxy, width, height);
+    if (tile == null) return null;
+    String datasetID = eddGrid.datasetID();
+    for (String layer : layers) {
+      int spo = layer.indexOf(EDD.WMS_SEPARATOR);
+      if (spo >= 0 && !layer.substring(0, spo).equals(datasetID)) return null;
+    }
+    register(eddGrid, renderer);
+    return makeTileRequest(
+        eddGrid, String.join(",", layers), transparent, bgColori, queryMap, tile, width);
+  }
+
+  private static TileRequest makeTileRequest(
+      EDDGrid eddGrid,
+      String layersCsv,
+      boolean transparent,
+      int bgColori,
+      Map<String, String> queryMap,
+      Tile tile,
+      int size) {
+    StringBuilder key = new StringBuilder();
+    key.append(eddGrid.datasetID())
+        .append('|')
+        .append(layersCsv)
+        .append('|')
+        .append(transparent)
+        .append('|')
+        .append(Integer.toHexString(bgColori))
+        .append('|')
+        .append(size)
+        .append('|')
+        .append(tile.z())
+        .append('/')
+        .append(tile.x())
+        .append('/')
+        .append(tile.y());
+    EDVGridAxis ava[] = eddGrid.axisVariables();
+    for (int avi = 0; avi < ava.length; avi++) {
+      if (avi == eddGrid.lonIndex() || avi == eddGrid.latIndex()) continue;
+      int index = wmsAxisIndex(eddGrid, avi, queryMap);
+      key.append('|').append(index < 0 ? "out" : "" + ava[avi].destinationDouble(index));
+    }
+    return new TileRequest(eddGrid.datasetID(), tile, key.toString());
+  }
+
+  /**
+   * This returns the directory for a dataset's tiles.
+   *
+   * @param datasetID the datasetID
+   * @return the directory (with slash at end)
+   */
+  public String directory(String datasetID) {
+    return dir + datasetID + "/";
+  }
+
+  /**
+   * This notes that a tile's image was found in the cache (and touches the file so it isn't
+   * removed as an old file in the cache directory).
+   */
+  public void hit(TileRequest tileRequest) {
+    String fullName = directory(tileRequest.datasetID()) + tileRequest.fileName() + ".png";
+    File2.touch(fullName);
+    synchronized (files) {
+      files.get(fullName); // marks it as recently used
+    }
+    nHits.increment();
+  }
+
+  /**
+   * This notes that a tile's image was rendered and saved in the cache (and removes the least
+   * recently used tiles if needed).
+   */
+  public void added(TileRequest tileRequest) {
+    nMisses.increment();
+    addFile(directory(tileRequest.datasetID()) + tileRequest.fileName() + ".png");
+  }
+
+  private void addFile(String fullName) {
+    long nBytes = File2.length(fullName);
+    if (nBytes <= 0) return;
+    ArrayList<String> toDelete = new ArrayList<>();
+    synchronized (files) {
+      Long old = files.put(fullName, nBytes);
+      diskBytes += nBytes - (old == null ? 0 : old);
+      Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+      while (diskBytes > maxDiskBytes && it.hasNext()) {
+        Map.Entry<String, Long> entry = it.next();
+        toDelete.add(entry.getKey());
+        diskBytes -= entry.getValue();
+        it.remove();
+      }
+    }
+    for (String name : toDelete) File2.delete(name);
+  }
+
+  /**
+   * This is called when a dataset is loaded or reloaded. If the dataset's axis values or rendering
+   * attributes have changed, its tiles are removed. Then the missing tiles for the latest values of
+   * the other axes are rendered in the background.
+   *
+   * @param eddGrid the dataset
+   * @param renderer renders the tiles
+   */
+  public void datasetLoaded(EDDGrid eddGrid, Renderer renderer) {
+    register(eddGrid, renderer);
+  }
+
+  /** This ensures the dataset's registration is up-to-date. */
+  private void register(EDDGrid eddGrid, Renderer renderer) {
+    String datasetID = eddGrid.datasetID();
+    EDVGridAxis ava[] = eddGrid.axisVariables();
+    PrimitiveArray axisValues[] = new PrimitiveArray[ava.length];
+    for (int avi = 0; avi < ava.length; avi++) axisValues[avi] = ava[avi].sourceValues();
+    synchronized (registrations) {
+      Registration old = registrations.get(datasetID);
+      if (old != null && old.eddGrid() == eddGrid && sameArrays(old.axisValues(), axisValues))
+        return;
+      long fileHashes[] = fileHashes(eddGrid);
+      String renderingAtts = renderingAtts(eddGrid);
+      String accessSettings =
+          accessSettings(
+              eddGrid.getAccessibleTo(),
+              eddGrid.graphsAccessibleToPublic(),
+              eddGrid.accessibleViaWMS());
+      if (old != null
+          && (!sameFiles(old, eddGrid, fileHashes)
+              || !renderingAtts.equals(old.renderingAtts())
+              || !accessSettings.equals(old.accessSettings())
+              || !isExtension(eddGrid, old.axisValues(), axisValues))) removeTiles(datasetID);
+      registrations.put(
+          datasetID,
+          new Registration(eddGrid, axisValues, fileHashes, renderingAtts, accessSettings));
+    }
+    if (pendingPrerenders.add(datasetID)) {
+      try {
+        prerenderer.execute(
+            () -> {
+              pendingPrerenders.remove(datasetID);
+              try {
+                prerender(datasetID, renderer);
+              } catch (InterruptedException e) {
+                // this cache has been cleared (replaced)
+              } catch (Throwable t) {
+                String2.log(
+                    String2.ERROR
+                        + " in WmsTileCache prerenderer for datasetID="
+                        + datasetID
+                        + "\n"
+                        + MustBe.throwableToString(t));
+              }
+            });
+      } catch (RejectedExecutionException e) {
+        // this cache has been cleared (replaced)
+      }
+    }
+  }
+
+  /**
+   * For datasets with a fileTable (e.g., EDDGridFromFiles), this returns a sorted array with a hash
+   * of each file's dirIndex, fileName, lastMod, and size, so that changed files (e.g., a file
+   * rewritten in place) can be detected.
+   *
+   * @param eddGrid the dataset
+   * @return the sorted hashes, or null if the dataset doesn't have a fileTable
+   */
+  static long[] fileHashes(EDDGrid eddGrid) {
+    try {
+      Table fileTable = eddGrid.getFileTable();
+      return fileTable == null ? null : fileHashes(fileTable);
+    } catch (Throwable t) {
+      String2.log(
+          "WmsTileCache couldn't get the fileTable of datasetID="
+              + eddGrid.datasetID()
+              + ": "
+              + t.toString());
+      return null;
+    }
+  }
+
+  /**
+   * This returns a sorted array with a hash of the dirIndex, fileName, lastMod, and size columns
+   * (the first 4 columns) of each row of an EDDGridFromFiles fileTable.
+   *
+   * @param fileTable the fileTable
+   * @return the sorted hashes
+   */
+  static long[] fileHashes(Table fileTable) {
+    int nCols = Math.min(4, fileTable.nColumns());
+    int nRows = fileTable.nRows();
+    long hashes[] = new long[nRows];
+    for (int row = 0; row < nRows; row++) {
+      long hash = 0;
+      for (int col = 0; col < nCols; col++)
+        hash = hash * 1000003 + fileTable.getColumn(col).getString(row).hashCode();
+      hashes[row] = hash;
+    }
+    Arrays.sort(hashes);
+    return hashes;
+  }
+
+  /**
+   * This returns true if all of the files that the old registration's tiles were made from are
+   * unchanged (new files are okay). Datasets without a fileTable must be the same instance.
+   */
+  private static boolean sameFiles(Registration old, EDDGrid eddGrid, long fileHashes[]) {
+    if (old.fileHashes() == null || fileHashes == null)
+      return old.fileHashes() == null && fileHashes == null && old.eddGrid() == eddGrid;
+    for (long hash : old.fileHashes()) if (Arrays.binarySearch(fileHashes, hash) < 0) return false;
+    return true;
+  }
+
+  /**
+   * This renders some of the dataset's missing low zoom level tiles for the latest axis values:
+   * zoom level 0 for all data variables first, then zoom level 1, ..., up to PRERENDER_MAX_TILES
+   * tiles. After each tile, this sleeps as long as the tile took to render, so it uses at most
+   * about half of one core.
+   */
+  private void prerender(String datasetID, Renderer renderer) throws Throwable {
+    Registration reg = registrations.get(datasetID);
+    if (reg == null) return;
+    EDDGrid eddGrid = reg.eddGrid();
+    if (eddGrid.lonIndex() < 0
+        || eddGrid.latIndex() < 0
+        || eddGrid.accessibleViaWMS().length() > 0
+        || !isPublic(eddGrid.getAccessibleTo(), eddGrid.graphsAccessibleToPublic())) return;
+    EDVGridAxis lonAxis = eddGrid.axisVariables()[eddGrid.lonIndex()];
+    EDVGridAxis latAxis = eddGrid.axisVariables()[eddGrid.latIndex()];
+    HashMap<String, String> queryMap = new HashMap<>(); // so the last values
+    EDV dataVariables[] = eddGrid.dataVariables();
+    int nRendered = 0;
+    for (int z = 0; z <= PRERENDER_MAX_ZOOM; z++) {
+      for (int dvi = 0; dvi < dataVariables.length; dvi++) {
+        if (!dataVariables[dvi].hasColorBarMinMax()) continue;
+        String layer = datasetID + EDD.WMS_SEPARATOR + dataVariables[dvi].destinationName();
+        int nTiles = 1 << z;
+        for (int y = 0; y < nTiles; y++) {
+          for (int x = 0; x < 3 * nTiles; x++) { // to lon=360
+            if (registrations.get(datasetID) != reg) return; // the dataset has changed
+            Tile tile = new Tile(z, x, y);
+            // doWmsGetMap doesn't draw a layer if the tile is out of the dataset's range
+            if (tile.maxLon() <= lonAxis.destinationMinDouble()
+                || tile.minLon() >= lonAxis.destinationMaxDouble()
+                || tile.maxLat() <= latAxis.destinationMinDouble()
+                || tile.minLat() >= latAxis.destinationMaxDouble()) continue;
+            TileRequest tileRequest =
+                makeTileRequest(
+                    eddGrid, layer, true, PRERENDER_BGCOLOR, queryMap, tile, PRERENDER_SIZE);
+            String fullName = directory(datasetID) + tileRequest.fileName();
+            if (File2.isFile(fullName + ".png")) continue;
+            if (nRendered++ >= PRERENDER_MAX_TILES) return;
+            File2.makeDirectory(directory(datasetID));
+            long time = System.currentTimeMillis();
+            renderer.render(
+                eddGrid, dvi, tile, PRERENDER_SIZE, true, PRERENDER_BGCOLOR, fullName);
+            addFile(fullName + ".png");
+            nPrerendered.increment();
+            Thread.sleep(System.currentTimeMillis() - time); // throttle
+          }
+        }
+      }
+    }
+  }
+
+  /** This returns the attributes which affect the rendering of the dataset's tiles. */
+  private static String renderingAtts(EDDGrid eddGrid) {
+    StringBuilder sb = new StringBuilder();
+    for (EDV edv : eddGrid.dataVariables()) {
+      sb.append(edv.destinationName());
+      for (String name :
+          new String[] {
+            "colorBarMinimum",
+            "colorBarMaximum",
+            "colorBarPalette",
+            "colorBarNSections",
+            "colorBarContinuous",
+            "colorBarScale"
+          }) sb.append('|').append(edv.combinedAttributes().getString(name));
+      sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  /**
+   * This returns true if anyone may see a dataset's WMS images, so its tiles may be rendered before
+   * anyone has asked for them.
+   *
+   * @param accessibleTo the dataset's accessibleTo (null if the dataset is public)
+   * @param graphsAccessibleToPublic the dataset's graphsAccessibleToPublic
+   * @return true if the dataset or its graphs are public
+   */
+  static boolean isPublic(String accessibleTo[], boolean graphsAccessibleToPublic) {
+    return accessibleTo == null || graphsAccessibleToPublic;
+  }
+
+  /**
+   * This returns the dataset's settings which affect who may see its tiles, so that the tiles are
+   * removed if the settings change (e.g., the dataset is made private).
+   *
+   * @param accessibleTo the dataset's accessibleTo (null if the dataset is public)
+   * @param graphsAccessibleToPublic the dataset's graphsAccessibleToPublic
+   * @param accessibleViaWMS the dataset's accessibleViaWMS ("" if it is accessible via WMS)
+   * @return a String with the settings
+   */
+  static String accessSettings(
+      String accessibleTo[], boolean graphsAccessibleToPublic, String accessibleViaWMS) {
+    return (accessibleTo == null ? "public" : String.join(",", accessibleTo))
+        + "|"
+        + graphsAccessibleToPublic
+        + "|"
+        + accessibleViaWMS;
+  }
+
+  private static boolean sameArrays(PrimitiveArray a[], PrimitiveArray b[]) {
+    if (a.length != b.length) return false;
+    for (int i = 0; i < a.length; i++) if (a[i] != b[i]) return false;
+    return true;
+  }
+
+  /**
+   * This returns true if the new axis values are the old ones, maybe with values appended (except
+   * for the longitude and latitude axes, which must be unchanged).
+   */
+  private static boolean isExtension(
+      EDDGrid eddGrid, PrimitiveArray oldValues[], PrimitiveArray newValues[]) {
+    if (oldValues.length != newValues.length) return false;
+    for (int avi = 0; avi < oldValues.length; avi++) {
+      PrimitiveArray o = oldValues[avi], n = newValues[avi];
+      if (o == n) continue;
+      int size = o.size();
+      if (n.size() < size
+          || ((avi == eddGrid.lonIndex() || avi == eddGrid.latIndex()) && n.size() != size)
+          || o.elementType() != n.elementType()) return false;
+      for (int i = 0; i < size; i++) if (!o.getString(i).equals(n.getString(i))) return false;
+    }
+    return true;
+  }
+
+  /**
+   * This removes a dataset's tiles from the cache (e.g., when the dataset is unloaded).
+   *
+   * @param datasetID the datasetID
+   */
+  public void invalidate(String datasetID) {
+    synchronized (registrations) {
+      registrations.remove(datasetID);
+      removeTiles(datasetID);
+    }
+  }
+
+  private void removeTiles(String datasetID) {
+    String tDir = directory(datasetID);
+    synchronized (files) {
+      Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<String, Long> entry = it.next();
+        if (entry.getKey().startsWith(tDir)) {
+          diskBytes -= entry.getValue();
+          it.remove();
+        }
+      }
+    }
+    File2.deleteAllFiles(tDir, true, true);
+    nInvalidated.increment();
+  }
+
+  /** This removes all the tiles from the cache and stops the background renderer. */
+  public void clear() {
+    prerenderer.shutdownNow();
+    registrations.clear();
+    synchronized (files) {
+      files.clear();
+      diskBytes = 0;
+    }
+    File2.deleteAllFiles(dir, true, true);
+  }
+
+  /** This returns the number of bytes of tiles on disk. */
+  public long diskBytes() {
+    synchronized (files) {
+      return diskBytes;
+    }
+  }
+
+  /** This returns a one line summary of the statistics. */
+  public String statsString() {
+    long hits = nHits.sum(), misses = nMisses.sum();
+    int nFiles;
+    synchronized (files) {
+      nFiles = files.size();
+    }
+    return "WmsTileCache: diskMB="
+        + (diskBytes() / Math2.BytesPerMB)
+        + " (max "
+        + (maxDiskBytes / Math2.BytesPerMB)
+        + "), nFiles="
+        + nFiles
+        + ", nDatasets="
+        + registrations.size()
+        + ", nHits="
+        + hits
+        + ", nMisses="
+        + misses
+        + ", hitRate="
+        + (hits + misses == 0 ? "NaN" : "" + Math2.roundTo(hits / (double) (hits + misses), 3))
+        + ", nPrerendered="
+        + nPrerendered.sum()
+        + ", nInvalidated="
+        + nInvalidated.sum();
+  }
+}
@@ -0,0 +1,456 @@
+/*
+ * WorkScheduler Copyright 2024, NOAA.
+ * See the LICENSE.txt file in this file's directory.
+ */
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.String2;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * This is a server-wide, size-bounded pool of worker threads that ThreadedWorkManagers submit
+ * their tasks to (instead of each request creating and tearing down its own thread pool).
+ *
+ * <p>Scheduling is round-robin at two levels: first across groups (usually datasetIDs) which have
+ * runnable work, then across the clients (usually one per request) within a group. Each client
+ * also has its own maximum number of active tasks (its nThreads), so one big request can't use
+ * all of the threads while other requests wait.
+ *
+ * <p>Worker threads are daemon threads which are created lazily, up to maxThreads.
+ */
+public class WorkScheduler {
+
+  /**
+   * Set this to true (by calling verbose=true in your program, not by changing the code here) if
+   * you want lots of diagnostic messages sent to String2.log.
+   */
+  public static boolean verbose = false;
+
+  /** The default maximum number of worker threads. */
+  public static final int DEFAULT_maxThreads =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  private static volatile WorkScheduler shared = null;
+
+  private final int maxThreads;
+  private final String threadNamePrefix;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition workAvailable = lock.newCondition();
+
+  // all of these are guarded by lock
+  private final HashMap<String, Group> groups = new HashMap<>();
+  private final ArrayDeque<Group> readyGroups = new ArrayDeque<>();
+  private boolean isShutdown = false;
+  private int nThreads = 0;
+  private int nIdleThreads = 0;
+  private int queueDepth = 0;
+  private int nActive = 0;
+  private long nCompleted = 0;
+
+  private final AtomicInteger threadNumber = new AtomicInteger(0);
+
+  /** A group of clients (e.g., all of the requests for one dataset). Guarded by lock. */
+  private static class Group {
+    final String name;
+    final ArrayDeque<Client> readyClients = new ArrayDeque<>();
+    int nClients = 0;
+    int nTasks = 0; // pending and running, of all of the clients (including closed ones)
+    boolean inReadyGroups = false;
+
+    Group(String name) {
+      this.name = name;
+    }
+  }
+
+  /**
+   * A Client is the scheduler's view of one ThreadedWorkManager. Use submit() to add tasks and
+   * close() when done.
+   */
+  public final class Client {
+    private final Group group;
+    private final int maxActive;
+    // these are guarded by WorkScheduler.lock
+    private final ArrayDeque<FutureTask<?>> pending = new ArrayDeque<>();
+    private final HashSet<FutureTask<?>> running = new HashSet<>();
+    private boolean inReadyClients = false;
+    private boolean closed = false;
+
+    private Client(Group group, int maxActive) {
+      this.group = group;
+      this.maxActive = Math.max(1, maxActive);
+    }
+
+    /**
+     * This adds a task to this client's queue. It will be run by one of the shared worker threads.
+     *
+     * @param task the task
+     * @throws IllegalStateException if this client has been closed
+     */
+    public void submit(FutureTask<?> task) {
+      lock.lock();
+      try {
+        if (closed) throw new IllegalStateException("WorkScheduler.Client has been closed.");
+        pending.addLast(task);
+        queueDepth++;
+        group.nTasks++;
+        makeReady(this);
+        ensureThreads();
+        workAvailable.signal();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * This cancels all of this client's pending tasks and interrupts its running tasks, then closes
+     * this client. This is safe to call more than once.
+     */
+    public void cancelAll() {
+      lock.lock();
+      try {
+        FutureTask<?> task;
+        while ((task = pending.pollFirst()) != null) {
+          queueDepth--;
+          group.nTasks--;
+          task.cancel(false);
+        }
+        for (FutureTask<?> runningTask : running) runningTask.cancel(true); // interrupts it
+        closeLocked();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /**
+     * This closes this client: no more tasks may be submitted, but already-submitted tasks will be
+     * run. This is safe to call more than once.
+     */
+    public void close() {
+      lock.lock();
+      try {
+        closeLocked();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void closeLocked() {
+      if (closed) return;
+      closed = true;
+      group.nClients--;
+      removeIfUnused(group);
+    }
+
+    /** This returns true if this client can start another task now. Requires lock. */
+    private boolean isRunnable() {
+      return !pending.isEmpty() && running.size() < maxActive;
+    }
+  }
+
+  /**
+   * The constructor. Most code should use shared() rather than making a new WorkScheduler.
+   *
+   * @param tMaxThreads the maximum number of worker threads (at least 1)
+   * @param tThreadNamePrefix the prefix for the names of the worker threads
+   */
+  public WorkScheduler(int tMaxThreads, String tThreadNamePrefix) {
+    maxThreads = Math.max(1, tMaxThreads);
+    threadNamePrefix = tThreadNamePrefix;
+  }
+
+  /**
+   * This returns the server-wide WorkScheduler, creating it (with EDStatic.workThreadPoolSize
+   * threads) if needed.
+   */
+  public static WorkScheduler shared() {
+    WorkScheduler ws = shared;
+    if (ws == null) {
+      synchronized (WorkScheduler.class) {
+        ws = shared;
+        if (ws == null) {
+          int tMax =
+              EDStatic.workThreadPoolSize >= 1 && EDStatic.workThreadPoolSize < Integer.MAX_VALUE
+                  ? EDStatic.workThreadPoolSize
+                  : DEFAULT_maxThreads;
+          ws = new WorkScheduler(tMax, "WorkScheduler");
+          shared = ws;
+          if (verbose) String2.log("WorkScheduler.shared() created with maxThreads=" + tMax);
+        }
+      }
+    }
+    return ws;
+  }
+
+  /**
+   * This returns the server-wide WorkScheduler if it exists, but doesn't create it (e.g., for
+   * metrics and statistics).
+   *
+   * @return the server-wide WorkScheduler, or null if it doesn't exist
+   */
+  public static WorkScheduler sharedIfExists() {
+    return shared;
+  }
+
+  /**
+   * This returns true if the current thread is one of this class's worker threads. Tasks running
+   * on a worker thread which need to do parallel work should do it inline (to avoid starving the
+   * pool).
+   */
+  public static boolean isWorkerThread() {
+    return Thread.currentThread() instanceof Worker;
+  }
+
+  /**
+   * This makes a new client.
+   *
+   * @param groupName the name of the group this client is in (e.g., the datasetID). null is
+   *     treated as "".
+   * @param maxActive the maximum number of this client's tasks which may be active at once
+   * @return a new Client
+   */
+  public Client newClient(String groupName, int maxActive) {
+    if (groupName == null) groupName = "";
+    lock.lock();
+    try {
+      Group group = groups.computeIfAbsent(groupName, Group::new);
+      group.nClients++;
+      return new Client(group, maxActive);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This tells the worker threads to stop once there is no more queued work (e.g., when ERDDAP is
+   * shutting down). Queued and running tasks are allowed to finish.
+   */
+  public void shutdown() {
+    lock.lock();
+    try {
+      isShutdown = true;
+      workAvailable.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This shuts down the server-wide WorkScheduler (if it exists). A new one is made if needed. */
+  public static void shutdownShared() {
+    synchronized (WorkScheduler.class) {
+      if (shared != null) {
+        shared.shutdown();
+        shared = null;
+      }
+    }
+  }
+
+  /** This returns the maximum number of worker threads. */
+  public int maxThreads() {
+    return maxThreads;
+  }
+
+  /** This returns the number of worker threads that currently exist. */
+  public int nThreads() {
+    lock.lock();
+    try {
+      return nThreads;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of tasks waiting to be started. */
+  public int queueDepth() {
+    lock.lock();
+    try {
+      return queueDepth;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of tasks currently running. */
+  public int nActive() {
+    lock.lock();
+    try {
+      return nActive;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of tasks completed since this WorkScheduler was created. */
+  public long nCompleted() {
+    lock.lock();
+    try {
+      return nCompleted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns the number of groups which have open clients or pending or running tasks. */
+  int nGroups() {
+    lock.lock();
+    try {
+      return groups.size();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** This returns a one line summary of the state of this WorkScheduler. */
+  @Override
+  public String toString() {
+    lock.lock();
+    try {
+      return "WorkScheduler nThreads="
+          + nThreads
+          + " (max="
+          + maxThreads
+          + ") nActive="
+          + nActive
+          + " queueDepth="
+          + queueDepth
+          + " nCompleted="
+          + nCompleted;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * This removes group from groups if it has no open clients and no pending or running tasks (so
+   * all of a group's tasks are always scheduled as one group). Requires lock.
+   */
+  private void removeIfUnused(Group group) {
+    if (group.nClients == 0 && group.nTasks == 0) groups.remove(group.name, group);
+  }
+
+  /** This puts client (and its group) in the ready queues if it is runnable. Requires lock. */
+  private void makeReady(Client client) {
+    if (client.inReadyClients || !client.isRunnable()) return;
+    client.inReadyClients = true;
+    Group group = client.group;
+    group.readyClients.addLast(client);
+    if (!group.inReadyGroups) {
+      group.inReadyGroups = true;
+      readyGroups.addLast(group);
+    }
+  }
+
+  /**
+   * This starts another worker thread if there are more queued tasks than idle threads. Requires
+   * lock.
+   */
+  private void ensureThreads() {
+    if (nIdleThreads < queueDepth && nThreads < maxThreads) {
+      Worker worker = new Worker(threadNamePrefix + "-" + threadNumber.incrementAndGet());
+      nThreads++;
+      nIdleThreads++;
+      worker.start();
+    }
+  }
+
+  /**
+   * This takes the next task (round-robin across groups, then across the clients in the group),
+   * waiting if necessary. Requires lock.
+   *
+   * @param clientHolder receives the client whose task was taken
+   * @return the task, which has been added to the client's running tasks
+   * @throws InterruptedException if the worker thread is interrupted while waiting or if this
+   *     WorkScheduler has been shut down and there is no more work
+   */
+  private FutureTask<?> takeTask(Client[] clientHolder) throws InterruptedException {
+    while (true) {
+      while (readyGroups.isEmpty()) {
+        if (isShutdown) throw new InterruptedException();
+        workAvailable.await();
+      }
+      Group group = readyGroups.pollFirst();
+      group.inReadyGroups = false;
+      Client client = group.readyClients.pollFirst();
+      if (client != null) client.inReadyClients = false;
+      if (client == null || !client.isRunnable()) {
+        // e.g., the client's tasks were cancelled after it was put in readyClients
+        requeue(group);
+        removeIfUnused(group);
+        continue;
+      }
+      FutureTask<?> task = client.pending.pollFirst();
+      queueDepth--;
+      client.running.add(task);
+      nActive++;
+
+      // put client and group back at the end of the queues if they still have runnable work
+      makeReady(client);
+      requeue(group);
+      if (!readyGroups.isEmpty()) workAvailable.signal();
+      clientHolder[0] = client;
+      return task;
+    }
+  }
+
+  /** This puts group at the end of readyGroups if it has ready clients. Requires lock. */
+  private void requeue(Group group) {
+    if (!group.readyClients.isEmpty() && !group.inReadyGroups) {
+      group.inReadyGroups = true;
+      readyGroups.addLast(group);
+    }
+  }
+
+  /** The worker threads. */
+  private class Worker extends Thread {
+    Worker(String name) {
+      super(name);
+      setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+      Client[] clientHolder = new Client[1];
+      while (true) {
+        FutureTask<?> task;
+        Client client;
+        lock.lock();
+        try {
+          task = takeTask(clientHolder);
+          client = clientHolder[0];
+          nIdleThreads--;
+          ensureThreads();
+        } catch (InterruptedException e) {
+          nThreads--;
+          nIdleThreads--;
+          return;
+        } finally {
+          lock.unlock();
+        }
+
+        try {
+          task.run(); // FutureTask catches all Throwables from the Callable
+        } finally {
+          Thread.interrupted(); // clear interrupted status set by cancel(true)
+          lock.lock();
+          try {
+            client.running.remove(task);
+            client.group.nTasks--;
+            nActive--;
+            nCompleted++;
+            nIdleThreads++;
+            makeReady(client);
+            removeIfUnused(client.group);
+            if (!readyGroups.isEmpty()) workAvailable.signal();
+          } finally {
+            lock.unlock();
+          }
+        }
+      }
+    }
+  }
+}
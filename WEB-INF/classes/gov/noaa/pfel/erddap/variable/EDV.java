@@ -19,6 +19,7 @@ import gov.noaa.pfel.coastwatch.griddata.DataHelper;
 import gov.noaa.pfel.coastwatch.sgt.SgtMap;
 import gov.noaa.pfel.erddap.util.EDStatic;
 import java.util.GregorianCalendar;
+import java.util.function.Consumer;
 
 /**
  * This class holds information about an ErdDap axis or data Variable (EDV).
@@ -246,6 +247,13 @@ public class EDV {
 
   protected PAOne destinationMax = PAOne.fromDouble(Double.NaN);
 
+  /**
+   * If not null, this is told (in setDestinationMin and setDestinationMax) when a variable's
+   * destinationMin or destinationMax is changed, e.g., so EDStatic.extentIndex can remake the
+   * dataset's extent after the dataset's time axis is updated.
+   */
+  public static volatile Consumer<EDV> destinationMinMaxListener = null;
+
   /**
    * This is the value of the source's missing value stand-in. It may remain NaN. It is
    * pre-scaleFactor and addOffset. Grid axis variables should never have missing values.
@@ -1304,12 +1312,18 @@ public class EDV {
   }
 
   public void setDestinationMin(PAOne tMin) {
-    if (tMin != null) destinationMin = tMin;
+    if (tMin != null) {
+      destinationMin = tMin;
+      Consumer<EDV> listener = destinationMinMaxListener;
+      if (listener != null) listener.accept(this);
+    }
   }
 
   public void setDestinationMax(PAOne tMax) {
     if (tMax != null) {
       destinationMax = tMax;
+      Consumer<EDV> listener = destinationMinMaxListener;
+      if (listener != null) listener.accept(this);
       // if (destinationName.equals("wmo_platform_code"))
       //   String2.log(">> setDestinationMax " + destinationName + " " + tMax.toString() + "\n" +
       // MustBe.getStackTrace());
@@ -58,6 +58,17 @@ public abstract class ColorMap implements Cloneable, PropertyChangeListener, Ser
    */
   public abstract Color getColor(double val);
 
+  /**
+   * Get a color's ARGB value. Subclasses can override this to avoid making a <code>Color</code>
+   * object.
+   *
+   * @param val Value
+   * @return the ARGB value of getColor(val)
+   */
+  public int getRGB(double val) {
+    return getColor(val).getRGB();
+  }
+
   /**
    * Get the current user range for the <code>Transform</code>s or <code>ContourLevel</code>.
    *
@@ -21,11 +21,19 @@ import gov.noaa.pmel.sgt.dm.SGTGrid;
 import gov.noaa.pmel.util.Debug;
 import gov.noaa.pmel.util.GeoDate;
 import gov.noaa.pmel.util.Range2D;
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsDevice;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.beans.PropertyChangeEvent;
+import java.util.Arrays;
 import java.util.Enumeration;
 
 /**
@@ -59,6 +67,25 @@ public class GridCartesianRenderer extends CartesianRenderer {
    */
   private Contour con_ = null;
 
+  /**
+   * A rendering hint which says that a Graphics2D draws into an image (e.g., a BufferedImage for a
+   * .png), so drawRaster can fill the cells' pixels directly instead of calling fillRect for each
+   * cell. Set it (to Boolean.TRUE) on graphics made from a BufferedImage. Don't set it on vector
+   * graphics (e.g., for a .pdf), since they would get an image instead of rectangles.
+   */
+  public static final RenderingHints.Key KEY_RASTER_DESTINATION =
+      new RenderingHints.Key(1) {
+        @Override
+        public boolean isCompatibleValue(Object value) {
+          return value instanceof Boolean;
+        }
+
+        @Override
+        public String toString() {
+          return "GridCartesianRenderer raster destination key";
+        }
+      };
+
   /** Bob Simons added this to avoid memory leak problems. */
   @Override
   public void releaseResources() throws Exception {
@@ -239,6 +266,9 @@ public class GridCartesianRenderer extends CartesianRenderer {
               + "\n"
               + ">>yp[]="
               + String2.toCSSVString(yp));
+    if (xp.length == xSize + 1
+        && yp.length == ySize + 1
+        && drawRasterDirectly(g, xp, yp, xSize, ySize, gValues)) return;
     for (i = 0; i < xSize; i++) {
       for (j = 0; j < ySize; j++) {
         val = gValues[count++];
@@ -252,6 +282,81 @@ public class GridCartesianRenderer extends CartesianRenderer {
     }
   }
 
+  /**
+   * This is a fast alternative to drawRaster's fillRect for each cell. If g draws into an image
+   * (see KEY_RASTER_DESTINATION) with no scaling or translucency, this writes the cells' colors
+   * into the int raster of an ARGB image which covers the cells (within the clip), then draws that
+   * image with one drawImage call. The pixels are the same as from fillRect.
+   *
+   * @param xp the x pixel edges of the cells (xSize + 1 values)
+   * @param yp the y pixel edges of the cells (ySize + 1 values)
+   * @return true if the raster was drawn. If false (e.g., g is a PDF graphics or a color map color
+   *     is translucent), nothing was drawn, so the caller must draw the cells one at a time.
+   */
+  private boolean drawRasterDirectly(
+      Graphics g, int[] xp, int[] yp, int xSize, int ySize, double[] gValues) {
+    // only if the caller said g draws into an image (not, e.g., into a PDF)
+    if (!(g instanceof Graphics2D g2)
+        || !Boolean.TRUE.equals(g2.getRenderingHint(KEY_RASTER_DESTINATION))
+        || g2.getDeviceConfiguration().getDevice().getType()
+            != GraphicsDevice.TYPE_IMAGE_BUFFER) return false;
+    AffineTransform at = g2.getTransform();
+    if ((at.getType() & ~AffineTransform.TYPE_TRANSLATION) != 0
+        || at.getTranslateX() != Math.rint(at.getTranslateX())
+        || at.getTranslateY() != Math.rint(at.getTranslateY())) return false;
+    if (!(g2.getComposite() instanceof AlphaComposite ac)
+        || ac.getRule() != AlphaComposite.SRC_OVER
+        || ac.getAlpha() != 1f) return false;
+
+    // the image's bounds: the cells' bounds within the clip
+    int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+    int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+    for (int x : xp) {
+      minX = Math.min(minX, x);
+      maxX = Math.max(maxX, x);
+    }
+    for (int y : yp) {
+      minY = Math.min(minY, y);
+      maxY = Math.max(maxY, y);
+    }
+    Rectangle clip = g.getClipBounds();
+    if (clip != null) {
+      minX = Math.max(minX, clip.x);
+      maxX = Math.min(maxX, clip.x + clip.width);
+      minY = Math.max(minY, clip.y);
+      maxY = Math.min(maxY, clip.y + clip.height);
+    }
+    int width = maxX - minX, height = maxY - minY;
+    if (width <= 0 || height <= 0) return true; // nothing would be visible
+    if ((long) width * height > 64L * 1024 * 1024) return false;
+
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    int[] argb = ((DataBufferInt) image.getRaster().getDataBuffer()).getData(); // all transparent
+    ColorMap colorMap = attr_.getColorMap();
+    double lastVal = Double.NaN;
+    int rgb = 0;
+    int count = 0;
+    for (int i = 0; i < xSize; i++) {
+      int x1 = Math.max(Math.min(xp[i], xp[i + 1]), minX) - minX;
+      int x2 = Math.min(Math.max(xp[i], xp[i + 1]), maxX) - minX;
+      for (int j = 0; j < ySize; j++) {
+        double val = gValues[count++];
+        if (Double.isNaN(val) || x1 >= x2) continue;
+        int y1 = Math.max(Math.min(yp[j], yp[j + 1]), minY) - minY;
+        int y2 = Math.min(Math.max(yp[j], yp[j + 1]), maxY) - minY;
+        if (y1 >= y2) continue;
+        if (val != lastVal) { // adjacent cells often have the same value
+          rgb = colorMap.getRGB(val);
+          if ((rgb >>> 24) != 0xFF) return false; // translucent cells must be blended one by one
+          lastVal = val;
+        }
+        for (int y = y1; y < y2; y++) Arrays.fill(argb, y * width + x1, y * width + x2, rgb);
+      }
+    }
+    g2.drawImage(image, minX, minY, null);
+    return true;
+  }
+
   /**
    * Get the <code>Attribute</code> associated with the <code>SGTGrid</code> data.
    *
@@ -0,0 +1,160 @@
+package com.cohort.array;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.BitSet;
+import java.util.Random;
+import tags.TagSlowTests;
+
+class ConstraintKernelsTests {
+
+  private static final PAType TYPES[] = {
+    PAType.BYTE, PAType.SHORT, PAType.INT, PAType.LONG, PAType.FLOAT, PAType.DOUBLE
+  };
+
+  private static final String OPS[] = {"=", "!=", "<=", ">=", "<", ">"};
+
+  /** The values for value2: integers, fractions, NaN, MAX_VALUEs, and almostEqual values. */
+  private static final String VALUES[] = {
+    "0", "1", "-1", "3", "2.5", "-2.5", "100", "127", "126", "-128", "32767", "2147483647",
+    "2147483646", "-2147483648", "2147483648", "9223372036854775807", "9223372036854775806",
+    "-9223372036854775808", "1e20", "-1e20", "NaN", "", "Infinity", "-Infinity", "3.0000000001",
+    "1.0000001", "1.5e9", "1.500000000001e9"
+  };
+
+  /**
+   * The original row-by-row tests (see PrimitiveArray.applyConstraint) for the types with kernels.
+   */
+  private static int reference(
+      PrimitiveArray pa, boolean morePrecise, BitSet keep, String op, String value2) {
+    int nStillGood = 0;
+    PAType type = pa.elementType();
+    double value2d = String2.parseDouble(value2);
+    for (int row = keep.nextSetBit(0); row >= 0; row = keep.nextSetBit(row + 1)) {
+      boolean pass;
+      if (type == PAType.LONG) {
+        long value2l = String2.parseLong(value2);
+        pass =
+            value2d == value2l && value2l != Long.MAX_VALUE
+                ? PrimitiveArray.testValueOpValue(pa.getLong(row), op, value2l)
+                : PrimitiveArray.testValueOpValueExact(pa.getDouble(row), op, value2d);
+      } else if (type == PAType.FLOAT) {
+        pass = PrimitiveArray.testValueOpValue(pa.getFloat(row), op, String2.parseFloat(value2));
+      } else if (type == PAType.DOUBLE) {
+        pass =
+            morePrecise
+                ? PrimitiveArray.testValueOpValueExtra(pa.getDouble(row), op, value2d)
+                : PrimitiveArray.testValueOpValue(pa.getDouble(row), op, value2d);
+      } else {
+        int value2i = String2.parseInt(value2);
+        pass =
+            value2d == value2i && value2d != Integer.MAX_VALUE
+                ? PrimitiveArray.testValueOpValue(pa.getInt(row), op, value2i)
+                : PrimitiveArray.testValueOpValueExact(pa.getDouble(row), op, value2d);
+      }
+      if (pass) nStillGood++;
+      else keep.clear(row);
+    }
+    return nStillGood;
+  }
+
+  /** This makes a column with lots of ties, missing values, and special values. */
+  private static PrimitiveArray makeColumn(PAType type, int n, Random random) {
+    PrimitiveArray pa = PrimitiveArray.factory(type, n + 10, false);
+    String special[] = {
+      "0", "1", "-1", "3", "100", "126", "127", "-128", "32767", "2147483647", "2147483646",
+      "-2147483648", "9223372036854775807", "-9223372036854775808", "NaN", "1.5e9",
+      "1.5000000000001e9", "1.00000001", "2.5", "-Infinity"
+    };
+    for (int i = 0; i < n; i++) {
+      if (random.nextInt(3) == 0) pa.addString(special[random.nextInt(special.length)]);
+      else pa.addDouble(random.nextInt(200) - 100 + (random.nextBoolean() ? 0 : 0.5));
+    }
+    return pa;
+  }
+
+  /** This tests that the kernels give exactly the same results as the row-by-row tests. */
+  @org.junit.jupiter.api.Test
+  void sameAsReferenceTest() throws Throwable {
+    String2.log("\n*** ConstraintKernelsTests.sameAsReferenceTest");
+    Random random = new Random(17);
+    int nTests = 0;
+    for (PAType type : TYPES) {
+      for (boolean maxIsMV : new boolean[] {false, true}) {
+        // sizes around word boundaries, and a backing array bigger than size
+        for (int n : new int[] {0, 1, 63, 64, 65, 300}) {
+          PrimitiveArray pa = makeColumn(type, n, random);
+          pa.setMaxIsMV(maxIsMV);
+          BitSet someKeep = new BitSet();
+          for (int row = 0; row < n; row++) if (random.nextInt(4) > 0) someKeep.set(row);
+          for (String op : OPS) {
+            for (String value2 : VALUES) {
+              for (boolean morePrecise : new boolean[] {false, true}) {
+                String msg = type + " maxIsMV=" + maxIsMV + " n=" + n + " " + op + value2;
+                BitSet keep1 = (BitSet) someKeep.clone();
+                BitSet keep2 = (BitSet) someKeep.clone();
+                int n1 = pa.applyConstraint(morePrecise, keep1, op, value2);
+                int n2 = reference(pa, morePrecise, keep2, op, value2);
+                Test.ensureEqual(keep1, keep2, msg);
+                Test.ensureEqual(n1, n2, msg);
+                nTests++;
+              }
+            }
+          }
+        }
+      }
+    }
+    String2.log("nTests=" + nTests);
+  }
+
+  /** This tests that rows past the end of the PA are handled as before. */
+  @org.junit.jupiter.api.Test
+  void keepBeyondSizeTest() throws Throwable {
+    String2.log("\n*** ConstraintKernelsTests.keepBeyondSizeTest");
+    IntArray ia = new IntArray(new int[] {1, 2, 3});
+    BitSet keep = new BitSet();
+    keep.set(0, 3);
+    Test.ensureEqual(ConstraintKernels.apply(ia, false, keep, ">", "1"), 2, "");
+    Test.ensureEqual(keep.toString(), "{1, 2}", "");
+    keep.set(0, 4);
+    Test.ensureEqual(ConstraintKernels.apply(ia, false, keep, ">", "1"), -1, "");
+    Test.ensureEqual(ConstraintKernels.apply(ia, false, keep, "=~", "1"), -1, "");
+    Test.ensureEqual(keep.toString(), "{0, 1, 2, 3}", "");
+  }
+
+  /** This compares the speed of the kernels and the row-by-row tests. */
+  @org.junit.jupiter.api.Test
+  @TagSlowTests
+  void benchmark() throws Throwable {
+    String2.log("\n*** ConstraintKernelsTests.benchmark");
+    int n = 10000000;
+    Random random = new Random(17);
+    for (PAType type : new PAType[] {PAType.INT, PAType.FLOAT, PAType.DOUBLE}) {
+      PrimitiveArray pa = PrimitiveArray.factory(type, n, false);
+      for (int i = 0; i < n; i++) pa.addInt(random.nextInt(1000));
+      for (String op : new String[] {">=", "<"}) {
+        BitSet keep1 = new BitSet();
+        keep1.set(0, n);
+        BitSet keep2 = (BitSet) keep1.clone();
+        long time = System.nanoTime();
+        int n1 = pa.applyConstraint(false, keep1, op, "500");
+        long kernelTime = System.nanoTime() - time;
+        time = System.nanoTime();
+        int n2 = reference(pa, false, keep2, op, "500");
+        long referenceTime = System.nanoTime() - time;
+        Test.ensureEqual(n1, n2, "");
+        String2.log(
+            type
+                + " "
+                + op
+                + " n="
+                + n
+                + " kernel time="
+                + (kernelTime / 1000000)
+                + "ms row-by-row time="
+                + (referenceTime / 1000000)
+                + "ms");
+      }
+    }
+  }
+}
@@ -0,0 +1,142 @@
+package com.cohort.array;
+
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+class RowRankerTests {
+
+  private static final PAType NUMERIC_TYPES[] = {
+    PAType.BYTE, PAType.UBYTE, PAType.SHORT, PAType.USHORT, PAType.INT, PAType.UINT,
+    PAType.LONG, PAType.ULONG, PAType.FLOAT, PAType.DOUBLE
+  };
+
+  /** The old way to rank: sort an Integer[] with a RowComparator. */
+  private static int[] oldRank(Comparator<Integer> comparator, int n) {
+    Integer[] rowArray = new Integer[n];
+    for (int i = 0; i < n; i++) rowArray[i] = i;
+    Arrays.sort(rowArray, comparator);
+    int[] newArray = new int[n];
+    for (int i = 0; i < n; i++) newArray[i] = rowArray[i];
+    return newArray;
+  }
+
+  /** This makes a column with lots of ties, missing values, and special values. */
+  private static PrimitiveArray makeColumn(PAType type, int n, Random random) {
+    if (type == PAType.STRING) {
+      String values[] = {"", "a", "A", "ab", "aB", "Ab", "b", "B", "ba", "ü", "z"};
+      StringArray sa = new StringArray(n, false);
+      for (int i = 0; i < n; i++) sa.add(values[random.nextInt(values.length)]);
+      return sa;
+    }
+    if (type == PAType.CHAR) {
+      char values[] = {'a', 'A', 'b', 'B', '0', ' ', 'ü', Character.MAX_VALUE};
+      CharArray ca = new CharArray(n, false);
+      for (int i = 0; i < n; i++) ca.add(values[random.nextInt(values.length)]);
+      return ca;
+    }
+    double values[] = {
+      0, -0.0, 1, -1, 2.5, -2.5, 100, -100, 126, 127, 254, 255, 1e4, 32767, 65535, 1e9,
+      Integer.MAX_VALUE, 4294967295.0, 1e15, 1e300, -1e300, Double.NaN
+    };
+    DoubleArray da = new DoubleArray(n, false);
+    for (int i = 0; i < n; i++) {
+      int which = random.nextInt(values.length + 10);
+      da.add(which < values.length ? values[which] : random.nextInt(200) - 100);
+    }
+    PrimitiveArray pa = PrimitiveArray.factory(type, da);
+    pa.setMaxIsMV(true);
+    return pa;
+  }
+
+  /** This tests that RowRanker gets exactly the same results as the old RowComparator sort. */
+  @org.junit.jupiter.api.Test
+  void testSameAsRowComparator() throws Throwable {
+    String2.log("\n*** RowRankerTests.testSameAsRowComparator");
+    Random random = new Random(17);
+    ArrayList<PAType> types = new ArrayList<>(Arrays.asList(NUMERIC_TYPES));
+    types.add(PAType.CHAR);
+    types.add(PAType.STRING);
+
+    for (int n : new int[] {0, 1, 2, 10, RowRanker.RADIX_THRESHOLD - 1, 1000}) {
+      // each type, by itself
+      for (PAType type : types) {
+        List<PrimitiveArray> table = new ArrayList<>();
+        table.add(makeColumn(type, n, random));
+        for (boolean ascending : new boolean[] {true, false}) {
+          int keys[] = {0};
+          boolean asc[] = {ascending};
+          String msg = "type=" + type + " n=" + n + " ascending=" + ascending;
+          Test.ensureEqual(
+              PrimitiveArray.rank(table, keys, asc),
+              oldRank(new RowComparator(table, keys, asc), n),
+              msg);
+          Test.ensureEqual(
+              PrimitiveArray.rankIgnoreCase(table, keys, asc),
+              oldRank(new RowComparatorIgnoreCase(table, keys, asc), n),
+              msg + " ignoreCase");
+        }
+      }
+
+      // several keys of different types
+      for (int rep = 0; rep < 20; rep++) {
+        List<PrimitiveArray> table = new ArrayList<>();
+        int nKeys = 1 + random.nextInt(3);
+        int keys[] = new int[nKeys];
+        boolean asc[] = new boolean[nKeys];
+        for (int k = 0; k < nKeys; k++) {
+          table.add(makeColumn(types.get(random.nextInt(types.size())), n, random));
+          keys[k] = nKeys - 1 - k;
+          asc[k] = random.nextBoolean();
+        }
+        Test.ensureEqual(
+            PrimitiveArray.rank(table, keys, asc),
+            oldRank(new RowComparator(table, keys, asc), n),
+            "rep=" + rep + " n=" + n);
+        Test.ensureEqual(
+            PrimitiveArray.rankIgnoreCase(table, keys, asc),
+            oldRank(new RowComparatorIgnoreCase(table, keys, asc), n),
+            "rep=" + rep + " n=" + n + " ignoreCase");
+      }
+    }
+  }
+
+  /** This compares the speed of RowRanker and the old RowComparator sort. */
+  @org.junit.jupiter.api.Test
+  void testSpeed() throws Throwable {
+    String2.log("\n*** RowRankerTests.testSpeed");
+    Random random = new Random(1);
+    int n = 1000000;
+    List<PrimitiveArray> table = new ArrayList<>();
+    table.add(makeColumn(PAType.INT, n, random));
+    table.add(makeColumn(PAType.DOUBLE, n, random));
+    table.add(makeColumn(PAType.STRING, n, random));
+    int keys[] = {2, 0, 1};
+    boolean asc[] = {true, false, true};
+
+    long time = System.currentTimeMillis();
+    int newRank[] = PrimitiveArray.rank(table, keys, asc);
+    long newTime = System.currentTimeMillis() - time;
+
+    time = System.currentTimeMillis();
+    int oldRank[] = oldRank(new RowComparator(table, keys, asc), n);
+    long oldTime = System.currentTimeMillis() - time;
+
+    Test.ensureEqual(newRank, oldRank, "");
+    String2.log(
+        "rank n="
+            + n
+            + " nKeys=3 RowRanker time="
+            + newTime
+            + "ms, RowComparator time="
+            + oldTime
+            + "ms ("
+            + Math2.roundTo(oldTime / Math.max(1.0, newTime), 1)
+            + "x)");
+  }
+}
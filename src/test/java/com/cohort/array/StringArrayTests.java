@@ -2,8 +2,13 @@ package com.cohort.array;
 
 import com.cohort.util.String2;
 import com.cohort.util.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 
 class StringArrayTests {
 
@@ -882,4 +887,153 @@ class StringArrayTests {
     // it?
 
   }
+
+  /** This returns the DODS bytes for sa. */
+  private static byte[] dodsBytes(StringArray sa) throws Exception {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream dos = new DataOutputStream(baos);
+    sa.externalizeForDODS(dos);
+    dos.close();
+    return baos.toByteArray();
+  }
+
+  /** This tests that compact StringArrays act exactly like normal StringArrays. */
+  @org.junit.jupiter.api.Test
+  void compactTest() throws Throwable {
+    String2.log("\n*** StringArray.compactTest");
+    Random random = new Random(1);
+    String kinds[] = {"dictionary", "ascii", "unicode"};
+    for (String kind : kinds) {
+      int n = 5000;
+      StringArray normal = new StringArray();
+      StringArray compact = new StringArray().compact();
+      for (int i = 0; i < n; i++) {
+        String s =
+            switch (kind) {
+              case "dictionary" -> random.nextInt(10) == 0 ? "" : "WMO" + random.nextInt(20);
+              case "ascii" -> "station" + random.nextInt(1000000);
+              default ->
+                  "\u00fcb\u20ac" + random.nextInt(100) + (i % 7 == 0 ? "\ud83d\ude00" : "");
+            };
+        normal.add(s);
+        compact.add(s);
+      }
+      String msg = "kind=" + kind;
+      Test.ensureTrue(compact.isCompact(), msg);
+      Test.ensureEqual(compact.size(), n, msg);
+      Test.ensureEqual(compact, normal, msg);
+      Test.ensureEqual(normal, compact, msg);
+      Test.ensureEqual(compact.hashCode(), normal.hashCode(), msg);
+      Test.ensureEqual(compact.toArray(), normal.toArray(), msg);
+      Test.ensureEqual(compact.maxStringLength(), normal.maxStringLength(), msg);
+      Test.ensureEqual(dodsBytes(compact), dodsBytes(normal), msg);
+      for (int i = 0; i < n; i++) {
+        int j = random.nextInt(n);
+        Test.ensureEqual(compact.isMaxValue(i), normal.isMaxValue(i), msg);
+        Test.ensureEqual(
+            Integer.signum(compact.compare(i, j)), Integer.signum(normal.compare(i, j)), msg);
+        Test.ensureEqual(
+            Integer.signum(compact.compare(i, normal, j)),
+            Integer.signum(normal.compare(i, normal, j)),
+            msg);
+        Test.ensureEqual(
+            Integer.signum(compact.compareIgnoreCase(i, compact, j)),
+            Integer.signum(normal.compareIgnoreCase(i, normal, j)),
+            msg);
+      }
+      Test.ensureEqual(compact.indexOf(normal.get(123)), normal.indexOf(normal.get(123)), msg);
+      Test.ensureEqual(
+          compact.lastIndexOf(normal.get(5), n - 1), normal.lastIndexOf(normal.get(5), n - 1), msg);
+      Test.ensureEqual(compact.firstTie(), normal.firstTie(), msg);
+      Test.ensureEqual(compact.subset(3, 7, 4000), normal.subset(3, 7, 4000), msg);
+
+      // rank and reorder (as Table.sort does)
+      List<PrimitiveArray> table = new ArrayList<>();
+      table.add(compact);
+      int rank[] = PrimitiveArray.rank(table, new int[] {0}, new boolean[] {true});
+      List<PrimitiveArray> normalTable = new ArrayList<>();
+      normalTable.add(normal);
+      Test.ensureEqual(
+          rank, PrimitiveArray.rank(normalTable, new int[] {0}, new boolean[] {true}), msg);
+      compact.reorder(rank);
+      normal.reorder(rank);
+      Test.ensureEqual(compact, normal, msg);
+
+      // justKeep and removeRange at the end
+      BitSet keep = new BitSet();
+      for (int i = 0; i < n; i++) if (random.nextInt(3) > 0) keep.set(i);
+      compact.justKeep(keep);
+      normal.justKeep(keep);
+      Test.ensureEqual(compact, normal, msg);
+      compact.removeRange(100, compact.size());
+      normal.removeRange(100, normal.size());
+      Test.ensureEqual(compact, normal, msg);
+      compact.trimToSize();
+      compact.add("new");
+      normal.add("new");
+      Test.ensureTrue(compact.isCompact(), msg);
+      Test.ensureEqual(compact, normal, msg);
+
+      // set() stays compact for a dictionary; a plain compact array goes back to normal mode
+      boolean wasDictionary = compact.compact.isDictionary();
+      Test.ensureEqual(wasDictionary, !kind.equals("ascii"), msg);
+      compact.set(0, "WMO1");
+      normal.set(0, "WMO1");
+      Test.ensureEqual(compact.isCompact(), wasDictionary, msg);
+      Test.ensureEqual(compact, normal, msg);
+
+      // sort() goes back to normal mode
+      compact.sort();
+      normal.sort();
+      Test.ensureTrue(!compact.isCompact(), msg);
+      Test.ensureEqual(compact, normal, msg);
+    }
+
+    // a dictionary switches to plain if there are too many distinct values
+    StringArray sa = new StringArray(8, false).compact();
+    for (int i = 0; i < 10000; i++) sa.add("s" + i);
+    Test.ensureTrue(sa.isCompact(), "");
+    Test.ensureTrue(!sa.compact.isDictionary(), "");
+    Test.ensureEqual(sa.get(9999), "s9999", "");
+
+    // compact() of an existing StringArray
+    sa = new StringArray(new String[] {"a", "", "b\u20ac", "a"});
+    Test.ensureEqual(sa.compact(), new StringArray(new String[] {"a", "", "b\u20ac", "a"}), "");
+    Test.ensureEqual(sa.get(2), "b\u20ac", "");
+    Test.ensureTrue(sa.isCompact(), "");
+    sa.clear();
+    Test.ensureEqual(sa.size(), 0, "");
+    Test.ensureTrue(sa.isCompact(), "");
+
+    // a dictionary can hold an unpaired surrogate, but plain compact storage can't
+    sa = new StringArray(new String[] {"a"}).compact();
+    sa.add("b\ud83d");
+    Test.ensureTrue(sa.isCompact(), "");
+    Test.ensureEqual(sa.get(1), "b\ud83d", "");
+    sa = new StringArray(8, false).compact();
+    for (int i = 0; i < 1000; i++) sa.add("s" + i);
+    Test.ensureTrue(!sa.compact.isDictionary(), "");
+    sa.add("b\ud83d");
+    Test.ensureTrue(!sa.isCompact(), "");
+    Test.ensureEqual(sa.get(1000), "b\ud83d", "");
+    Test.ensureEqual(sa.get(999), "s999", "");
+
+    // nulls can't be compact
+    sa = new StringArray(new String[] {"a"}).compact();
+    sa.addNotCanonical(null);
+    Test.ensureTrue(!sa.isCompact(), "");
+
+    // memory: unique ASCII values
+    int n = 200000;
+    StringArray big = new StringArray(8, false).compact();
+    for (int i = 0; i < n; i++) big.add("station" + (1000000 + i));
+    big.trimToSize();
+    String2.log(
+        "compact: "
+            + n
+            + " unique 14-char ASCII values use ~"
+            + big.compact.usedBytes() / n
+            + " bytes/value");
+    Test.ensureTrue(big.compact.usedBytes() / n < 20, "");
+  }
 }
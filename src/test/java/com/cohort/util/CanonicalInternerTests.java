@@ -0,0 +1,192 @@
+package com.cohort.util;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+import tags.TagSlowTests;
+
+class CanonicalInternerTests {
+
+  /** Test the basic behavior. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Exception {
+    String2.log("\n*** CanonicalInternerTests.basicTest");
+    CanonicalInterner<String> interner = new CanonicalInterner<>(s -> new String(s));
+    String a = interner.intern("test" + 1);
+    String b = interner.intern("test" + 1);
+    Test.ensureEqual(a, "test1", "");
+    Test.ensureTrue(a == b, "");
+    Test.ensureEqual(interner.size(), 1, "");
+    interner.flushStatistics();
+    Test.ensureEqual(interner.nLookups(), 2, "");
+    Test.ensureEqual(interner.nHits(), 1, "");
+
+    // the copier is applied to new canonical objects
+    String big = "0123456789abcdef";
+    String sub = big.substring(3, 6);
+    String c = interner.intern(sub);
+    Test.ensureEqual(c, "345", "");
+    Test.ensureTrue(c != sub, "");
+    Test.ensureTrue(interner.intern(new String("345")) == c, "");
+
+    // a new thread (with an empty front cache) gets the same canonical object
+    String[] fromThread = new String[1];
+    Thread thread = new Thread(() -> fromThread[0] = interner.intern("test" + 1));
+    thread.start();
+    thread.join();
+    Test.ensureTrue(fromThread[0] == a, "");
+    Test.ensureEqual(interner.size(), 2, "");
+    String2.log(interner.statsString());
+
+    // String2.canonical and canonicalStringHolder
+    Test.ensureTrue(String2.canonical("abc" + 1) == String2.canonical("abc" + 1), "");
+    StringHolder sh = String2.canonicalStringHolder(new StringHolder("abc" + 1));
+    Test.ensureTrue(String2.canonicalStringHolder(new StringHolder("abc" + 1)) == sh, "");
+    String2.log(String2.canonicalStatistics());
+  }
+
+  /** Test that canonical objects which are no longer used are garbage collected. */
+  @org.junit.jupiter.api.Test
+  void gcTest() throws Exception {
+    String2.log("\n*** CanonicalInternerTests.gcTest");
+    CanonicalInterner<String> interner = new CanonicalInterner<>(null);
+    int one = 1; // not a constant, so the strings aren't in Java's constant pool
+    String keep = interner.intern("keep" + one);
+    WeakReference<String> wr = new WeakReference<>(interner.intern("toss" + one));
+    for (int i = 0; i < 10000; i++) interner.intern("toss" + i);
+    for (int i = 0; i < 10 && (wr.get() != null || interner.size() > 1); i++)
+      Math2.gcAndWait("CanonicalInternerTests.gcTest"); // in a test
+    Test.ensureTrue(wr.get() == null, "");
+    Test.ensureEqual(interner.size(), 1, "");
+    Test.ensureTrue(interner.intern("keep" + one) == keep, "");
+  }
+
+  /** Test that many threads always get the same canonical objects. */
+  @org.junit.jupiter.api.Test
+  void threadTest() throws Exception {
+    String2.log("\n*** CanonicalInternerTests.threadTest");
+    CanonicalInterner<String> interner = new CanonicalInterner<>(s -> new String(s));
+    int nThreads = 16;
+    int nDifferent = 1000;
+    ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+    try {
+      Future<String[]>[] futures = new Future[nThreads];
+      for (int t = 0; t < nThreads; t++) {
+        futures[t] =
+            pool.submit(
+                () -> {
+                  String[] results = new String[nDifferent];
+                  for (int rep = 0; rep < 20; rep++)
+                    for (int i = 0; i < nDifferent; i++) {
+                      String s = interner.intern("value" + i);
+                      if (rep > 0 && s != results[i])
+                        throw new RuntimeException("Different canonical object for value" + i);
+                      results[i] = s;
+                    }
+                  interner.flushStatistics();
+                  return results;
+                });
+      }
+      String[] first = futures[0].get();
+      for (int t = 1; t < nThreads; t++) {
+        String[] results = futures[t].get();
+        for (int i = 0; i < nDifferent; i++)
+          Test.ensureTrue(results[i] == first[i], "t=" + t + " i=" + i);
+      }
+      Test.ensureEqual(interner.size(), nDifferent, "");
+      Test.ensureEqual(interner.nLookups(), nThreads * 20L * nDifferent, "");
+      String2.log(interner.statsString());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /** The way String2.canonical used to work: 127 synchronized WeakHashMaps. */
+  private static class OldCanonical implements UnaryOperator<String> {
+    private static final int nCanonicalMaps = 127;
+    private final Map<String, WeakReference<String>>[] canonicalMap = new Map[nCanonicalMaps];
+
+    OldCanonical() {
+      for (int i = 0; i < nCanonicalMaps; i++) canonicalMap[i] = new WeakHashMap<>();
+    }
+
+    @Override
+    public String apply(String s) {
+      Map<String, WeakReference<String>> tCanonicalMap =
+          canonicalMap[Math.abs(s.hashCode() ^ s.length()) % nCanonicalMaps];
+      synchronized (tCanonicalMap) {
+        WeakReference<String> wr = tCanonicalMap.get(s);
+        String canonical = wr == null ? null : wr.get();
+        if (canonical == null) {
+          canonical = new String(s);
+          tCanonicalMap.put(canonical, new WeakReference<>(canonical));
+        }
+        return canonical;
+      }
+    }
+  }
+
+  /** This returns the time (ms) for nThreads to each intern the values nReps times. */
+  private static long time(
+      UnaryOperator<String> canonical, String[] values, int nThreads, int nReps) throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+    try {
+      Callable<Object> task =
+          () -> {
+            // keep the results (as a StringArray would), so the canonical objects stay alive
+            String[] results = new String[values.length];
+            for (int rep = 0; rep < nReps; rep++)
+              for (int i = 0; i < values.length; i++) results[i] = canonical.apply(values[i]);
+            return results;
+          };
+      Future<?>[] futures = new Future[nThreads];
+      long time = System.currentTimeMillis();
+      for (int t = 0; t < nThreads; t++) futures[t] = pool.submit(task);
+      for (int t = 0; t < nThreads; t++) futures[t].get();
+      return System.currentTimeMillis() - time;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * This compares the speed of CanonicalInterner and the old synchronized WeakHashMaps when 16
+   * threads are interning the same values (as when several requests read ASCII or NcCF files).
+   */
+  @org.junit.jupiter.api.Test
+  @TagSlowTests
+  void benchmark() throws Exception {
+    String2.log("\n*** CanonicalInternerTests.benchmark");
+    // a typical mix: lots of repeats of a few thousand different values
+    String[] values = new String[100000];
+    for (int i = 0; i < values.length; i++) values[i] = "station" + (i * 7919 % 5000);
+    int nReps = 20;
+    for (int nThreads : new int[] {1, 4, 16, 32}) {
+      for (int pass = 0; pass < 2; pass++) { // first pass is warmup
+        OldCanonical old = new OldCanonical();
+        CanonicalInterner<String> interner = new CanonicalInterner<>(s -> new String(s));
+        long oldTime = time(old, values, nThreads, nReps);
+        long newTime = time(interner::intern, values, nThreads, nReps);
+        if (pass == 1)
+          String2.log(
+              "nThreads="
+                  + nThreads
+                  + " nCalls="
+                  + ((long) nThreads * nReps * values.length)
+                  + ": synchronized WeakHashMaps="
+                  + oldTime
+                  + "ms, CanonicalInterner="
+                  + newTime
+                  + "ms ("
+                  + Math2.roundTo(oldTime / Math.max(1.0, newTime), 1)
+                  + "x) "
+                  + interner.statsString());
+      }
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.cohort.util;
+
+class WeightedCacheTests {
+  /** Test this class. */
+  @org.junit.jupiter.api.Test
+  void basicTest() {
+    String2.log("\n*** WeightedCache.basicTest");
+    WeightedCache<String, String> cache =
+        new WeightedCache<>(null, Long.MAX_VALUE, 5, 0, null); // unnamed, so not in registry
+    Test.ensureTrue(!WeightedCache.caches().containsValue(cache), "");
+    for (int i = 0; i < 5; i++) cache.put("" + i, "" + (11 * i));
+    Test.ensureEqual(cache.size(), 5, "");
+    Test.ensureEqual(cache.get("0"), "0", ""); // 0 was eldest. Now accessed so 1 is eldest
+
+    // knock "1" out of cache
+    cache.put("6", "66");
+    Test.ensureEqual(cache.size(), 5, "");
+    Test.ensureTrue(cache.get("1") == null, "");
+    Test.ensureEqual(cache.get("2"), "22", "");
+
+    // knock "3" out of cache
+    cache.put("7", "77");
+    Test.ensureEqual(cache.size(), 5, "");
+    Test.ensureTrue(cache.get("3") == null, "");
+    Test.ensureEqual(cache.get("4"), "44", "");
+
+    Test.ensureEqual(cache.hitCount(), 3, "");
+    Test.ensureEqual(cache.missCount(), 2, "");
+    Test.ensureEqual(cache.evictionCount(), 2, "");
+
+    // replacing a value doesn't evict anything
+    cache.put("7", "777");
+    Test.ensureEqual(cache.size(), 5, "");
+    Test.ensureEqual(cache.get("7"), "777", "");
+    Test.ensureEqual(cache.evictionCount(), 2, "");
+
+    Test.ensureEqual(cache.remove("7"), "777", "");
+    Test.ensureEqual(cache.size(), 4, "");
+    cache.clear();
+    Test.ensureEqual(cache.size(), 0, "");
+    Test.ensureEqual(cache.weight(), 0, "");
+
+    String2.log("WeightedCache.basicTest finished");
+  }
+
+  /** Test the weight limit. */
+  @org.junit.jupiter.api.Test
+  void weightTest() {
+    String2.log("\n*** WeightedCache.weightTest");
+    WeightedCache<String, int[]> cache =
+        new WeightedCache<>(
+            "WeightedCacheTests.weightTest", 1000, Integer.MAX_VALUE, 0, ia -> 4L * ia.length);
+    Test.ensureTrue(WeightedCache.caches().get("WeightedCacheTests.weightTest") == cache, "");
+
+    cache.put("a", new int[100]); // 400
+    cache.put("b", new int[100]); // 400
+    Test.ensureEqual(cache.weight(), 800, "");
+    cache.get("a"); // so b is eldest
+    cache.put("c", new int[100]); // 1200 > 1000, so b is removed
+    Test.ensureEqual(cache.size(), 2, "");
+    Test.ensureEqual(cache.weight(), 800, "");
+    Test.ensureTrue(cache.get("b") == null, "");
+    Test.ensureNotNull(cache.get("a"), "");
+    Test.ensureNotNull(cache.get("c"), "");
+
+    // a value heavier than maxWeight isn't cached (and doesn't empty the cache)
+    cache.put("d", new int[1000]);
+    Test.ensureTrue(cache.get("d") == null, "");
+    Test.ensureEqual(cache.size(), 2, "");
+
+    // one new value can remove several old ones
+    cache.put("e", new int[240]); // 960
+    Test.ensureEqual(cache.size(), 1, "");
+    Test.ensureEqual(cache.weight(), 960, "");
+    Test.ensureEqual(cache.evictionCount(), 3, "");
+
+    String2.log("WeightedCache.weightTest finished");
+  }
+
+  /** Test expiration. */
+  @org.junit.jupiter.api.Test
+  void ttlTest() throws Exception {
+    String2.log("\n*** WeightedCache.ttlTest");
+    WeightedCache<String, String> cache = new WeightedCache<>(null, 0, 0, 50, null);
+    cache.put("a", "A");
+    Test.ensureEqual(cache.get("a"), "A", "");
+    Math2.sleep(100);
+    Test.ensureTrue(cache.get("a") == null, "");
+    Test.ensureEqual(cache.size(), 0, "");
+    Test.ensureEqual(cache.expirationCount(), 1, "");
+
+    String2.log("WeightedCache.ttlTest finished");
+  }
+}
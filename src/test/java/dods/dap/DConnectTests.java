@@ -0,0 +1,124 @@
+package dods.dap;
+
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import gov.noaa.pfel.coastwatch.griddata.OpendapHelper;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+
+class DConnectTests {
+
+  private static HttpServer server;
+  private static String baseUrl;
+  // the client's port for each request, i.e., which connection was used
+  private static final List<Integer> clientPorts = new ArrayList<>();
+
+  /** This starts a local server with a good and a truncated .dods response. */
+  @BeforeAll
+  static void init() throws Throwable {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    byte good[] = dodsResponse(3);
+    server.createContext("/good.dods", exchange -> respond(exchange, good));
+    // the data part is cut short
+    server.createContext(
+        "/bad.dods", exchange -> respond(exchange, Arrays.copyOf(good, good.length - 6)));
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterAll
+  static void tearDown() {
+    server.stop(0);
+  }
+
+  /** This makes a .dods response for an Int32 array x with values 10, 20, 30, .... */
+  private static byte[] dodsResponse(int n) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    baos.write(
+        String2.stringToUtf8Bytes("Dataset {\n    Int32 x[x = " + n + "];\n} test;\nData:\n"));
+    DataOutputStream dos = new DataOutputStream(baos);
+    dos.writeInt(n); // XDR and DAP both write the length
+    dos.writeInt(n);
+    for (int i = 1; i <= n; i++) dos.writeInt(i * 10);
+    dos.flush();
+    return baos.toByteArray();
+  }
+
+  private static void respond(HttpExchange exchange, byte bytes[]) throws IOException {
+    synchronized (clientPorts) {
+      clientPorts.add(exchange.getRemoteAddress().getPort());
+    }
+    exchange.getResponseHeaders().set("Content-Description", "dods-data");
+    exchange.getResponseHeaders().set("XDODS-Server", "dods/3.7");
+    exchange.sendResponseHeaders(200, bytes.length);
+    try (OutputStream os = exchange.getResponseBody()) {
+      os.write(bytes);
+    }
+  }
+
+  /** This returns the number of different connections used since clientPorts was cleared. */
+  private static int nConnections() {
+    synchronized (clientPorts) {
+      return new HashSet<>(clientPorts).size();
+    }
+  }
+
+  private static String getX(String name) throws Exception {
+    DConnect dConnect = new DConnect(baseUrl + "/" + name, true, 1, 1);
+    PrimitiveArray pa[] = OpendapHelper.getPrimitiveArrays(dConnect, "?x");
+    Test.ensureEqual(pa.length, 1, "");
+    return pa[0].toString();
+  }
+
+  /**
+   * This tests that after a successful request, the connection is kept alive and reused for the
+   * next request to the same server (even by a different DConnect).
+   */
+  @org.junit.jupiter.api.Test
+  void testConnectionReuse() throws Throwable {
+    String2.log("\n*** DConnectTests.testConnectionReuse");
+    synchronized (clientPorts) {
+      clientPorts.clear();
+    }
+    for (int i = 0; i < 3; i++) Test.ensureEqual(getX("good"), "10, 20, 30", "i=" + i);
+    Test.ensureEqual(clientPorts.size(), 3, "");
+    Test.ensureEqual(nConnections(), 1, "ports=" + clientPorts);
+  }
+
+  /** This tests that after a failed request, the connection is closed (not reused). */
+  @org.junit.jupiter.api.Test
+  void testDisconnectAfterError() throws Throwable {
+    String2.log("\n*** DConnectTests.testDisconnectAfterError");
+    synchronized (clientPorts) {
+      clientPorts.clear();
+    }
+    Test.ensureEqual(getX("good"), "10, 20, 30", "");
+    try {
+      new DConnect(baseUrl + "/bad", true, 1, 1).getData("?x", null);
+      throw new RuntimeException("shouldn't get here");
+    } catch (DODSException e) {
+      Test.ensureTrue(
+          e.getErrorMessage().indexOf("Connection cannot be read") >= 0,
+          MustBe.throwableToString(e));
+    }
+    Test.ensureEqual(nConnections(), 1, "ports=" + clientPorts); // the bad request reused it
+
+    // the bad request's connection was closed, so this needs a new one
+    Test.ensureEqual(getX("good"), "10, 20, 30", "");
+    Test.ensureEqual(nConnections(), 2, "ports=" + clientPorts);
+  }
+}
@@ -0,0 +1,82 @@
+package gov.noaa.pfel.coastwatch.griddata;
+
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.io.File;
+import java.nio.file.Path;
+import org.junit.jupiter.api.io.TempDir;
+
+class NcFileCacheTests {
+  @TempDir private static Path TEMP_DIR;
+
+  /** This writes a small .nc file with one variable, "ia", with the values. */
+  private static String writeFile(String name, int[] values) throws Exception {
+    String fullName = TEMP_DIR.toAbsolutePath().toString() + "/" + name;
+    File2.delete(fullName);
+    NcHelper.writePAsInNc3(
+        fullName,
+        new StringArray(new String[] {"ia"}),
+        new PrimitiveArray[] {new IntArray(values)});
+    return fullName;
+  }
+
+  /** This tests reusing, invalidating, and evicting open files. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** NcFileCacheTests.basicTest");
+    NcFileCache cache = new NcFileCache(2, 60000);
+    String a = writeFile("a.nc", new int[] {1, 2});
+    String b = writeFile("b.nc", new int[] {3});
+    String c = writeFile("c.nc", new int[] {4});
+
+    // the 2nd acquire reuses the open file
+    NcFileCache.Lease lease = cache.acquire(a);
+    Test.ensureEqual(lease.file().findVariable("ia").getSize(), 2L, "");
+    Test.ensureEqual(cache.nLeased(), 1, "");
+    lease.close();
+    lease.close(); // a 2nd close() does nothing
+    Test.ensureEqual(cache.nIdle(), 1, "");
+    lease = cache.acquire(a);
+    Test.ensureEqual(cache.nHits(), 1L, "");
+    Test.ensureEqual(cache.nMisses(), 1L, "");
+
+    // simultaneous users get different open files
+    NcFileCache.Lease lease2 = cache.acquire(a);
+    Test.ensureTrue(lease.file() != lease2.file(), "");
+    Test.ensureEqual(cache.nMisses(), 2L, "");
+    lease.close();
+    lease2.close();
+    Test.ensureEqual(cache.nIdle(), 2, "");
+
+    // more than maxIdle idle files: the least recently used are closed
+    cache.acquire(b).close();
+    cache.acquire(c).close();
+    Test.ensureEqual(cache.nIdle(), 2, "");
+    Test.ensureEqual(cache.nEvicted(), 2L, "");
+
+    // a leased file which is invalidated is closed when it is returned
+    lease = cache.acquire(c);
+    Test.ensureEqual(cache.nHits(), 2L, "");
+    cache.invalidate(c);
+    lease.close();
+    Test.ensureEqual(cache.nIdle(), 1, "");
+    Test.ensureEqual(cache.nInvalidated(), 1L, "");
+
+    // a changed file isn't read via the old open file
+    cache.acquire(a).close();
+    writeFile("a.nc", new int[] {1, 2, 3});
+    new File(a).setLastModified(System.currentTimeMillis() + 10000);
+    lease = cache.acquire(a);
+    Test.ensureEqual(lease.file().findVariable("ia").getSize(), 3L, "");
+    lease.discard(); // isn't returned to the cache
+    String2.log(cache.statsString());
+
+    cache.clear();
+    Test.ensureEqual(cache.nIdle(), 0, "");
+    Test.ensureEqual(cache.nLeased(), 0, "");
+  }
+}
@@ -4034,6 +4034,68 @@ public class TableTests {
     Test.ensureEqual(results, expected, "results=\n" + results);
   }
 
+  /** This tests readNccsvInBatches(). */
+  @org.junit.jupiter.api.Test
+  void testNccsvInBatches() throws Throwable {
+    String nccsv =
+        "*GLOBAL*,Conventions,\"COARDS, CF-1.6, ACDD-1.3, NCCSV-1.2\"\n"
+            + "*GLOBAL*,title,Batches\n"
+            + "ship,*SCALAR*,Okeanos\n"
+            + "id,*DATA_TYPE*,int\n"
+            + "id,units,\"1\"\n"
+            + "name,*DATA_TYPE*,String\n"
+            + "*END_METADATA*\n"
+            + "id,name\n"
+            + "1,a\n"
+            + "2,b\n"
+            + "3,c\n"
+            + "4,d\n"
+            + "5,e\n"
+            + "*END_DATA*\n";
+    StringArray results = new StringArray();
+    Table table = new Table();
+    long nRows =
+        table.readNccsvInBatches(
+            "test",
+            new BufferedReader(new StringReader(nccsv)),
+            2,
+            batch -> {
+              Test.ensureEqual(batch.getColumnNamesCSSVString(), "ship, id, name", "");
+              Test.ensureEqual(batch.globalAttributes().getString("title"), "Batches", "");
+              Test.ensureEqual(batch.columnAttributes(1).getString("units"), "1", "");
+              results.add(
+                  batch.getColumn(0).toString()
+                      + " / "
+                      + batch.getColumn(1).toString()
+                      + " / "
+                      + batch.getColumn(2).toString());
+              return true;
+            });
+    Test.ensureEqual(nRows, 5L, "");
+    Test.ensureEqual(
+        results.toNewlineString(),
+        "Okeanos, Okeanos / 1, 2 / a, b\n"
+            + "Okeanos, Okeanos / 3, 4 / c, d\n"
+            + "Okeanos / 5 / e\n",
+        "");
+    Test.ensureEqual(table.getColumn(1).size(), 0, ""); // the data went to the batches
+
+    // the consumer can stop the reading
+    results.clear();
+    nRows =
+        table.readNccsvInBatches(
+            "test",
+            new BufferedReader(new StringReader(nccsv)),
+            2,
+            batch -> {
+              results.add(batch.getColumn(1).toString());
+              return false;
+            });
+    Test.ensureEqual(nRows, 2L, "");
+    Test.ensureEqual(results.size(), 1, "");
+    Test.ensureEqual(results.get(0), "1, 2", "");
+  }
+
   /** This tests readNccsv(), readNccsvMetadata(), */
   @org.junit.jupiter.api.Test
   @TagMissingFile
@@ -20930,6 +20992,87 @@ public class TableTests {
     }
   }
 
+  /** This tests readParquet's column reader, row group skipping, and readParquetSummary. */
+  @org.junit.jupiter.api.Test
+  void testReadParquetColumns() throws Exception {
+    String fullName = TEMP_DIR.toAbsolutePath().toString() + "/testParquetColumns.parquet";
+    File2.delete(fullName);
+    Table table = new Table();
+    table.addColumn("i", new IntArray(new int[] {3, 1, 4, 5}));
+    table.addColumn("d", new DoubleArray(new double[] {2.5, -1, 0.5, 10}));
+    table.addColumn("s", new StringArray(new String[] {"b", "a", "d", "c"}));
+    table.writeParquet(fullName, false);
+
+    // just some of the columns, in the requested order
+    StringArray colNames = new StringArray(new String[] {"s", "i"});
+    String colTypes[] = {"String", "int"};
+    String expected = "s,i\nb,3\na,1\nd,4\nc,5\n";
+    table.readParquet(fullName, colNames, colTypes, true);
+    Test.ensureEqual(table.dataToString(), expected, "");
+    Test.ensureEqual(table.getColumn(1).elementType(), PAType.INT, "");
+
+    // the constraints are just used to skip row groups
+    StringArray conVars = new StringArray(new String[] {"i"});
+    StringArray conOps = new StringArray(new String[] {">"});
+    StringArray conValues = new StringArray(new String[] {"4"});
+    table.readParquet(fullName, colNames, colTypes, true, conVars, conOps, conValues);
+    Test.ensureEqual(table.dataToString(), expected, "");
+    conOps.set(0, "<");
+    table.readParquet(fullName, colNames, colTypes, true, conVars, conOps, conValues);
+    Test.ensureEqual(table.dataToString(), expected, "");
+    conOps.set(0, ">");
+    conValues.set(0, "10");
+    table.readParquet(fullName, colNames, colTypes, true, conVars, conOps, conValues);
+    Test.ensureEqual(table.dataToString(), "s,i\n", "");
+
+    // the summary from the statistics (double and String columns may have missing values)
+    colNames = new StringArray(new String[] {"i", "d", "s", "notInFile"});
+    Test.ensureTrue(
+        table.readParquetSummary(
+            fullName, colNames, new String[] {"int", "double", "String", "int"}),
+        "");
+    Test.ensureEqual(table.dataToString(), "i,d,s\n1,-1.0,a\n5,10.0,d\n1,,\n", "");
+    // a String column can't be summarized as a number
+    Test.ensureTrue(
+        !table.readParquetSummary(fullName, colNames, new String[] {"int", "double", "int", "int"}),
+        "");
+    Test.ensureEqual(table.nColumns(), 0, "");
+  }
+
+  /**
+   * This tests that readParquet's column reader treats null values, "null", and empty rows like
+   * the row by row reader.
+   */
+  @org.junit.jupiter.api.Test
+  void testReadParquetColumnsNulls() throws Exception {
+    String fullName = TEMP_DIR.toAbsolutePath().toString() + "/testParquetColumnsNulls.parquet";
+    File2.delete(fullName);
+    Table table = new Table();
+    table.addColumn("s", new StringArray(new String[] {"null", "", "x", ""}));
+    table.addColumn("d", new DoubleArray(new double[] {Double.NaN, Double.NaN, 2.5, Double.NaN}));
+    table.addColumn("e", new DoubleArray(new double[] {1, Double.NaN, Double.NaN, 3}));
+    table.writeParquet(fullName, false);
+
+    // "null" becomes "", and the row with all nulls is dropped (but not the rows where just
+    // the requested columns are null)
+    StringArray colNames = new StringArray(new String[] {"s", "d"});
+    String expected = "s,d
+,
+x,2.5
+,
+";
+    table.readParquet(fullName, colNames, new String[] {"String", "double"}, false);
+    Test.ensureEqual(table.dataToString(), expected, "");
+    table.readParquet(fullName, colNames, null, false); // the row by row reader
+    Test.ensureEqual(table.dataToString(), expected, "");
+
+    // "null" is a missing value, so it can't be a column's min
+    Test.ensureTrue(
+        !table.readParquetSummary(
+            fullName, new StringArray(new String[] {"s"}), new String[] {"String"}),
+        "");
+  }
+
   @org.junit.jupiter.api.Test
   void testWriteParquetWithMetadata() throws Exception {
     // tough test table
@@ -413,4 +413,60 @@ class CompoundColorMapTests {
               basePaletteDir, "Rainbow", false, 1.1806992E9, 1.1806992E9, -1, true, tempDir);
     }
   }
+
+  /**
+   * This computes the color of a value in a piece of a continuous palette the way getColor did
+   * before it had a lookup table, so the lookup table's results can be checked.
+   */
+  private static int expectedRGB(CompoundColorMap ccm, int piece, double value) {
+    Test.ensureTrue(
+        value >= ccm.rangeLow[piece] && value < ccm.rangeHigh[piece],
+        "value=" + value + " isn't in piece=" + piece);
+    int val1024 = (int) Math.round((value - ccm.rangeLow[piece]) / ccm.range1024[piece]);
+    Color color =
+        new Color(
+            ccm.rLow[piece] + ((val1024 * ccm.rRange[piece]) >> 10),
+            ccm.gLow[piece] + ((val1024 * ccm.gRange[piece]) >> 10),
+            ccm.bLow[piece] + ((val1024 * ccm.bRange[piece]) >> 10));
+    return color.getRGB();
+  }
+
+  /** This tests that the lookup table gives the right pieces and colors. */
+  @org.junit.jupiter.api.Test
+  void lookupTest() throws Exception {
+    String2.log("\n*** CompoundColorMapTests.lookupTest");
+    String basePaletteDir = EDStatic.getWebInfParentDirectory() + "WEB-INF/cptfiles/";
+    String tempDir = SSR.getTempDirectory();
+    for (String scale : new String[] {"Linear", "Log"}) {
+      String newPalette =
+          CompoundColorMap.makeCPT(basePaletteDir, "Rainbow", scale, 0.01, 10, -1, true, tempDir);
+      CompoundColorMap ccm = new CompoundColorMap(newPalette);
+      CompoundColorMap ccm2 = new CompoundColorMap(newPalette); // shares ccm's lookup table
+      CompoundColorMap ccm3 = (CompoundColorMap) ccm.copy();
+      int n = ccm.getNPieces();
+      for (int piece = 0; piece < n; piece++) {
+        // at each piece's low end, the color is the piece's low color
+        int expected = new Color(ccm.rLow[piece], ccm.gLow[piece], ccm.bLow[piece]).getRGB();
+        Test.ensureEqual(ccm.getRGB(ccm.rangeLow[piece]), expected, scale + " piece=" + piece);
+        Test.ensureEqual(ccm2.getRGB(ccm.rangeLow[piece]), expected, scale + " piece=" + piece);
+        Test.ensureEqual(
+            ccm3.getColor(ccm.rangeLow[piece]).getRGB(), expected, scale + " piece=" + piece);
+        // just below the low end, it's the previous piece's color (or the background color)
+        double below = Math.nextDown(ccm.rangeLow[piece]);
+        Test.ensureEqual(
+            ccm.getRGB(below),
+            piece == 0 ? ccm.backgroundColor.getRGB() : expectedRGB(ccm, piece - 1, below),
+            scale + " piece=" + piece);
+      }
+      // the high end of the last piece is the last piece's high color
+      Test.ensureEqual(
+          ccm.getRGB(ccm.rangeHigh[n - 1]),
+          new Color(ccm.rHigh[n - 1], ccm.gHigh[n - 1], ccm.bHigh[n - 1]).getRGB(),
+          scale);
+      Test.ensureEqual(
+          ccm.getRGB(Math.nextUp(ccm.rangeHigh[n - 1])), ccm.foregroundColor.getRGB(), scale);
+      Test.ensureEqual(ccm.getRGB(Double.NaN), ccm.NaNColor.getRGB(), scale);
+      File2.delete(newPalette);
+    }
+  }
 }
@@ -26,6 +26,8 @@ import java.io.BufferedOutputStream;
 import java.io.FileOutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
@@ -11364,4 +11366,146 @@ class EDDGridFromDapTests {
         ".*(oceanwatch\\.pfeg\\.noaa\\.gov|coastwatch/viirs-ocr/).*", // negativePathRegex
         -1); // -1 uses suggestReloadEveryNMinutes
   }
+
+  /** This makes a fetch's source data: a DGrid's data array (with dv's value) and one axis. */
+  private static PrimitiveArray[] sourceData(int dv) {
+    return new PrimitiveArray[] {new IntArray(new int[] {dv}), new IntArray(new int[] {0})};
+  }
+
+  /** This tests that getDataVariables uses at most 1 + the free extra connections at once. */
+  @org.junit.jupiter.api.Test
+  void testGetDataVariablesLimit() throws Throwable {
+    String2.log("\n*** EDDGridFromDapTests.testGetDataVariablesLimit");
+    Semaphore extraConnections = new Semaphore(2);
+    for (int nTaken = 0; nTaken <= 2; nTaken++) {
+      extraConnections.acquire(nTaken); // e.g., by other requests to the same server
+      AtomicInteger nActive = new AtomicInteger();
+      AtomicInteger maxActive = new AtomicInteger();
+      EDDGridFromDap.getDataVariables(
+          "testGetDataVariables",
+          8,
+          extraConnections,
+          12,
+          dv -> {
+            maxActive.accumulateAndGet(nActive.incrementAndGet(), Math::max);
+            try {
+              Thread.sleep(50);
+            } finally {
+              nActive.decrementAndGet();
+            }
+            return sourceData(dv);
+          },
+          (dv, pa) -> {});
+      String msg = "nTaken=" + nTaken + " maxActive=" + maxActive.get();
+      Test.ensureTrue(maxActive.get() >= 1 && maxActive.get() <= 3 - nTaken, msg);
+      Test.ensureEqual(extraConnections.availablePermits(), 2 - nTaken, msg);
+      extraConnections.release(nTaken);
+    }
+  }
+
+  /**
+   * This tests that getDataVariables stores the results in data variable order, even if the
+   * fetches finish in a different order.
+   */
+  @org.junit.jupiter.api.Test
+  void testGetDataVariablesOrder() throws Throwable {
+    String2.log("\n*** EDDGridFromDapTests.testGetDataVariablesOrder");
+    Semaphore extraConnections = new Semaphore(3);
+    for (int tnThreads : new int[] {1, 4}) {
+      PrimitiveArray results[] = new PrimitiveArray[10];
+      IntArray stored = new IntArray();
+      EDDGridFromDap.getDataVariables(
+          "testGetDataVariables",
+          tnThreads,
+          extraConnections,
+          results.length,
+          dv -> {
+            Thread.sleep(10L * (10 - dv)); // later data variables finish first
+            return sourceData(dv);
+          },
+          (dv, pa) -> {
+            stored.add(dv);
+            results[dv] = pa[0];
+          });
+      String msg = "tnThreads=" + tnThreads;
+      Test.ensureEqual(stored.toString(), "0, 1, 2, 3, 4, 5, 6, 7, 8, 9", msg);
+      for (int dv = 0; dv < results.length; dv++)
+        Test.ensureEqual(results[dv].getInt(0), dv, msg);
+      Test.ensureEqual(extraConnections.availablePermits(), 3, msg);
+    }
+  }
+
+  /**
+   * This tests that if a fetch (or storing its result) fails, getDataVariables throws the original
+   * exception and cancels the unfinished fetches.
+   */
+  @org.junit.jupiter.api.Test
+  void testGetDataVariablesError() throws Throwable {
+    String2.log("\n*** EDDGridFromDapTests.testGetDataVariablesError");
+    Semaphore extraConnections = new Semaphore(2);
+    for (int tnThreads : new int[] {1, 3}) {
+      // 0=fetch throws an Exception, 1=fetch throws an Error, 2=store throws an Exception
+      for (int test = 0; test < 3; test++) {
+        int tTest = test;
+        String msg = "tnThreads=" + tnThreads + " test=" + test;
+        Throwable expected =
+            test == 1 ? new OutOfMemoryError("test") : new WaitThenTryAgainException("test");
+        IntArray stored = new IntArray();
+        AtomicInteger nSlowStarted = new AtomicInteger();
+        AtomicInteger nInterrupted = new AtomicInteger();
+        long time = System.currentTimeMillis();
+        try {
+          EDDGridFromDap.getDataVariables(
+              "testGetDataVariables",
+              tnThreads,
+              extraConnections,
+              10,
+              dv -> {
+                if (dv == 2 && tTest < 2) throw expected;
+                if (dv > 2) {
+                  nSlowStarted.incrementAndGet();
+                  try {
+                    Thread.sleep(5000);
+                  } catch (InterruptedException e) {
+                    nInterrupted.incrementAndGet();
+                    throw e;
+                  }
+                }
+                return sourceData(dv);
+              },
+              (dv, pa) -> {
+                if (dv == 2 && tTest == 2) throw expected;
+                stored.add(dv);
+              });
+          throw new RuntimeException("shouldn't get here");
+        } catch (Throwable t) {
+          Test.ensureTrue(t == expected, msg + "\n" + MustBe.throwableToString(t));
+        }
+        time = System.currentTimeMillis() - time;
+        Test.ensureTrue(time < 4000, msg + " time=" + time);
+        Test.ensureEqual(stored.toString(), "0, 1", msg);
+        Test.ensureEqual(extraConnections.availablePermits(), 2, msg);
+
+        // the fetches which were running were interrupted
+        Math2.sleep(200);
+        Test.ensureEqual(nInterrupted.get(), nSlowStarted.get(), msg);
+      }
+    }
+  }
+
+  /** This tests that the extra connections are limited per server (protocol+domain). */
+  @org.junit.jupiter.api.Test
+  void testExtraConnectionPermits() throws Throwable {
+    String2.log("\n*** EDDGridFromDapTests.testExtraConnectionPermits");
+    Semaphore a = EDDGridFromDap.extraConnectionPermits("https://permits.test/thredds/dodsC/a");
+    Test.ensureTrue(
+        a == EDDGridFromDap.extraConnectionPermits("https://permits.test/opendap/b"), "");
+    Test.ensureTrue(
+        a != EDDGridFromDap.extraConnectionPermits("https://other.permits.test/thredds/dodsC/a"),
+        "");
+    Test.ensureTrue(
+        a != EDDGridFromDap.extraConnectionPermits("http://permits.test/thredds/dodsC/a"), "");
+    Test.ensureEqual(
+        a.availablePermits(), Math.max(0, Integer.getInteger("http.maxConnections", 5)), "");
+  }
 }
@@ -14480,6 +14480,55 @@ class EDDGridFromNcFilesTests {
             + "ms (diverse results 0.001 - 11.08ms on Bob's M4700)");
   }
 
+  /**
+   * This tests that EDStatic.extentIndex sees the new time axis that EDDGridFromFiles.lowUpdate
+   * makes when files are removed and added.
+   *
+   * @throws Throwable if trouble
+   */
+  @org.junit.jupiter.api.Test
+  @TagSlowTests
+  void testUpdateExtentIndex() throws Throwable {
+    String2.log("\n*** EDDGridFromNcFilesTests.testUpdateExtentIndex");
+    EDDGridFromNcFiles eddGrid = (EDDGridFromNcFiles) EDDTestDataset.gettestGriddedNcFiles();
+    String dataDir = eddGrid.fileDir;
+    String id = eddGrid.datasetID();
+    int language = 0;
+    // the file with 2008-01-01 to 2008-01-03
+    double min[] = {Double.NaN, Double.NaN, Double.NaN};
+    double max[] = {
+      Double.NaN, Double.NaN, Calendar2.isoStringToEpochSeconds("2008-01-02T12:00:00Z")
+    };
+    EDStatic.extentIndex.put(id, eddGrid);
+    try {
+      Test.ensureTrue(EDStatic.extentIndex.search(min, max).contains(id), "original");
+
+      File2.rename(dataDir, "erdQSwind1day_20080101_03.nc.gz", "erdQSwind1day_20080101_03.nc.gz2");
+      try {
+        for (int i = 0; i < 3; i++) {
+          eddGrid.update(language);
+          Math2.sleep(1000);
+        }
+        Test.ensureEqual(
+            eddGrid.axisVariables()[0].destinationMinString(), "2008-01-04T12:00:00Z", "");
+        Test.ensureTrue(!EDStatic.extentIndex.search(min, max).contains(id), "after removing");
+      } finally {
+        File2.rename(
+            dataDir, "erdQSwind1day_20080101_03.nc.gz2", "erdQSwind1day_20080101_03.nc.gz");
+      }
+
+      for (int i = 0; i < 3; i++) {
+        eddGrid.update(language);
+        Math2.sleep(1000);
+      }
+      Test.ensureEqual(
+          eddGrid.axisVariables()[0].destinationMinString(), "2008-01-01T12:00:00Z", "");
+      Test.ensureTrue(EDStatic.extentIndex.search(min, max).contains(id), "after restoring");
+    } finally {
+      EDStatic.extentIndex.remove(id);
+    }
+  }
+
   /**
    * This tests quickRestart().
    *
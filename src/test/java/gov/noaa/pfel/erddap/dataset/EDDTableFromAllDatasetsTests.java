@@ -0,0 +1,73 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.EDDTestDataset;
+import testDataset.Initialization;
+
+class EDDTableFromAllDatasetsTests {
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This returns a column of the subsetIndex's table as a CSV String. */
+  private static String column(EDDTable allDatasets, String loggedInAs, String colName)
+      throws Throwable {
+    Table table = allDatasets.subsetIndex(0, loggedInAs).table();
+    return table.findColumn(colName).toString();
+  }
+
+  /**
+   * This tests that the subset data (and the subsetIndex made from it) is made for each loggedInAs
+   * and reflects changes to the datasets, so private datasets aren't listed for other users.
+   */
+  @org.junit.jupiter.api.Test
+  void testSubsetIndexIsPerUser() throws Throwable {
+    String2.log("\n*** EDDTableFromAllDatasetsTests.testSubsetIndexIsPerUser");
+    EDDTable eddTable = (EDDTable) EDDTestDataset.gettest_chars();
+    ConcurrentHashMap<String, EDDGrid> gridDatasetHashMap = new ConcurrentHashMap<>();
+    ConcurrentHashMap<String, EDDTable> tableDatasetHashMap = new ConcurrentHashMap<>();
+    tableDatasetHashMap.put(eddTable.datasetID(), eddTable);
+    EDDTable allDatasets = new EDDTableFromAllDatasets(gridDatasetHashMap, tableDatasetHashMap);
+    boolean oListPrivateDatasets = EDStatic.listPrivateDatasets;
+    try {
+      EDStatic.listPrivateDatasets = false;
+
+      // public: everyone sees it
+      eddTable.setAccessibleTo(null);
+      Test.ensureEqual(column(allDatasets, null, "accessible"), "public", "");
+      Test.ensureEqual(column(allDatasets, null, "dataStructure"), "table", "");
+
+      // private: not listed (just the placeholder row) for someone not logged in
+      // (a previously made subsetIndex mustn't be reused)
+      eddTable.setAccessibleTo(EDStatic.anyoneLoggedIn);
+      Test.ensureEqual(column(allDatasets, null, "dataStructure"), "", "");
+      Test.ensureEqual(allDatasets.subsetIndex(0, null).table().nRows(), 1, "");
+
+      // but it is listed for someone who is logged in
+      Test.ensureEqual(column(allDatasets, "someone", "accessible"), "yes", "");
+      Test.ensureEqual(column(allDatasets, "someone", "dataStructure"), "table", "");
+
+      // and not listed again for someone not logged in
+      Test.ensureEqual(column(allDatasets, null, "dataStructure"), "", "");
+      Test.ensureEqual(
+          allDatasets.distinctSubsetVariablesDataTable(0, null, new String[] {"dataStructure"})
+              .getColumn(0)
+              .toString(),
+          "",
+          "");
+
+      // public again
+      eddTable.setAccessibleTo(null);
+      Test.ensureEqual(column(allDatasets, null, "accessible"), "public", "");
+    } finally {
+      EDStatic.listPrivateDatasets = oListPrivateDatasets;
+      eddTable.setAccessibleTo(null);
+    }
+  }
+}
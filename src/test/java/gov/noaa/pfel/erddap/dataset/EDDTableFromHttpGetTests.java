@@ -8,6 +8,7 @@ import com.cohort.array.StringArray;
 import com.cohort.util.Calendar2;
 import com.cohort.util.File2;
 import com.cohort.util.Math2;
+import com.cohort.util.MustBe;
 import com.cohort.util.String2;
 import com.cohort.util.Test;
 import gov.noaa.pfel.coastwatch.pointdata.Table;
@@ -2113,6 +2114,89 @@ class EDDTableFromHttpGetTests {
 
   }
 
+  /**
+   * This tests that queries see inserted data, i.e., that the fileTableIndex isn't used after
+   * insertOrDelete changes the fileTable (a new file, then a wider min/max for that file).
+   */
+  @org.junit.jupiter.api.Test
+  void testInsertThenQuery() throws Throwable {
+    int language = 0;
+    String dataDir =
+        File2.addSlash(
+            Path.of(EDDTestDataset.class.getResource("/data/points/testFromHttpGet/").toURI())
+                .toString());
+    String dir = EDStatic.fullTestCacheDirectory;
+    String id = "testFromHttpGet";
+    EDDTableFromHttpGet.deleteCachedDatasetInfo(id);
+    File2.deleteAllFiles(dataDir + "station3", true, true);
+    File2.delete(dataDir + "station3");
+    EDDTableFromHttpGet eddTable = (EDDTableFromHttpGet) EDDTestDataset.gettestFromHttpGet();
+    String query = "stationID,time,airTemp&airTemp>=100&time>=2016-01-01T00:00:00Z";
+    String insert = "stationID=station3&author=JohnSmith_JohnSmithKey";
+
+    try {
+      // this query indexes airTemp and time
+      try {
+        eddTable.makeNewFileForDapQuery(
+            language, null, null, query, dir, eddTable.className() + "_itq0", ".csv");
+        throw new RuntimeException("shouldn't get here");
+      } catch (Throwable t) {
+        Test.ensureTrue(
+            t.getMessage().indexOf(MustBe.THERE_IS_NO_DATA) >= 0, MustBe.throwableToString(t));
+      }
+
+      // insert a new file, then query it
+      EDStatic.developmentMode = true;
+      eddTable.makeNewFileForDapQuery(
+          language,
+          null,
+          null,
+          insert + "&time=2016-06-29T00:00:00Z&airTemp=100.5&waterTemp=11",
+          dir,
+          eddTable.className() + "_itq1",
+          ".insert");
+      String tName =
+          eddTable.makeNewFileForDapQuery(
+              language, null, null, query, dir, eddTable.className() + "_itq2", ".csv");
+      Test.ensureEqual(
+          File2.directReadFrom88591File(dir + tName),
+          "stationID,time,airTemp\n"
+              + ",UTC,degree_C\n"
+              + "station3,2016-06-29T00:00:00Z,100.5\n",
+          "");
+
+      // insert into the same file (so its max is wider), then query it
+      eddTable.makeNewFileForDapQuery(
+          language,
+          null,
+          null,
+          insert + "&time=2016-06-29T01:00:00Z&airTemp=101.5&waterTemp=11",
+          dir,
+          eddTable.className() + "_itq3",
+          ".insert");
+      tName =
+          eddTable.makeNewFileForDapQuery(
+              language,
+              null,
+              null,
+              "stationID,time,airTemp&airTemp>=101&time>=2016-01-01T00:00:00Z",
+              dir,
+              eddTable.className() + "_itq4",
+              ".csv");
+      Test.ensureEqual(
+          File2.directReadFrom88591File(dir + tName),
+          "stationID,time,airTemp\n"
+              + ",UTC,degree_C\n"
+              + "station3,2016-06-29T01:00:00Z,101.5\n",
+          "");
+    } finally {
+      EDStatic.developmentMode = false;
+      File2.deleteAllFiles(dataDir + "station3", true, true);
+      File2.delete(dataDir + "station3");
+      EDDTableFromHttpGet.deleteCachedDatasetInfo(id);
+    }
+  }
+
   /**
    * Run TestAll (set to call this) a few times simultaneously and enter 1, 2, 3, 4. '3' repeatedly
    * tests that the file is valid. Wait till they are done, then run this with 0 to see resulting
@@ -0,0 +1,329 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.ByteArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.LongArray;
+import com.cohort.array.PAType;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.ShortArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.Calendar2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVTimeStamp;
+import java.util.BitSet;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class FileTableIndexTests {
+
+  private static final String OPS[] = {"=", "!=", "<", "<=", ">", ">=", PrimitiveArray.REGEX_OP};
+  private static final double TIME0 = Calendar2.isoStringToEpochSeconds("2020-01-01T00:00:00Z");
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes the dataVariables: double, float, int, String time, numeric time, String. */
+  private static EDV[] makeDataVariables() throws Throwable {
+    return new EDV[] {
+      new EDV("testFTI", "depth", "depth", null, new Attributes(), "double"),
+      new EDV("testFTI", "temp", "temp", null, new Attributes(), "float"),
+      new EDV("testFTI", "count", "count", null, new Attributes(), "int"),
+      new EDVTimeStamp(
+          "testFTI",
+          "time",
+          "time",
+          null,
+          new Attributes().add("units", "yyyy-MM-dd'T'HH:mm:ssXXX"),
+          "String"),
+      new EDVTimeStamp(
+          "testFTI",
+          "time2",
+          "time2",
+          null,
+          new Attributes().add("units", Calendar2.SECONDS_SINCE_1970),
+          "double"),
+      new EDV("testFTI", "station", "station", null, new Attributes(), "String")
+    };
+  }
+
+  /**
+   * This makes a fileTable (like EDDTableFromFiles') with lots of ties, missing values, files with
+   * just missing values, and invalid times.
+   */
+  private static Table makeFileTable(int nRows, Random random, long lastMod) {
+    Table table = new Table();
+    ShortArray dirIndex = new ShortArray();
+    StringArray fileName = new StringArray();
+    LongArray lastModPA = new LongArray();
+    LongArray size = new LongArray();
+    DoubleArray sortedSpacing = new DoubleArray();
+    table.addColumn("dirIndex", dirIndex);
+    table.addColumn("fileName", fileName);
+    table.addColumn("lastMod", lastModPA);
+    table.addColumn("size", size);
+    table.addColumn("sortedSpacing", sortedSpacing);
+    PrimitiveArray pas[] = {
+      new DoubleArray(),
+      new FloatArray(),
+      new IntArray(),
+      new StringArray(),
+      new DoubleArray(),
+      new StringArray()
+    };
+    String names[] = {"depth", "temp", "count", "time", "time2", "station"};
+    for (int dv = 0; dv < pas.length; dv++) {
+      table.addColumn(names[dv] + "_min_", pas[dv]);
+      table.addColumn(names[dv] + "_max_", (PrimitiveArray) pas[dv].clone());
+      table.addColumn(names[dv] + "_hasNaN_", new ByteArray());
+    }
+    for (int row = 0; row < nRows; row++) {
+      dirIndex.add((short) random.nextInt(3));
+      fileName.add("file" + row + ".nc");
+      lastModPA.add(lastMod + row);
+      size.add(1000 + random.nextInt(1000));
+      sortedSpacing.add(Double.NaN);
+      for (int dv = 0; dv < pas.length; dv++) {
+        int col = EDDTableFromFiles.dv0 + dv * 3;
+        int kind = random.nextInt(20); // 0=all missing, 1=min missing, 2=max missing
+        double min = random.nextInt(200) * 0.5 - 30;
+        double max = min + random.nextInt(40) * 0.5;
+        for (int mm = 0; mm < 2; mm++) {
+          double d = mm == 0 ? min : max;
+          boolean missing = kind == 0 || kind == mm + 1;
+          PrimitiveArray pa = table.getColumn(col + mm);
+          switch (dv) {
+            case 0, 4 -> pa.addDouble(missing ? Double.NaN : dv == 4 ? TIME0 + d * 3600 : d);
+            case 1 -> pa.addFloat(missing ? Float.NaN : (float) (d / 3));
+            case 2 -> pa.addInt(missing ? Integer.MAX_VALUE : (int) (d * 2));
+            case 3 ->
+                pa.addString(missing ? "" : Calendar2.epochSecondsToIsoStringTZ(TIME0 + d * 3600));
+            default -> pa.addString(missing ? "" : "station" + (int) d);
+          }
+        }
+        boolean hasNaN = kind < 3 || random.nextBoolean();
+        ((ByteArray) table.getColumn(col + 2)).add((byte) (hasNaN ? 1 : 0));
+      }
+    }
+    return table;
+  }
+
+  /** This tests one file against one constraint, like the file loop in getDataForDapQuery. */
+  private static boolean isOK(
+      EDV edv, Table fileTable, int dv, int row, String op, double conValue) {
+    int col = EDDTableFromFiles.dv0 + dv * 3;
+    int fNaN = fileTable.getIntData(col + 2, row);
+    PAType paType = edv.sourceDataPAType();
+    if (op.equals(PrimitiveArray.REGEX_OP)) return true; // numbers aren't rejected by regex
+    if (edv instanceof EDVTimeStamp tdv) {
+      if (paType == PAType.STRING
+          && (!tdv.sourceTimeFormat().toLowerCase().startsWith("yyyy")
+              || Double.isNaN(conValue))) return true;
+      double fMin = tdv.sourceTimeToEpochSeconds(fileTable.getStringData(col, row));
+      double fMax = tdv.sourceTimeToEpochSeconds(fileTable.getStringData(col + 1, row));
+      if (Double.isNaN(fMin)) fMin = -1e100;
+      if (Double.isNaN(fMax)) fMax = 1e100;
+      return EDDTableFromFiles.isOK(PAType.STRING, fMin, fMax, fNaN, op, conValue);
+    }
+    return EDDTableFromFiles.isOK(
+        paType,
+        fileTable.getDoubleData(col, row),
+        fileTable.getDoubleData(col + 1, row),
+        fNaN,
+        op,
+        conValue);
+  }
+
+  /** This returns constraint values at, just beside, between, and beyond the files' values. */
+  private static DoubleArray conValues(FileTableIndex index, EDV edv, int dv, Random random) {
+    int nRows = index.nRows();
+    DoubleArray values = new DoubleArray();
+    values.add(Double.NaN);
+    values.add(-1e10);
+    values.add(1e10);
+    for (int i = 0; i < 15; i++) {
+      int row = random.nextInt(nRows);
+      double d = random.nextBoolean() ? index.min(dv, row) : index.max(dv, row);
+      if (Double.isNaN(d) || Math.abs(d) == 1e100) continue;
+      values.add(d);
+      values.add(Math.nextUp(d));
+      values.add(Math.nextDown(d));
+      values.add(d + 0.25);
+      // within isOK's "almost equal" tolerance
+      values.add(d * (1 + (edv.sourceDataPAType() == PAType.FLOAT ? 5e-6 : 5e-10)));
+      values.add(d * (1 - (edv.sourceDataPAType() == PAType.FLOAT ? 5e-6 : 5e-10)));
+      if (edv instanceof EDVTimeStamp) {
+        values.add(d + 0.4); // the files' times are rounded to seconds
+        values.add(d - 0.4);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * This tests that for each operator and many constraint values, the files which pass isOK are
+   * the same with and without the index: i.e., candidates() is a superset of a brute force scan.
+   *
+   * @return the number of files which the index pruned (so the caller can check that it did)
+   */
+  private static long testAllConstraints(
+      EDV dataVariables[], FileTableIndex index, Table fileTable, int dv, Random random) {
+    EDV edv = dataVariables[dv];
+    int nRows = fileTable.nRows();
+    long nPruned = 0;
+    DoubleArray values = conValues(index, edv, dv, random);
+    for (String op : OPS) {
+      for (int vi = 0; vi < values.size(); vi++) {
+        double value = values.get(vi);
+        String msg = edv.destinationName() + op + value;
+        int candidates[] = index.candidates(dv, op, value);
+        Test.ensureEqual(
+            index.nCandidates(dv, op, value),
+            candidates == null ? nRows : candidates.length,
+            msg + " nCandidates");
+        if (op.equals("!=") || op.equals(PrimitiveArray.REGEX_OP) || Double.isNaN(value))
+          Test.ensureTrue(candidates == null, msg + " can't be pruned");
+        BitSet isCandidate = new BitSet(nRows);
+        if (candidates == null) {
+          isCandidate.set(0, nRows);
+        } else {
+          for (int i = 0; i < candidates.length; i++) {
+            if (i > 0) Test.ensureTrue(candidates[i] > candidates[i - 1], msg + " not sorted");
+            isCandidate.set(candidates[i]);
+          }
+          nPruned += nRows - candidates.length;
+        }
+
+        // the files which pass isOK via the index == the files which pass a full scan
+        BitSet expected = new BitSet(nRows);
+        BitSet observed = new BitSet(nRows);
+        for (int row = 0; row < nRows; row++) {
+          boolean ok = isOK(edv, fileTable, dv, row, op, value);
+          if (ok) expected.set(row);
+          if (ok && isCandidate.get(row)) observed.set(row);
+        }
+        Test.ensureEqual(observed.toString(), expected.toString(), msg);
+      }
+    }
+    return nPruned;
+  }
+
+  /** This tests candidates() for each type of variable, operator, and many values. */
+  @org.junit.jupiter.api.Test
+  void candidatesTest() throws Throwable {
+    String2.log("\n*** FileTableIndexTests.candidatesTest");
+    Random random = new Random(17);
+    EDV dataVariables[] = makeDataVariables();
+    Table fileTable = makeFileTable(300, random, 1000000);
+    FileTableIndex index =
+        new FileTableIndex(dataVariables, fileTable, EDDTableFromFiles.dv0, 0, null, null);
+    Test.ensureTrue(index.isFor(0), "");
+    Test.ensureTrue(!index.isFor(1), "");
+    Test.ensureEqual(index.nRows(), 300, "");
+
+    for (int dv = 0; dv < dataVariables.length; dv++) {
+      String msg = dataVariables[dv].destinationName();
+      Test.ensureTrue(!index.isIndexed(dv), msg);
+      if (dv == 5) {
+        // String variables can't be indexed
+        Test.ensureTrue(!FileTableIndex.isIndexable(dataVariables[dv]), msg);
+        Test.ensureTrue(!index.ensureIndexed(dv, fileTable), msg);
+        continue;
+      }
+      Test.ensureTrue(index.ensureIndexed(dv, fileTable), msg);
+      Test.ensureTrue(index.isIndexed(dv), msg);
+      long nPruned = testAllConstraints(dataVariables, index, fileTable, dv, random);
+      Test.ensureTrue(nPruned > 0, msg + " The index didn't prune any files.");
+    }
+  }
+
+  /** This tests making a new index for a changed fileTable, reusing the old index's values. */
+  @org.junit.jupiter.api.Test
+  void updateTest() throws Throwable {
+    String2.log("\n*** FileTableIndexTests.updateTest");
+    Random random = new Random(17);
+    EDV dataVariables[] = makeDataVariables();
+    Table oldFileTable = makeFileTable(200, random, 1000000);
+    FileTableIndex oldIndex =
+        new FileTableIndex(dataVariables, oldFileTable, EDDTableFromFiles.dv0, 0, null, null);
+    oldIndex.ensureIndexed(0, oldFileTable);
+    oldIndex.ensureIndexed(3, oldFileTable);
+
+    // the new fileTable: some of the old files (in a different order) and some changed files
+    Table newFiles = makeFileTable(50, random, 2000000);
+    Table fileTable = (Table) oldFileTable.clone();
+    fileTable.removeRows(0, 30);
+    int nRows = fileTable.nRows();
+    for (int col = 0; col < fileTable.nColumns(); col++) {
+      PrimitiveArray pa = fileTable.getColumn(col);
+      PrimitiveArray oldPA = (PrimitiveArray) pa.clone();
+      for (int row = 0; row < nRows; row++) {
+        if (row % 2 == 0 && row / 2 < newFiles.nRows())
+          pa.setFromPA(row, newFiles.getColumn(col), row / 2);
+        else pa.setFromPA(row, oldPA, nRows - 1 - row);
+      }
+    }
+
+    FileTableIndex index =
+        new FileTableIndex(
+            dataVariables, fileTable, EDDTableFromFiles.dv0, 1, oldIndex, oldFileTable);
+    Test.ensureTrue(index.isFor(1), "");
+    Test.ensureTrue(!oldIndex.isFor(1), "");
+    for (int dv = 0; dv < dataVariables.length; dv++) {
+      String msg = dataVariables[dv].destinationName();
+      Test.ensureEqual(index.isIndexed(dv), dv == 0 || dv == 3, msg);
+      if (index.isIndexed(dv))
+        Test.ensureTrue(testAllConstraints(dataVariables, index, fileTable, dv, random) > 0, msg);
+    }
+  }
+
+  /**
+   * This tests that an index isn't used for its own fileTable after the fileTable is changed in
+   * place, as EDDTableFromHttpGet.insertOrDelete does (it increments the fileTable's version, then
+   * adds new files and widens min/max), and that a new index for the changed fileTable is right.
+   */
+  @org.junit.jupiter.api.Test
+  void changedInPlaceTest() throws Throwable {
+    String2.log("\n*** FileTableIndexTests.changedInPlaceTest");
+    Random random = new Random(17);
+    EDV dataVariables[] = makeDataVariables();
+    Table fileTable = makeFileTable(200, random, 1000000);
+    long version = 0;
+    FileTableIndex oldIndex =
+        new FileTableIndex(dataVariables, fileTable, EDDTableFromFiles.dv0, version, null, null);
+    oldIndex.ensureIndexed(0, fileTable);
+    Test.ensureTrue(oldIndex.isFor(version), "");
+    int depthMax = EDDTableFromFiles.dv0 + 1;
+
+    version++;
+    Test.ensureTrue(!oldIndex.isFor(version), "");
+
+    // data is appended to file 5: its max is wider and its lastMod and size change
+    fileTable.setDoubleData(depthMax, 5, 1e6);
+    fileTable.getColumn(EDDTableFromFiles.FT_LAST_MOD_COL).setLong(5, 3000000);
+    fileTable.getColumn(EDDTableFromFiles.FT_SIZE_COL).setLong(5, 5000);
+
+    // a new file
+    Table newFile = makeFileTable(1, random, 3000000);
+    newFile.setDoubleData(depthMax - 1, 0, 2e6);
+    newFile.setDoubleData(depthMax, 0, 2e6);
+    for (int col = 0; col < fileTable.nColumns(); col++)
+      fileTable.getColumn(col).append(newFile.getColumn(col));
+
+    FileTableIndex index =
+        new FileTableIndex(dataVariables, fileTable, EDDTableFromFiles.dv0, version, null, null);
+    Test.ensureTrue(index.isFor(version), "");
+    Test.ensureEqual(index.nRows(), 201, "");
+    index.ensureIndexed(0, fileTable);
+    Test.ensureEqual(String2.toCSSVString(index.candidates(0, ">=", 1e5)), "5, 200", "");
+    Test.ensureTrue(testAllConstraints(dataVariables, index, fileTable, 0, random) > 0, "");
+  }
+}
@@ -0,0 +1,253 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.Attributes;
+import com.cohort.array.FloatArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.variable.EDV;
+import gov.noaa.pfel.erddap.variable.EDVGridAxis;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeAll;
+import testDataset.Initialization;
+
+class GridDataAccessorTests {
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /**
+   * A small in-memory dataset: v[y=0..9][x=0..4] = y*100 + x. It records which y's were requested,
+   * and can be made to fail or be slow for some y's.
+   */
+  private static class TestEDDGrid extends EDDGrid {
+    int failAtY = -1; // throw an exception when this y is requested
+    int slowFromY = Integer.MAX_VALUE; // sleep for 1s when y's >= this are requested
+    final List<Integer> started = new ArrayList<>(); // the y's requested
+    final AtomicInteger nCompleted = new AtomicInteger();
+    final AtomicInteger nInterrupted = new AtomicInteger();
+
+    TestEDDGrid() throws Throwable {
+      className = "TestEDDGrid";
+      datasetID = "testGridDataAccessor";
+      sourceGlobalAttributes = new Attributes();
+      sourceGlobalAttributes.add("sourceUrl", "(local)");
+      addGlobalAttributes = new Attributes();
+      combinedGlobalAttributes = new Attributes(addGlobalAttributes, sourceGlobalAttributes);
+
+      Attributes axisAtts = new Attributes();
+      axisAtts.set("units", "m");
+      axisVariables = new EDVGridAxis[2];
+      axisVariables[0] =
+          new EDVGridAxis(datasetID, "y", null, axisAtts, new Attributes(), new IntArray(0, 9));
+      axisVariables[1] =
+          new EDVGridAxis(datasetID, "x", null, axisAtts, new Attributes(), new IntArray(0, 4));
+
+      Attributes dAtt = new Attributes();
+      dAtt.set("ioos_category", "Other");
+      dAtt.set("units", "m");
+      dataVariables = new EDV[1];
+      dataVariables[0] = new EDV(datasetID, "v", "", dAtt, new Attributes(), "float");
+    }
+
+    @Override
+    public EDDGrid sibling(
+        String tLocalSourceUrl, int firstAxisToMatch, int matchAxisNDigits, boolean shareInfo) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public PrimitiveArray[] getSourceData(
+        int language, Table tDirTable, Table tFileTable, EDV tDataVariables[], IntArray tc)
+        throws Throwable {
+      int y0 = tc.get(0), y1 = tc.get(2), x0 = tc.get(3), x1 = tc.get(5);
+      synchronized (started) {
+        for (int y = y0; y <= y1; y++) started.add(y);
+      }
+      if (y0 <= failAtY && failAtY <= y1)
+        throw new RuntimeException("test failure at y=" + failAtY);
+      if (y1 >= slowFromY) {
+        try {
+          Thread.sleep(1000);
+        } catch (InterruptedException e) {
+          nInterrupted.incrementAndGet();
+          throw e;
+        }
+      }
+      FloatArray data = new FloatArray();
+      for (int y = y0; y <= y1; y++) for (int x = x0; x <= x1; x++) data.add(y * 100 + x);
+      nCompleted.incrementAndGet();
+      return new PrimitiveArray[] {
+        axisVariables[0].sourceValues().subset(y0, 1, y1),
+        axisVariables[1].sourceValues().subset(x0, 1, x1),
+        data
+      };
+    }
+
+    int maxStarted() {
+      synchronized (started) {
+        int max = -1;
+        for (int y : started) max = Math.max(max, y);
+        return max;
+      }
+    }
+  }
+
+  /**
+   * This makes a GridDataAccessor for all of v, with small chunks (one y if row major, one x if
+   * column major).
+   */
+  private static GridDataAccessor makeGda(
+      TestEDDGrid eddGrid, boolean rowMajor, int gridReadAheadChunks) throws Throwable {
+    int oPartialRequestMaxBytes = EDStatic.partialRequestMaxBytes;
+    int oGridReadAheadChunks = EDStatic.gridReadAheadChunks;
+    try {
+      EDStatic.partialRequestMaxBytes = 30;
+      EDStatic.gridReadAheadChunks = gridReadAheadChunks;
+      return new GridDataAccessor(
+          0, eddGrid, "/griddap/testGridDataAccessor.csv", "v[0:9][0:4]", rowMajor, true);
+    } finally {
+      EDStatic.partialRequestMaxBytes = oPartialRequestMaxBytes;
+      EDStatic.gridReadAheadChunks = oGridReadAheadChunks;
+    }
+  }
+
+  /** This returns the values in the order increment() (or incrementChunk()) gets them. */
+  private static String getAll(GridDataAccessor gda, boolean byChunk) throws Throwable {
+    StringBuilder sb = new StringBuilder();
+    try {
+      if (byChunk) {
+        while (gda.incrementChunk()) sb.append(gda.getPartialDataValues(0).toString() + "\n");
+      } else {
+        while (gda.increment())
+          sb.append(
+              gda.getAxisValueAsDouble(0)
+                  + ","
+                  + gda.getAxisValueAsDouble(1)
+                  + ","
+                  + gda.getDataValueAsDouble(0)
+                  + "\n");
+      }
+    } finally {
+      gda.releaseGetResources();
+    }
+    return sb.toString();
+  }
+
+  /** This tests that reading ahead gets the same values in the same order as not reading ahead. */
+  @org.junit.jupiter.api.Test
+  void testReadAheadOrder() throws Throwable {
+    String2.log("\n*** GridDataAccessorTests.testReadAheadOrder");
+    for (boolean rowMajor : new boolean[] {true, false}) {
+      for (boolean byChunk : new boolean[] {true, false}) {
+        if (!rowMajor && byChunk) continue; // incrementChunk doesn't support column major
+        String msg = "rowMajor=" + rowMajor + " byChunk=" + byChunk;
+        // the values in the expected order
+        StringBuilder sb = new StringBuilder();
+        for (int outer = 0; outer < (rowMajor ? 10 : 5); outer++) {
+          for (int inner = 0; inner < (rowMajor ? 5 : 10); inner++) {
+            int y = rowMajor ? outer : inner;
+            int x = rowMajor ? inner : outer;
+            sb.append(
+                byChunk
+                    ? (inner == 0 ? "" : ", ") + (y * 100 + x) + ".0"
+                    : y + ".0," + x + ".0," + (y * 100 + x) + ".0\n");
+          }
+          if (byChunk) sb.append("\n");
+        }
+        String expected = sb.toString();
+
+        TestEDDGrid eddGrid = new TestEDDGrid();
+        GridDataAccessor gda = makeGda(eddGrid, rowMajor, 0);
+        Test.ensureEqual(gda.readAhead, 0, msg);
+        Test.ensureEqual(getAll(gda, byChunk), expected, msg);
+
+        for (int tReadAhead : new int[] {1, 3, 100}) {
+          eddGrid = new TestEDDGrid();
+          gda = makeGda(eddGrid, rowMajor, tReadAhead);
+          Test.ensureTrue(gda.readAhead > 0, msg + " readAhead=" + gda.readAhead);
+          Test.ensureEqual(getAll(gda, byChunk), expected, msg + " readAhead=" + tReadAhead);
+          Test.ensureEqual(eddGrid.nCompleted.get(), rowMajor ? 10 : 5, msg);
+        }
+      }
+    }
+  }
+
+  /**
+   * This tests that an error while getting a chunk ahead of time is thrown when that chunk is
+   * needed, and that no more chunks are gotten.
+   */
+  @org.junit.jupiter.api.Test
+  void testReadAheadError() throws Throwable {
+    String2.log("\n*** GridDataAccessorTests.testReadAheadError");
+    for (boolean byChunk : new boolean[] {true, false}) {
+      TestEDDGrid eddGrid = new TestEDDGrid();
+      eddGrid.failAtY = 3;
+      GridDataAccessor gda = makeGda(eddGrid, true, 3);
+      int readAhead = gda.readAhead;
+      Test.ensureTrue(readAhead > 0, "readAhead=" + readAhead);
+      int nChunks = 0;
+      try {
+        if (byChunk) {
+          while (gda.incrementChunk()) nChunks++;
+        } else {
+          while (gda.increment()) if (gda.getAxisValueAsDouble(1) == 0) nChunks++;
+        }
+        throw new RuntimeException("shouldn't get here");
+      } catch (WaitThenTryAgainException e) {
+        Test.ensureTrue(
+            e.getMessage().indexOf("test failure at y=3") >= 0, MustBe.throwableToString(e));
+      } finally {
+        gda.releaseGetResources();
+      }
+      // the chunks before the error were gotten
+      Test.ensureEqual(nChunks, 3, "byChunk=" + byChunk);
+      Test.ensureEqual(gda.readAhead, 0, "byChunk=" + byChunk);
+      // no chunks were submitted after the error
+      Test.ensureTrue(
+          eddGrid.maxStarted() <= 3 + readAhead, "started=" + eddGrid.started.toString());
+    }
+  }
+
+  /** This tests that releaseGetResources cancels the chunks being gotten ahead of time. */
+  @org.junit.jupiter.api.Test
+  void testReadAheadEarlyRelease() throws Throwable {
+    String2.log("\n*** GridDataAccessorTests.testReadAheadEarlyRelease");
+    TestEDDGrid eddGrid = new TestEDDGrid();
+    eddGrid.slowFromY = 2;
+    GridDataAccessor gda = makeGda(eddGrid, true, 3);
+    int readAhead = gda.readAhead;
+    Test.ensureTrue(readAhead > 0, "readAhead=" + readAhead);
+    long time = System.currentTimeMillis();
+    Test.ensureTrue(gda.incrementChunk(), "");
+    Test.ensureTrue(gda.incrementChunk(), "");
+    Test.ensureEqual(
+        gda.getPartialDataValues(0).toString(), "100.0, 101.0, 102.0, 103.0, 104.0", "");
+    gda.releaseGetResources();
+    Test.ensureEqual(gda.readAhead, 0, "");
+
+    // wait for the slow tasks which had started to be interrupted
+    while (true) {
+      int nStarted;
+      synchronized (eddGrid.started) {
+        nStarted = eddGrid.started.size();
+      }
+      if (eddGrid.nCompleted.get() + eddGrid.nInterrupted.get() == nStarted) break;
+      Test.ensureTrue(System.currentTimeMillis() - time < 5000, "started=" + eddGrid.started);
+      Thread.sleep(10);
+    }
+    // none of the slow chunks ran to completion, and no more chunks were started
+    Test.ensureEqual(eddGrid.nCompleted.get(), 2, "started=" + eddGrid.started);
+    Test.ensureTrue(eddGrid.maxStarted() <= 1 + readAhead, "started=" + eddGrid.started);
+    Thread.sleep(200);
+    Test.ensureTrue(eddGrid.maxStarted() <= 1 + readAhead, "started=" + eddGrid.started);
+  }
+}
@@ -0,0 +1,167 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.io.TempDir;
+
+class GridTileCacheTests {
+  @TempDir private static Path TEMP_DIR;
+
+  private static final int NTIME = 3, NLAT = 300, NLON = 600;
+
+  /** The value of data variable dv at [t][lat][lon]. */
+  private static int value(int dv, int t, int lat, int lon) {
+    return dv * 1000000 + t * 100000 + lat * 1000 + lon;
+  }
+
+  /** This makes the axis values for a 3 time x 300 lat x 600 lon grid. */
+  private static PrimitiveArray[] makeAxes(int nTime) {
+    return new PrimitiveArray[] {
+      new IntArray(0, nTime - 1), new IntArray(0, NLAT - 1), new IntArray(0, NLON - 1)
+    };
+  }
+
+  /** This makes a source which gets the values from value() and logs the requests. */
+  private static GridTileCache.Source makeSource(PrimitiveArray axes[], List<String> log) {
+    return (dvs, c) -> {
+      log.add(new IntArray(dvs) + " " + c);
+      PrimitiveArray results[] = new PrimitiveArray[3 + dvs.length];
+      for (int av = 0; av < 3; av++)
+        results[av] = axes[av].subset(c.get(av * 3), c.get(av * 3 + 1), c.get(av * 3 + 2));
+      for (int i = 0; i < dvs.length; i++) results[3 + i] = expected(dvs[i], c);
+      return results;
+    };
+  }
+
+  /** This returns the expected data for data variable dv and the constraints. */
+  private static PrimitiveArray expected(int dv, IntArray c) {
+    IntArray ia = new IntArray();
+    for (int t = c.get(0); t <= c.get(2); t += c.get(1))
+      for (int lat = c.get(3); lat <= c.get(5); lat += c.get(4))
+        for (int lon = c.get(6); lon <= c.get(8); lon += c.get(7)) ia.add(value(dv, t, lat, lon));
+    return ia;
+  }
+
+  /** This tests that the results from the cache are the same as from the source. */
+  private static void ensureResults(
+      GridTileCache cache, PrimitiveArray axes[], String dvNames[], int c[], List<String> log)
+      throws Throwable {
+    IntArray constraints = new IntArray(c);
+    PrimitiveArray results[] =
+        cache.getSourceData("test", axes, dvNames, constraints, makeSource(axes, log));
+    Test.ensureEqual(results.length, 3 + dvNames.length, "");
+    for (int av = 0; av < 3; av++)
+      Test.ensureEqual(
+          results[av], axes[av].subset(c[av * 3], c[av * 3 + 1], c[av * 3 + 2]), "");
+    for (int dv = 0; dv < dvNames.length; dv++)
+      Test.ensureEqual(
+          results[3 + dv].toString(),
+          expected(String2.parseInt(dvNames[dv].substring(2)), constraints).toString(),
+          "dv=" + dv);
+  }
+
+  /** This tests the memory cache. */
+  @org.junit.jupiter.api.Test
+  void memoryTest() throws Throwable {
+    String2.log("\n*** GridTileCacheTests.memoryTest");
+    GridTileCache cache =
+        new GridTileCache(null, 100000000, 0, TEMP_DIR.toString() + "/memory/", 10000000);
+    PrimitiveArray axes[] = makeAxes(NTIME);
+    List<String> log = new ArrayList<>();
+    String dv0[] = {"dv0"};
+
+    // the missing tiles are gotten with one tile-aligned request
+    ensureResults(cache, axes, dv0, new int[] {2, 1, 2, 10, 1, 260, 300, 1, 310}, log);
+    Test.ensureEqual(log.toString(), "[0 2, 1, 2, 0, 1, 299, 256, 1, 511]", "");
+    GridTileCache.Stats stats = cache.datasetStats().get("test");
+    Test.ensureEqual(stats.misses(), 2L, "");
+
+    // a request within those tiles is a hit
+    log.clear();
+    ensureResults(cache, axes, dv0, new int[] {2, 1, 2, 0, 1, 299, 400, 1, 400}, log);
+    Test.ensureEqual(log.size(), 0, "");
+    Test.ensureEqual(stats.memoryHits(), 2L, "");
+
+    // a request which overlaps them only gets the missing tiles
+    log.clear();
+    ensureResults(cache, axes, dv0, new int[] {2, 1, 2, 5, 1, 6, 250, 1, 599}, log);
+    Test.ensureEqual(log.toString(), "[0 2, 1, 2, 0, 1, 255, 0, 1, 599]", "");
+
+    // a request for another variable, with a stride, and on 2 time points
+    log.clear();
+    String dvs[] = {"dv0", "dv1"};
+    ensureResults(cache, axes, dvs, new int[] {0, 1, 1, 1, 3, 298, 0, 5, 595}, log);
+    Test.ensureEqual(log.toString(), "[0, 1 0, 1, 1, 1, 3, 298, 0, 5, 595]", "");
+    log.clear();
+    ensureResults(cache, axes, dvs, new int[] {1, 1, 1, 4, 3, 100, 50, 5, 300}, log);
+    Test.ensureEqual(log.size(), 0, "");
+
+    // a request which is too big isn't cached
+    GridTileCache small = new GridTileCache(null, 100000000, 0, "", 100000);
+    log.clear();
+    ensureResults(small, axes, dv0, new int[] {0, 1, 0, 0, 1, 299, 0, 1, 599}, log);
+    Test.ensureEqual(log.toString(), "[0 0, 1, 0, 0, 1, 299, 0, 1, 599]", "");
+    Test.ensureEqual(small.datasetStats().get("test").bypassed(), 1L, "");
+    String2.log(cache.statsString());
+
+    // an unloaded dataset's tiles and statistics are removed
+    Test.ensureTrue(cache.memoryBytes() > 0, "memoryBytes=" + cache.memoryBytes());
+    cache.remove("test");
+    Test.ensureEqual(cache.memoryBytes(), 0L, "");
+    Test.ensureEqual(cache.datasetStats().containsKey("test"), false, "");
+  }
+
+  /** This tests the disk cache and invalidation. */
+  @org.junit.jupiter.api.Test
+  void diskTest() throws Throwable {
+    String2.log("\n*** GridTileCacheTests.diskTest");
+    GridTileCache cache = new GridTileCache(null, 0, 10000000, TEMP_DIR + "/disk/", 10000000);
+    PrimitiveArray axes[] = makeAxes(NTIME);
+    List<String> log = new ArrayList<>();
+    String dv0[] = {"dv0"};
+    int c[] = {2, 1, 2, 0, 1, 299, 0, 1, 255};
+    ensureResults(cache, axes, dv0, c, log);
+    Test.ensureEqual(log.size(), 1, "");
+    Test.ensureTrue(cache.diskBytes() > 300 * 256 * 4, "diskBytes=" + cache.diskBytes());
+    ensureResults(cache, axes, dv0, c, log);
+    Test.ensureEqual(log.size(), 1, "");
+    Test.ensureEqual(cache.datasetStats().get("test").diskHits(), 2L, "");
+
+    // new axis objects with appended values: the tiles are still used
+    PrimitiveArray axes2[] = makeAxes(NTIME + 1);
+    ensureResults(cache, axes2, dv0, c, log);
+    Test.ensureEqual(log.size(), 1, "");
+
+    // changed axis values: the tiles are removed
+    PrimitiveArray axes3[] = makeAxes(NTIME);
+    axes3[1] = new DoubleArray(axes3[1]);
+    ensureResults(cache, axes3, dv0, c, log);
+    Test.ensureEqual(log.size(), 2, "");
+    Test.ensureTrue(cache.diskBytes() < 2 * 300 * 256 * 4, "diskBytes=" + cache.diskBytes());
+
+    // an unloaded dataset's tiles and statistics are removed
+    cache.remove("test");
+    Test.ensureEqual(cache.diskBytes(), 0L, "");
+    Test.ensureEqual(cache.datasetStats().containsKey("test"), false, "");
+    ensureResults(cache, axes, dv0, c, log);
+    Test.ensureEqual(log.size(), 3, "");
+
+    // least recently used tiles are removed
+    GridTileCache small = new GridTileCache(null, 0, 300000, TEMP_DIR + "/small/", 10000000);
+    log.clear();
+    ensureResults(small, axes, dv0, new int[] {0, 1, 0, 0, 1, 255, 0, 1, 255}, log);
+    ensureResults(small, axes, dv0, new int[] {1, 1, 1, 0, 1, 255, 0, 1, 255}, log);
+    ensureResults(small, axes, dv0, new int[] {0, 1, 0, 0, 1, 255, 0, 1, 255}, log);
+    Test.ensureEqual(log.size(), 3, "");
+    Test.ensureTrue(small.diskBytes() <= 300000, "diskBytes=" + small.diskBytes());
+    String2.log(small.statsString());
+    small.clear();
+    Test.ensureEqual(small.diskBytes(), 0L, "");
+  }
+}
@@ -0,0 +1,138 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.util.BitSet;
+import java.util.Random;
+
+class SubsetIndexTests {
+
+  /** This makes a station/platform-like subset table. */
+  private static Table makeTable(int nRows, Random random) {
+    StringArray station = new StringArray();
+    IntArray platform = new IntArray();
+    DoubleArray depth = new DoubleArray();
+    for (int row = 0; row < nRows; row++) {
+      station.add(random.nextInt(10) == 0 ? "" : "st" + random.nextInt(50));
+      platform.add(random.nextInt(20) == 0 ? Integer.MAX_VALUE : random.nextInt(8));
+      depth.add(random.nextInt(20) == 0 ? Double.NaN : random.nextInt(30) * 0.5);
+    }
+    Table table = new Table();
+    table.addColumn("station", station);
+    table.addColumn("platform", platform);
+    table.addColumn("depth", depth);
+    return table;
+  }
+
+  /** This tests every row (the old way). */
+  private static BitSet bruteForce(Table table, String ops[][]) {
+    BitSet keep = new BitSet();
+    keep.set(0, table.nRows());
+    for (String op[] : ops) {
+      PrimitiveArray pa = table.findColumn(op[0]);
+      pa.applyConstraint(false, keep, op[1], op[2]);
+    }
+    return keep;
+  }
+
+  /** This tests the constraints on the distinct values and selects the rows. */
+  private static BitSet select(SubsetIndex index, String ops[][]) {
+    BitSet allowed[] = new BitSet[index.nColumns()];
+    for (String op[] : ops) {
+      int col = index.findColumnNumber(op[0]);
+      if (allowed[col] == null) {
+        allowed[col] = new BitSet();
+        allowed[col].set(0, index.values(col).size());
+      }
+      index.values(col).applyConstraint(false, allowed[col], op[1], op[2]);
+    }
+    return index.select(allowed);
+  }
+
+  /** This tests that selections match testing every row. */
+  @org.junit.jupiter.api.Test
+  void selectTest() throws Throwable {
+    String2.log("\n*** SubsetIndexTests.selectTest");
+    Random random = new Random(17);
+    Table table = makeTable(5000, random);
+    Table original = (Table) table.clone();
+    SubsetIndex index = new SubsetIndex(table, new Table());
+    Test.ensureEqual(index.nRows(), 5000, "");
+    Test.ensureEqual(index.nColumns(), 3, "");
+    Test.ensureTrue(index.values(0).size() <= 51, "");
+
+    String tests[][][] = {
+      {},
+      {{"station", "=", "st7"}},
+      {{"station", "=", ""}},
+      {{"station", "=~", "st1.*"}, {"platform", "=", "3"}},
+      {{"platform", "!=", "NaN"}, {"depth", ">=", "10"}, {"depth", "<", "12.5"}},
+      {{"depth", "=", "NaN"}, {"station", "!=", "st3"}},
+      {{"station", "=", "nothing"}, {"depth", ">", "1"}},
+      {{"station", ">=", "ST4"}, {"platform", "<=", "2"}, {"depth", "!=", "1.5"}}
+    };
+    for (String ops[][] : tests) {
+      BitSet expected = bruteForce((Table) original.clone(), ops);
+      BitSet rows = select(index, ops);
+      Test.ensureEqual(rows, expected, String2.toCSSVString(ops.length > 0 ? ops[0] : ops));
+
+      // the subset has the same rows (in order)
+      Table subset = index.subset(rows);
+      Table expectedTable = (Table) original.clone();
+      expectedTable.justKeep(expected);
+      Test.ensureEqual(subset.dataToString(), expectedTable.dataToString(), "");
+    }
+
+    // the index's table wasn't changed
+    Test.ensureEqual(table.dataToString(), original.dataToString(), "");
+    Test.ensureTrue(index.isFor(original), "");
+    Table changed = (Table) original.clone();
+    changed.getColumn(2).setDouble(10, 1234.5);
+    Test.ensureTrue(!index.isFor(changed), "");
+
+    // just the metadata changed (e.g., a reload after the attributes were edited)
+    changed = (Table) original.clone();
+    changed.columnAttributes(2).set("units", "m");
+    Test.ensureTrue(!index.isFor(changed), "");
+    changed = (Table) original.clone();
+    changed.globalAttributes().set("title", "A New Title");
+    Test.ensureTrue(!index.isFor(changed), "");
+  }
+
+  /** This tests getting the distinct values columns. */
+  @org.junit.jupiter.api.Test
+  void distinctTest() throws Throwable {
+    String2.log("\n*** SubsetIndexTests.distinctTest");
+    Table table = makeTable(100, new Random(17));
+    Table distinctTable = (Table) table.clone();
+    for (int col = 0; col < 3; col++) {
+      distinctTable.getColumn(col).sortIgnoreCase();
+      distinctTable.getColumn(col).removeDuplicates(false);
+    }
+    SubsetIndex index = new SubsetIndex(table, distinctTable);
+
+    StringArray varNames = new StringArray();
+    PrimitiveArray pas[] = index.distinctColumns(new String[] {"depth", "station"}, varNames);
+    Test.ensureEqual(varNames.toString(), "depth, station", "");
+    Test.ensureEqual(pas[0], distinctTable.getColumn(2), "");
+    Test.ensureEqual(pas[1], distinctTable.getColumn(0), "");
+
+    // they are copies
+    pas[1].setString(0, "zztop");
+    Test.ensureTrue(!distinctTable.getColumn(0).getString(0).equals("zztop"), "");
+
+    pas = index.distinctColumns(null, varNames);
+    Test.ensureEqual(varNames.toString(), "station, platform, depth", "");
+    try {
+      index.distinctColumns(new String[] {"zz"}, varNames);
+      throw new RuntimeException("shouldn't get here");
+    } catch (RuntimeException e) {
+      Test.ensureTrue(e.getMessage().indexOf("not found") >= 0, e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.PrimitiveArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.File2;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.io.DataInputStream;
+import java.nio.file.Path;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import testDataset.Initialization;
+
+class TableWriterAllTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes rows [first, first+n) of the test table. */
+  private static Table makeTable(int first, int n) {
+    IntArray ia = new IntArray(n, false);
+    DoubleArray da = new DoubleArray(n, false);
+    StringArray sa = new StringArray(n, false);
+    for (int row = first; row < first + n; row++) {
+      ia.add(row);
+      da.add(row % 7 == 0 ? Double.NaN : row / 4.0);
+      sa.add(row % 3 == 0 ? "" : "station" + (row % 50)); // compresses well
+    }
+    Table table = new Table();
+    table.addColumn("id", ia);
+    table.addColumn("value", da);
+    table.addColumn("station", sa);
+    return table;
+  }
+
+  /** This writes nRows rows (in several writeSome calls) and checks what is read back. */
+  private static void test(boolean compress, int nRows) throws Throwable {
+    boolean oCompress = TableWriterAll.lz4Compress;
+    TableWriterAll.lz4Compress = compress;
+    TableWriterAll twa =
+        new TableWriterAll(0, null, null, TEMP_DIR.toString(), "twaTest" + compress);
+    try {
+      for (int first = 0; first < nRows; first += 12345)
+        twa.writeSome(makeTable(first, Math.min(12345, nRows - first)));
+      twa.finish();
+      Test.ensureEqual(twa.nRows(), nRows, "");
+      Test.ensureTrue(File2.isFile(twa.spillFileName()), twa.spillFileName());
+
+      // whole columns
+      Table expected = makeTable(0, nRows);
+      for (int col = 0; col < 3; col++) {
+        PrimitiveArray pa = twa.column(col);
+        Test.ensureEqual(pa.elementType(), expected.getColumn(col).elementType(), "col=" + col);
+        Test.ensureEqual(pa, expected.getColumn(col), "col=" + col);
+      }
+
+      // a dataInputStream
+      try (DataInputStream dis = twa.dataInputStream(2)) {
+        PrimitiveArray pa = twa.columnEmptyPA(2);
+        pa.readDis(dis, nRows);
+        Test.ensureEqual(pa, expected.getColumn(2), "");
+        Test.ensureEqual(dis.read(), -1, "");
+      }
+
+      // ranges of rows (within and across chunks)
+      if (nRows >= 100000) {
+        int ranges[][] = {{0, 10}, {nRows - 10, 10}, {30000, 1}, {12340, 60000}, {nRows - 5, 100}};
+        for (int range[] : ranges) {
+          int n = Math.min(range[1], nRows - range[0]);
+          Table rows = twa.rows(range[0], range[1]);
+          Test.ensureEqual(rows.nRows(), n, "");
+          Test.ensureEqual(rows.toString(), makeTable(range[0], n).toString(), "");
+        }
+      }
+      Test.ensureEqual(twa.column(1, nRows + 5, 10).size(), 0, "");
+      int n = Math.min(100, nRows);
+      Test.ensureEqual(twa.column(0, n), expected.getColumn(0).subset(0, 1, n - 1), "");
+    } finally {
+      TableWriterAll.lz4Compress = oCompress;
+      twa.releaseResources();
+    }
+    Test.ensureTrue(!File2.isFile(twa.spillFileName()), twa.spillFileName());
+  }
+
+  /** This tests writing and reading the spill file. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** TableWriterAllTests.basicTest");
+    test(true, 100000);
+    test(false, 100000);
+    test(true, 1);
+  }
+
+  /** This tests that there must be some data. */
+  @org.junit.jupiter.api.Test
+  void noDataTest() throws Throwable {
+    String2.log("\n*** TableWriterAllTests.noDataTest");
+    TableWriterAll twa = new TableWriterAll(0, null, null, TEMP_DIR.toString(), "twaNoData");
+    twa.writeSome(makeTable(0, 0));
+    try {
+      twa.finish();
+      throw new RuntimeException("shouldn't get here");
+    } catch (Throwable t) {
+      Test.ensureTrue(
+          t.getMessage().indexOf(MustBe.THERE_IS_NO_DATA) >= 0, MustBe.throwableToString(t));
+    }
+    twa.releaseResources();
+  }
+}
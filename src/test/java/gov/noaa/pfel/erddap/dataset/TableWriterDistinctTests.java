@@ -0,0 +1,111 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.ByteArray;
+import com.cohort.array.DoubleArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.MustBe;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import testDataset.Initialization;
+
+class TableWriterDistinctTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes a chunk of rows with lots of duplicates, NaNs, and missing values. */
+  private static Table makeTable(int nRows, Random random) {
+    StringArray sa = new StringArray();
+    ByteArray ba = new ByteArray();
+    DoubleArray da = new DoubleArray();
+    for (int row = 0; row < nRows; row++) {
+      int i = random.nextInt(4);
+      sa.add(i == 0 ? "" : i == 1 ? "Station" + random.nextInt(5) : "station" + random.nextInt(5));
+      ba.add(random.nextInt(10) == 0 ? Byte.MAX_VALUE : (byte) random.nextInt(3));
+      da.add(random.nextInt(10) == 0 ? Double.NaN : random.nextInt(4) * 0.25);
+    }
+    Table table = new Table();
+    table.addColumn("station", sa);
+    table.addColumn("flag", ba);
+    table.addColumn("value", da);
+    return table;
+  }
+
+  /** This makes a TableWriterDistinct. */
+  private static TableWriter distinct(String dir, String name, TableWriterAll twa) {
+    return new TableWriterDistinct(0, null, null, dir, name, twa);
+  }
+
+  /** This tests that the results are the same with and without spilling (and as sorting all). */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** TableWriterDistinctTests.basicTest");
+    Random random = new Random(17);
+    Table chunks[] = new Table[20];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = makeTable(5000, random);
+      // the byte column's max is a missing value in some of the chunks
+      chunks[i].getColumn(1).setMaxIsMV(i >= 7);
+    }
+    Table all = TableWriterTestHelper.appendAll(chunks);
+    all.leftToRightSortIgnoreCase(3);
+    all.removeDuplicates();
+    Test.ensureTrue(all.nRows() > 50 && all.nRows() < 500, "nRows=" + all.nRows());
+
+    TableWriterTestHelper.ensureSameWithSpilling(
+        TEMP_DIR.toString(),
+        "twdTest",
+        chunks,
+        TableWriterDistinctTests::distinct,
+        all.dataToString(),
+        "");
+  }
+
+  /**
+   * This tests that the unique rows are spilled (not rejected) if the request can't reserve more
+   * memory for them.
+   */
+  @org.junit.jupiter.api.Test
+  void tightBudgetTest() throws Throwable {
+    String2.log("\n*** TableWriterDistinctTests.tightBudgetTest");
+    // one chunk of unique rows, so the hash table doesn't fit in the chunk's reservation
+    Table chunk = makeTable(5000, new Random(17));
+    chunk.leftToRightSortIgnoreCase(3);
+    chunk.removeDuplicates();
+    Table table =
+        TableWriterTestHelper.gatherWithTightBudget(
+            TEMP_DIR.toString(),
+            "twdTight",
+            chunk,
+            chunk.nRows() * (long) chunk.estimatedBytesPerRow(),
+            TableWriterDistinctTests::distinct);
+    Test.ensureEqual(table.dataToString(), chunk.dataToString(), "");
+  }
+
+  /** This tests that there must be some data. */
+  @org.junit.jupiter.api.Test
+  void noDataTest() throws Throwable {
+    String2.log("\n*** TableWriterDistinctTests.noDataTest");
+    TableWriterAll twa = new TableWriterAll(0, null, null, TEMP_DIR.toString(), "twdNoDataAll");
+    TableWriterDistinct twd =
+        new TableWriterDistinct(0, null, null, TEMP_DIR.toString(), "twdNoData", twa);
+    twd.writeSome(makeTable(0, new Random(17)));
+    try {
+      twd.finish();
+      throw new RuntimeException("shouldn't get here");
+    } catch (Throwable t) {
+      Test.ensureTrue(
+          t.getMessage().indexOf(MustBe.THERE_IS_NO_DATA) >= 0, MustBe.throwableToString(t));
+    }
+    twd.releaseResources();
+    twa.releaseResources();
+  }
+}
@@ -0,0 +1,127 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.Calendar2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import testDataset.Initialization;
+
+class TableWriterOrderByClosestTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** The starts of the months 2020-01 ... 2020-07 (epoch seconds). */
+  private static final double MONTH_STARTS[] = new double[7];
+
+  static {
+    for (int m = 0; m < MONTH_STARTS.length; m++)
+      MONTH_STARTS[m] = Calendar2.isoStringToEpochSeconds("2020-0" + (m + 1) + "-01");
+  }
+
+  /**
+   * This returns a time (about 6 months of times) for orderByClosest. Most of the times are on or
+   * near the closest times and the boundaries between intervals (of 10 minutes, 1 day, and 1
+   * month), with equidistant times on both sides and lots of duplicate times, so orderByClosest
+   * has to break ties.
+   */
+  private static double closestTime(Random random) {
+    if (random.nextInt(20) == 0) return Double.NaN;
+    int m = random.nextInt(MONTH_STARTS.length - 1);
+    double start = MONTH_STARTS[m];
+    double day = start + random.nextInt(28) * 86400.0;
+    double anchor =
+        switch (random.nextInt(5)) {
+          case 0 -> start; // a closest time for all of the intervals
+          case 1 -> (start + MONTH_STARTS[m + 1]) / 2; // the boundary between months
+          case 2 -> day + 43200; // the boundary between days
+          case 3 -> day + 300; // the boundary between 10 minute intervals
+          default -> day + random.nextInt(1440) * 60.0; // anywhere
+        };
+    return anchor + (random.nextBoolean() ? 60 : -60) * random.nextInt(4);
+  }
+
+  /** This makes TableWriterTestHelper's chunks with closestTime times. */
+  private static Table[] makeChunks() {
+    Table chunks[] = TableWriterTestHelper.makeChunks(2000);
+    Random random = new Random(17);
+    for (Table chunk : chunks) {
+      PrimitiveArray time = chunk.getColumn("time");
+      for (int row = 0; row < time.size(); row++) time.setDouble(row, closestTime(random));
+    }
+    return chunks;
+  }
+
+  /** This makes the maker of a TableWriterOrderByClosest. */
+  private static TableWriterTestHelper.TableWriterMaker orderByClosest(String orderByCsv) {
+    return (dir, name, twa) ->
+        new TableWriterOrderByClosest(0, null, null, dir, name, twa, orderByCsv);
+  }
+
+  /** This returns Table.orderByClosest's results for a table. */
+  private static Table expected(Table table, String orderByCsv) throws Exception {
+    Table expectedTable = (Table) table.clone();
+    expectedTable.orderByClosest(orderByCsv.replace('/', ','));
+    Test.ensureTrue(expectedTable.nRows() > 0, "nRows=" + expectedTable.nRows());
+    return expectedTable;
+  }
+
+  /**
+   * This tests that the results are the same with and without spilling (and as sorting all),
+   * including which of the tied rows is kept.
+   */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByClosestTests.basicTest");
+    Table chunks[] = makeChunks();
+    Table all = TableWriterTestHelper.appendAll(chunks);
+
+    int count = 0;
+    for (String orderByCsv :
+        new String[] {
+          "station,depth,time,10 minutes",
+          "station,time/1day",
+          "time,1 month",
+          "depth,time,2 months"
+        }) {
+      TableWriterTestHelper.ensureSameWithSpilling(
+          TEMP_DIR.toString(),
+          "twobcTest" + count++,
+          chunks,
+          orderByClosest(orderByCsv),
+          expected(all, orderByCsv).dataToString(),
+          orderByCsv);
+    }
+  }
+
+  /**
+   * This tests that the kept rows are spilled (not rejected) if the request can't reserve more
+   * memory for them.
+   */
+  @org.junit.jupiter.api.Test
+  void tightBudgetTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByClosestTests.tightBudgetTest");
+    Table chunk = makeChunks()[0];
+    chunk.removeRows(100, chunk.nRows());
+    int count = 0;
+    for (String orderByCsv : new String[] {"station,time/1day", "time,1 month"}) {
+      Table table =
+          TableWriterTestHelper.gatherWithTightBudget(
+              TEMP_DIR.toString(),
+              "twobcTight" + count++,
+              chunk,
+              chunk.nRows() * (long) chunk.estimatedBytesPerRow(),
+              orderByClosest(orderByCsv));
+      Test.ensureEqual(
+          table.dataToString(), expected(chunk, orderByCsv).dataToString(), orderByCsv);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import testDataset.Initialization;
+
+class TableWriterOrderByCountTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes the maker of a TableWriterOrderByCount. */
+  private static TableWriterTestHelper.TableWriterMaker orderByCount(String orderByCsv) {
+    return (dir, name, twa) ->
+        new TableWriterOrderByCount(0, null, null, dir, name, twa, orderByCsv);
+  }
+
+  /** This returns Table.orderByCount's results for a table. */
+  private static Table expected(Table table, String orderByCsv) throws Exception {
+    Table expectedTable = (Table) table.clone();
+    expectedTable.orderByCount(
+        orderByCsv.length() == 0 ? new String[0] : String2.split(orderByCsv, ','));
+    return expectedTable;
+  }
+
+  /** This tests that the results are the same with and without spilling (and as counting all). */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByCountTests.basicTest");
+    Table chunks[] = TableWriterTestHelper.makeChunks(2000);
+    Table all = TableWriterTestHelper.appendAll(chunks);
+
+    int count = 0;
+    for (String orderByCsv : new String[] {"station,depth", "station,time/1day", ""}) {
+      Table expectedTable = expected(all, orderByCsv);
+      Test.ensureTrue(expectedTable.nRows() > 0, "nRows=" + expectedTable.nRows());
+      TableWriterTestHelper.ensureSameWithSpilling(
+          TEMP_DIR.toString(),
+          "twocTest" + count++,
+          chunks,
+          orderByCount(orderByCsv),
+          expectedTable.dataToString(),
+          orderByCsv);
+    }
+  }
+
+  /**
+   * This tests that the groups are spilled (not rejected) if the request can't reserve more memory
+   * for them.
+   */
+  @org.junit.jupiter.api.Test
+  void tightBudgetTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByCountTests.tightBudgetTest");
+    Table chunk = TableWriterTestHelper.makeTable(100, new Random(17));
+    chunk.getColumn(1).setMaxIsMV(true);
+    int count = 0;
+    for (String orderByCsv : new String[] {"station,depth", "station,time/1day"}) {
+      // the writer reserves memory for each chunk after it is reduced by orderByCount
+      Table expectedTable = expected(chunk, orderByCsv);
+      Table table =
+          TableWriterTestHelper.gatherWithTightBudget(
+              TEMP_DIR.toString(),
+              "twocTight" + count++,
+              chunk,
+              expectedTable.nRows() * (long) expectedTable.estimatedBytesPerRow(),
+              orderByCount(orderByCsv));
+      Test.ensureEqual(table.dataToString(), expectedTable.dataToString(), orderByCsv);
+    }
+  }
+}
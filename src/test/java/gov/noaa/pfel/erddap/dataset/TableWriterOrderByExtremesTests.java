@@ -0,0 +1,114 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import testDataset.Initialization;
+
+class TableWriterOrderByExtremesTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes the maker of a TableWriterOrderByMax, Min, or MinMax. */
+  private static TableWriterTestHelper.TableWriterMaker orderBy(String type, String orderByCsv) {
+    return (dir, name, twa) ->
+        switch (type) {
+          case "orderByMax" -> new TableWriterOrderByMax(0, null, null, dir, name, twa, orderByCsv);
+          case "orderByMin" -> new TableWriterOrderByMin(0, null, null, dir, name, twa, orderByCsv);
+          default -> new TableWriterOrderByMinMax(0, null, null, dir, name, twa, orderByCsv);
+        };
+  }
+
+  /** This returns Table.orderByMax's, Min's, or MinMax's results for a table. */
+  private static Table expected(Table table, String type, String orderByCsv) throws Exception {
+    Table expectedTable = (Table) table.clone();
+    String orderBy[] = String2.split(orderByCsv, ',');
+    if (type.equals("orderByMax")) expectedTable.orderByMax(orderBy);
+    else if (type.equals("orderByMin")) expectedTable.orderByMin(orderBy);
+    else expectedTable.orderByMinMax(orderBy);
+    return expectedTable;
+  }
+
+  /** This tests that the results are the same with and without spilling (and as sorting all). */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByExtremesTests.basicTest");
+    Table chunks[] = TableWriterTestHelper.makeChunks(2000);
+    Table all = TableWriterTestHelper.appendAll(chunks);
+
+    int count = 0;
+    for (String type : new String[] {"orderByMax", "orderByMin", "orderByMinMax"}) {
+      for (String orderByCsv : new String[] {"station,depth,time", "station,time/1day", "time"}) {
+        TableWriterTestHelper.ensureSameWithSpilling(
+            TEMP_DIR.toString(),
+            "twobeTest" + count++,
+            chunks,
+            orderBy(type, orderByCsv),
+            expected(all, type, orderByCsv).dataToString(),
+            type + "(" + orderByCsv + ")");
+      }
+    }
+  }
+
+  /**
+   * This tests that the candidate rows are spilled (not rejected) if the request can't reserve
+   * more memory for them.
+   */
+  @org.junit.jupiter.api.Test
+  void tightBudgetTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByExtremesTests.tightBudgetTest");
+    Table chunk = TableWriterTestHelper.makeTable(100, new Random(17));
+    chunk.getColumn(1).setMaxIsMV(true);
+    int count = 0;
+    for (String type : new String[] {"orderByMax", "orderByMinMax"}) {
+      String orderByCsv = "station,depth,time";
+      Table table =
+          TableWriterTestHelper.gatherWithTightBudget(
+              TEMP_DIR.toString(),
+              "twobeTight" + count++,
+              chunk,
+              chunk.nRows() * (long) chunk.estimatedBytesPerRow(),
+              orderBy(type, orderByCsv));
+      Test.ensureEqual(
+          table.dataToString(),
+          expected(chunk, type, orderByCsv).dataToString(),
+          type + "(" + orderByCsv + ")");
+    }
+  }
+
+  /** This tests a lone row and the error for an unknown column. */
+  @org.junit.jupiter.api.Test
+  void loneRowTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByExtremesTests.loneRowTest");
+    String dir = TEMP_DIR.toString();
+    Table chunks[] = {TableWriterTestHelper.makeTable(1, new Random(17))};
+    Test.ensureEqual(
+        TableWriterTestHelper.gather(
+                dir, "twobeLone1", chunks, orderBy("orderByMinMax", "station,time"))
+            .dataToString(),
+        expected(chunks[0], "orderByMinMax", "station,time").dataToString(),
+        "");
+    Test.ensureEqual(
+        TableWriterTestHelper.gather(
+                dir, "twobeLone2", chunks, orderBy("orderByMax", "station,time"))
+            .dataToString(),
+        chunks[0].dataToString(),
+        "");
+
+    try {
+      TableWriterTestHelper.gather(
+          dir, "twobeLone3", chunks, orderBy("orderByMax", "station,zztop"));
+      throw new RuntimeException("shouldn't get here");
+    } catch (Throwable t) {
+      Test.ensureTrue(t.getMessage().indexOf("zztop") >= 0, t.getMessage());
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import testDataset.Initialization;
+
+class TableWriterOrderByLimitTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** This makes the maker of a TableWriterOrderByLimit. */
+  private static TableWriterTestHelper.TableWriterMaker orderByLimit(String orderByCsv) {
+    return (dir, name, twa) ->
+        new TableWriterOrderByLimit(0, null, null, dir, name, twa, orderByCsv);
+  }
+
+  /** This returns Table.orderByLimit's results for a table. */
+  private static Table expected(Table table, String orderByCsv) throws Exception {
+    Table expectedTable = (Table) table.clone();
+    expectedTable.orderByLimit(orderByCsv);
+    return expectedTable;
+  }
+
+  /** This tests that the results are the same with and without spilling (and as sorting all). */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByLimitTests.basicTest");
+    Table chunks[] = TableWriterTestHelper.makeChunks(2000);
+    Table all = TableWriterTestHelper.appendAll(chunks);
+
+    int count = 0;
+    for (String orderByCsv : new String[] {"station,depth,3", "station,time/1day,2", "10"}) {
+      TableWriterTestHelper.ensureSameWithSpilling(
+          TEMP_DIR.toString(),
+          "twoblTest" + count++,
+          chunks,
+          orderByLimit(orderByCsv),
+          expected(all, orderByCsv).dataToString(),
+          orderByCsv);
+    }
+  }
+
+  /**
+   * This tests that the kept rows are spilled (not rejected) if the request can't reserve more
+   * memory for them.
+   */
+  @org.junit.jupiter.api.Test
+  void tightBudgetTest() throws Throwable {
+    String2.log("\n*** TableWriterOrderByLimitTests.tightBudgetTest");
+    Table chunk = TableWriterTestHelper.makeTable(100, new Random(17));
+    chunk.getColumn(1).setMaxIsMV(true);
+    int count = 0;
+    for (String orderByCsv : new String[] {"station,depth,2", "station,time/1day,1"}) {
+      Table table =
+          TableWriterTestHelper.gatherWithTightBudget(
+              TEMP_DIR.toString(),
+              "twoblTight" + count++,
+              chunk,
+              chunk.nRows() * (long) chunk.estimatedBytesPerRow(),
+              orderByLimit(orderByCsv));
+      Test.ensureEqual(
+          table.dataToString(), expected(chunk, orderByCsv).dataToString(), orderByCsv);
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.PrimitiveArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.nio.file.Path;
+import java.util.HashMap;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import testDataset.Initialization;
+
+class TableWriterOrderByMeanAndSumTests {
+  @TempDir private static Path TEMP_DIR;
+
+  @BeforeAll
+  static void init() {
+    Initialization.edStatic();
+  }
+
+  /** A brute force summary of a group's values, one value at a time (in row order). */
+  private interface Accumulator {
+    /**
+     * @param summary the summary of the previous values (if n &gt; 1)
+     * @param value the next value (not NaN)
+     * @param n the number of values, including this one
+     * @return the new summary
+     */
+    double add(double summary, double value, int n);
+  }
+
+  /** This makes the maker of a TableWriterOrderByMean or TableWriterOrderBySum. */
+  private static TableWriterTestHelper.TableWriterMaker orderBy(String type, String orderByCsv) {
+    return (dir, name, twa) ->
+        type.equals("orderByMean")
+            ? new TableWriterOrderByMean(0, null, null, dir, name, twa, orderByCsv)
+            : new TableWriterOrderBySum(0, null, null, dir, name, twa, orderByCsv);
+  }
+
+  /**
+   * This returns the key of a row: the station and (if byDay) the time rounded to 1 day. (There
+   * are no numeric non-time keys, since orderBySum sums them.)
+   */
+  private static String key(Table table, int row, boolean byDay, boolean isResult) {
+    String station = table.getColumn("station").getString(row);
+    if (!byDay) return station;
+    double t = table.getColumn("time").getDouble(row);
+    return station + "," + (isResult ? t : t - t % 86400); // the results' times are rounded
+  }
+
+  /**
+   * This ensures that the results have the expected groups and values (almost equal, since the
+   * order of the calculations may be different).
+   */
+  private static void ensureMatches(
+      Table table, HashMap<String, double[]> summaries, boolean byDay, String msg) {
+    Test.ensureEqual(table.nRows(), summaries.size(), msg);
+    PrimitiveArray value = table.getColumn("value");
+    for (int row = 0; row < table.nRows(); row++) {
+      String key = key(table, row, byDay, true);
+      double cs[] = summaries.get(key);
+      Test.ensureTrue(cs != null, msg + " unexpected key=" + key);
+      Test.ensureEqual(value.getDouble(row), cs[1], msg + " key=" + key);
+    }
+  }
+
+  /**
+   * This tests that chunks give the same results as one table and as a brute force summary, with
+   * and without spilling.
+   */
+  @ParameterizedTest
+  @ValueSource(strings = {"orderByMean", "orderBySum"})
+  void basicTest(String type) throws Throwable {
+    String2.log("\n*** TableWriterOrderByMeanAndSumTests.basicTest " + type);
+    Accumulator accumulator =
+        type.equals("orderByMean")
+            ? (mean, v, n) -> n == 1 ? v : mean + (v - mean) / n
+            : (sum, v, n) -> n == 1 ? v : sum + v;
+    String dir = TEMP_DIR.toString();
+    Table chunks[] = TableWriterTestHelper.makeChunks(2000);
+    Table all = TableWriterTestHelper.appendAll(chunks);
+
+    int count = 0;
+    for (String orderByCsv : new String[] {"station", "station,time/1day"}) {
+      boolean byDay = orderByCsv.endsWith("/1day");
+      String msg = type + "(" + orderByCsv + ")";
+
+      // brute force: the summary of value for each group (in row order)
+      HashMap<String, double[]> summaries = new HashMap<>(); // {count, summary}
+      PrimitiveArray time = all.getColumn("time");
+      PrimitiveArray value = all.getColumn("value");
+      for (int row = 0; row < all.nRows(); row++) {
+        if (byDay && Double.isNaN(time.getDouble(row)))
+          continue; // rows without a time aren't in a group
+        double cs[] =
+            summaries.computeIfAbsent(
+                key(all, row, byDay, false), k -> new double[] {0, Double.NaN});
+        double v = value.getDouble(row);
+        if (Double.isNaN(v)) continue;
+        cs[0]++;
+        cs[1] = accumulator.add(cs[1], v, (int) cs[0]);
+      }
+
+      TableWriterTestHelper.TableWriterMaker maker = orderBy(type, orderByCsv);
+      Table expectedTable =
+          TableWriterTestHelper.gather(dir, "twomsTest" + count++, new Table[] {all}, maker);
+      ensureMatches(expectedTable, summaries, byDay, msg);
+
+      // all of the groups fit in memory
+      Table table = TableWriterTestHelper.gather(dir, "twomsTest" + count++, chunks, maker);
+      Test.ensureEqual(table.dataToString(), expectedTable.dataToString(), msg);
+
+      // the partial results are spilled several times and merged by finish()
+      table = TableWriterTestHelper.gatherWithSpilling(dir, "twomsTest" + count++, chunks, maker);
+      ensureMatches(table, summaries, byDay, msg + " with spilling");
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package gov.noaa.pfel.erddap.dataset;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import gov.noaa.pfel.erddap.util.EDStatic;
+import gov.noaa.pfel.erddap.util.MemoryBudget;
+import java.util.Random;
+
+/** Fixtures shared by the tests of the TableWriters which group rows with a GroupIndex. */
+final class TableWriterTestHelper {
+
+  private TableWriterTestHelper() {}
+
+  /** This makes the TableWriter being tested, which writes its results to twa. */
+  interface TableWriterMaker {
+    TableWriter make(String dir, String name, TableWriterAll twa) throws Throwable;
+  }
+
+  /**
+   * This makes a chunk of rows with lots of ties, NaNs, and missing values: station (String), depth
+   * (int), time (double, 30 half days, so time/1day makes groups), value (double), and order
+   * (random ints, so the kept rows can be seen).
+   *
+   * @param nRows the number of rows
+   * @param random the source of the values
+   * @return a new table
+   */
+  static Table makeTable(int nRows, Random random) {
+    StringArray sa = new StringArray();
+    IntArray ia = new IntArray();
+    DoubleArray time = new DoubleArray();
+    DoubleArray da = new DoubleArray();
+    IntArray order = new IntArray();
+    for (int row = 0; row < nRows; row++) {
+      sa.add(random.nextInt(10) == 0 ? "" : "station" + random.nextInt(20));
+      ia.add(random.nextInt(10) == 0 ? Integer.MAX_VALUE : random.nextInt(5));
+      time.add(random.nextInt(20) == 0 ? Double.NaN : 1e9 + random.nextInt(30) * 43200);
+      da.add(random.nextInt(10) == 0 ? Double.NaN : random.nextInt(100) * 0.25);
+      order.add(random.nextInt());
+    }
+    Table table = new Table();
+    table.addColumn("station", sa);
+    table.addColumn("depth", ia);
+    table.addColumn("time", time);
+    table.addColumn("value", da);
+    table.addColumn("order", order);
+    table.columnAttributes(2).set("units", "seconds since 1970-01-01T00:00:00Z");
+    return table;
+  }
+
+  /**
+   * This makes 20 chunks with makeTable. The depth column's max is a missing value.
+   *
+   * @param nRows the number of rows in each chunk
+   * @return the chunks
+   */
+  static Table[] makeChunks(int nRows) {
+    Random random = new Random(17);
+    Table chunks[] = new Table[20];
+    for (int i = 0; i < chunks.length; i++) {
+      chunks[i] = makeTable(nRows, random);
+      chunks[i].getColumn(1).setMaxIsMV(true);
+    }
+    return chunks;
+  }
+
+  /**
+   * This returns a table with all of the chunks' rows. A column's max is a missing value if it is
+   * in any of the chunks.
+   *
+   * @param chunks the chunks (all with the same columns)
+   * @return a new table
+   */
+  static Table appendAll(Table chunks[]) {
+    Table all = (Table) chunks[0].clone();
+    for (int i = 1; i < chunks.length; i++) {
+      for (int col = 0; col < all.nColumns(); col++) {
+        all.getColumn(col).append(chunks[i].getColumn(col));
+        if (chunks[i].getColumn(col).getMaxIsMV()) all.getColumn(col).setMaxIsMV(true);
+      }
+    }
+    return all;
+  }
+
+  /**
+   * This writes copies of the chunks to a new TableWriter and returns the results.
+   *
+   * @param dir the temporary directory
+   * @param name the name for the TableWriters' files
+   * @param chunks the chunks
+   * @param maker makes the TableWriter being tested
+   * @return the results
+   */
+  static Table gather(String dir, String name, Table chunks[], TableWriterMaker maker)
+      throws Throwable {
+    TableWriterAll twa = new TableWriterAll(0, null, null, dir, name + "All");
+    try {
+      TableWriter tw = maker.make(dir, name, twa);
+      for (Table chunk : chunks) tw.writeSome((Table) chunk.clone());
+      tw.finish();
+      return twa.cumulativeTable();
+    } finally {
+      twa.releaseResources();
+    }
+  }
+
+  /**
+   * This writes copies of the chunks to a new TableWriter while its groups are spilled several
+   * times (GroupIndex.maxHashBytes is temporarily 1000) and returns the results.
+   *
+   * @param dir the temporary directory
+   * @param name the name for the TableWriters' files
+   * @param chunks the chunks
+   * @param maker makes the TableWriter being tested
+   * @return the results
+   */
+  static Table gatherWithSpilling(String dir, String name, Table chunks[], TableWriterMaker maker)
+      throws Throwable {
+    long oMaxHashBytes = GroupIndex.maxHashBytes;
+    try {
+      GroupIndex.maxHashBytes = 1000;
+      return gather(dir, name, chunks, maker);
+    } finally {
+      GroupIndex.maxHashBytes = oMaxHashBytes;
+    }
+  }
+
+  /**
+   * This ensures that the results are as expected when the groups fit in memory and when they are
+   * spilled several times.
+   *
+   * @param dir the temporary directory
+   * @param name the name for the TableWriters' files
+   * @param chunks the chunks
+   * @param maker makes the TableWriter being tested
+   * @param expected the expected results (from dataToString())
+   * @param msg the message if the results aren't as expected
+   */
+  static void ensureSameWithSpilling(
+      String dir, String name, Table chunks[], TableWriterMaker maker, String expected, String msg)
+      throws Throwable {
+    Test.ensureEqual(gather(dir, name + "InMemory", chunks, maker).dataToString(), expected, msg);
+    Test.ensureEqual(
+        gatherWithSpilling(dir, name + "Spilled", chunks, maker).dataToString(),
+        expected,
+        msg + " with spilling");
+  }
+
+  /**
+   * This writes a copy of one chunk to a new TableWriter while other requests have reserved all of
+   * the memory budget except chunkBytes, so the TableWriter must spill its groups instead of
+   * reserving more memory for them. This ensures that the groups were spilled and that the
+   * request's reservation wasn't raised past chunkBytes, then returns the results.
+   *
+   * @param dir the temporary directory
+   * @param name the name for the TableWriters' files
+   * @param chunk a small chunk (so its GroupIndex is bigger than the chunk)
+   * @param chunkBytes the number of bytes that the TableWriter reserves for the chunk (for the
+   *     chunk as it is passed to ensureCompatible)
+   * @param maker makes the TableWriter being tested (a TableWriterSpillGroups)
+   * @return the results
+   */
+  static Table gatherWithTightBudget(
+      String dir, String name, Table chunk, long chunkBytes, TableWriterMaker maker)
+      throws Throwable {
+    MemoryBudget mb = EDStatic.memoryBudget;
+    MemoryBudget.Reservation other = mb.open("#other");
+    MemoryBudget.Reservation request = null;
+    TableWriterAll twa = new TableWriterAll(0, null, null, dir, name + "All");
+    try {
+      Test.ensureTrue(mb.reserve(other, mb.budget() - mb.reservedBytes() - chunkBytes, 0), "");
+      request = mb.open("#request");
+      TableWriterSpillGroups tw = (TableWriterSpillGroups) maker.make(dir, name, twa);
+      tw.writeSome((Table) chunk.clone());
+      Test.ensureTrue(tw.nSpilledRows > 0, "The groups weren't spilled.");
+      tw.finish();
+      Test.ensureEqual(request.nBytes(), chunkBytes, "The request's reservation.");
+      return twa.cumulativeTable();
+    } finally {
+      twa.releaseResources();
+      if (request != null) request.close();
+      other.close();
+    }
+  }
+}
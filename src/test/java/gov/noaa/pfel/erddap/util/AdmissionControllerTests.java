@@ -0,0 +1,167 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+class AdmissionControllerTests {
+
+  /**
+   * This starts a thread which waits for the ticket to be admitted, then adds name to admitted (or
+   * "timeout-" + name).
+   */
+  private static Thread startWaiter(
+      AdmissionController ac, AdmissionController.Ticket ticket, String name, List<String> order) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                boolean ok = ac.awaitActive(ticket, 10000);
+                synchronized (order) {
+                  order.add(ok ? name : "timeout-" + name);
+                }
+              } catch (InterruptedException e) {
+                synchronized (order) {
+                  order.add("interrupted-" + name);
+                }
+              }
+            });
+    thread.start();
+    return thread;
+  }
+
+  /** This waits (up to 10 seconds) until ac.nWaiting() == n. */
+  private static void waitForNWaiting(AdmissionController ac, int n) {
+    for (int i = 0; i < 1000 && ac.nWaiting() != n; i++) Math2.sleep(10);
+    Test.ensureEqual(ac.nWaiting(), n, "");
+  }
+
+  /** This waits (up to 10 seconds) until order has n items. */
+  private static void waitForNAdmitted(List<String> order, int n) {
+    for (int i = 0; i < 1000; i++) {
+      synchronized (order) {
+        if (order.size() >= n) break;
+      }
+      Math2.sleep(10);
+    }
+    synchronized (order) {
+      Test.ensureEqual(order.size(), n, order.toString());
+    }
+  }
+
+  /** This tests the per-IP address limit, first come first served, and timeouts. */
+  @org.junit.jupiter.api.Test
+  void perIpAddressTest() throws Throwable {
+    String2.log("\n*** AdmissionControllerTests.perIpAddressTest");
+    AdmissionController ac = new AdmissionController(() -> 2, () -> 0);
+    AdmissionController.Ticket t1 = ac.register("1.2.3.4");
+    AdmissionController.Ticket t2 = ac.register("1.2.3.4");
+    Test.ensureEqual(t1.nRegistered(), 1, "");
+    Test.ensureEqual(t2.nRegistered(), 2, "");
+    Test.ensureTrue(ac.awaitActive(t1, 0), "");
+    Test.ensureTrue(ac.awaitActive(t2, 0), "");
+    Test.ensureEqual(ac.nActive(), 2, "");
+
+    // a different IP address isn't affected
+    AdmissionController.Ticket other = ac.register("5.6.7.8");
+    Test.ensureEqual(other.nRegistered(), 1, "");
+    Test.ensureTrue(ac.awaitActive(other, 0), "");
+    other.release();
+
+    // the 3rd request times out
+    AdmissionController.Ticket t3 = ac.register("1.2.3.4");
+    Test.ensureEqual(t3.nRegistered(), 3, "");
+    Test.ensureTrue(!ac.awaitActive(t3, 50), "");
+    Test.ensureTrue(!t3.isActive(), "");
+    Test.ensureEqual(ac.nTimedOut(), 1L, "");
+    Test.ensureEqual(ac.nWaiting(), 0, "");
+    t3.release();
+
+    // waiting requests are admitted in order as the active requests are released
+    List<String> order = new ArrayList<>();
+    AdmissionController.Ticket t4 = ac.register("1.2.3.4");
+    Thread th4 = startWaiter(ac, t4, "t4", order);
+    waitForNWaiting(ac, 1);
+    AdmissionController.Ticket t5 = ac.register("1.2.3.4");
+    Thread th5 = startWaiter(ac, t5, "t5", order);
+    waitForNWaiting(ac, 2);
+    t1.release();
+    t1.release(); // a 2nd release() does nothing
+    waitForNAdmitted(order, 1);
+    Test.ensureEqual(ac.nActive(), 2, "");
+    t2.release();
+    th4.join();
+    th5.join();
+    Test.ensureEqual(order.toString(), "[t4, t5]", "");
+    t4.release();
+    t5.release();
+    Test.ensureEqual(ac.nActive(), 0, "");
+    Test.ensureEqual(ac.nWaiting(), 0, "");
+    Test.ensureEqual(ac.nIpAddressesSeen(), 2, "");
+    String2.log(ac.statsString());
+  }
+
+  /** This tests that IP addresses take turns when the global limit has been reached. */
+  @org.junit.jupiter.api.Test
+  void fairnessTest() throws Throwable {
+    String2.log("\n*** AdmissionControllerTests.fairnessTest");
+    AdmissionController ac = new AdmissionController(() -> 10, () -> 1);
+    List<String> order = new ArrayList<>();
+    AdmissionController.Ticket a1 = ac.register("a");
+    Test.ensureTrue(ac.awaitActive(a1, 0), "");
+
+    // 3 more from a, then 1 from b
+    AdmissionController.Ticket tickets[] = new AdmissionController.Ticket[4];
+    String names[] = {"a2", "a3", "a4", "b1"};
+    Thread threads[] = new Thread[4];
+    for (int i = 0; i < 4; i++) {
+      tickets[i] = ac.register(names[i].substring(0, 1));
+      threads[i] = startWaiter(ac, tickets[i], names[i], order);
+      waitForNWaiting(ac, i + 1);
+    }
+
+    // b1 gets the 2nd free slot, even though a3 and a4 were waiting first
+    a1.release();
+    for (int i = 0; i < 4; i++) {
+      waitForNAdmitted(order, i + 1);
+      Test.ensureEqual(ac.nActive(), 1, "");
+      String name;
+      synchronized (order) {
+        name = order.get(i);
+      }
+      tickets[String2.indexOf(names, name)].release();
+    }
+    for (Thread thread : threads) thread.join();
+    Test.ensureEqual(order.toString(), "[a2, b1, a3, a4]", "");
+    Test.ensureEqual(ac.nActive(), 0, "");
+    Test.ensureEqual(ac.nTimedOut(), 0L, "");
+  }
+
+  /** This tests that removeIpAddress() admits the IP address's waiting requests. */
+  @org.junit.jupiter.api.Test
+  void removeIpAddressTest() throws Throwable {
+    String2.log("\n*** AdmissionControllerTests.removeIpAddressTest");
+    AdmissionController ac = new AdmissionController(() -> 1, () -> 0);
+    List<String> order = new ArrayList<>();
+    AdmissionController.Ticket c1 = ac.register("c");
+    Test.ensureTrue(ac.awaitActive(c1, 0), "");
+    AdmissionController.Ticket c2 = ac.register("c");
+    Thread thread = startWaiter(ac, c2, "c2", order);
+    waitForNWaiting(ac, 1);
+    ac.removeIpAddress("c");
+    thread.join();
+    Test.ensureEqual(order.toString(), "[c2]", "");
+    Test.ensureEqual(ac.nActive(), 2, "");
+
+    // new requests from c are counted separately
+    AdmissionController.Ticket c3 = ac.register("c");
+    Test.ensureEqual(c3.nRegistered(), 1, "");
+    Test.ensureTrue(ac.awaitActive(c3, 0), "");
+    c1.release();
+    c2.release();
+    c3.release();
+    Test.ensureEqual(ac.nActive(), 0, "");
+  }
+}
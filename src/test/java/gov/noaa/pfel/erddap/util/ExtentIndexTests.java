@@ -0,0 +1,223 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.erddap.variable.EDV;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import tags.TagSlowTests;
+
+class ExtentIndexTests {
+
+  /**
+   * This makes an extent like ExtentIndex.extentOf does, from destinationMin and destinationMax
+   * values (NaN if unknown). A null array means the dataset doesn't have that variable.
+   */
+  private static double[] box(double lon[], double lat[], double time[]) {
+    double ranges[][] = {lon, lat, time};
+    double box[] = new double[6];
+    for (int d = 0; d < 3; d++) {
+      double r[] = ranges[d];
+      box[2 * d] = r == null || Double.isNaN(r[0]) ? Double.POSITIVE_INFINITY : r[0];
+      box[2 * d + 1] =
+          r == null || (Double.isNaN(r[1]) && d < 2)
+              ? Double.NEGATIVE_INFINITY
+              : Double.isNaN(r[1]) ? Double.POSITIVE_INFINITY : r[1];
+    }
+    return box;
+  }
+
+  /** This is Advanced Search's original test of one dataset. */
+  private static boolean originalTest(double ranges[][], double min[], double max[]) {
+    for (int d = 0; d < 3; d++) {
+      if (Double.isNaN(min[d]) && Double.isNaN(max[d])) continue;
+      double r[] = ranges[d];
+      if (r == null) return false;
+      if (!Double.isNaN(min[d])) {
+        if (Double.isNaN(r[1])) {
+          if (d < 2) return false; // for time, max=NaN may mean "now"
+        } else if (min[d] > r[1]) return false;
+      }
+      if (!Double.isNaN(max[d]) && (Double.isNaN(r[0]) || max[d] < r[0])) return false;
+    }
+    return true;
+  }
+
+  private static String search(ExtentIndex index, double min[], double max[]) {
+    return new TreeSet<>(index.search(min, max)).toString();
+  }
+
+  private static final double NaN = Double.NaN;
+
+  /** This tests the rules for missing variables and NaN values. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** ExtentIndexTests.basicTest");
+    ExtentIndex index = new ExtentIndex();
+    index.put(
+        "pacific", box(new double[] {120, 240}, new double[] {-60, 60}, new double[] {0, 100}));
+    index.put("noTime", box(new double[] {0, 10}, new double[] {0, 10}, null));
+    index.put("now", box(new double[] {-10, 10}, new double[] {-10, 10}, new double[] {50, NaN}));
+    index.put("nothing", ExtentIndex.extentOf(new EDV[3]));
+    Test.ensureEqual(index.size(), 4, "");
+
+    Test.ensureEqual(
+        search(index, new double[] {NaN, NaN, NaN}, new double[] {NaN, NaN, NaN}),
+        "[noTime, nothing, now, pacific]",
+        "");
+    Test.ensureEqual(
+        search(index, new double[] {5, NaN, NaN}, new double[] {NaN, NaN, NaN}),
+        "[noTime, now, pacific]",
+        "");
+    Test.ensureEqual(
+        search(index, new double[] {5, NaN, NaN}, new double[] {8, NaN, NaN}),
+        "[noTime, now]",
+        "");
+    Test.ensureEqual(
+        search(index, new double[] {NaN, NaN, 200}, new double[] {NaN, NaN, NaN}), "[now]", "");
+    Test.ensureEqual(
+        search(index, new double[] {NaN, NaN, 20}, new double[] {NaN, NaN, 40}), "[pacific]", "");
+
+    // changes are seen before and after the tree is rebuilt
+    index.remove("now");
+    index.put(
+        "pacific", box(new double[] {120, 240}, new double[] {-60, 60}, new double[] {0, 10}));
+    Test.ensureEqual(
+        search(index, new double[] {NaN, NaN, 20}, new double[] {NaN, NaN, NaN}), "[]", "");
+    for (int i = 0; i < 100; i++)
+      index.put("d" + i, box(new double[] {i, i}, new double[] {0, 0}, new double[] {0, 0}));
+    Test.ensureEqual(
+        search(index, new double[] {50.5, NaN, NaN}, new double[] {53, NaN, NaN}),
+        "[d51, d52, d53]",
+        "");
+    Test.ensureTrue(index.statsString().indexOf("nPending=0") > 0, index.statsString());
+    String2.log(index.statsString());
+  }
+
+  /** This makes a random range (or null, or with NaNs). */
+  private static double[] randomRange(Random random, double lo, double hi) {
+    int r = random.nextInt(20);
+    if (r == 0) return null;
+    double a = lo + random.nextDouble() * (hi - lo), b = lo + random.nextDouble() * (hi - lo);
+    if (r == 1) return new double[] {NaN, NaN};
+    if (r == 2) return new double[] {Math.min(a, b), NaN};
+    if (r == 3) return new double[] {NaN, Math.max(a, b)};
+    if (r < 10) b = a + random.nextDouble() * (hi - lo) / 20; // small datasets
+    return new double[] {Math.min(a, b), Math.max(a, b)};
+  }
+
+  private static double randomConstraint(Random random, double lo, double hi) {
+    return random.nextInt(3) == 0 ? NaN : lo + random.nextDouble() * (hi - lo);
+  }
+
+  private static Map<String, double[][]> addRandomDatasets(
+      ExtentIndex index, Random random, int n) {
+    Map<String, double[][]> ranges = new HashMap<>();
+    for (int i = 0; i < n; i++) {
+      double r[][] = {
+        randomRange(random, -180, 360), randomRange(random, -90, 90), randomRange(random, 0, 1e9)
+      };
+      ranges.put("d" + i, r);
+      index.put("d" + i, box(r[0], r[1], r[2]));
+    }
+    return ranges;
+  }
+
+  /** This tests that the index gives the same results as the original tests. */
+  @org.junit.jupiter.api.Test
+  void randomTest() throws Throwable {
+    String2.log("\n*** ExtentIndexTests.randomTest");
+    ExtentIndex index = new ExtentIndex();
+    Random random = new Random(17);
+    Map<String, double[][]> ranges = addRandomDatasets(index, random, 2000);
+    for (int q = 0; q < 500; q++) {
+      if (q % 10 == 0) { // change some datasets
+        String id = "d" + random.nextInt(2000);
+        if (random.nextBoolean()) {
+          ranges.remove(id);
+          index.remove(id);
+        } else {
+          double r[][] = {randomRange(random, -180, 360), null, randomRange(random, 0, 1e9)};
+          ranges.put(id, r);
+          index.put(id, box(r[0], r[1], r[2]));
+        }
+      }
+      double min[] = {
+        randomConstraint(random, -180, 360), randomConstraint(random, -90, 90), NaN
+      };
+      double max[] = {
+        randomConstraint(random, -180, 360), randomConstraint(random, -90, 90), NaN
+      };
+      if (random.nextBoolean()) {
+        min[2] = randomConstraint(random, 0, 1e9);
+        max[2] = randomConstraint(random, 0, 1e9);
+      }
+      HashSet<String> expected = new HashSet<>();
+      for (Map.Entry<String, double[][]> e : ranges.entrySet())
+        if (originalTest(e.getValue(), min, max)) expected.add(e.getKey());
+      Test.ensureEqual(
+          new TreeSet<>(index.search(min, max)).toString(),
+          new TreeSet<>(expected).toString(),
+          "q=" + q);
+    }
+    String2.log(index.statsString());
+  }
+
+  /** This compares the speed of the index and the original tests with 10000 datasets. */
+  @org.junit.jupiter.api.Test
+  @TagSlowTests
+  void benchmark() throws Throwable {
+    String2.log("\n*** ExtentIndexTests.benchmark");
+    ExtentIndex index = new ExtentIndex();
+    Random random = new Random(17);
+    // mostly regional datasets (so a search finds few of them), and some global ones
+    Map<String, double[][]> ranges = new HashMap<>();
+    for (int i = 0; i < 10000; i++) {
+      double lon = random.nextDouble() * 350, lat = -90 + random.nextDouble() * 170;
+      double r[][] =
+          i % 100 == 0
+              ? new double[][] {{0, 360}, {-90, 90}, {0, 1e9}}
+              : new double[][] {
+                {lon, lon + random.nextDouble() * 10},
+                {lat, lat + random.nextDouble() * 10},
+                {0, 1e9}
+              };
+      ranges.put("d" + i, r);
+      index.put("d" + i, box(r[0], r[1], r[2]));
+    }
+    int nQueries = 2000;
+    double queries[][][] = new double[nQueries][][];
+    for (int q = 0; q < nQueries; q++) {
+      double lon = random.nextDouble() * 355, lat = -90 + random.nextDouble() * 175;
+      queries[q] = new double[][] {{lon, lat, NaN}, {lon + 5, lat + 5, NaN}};
+    }
+    index.search(queries[0][0], queries[0][1]); // build the tree
+
+    long nFound = 0;
+    long time = System.nanoTime();
+    for (double query[][] : queries) nFound += index.search(query[0], query[1]).size();
+    long indexTime = System.nanoTime() - time;
+
+    long nFound2 = 0;
+    time = System.nanoTime();
+    for (double query[][] : queries)
+      for (double r[][] : ranges.values()) if (originalTest(r, query[0], query[1])) nFound2++;
+    long loopTime = System.nanoTime() - time;
+    Test.ensureEqual(nFound, nFound2, "");
+
+    String2.log(
+        "nDatasets=10000 nQueries="
+            + nQueries
+            + " avgNFound="
+            + (nFound / nQueries)
+            + "\n  index time per query="
+            + (indexTime / nQueries / 1000)
+            + "us"
+            + "\n  loop time per query="
+            + (loopTime / nQueries / 1000)
+            + "us");
+  }
+}
@@ -0,0 +1,198 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+class MemoryBudgetTests {
+
+  /** This starts a thread which reserves nBytes, then adds name (or "timeout-" + name) to order. */
+  private static Thread startReserver(
+      MemoryBudget mb, MemoryBudget.Reservation r, long nBytes, String name, List<String> order) {
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                boolean ok = mb.reserve(r, nBytes, 10000);
+                synchronized (order) {
+                  order.add(ok ? name : "timeout-" + name);
+                }
+              } catch (InterruptedException e) {
+                synchronized (order) {
+                  order.add("interrupted-" + name);
+                }
+              }
+            });
+    thread.start();
+    return thread;
+  }
+
+  /** This waits (up to 10 seconds) until mb.nWaiting() == n. */
+  private static void waitForNWaiting(MemoryBudget mb, int n) {
+    for (int i = 0; i < 1000 && mb.nWaiting() != n; i++) Math2.sleep(10);
+    Test.ensureEqual(mb.nWaiting(), n, "");
+  }
+
+  /** This tests reserving and releasing without waiting. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** MemoryBudgetTests.basicTest");
+    MemoryBudget mb = new MemoryBudget(() -> 1000);
+    MemoryBudget.Reservation r1 = mb.open("#1");
+    Test.ensureTrue(mb.current() == r1, "");
+    Test.ensureTrue(mb.reserve(r1, 300, 0), "");
+    Test.ensureTrue(mb.reserve(r1, 200, 0), ""); // a reservation is a peak estimate
+    Test.ensureEqual(r1.nBytes(), 300L, "");
+    Test.ensureTrue(mb.reserve(r1, 400, 0), "");
+    Test.ensureEqual(r1.nBytes(), 400L, "");
+
+    MemoryBudget.Reservation r2 = mb.open("#2");
+    Test.ensureTrue(mb.reserve(r2, 600, 0), "");
+    Test.ensureEqual(mb.reservedBytes(), 1000L, "");
+    Test.ensureTrue(!mb.reserve(r2, 601, 0), ""); // over budget
+    Test.ensureEqual(r2.nBytes(), 600L, "");
+    Test.ensureEqual(mb.nRejected(), 1L, "");
+    String2.log(mb.statsString());
+    r1.close();
+    r1.close(); // a 2nd close() does nothing
+    Test.ensureEqual(mb.reservedBytes(), 600L, "");
+
+    // a reservation bigger than the budget is reduced to the budget
+    r2.close();
+    MemoryBudget.Reservation r3 = mb.open("#3");
+    Test.ensureTrue(mb.reserve(r3, 5000, 0), "");
+    Test.ensureEqual(r3.nBytes(), 1000L, "");
+    r3.close();
+    Test.ensureEqual(mb.reservedBytes(), 0L, "");
+    Test.ensureTrue(mb.current() == null, "");
+  }
+
+  /** This tests tryReserve, which never waits. */
+  @org.junit.jupiter.api.Test
+  void tryReserveTest() throws Throwable {
+    String2.log("\n*** MemoryBudgetTests.tryReserveTest");
+    MemoryBudget mb = new MemoryBudget(() -> 1000);
+    MemoryBudget.Reservation r1 = mb.open("#1");
+    Test.ensureTrue(mb.tryReserve(r1, 600), "");
+    Test.ensureTrue(mb.tryReserve(r1, 500), ""); // already has more than that
+    Test.ensureTrue(!mb.tryReserve(r1, 1001), ""); // isn't reduced to the budget
+    MemoryBudget.Reservation r2 = mb.open("#2");
+    Test.ensureTrue(!mb.tryReserve(r2, 500), "");
+    Test.ensureEqual(r2.nBytes(), 0L, "");
+    Test.ensureTrue(mb.tryReserve(r2, 400), "");
+    Test.ensureEqual(mb.reservedBytes(), 1000L, "");
+    Test.ensureEqual(mb.nRejected(), 0L, "");
+    r1.close();
+    r2.close();
+    Test.ensureTrue(!mb.tryReserve(r2, 100), ""); // closed
+    Test.ensureEqual(mb.reservedBytes(), 0L, "");
+  }
+
+  /** This tests reserveForCurrentRequest. */
+  @org.junit.jupiter.api.Test
+  void currentRequestTest() throws Throwable {
+    String2.log("\n*** MemoryBudgetTests.currentRequestTest");
+    MemoryBudget mb = new MemoryBudget(() -> 1000);
+    mb.reserveForCurrentRequest(5000, 0, "test"); // no reservation, so it does nothing
+    Test.ensureEqual(mb.reservedBytes(), 0L, "");
+
+    MemoryBudget.Reservation other = mb.open("#1");
+    Test.ensureTrue(mb.reserve(other, 900, 0), "");
+    try (MemoryBudget.Reservation r = mb.open("#2")) {
+      mb.reserveForCurrentRequest(100, 0, "test");
+      Test.ensureEqual(r.nBytes(), 100L, "");
+      String results = "";
+      try {
+        mb.reserveForCurrentRequest(200, 50, "test");
+      } catch (RuntimeException e) {
+        results = e.getMessage();
+      }
+      Test.ensureTrue(results.indexOf("(test)") > 0, "results=" + results);
+      Test.ensureEqual(r.nBytes(), 100L, "");
+    }
+    Test.ensureEqual(mb.reservedBytes(), 900L, "");
+    other.close();
+  }
+
+  /** This tests that waiting reservations are granted as memory is released. */
+  @org.junit.jupiter.api.Test
+  void waitTest() throws Throwable {
+    String2.log("\n*** MemoryBudgetTests.waitTest");
+    MemoryBudget mb = new MemoryBudget(() -> 1000);
+    List<String> order = new ArrayList<>();
+    MemoryBudget.Reservation big = mb.open("big");
+    Test.ensureTrue(mb.reserve(big, 800, 0), "");
+    MemoryBudget.Reservation growing = mb.open("growing");
+    Test.ensureTrue(mb.reserve(growing, 100, 0), "");
+
+    // a new request waits
+    MemoryBudget.Reservation starting = mb.open("starting");
+    Thread startingThread = startReserver(mb, starting, 500, "starting", order);
+    waitForNWaiting(mb, 1);
+
+    // a small new request which would fit still waits its turn
+    MemoryBudget.Reservation small = mb.open("small");
+    Thread smallThread = startReserver(mb, small, 50, "small", order);
+    waitForNWaiting(mb, 2);
+
+    // but a request which already has a reservation may go ahead of the new requests
+    Test.ensureTrue(mb.reserve(growing, 200, 0), "");
+    Test.ensureEqual(mb.reservedBytes(), 1000L, "");
+    String2.log(mb.statsString());
+    big.close();
+    startingThread.join();
+    smallThread.join();
+    order.sort(null); // both are granted at once, so the threads may finish in either order
+    Test.ensureEqual(order.toString(), "[small, starting]", "");
+    Test.ensureEqual(starting.nBytes(), 500L, "");
+    Test.ensureEqual(small.nBytes(), 50L, "");
+    Test.ensureEqual(mb.reservedBytes(), 750L, "");
+    Test.ensureEqual(mb.nWaiting(), 0, "");
+    Test.ensureEqual(mb.nRejected(), 0L, "");
+
+    // timeout
+    MemoryBudget.Reservation tooBig = mb.open("tooBig");
+    Test.ensureTrue(!mb.reserve(tooBig, 300, 50), "");
+    Test.ensureEqual(mb.nRejected(), 1L, "");
+    starting.close();
+    small.close();
+    growing.close();
+    tooBig.close();
+    Test.ensureEqual(mb.reservedBytes(), 0L, "");
+  }
+
+  /** This tests that growing requests which would wait for each other don't wait until timeout. */
+  @org.junit.jupiter.api.Test
+  void deadlockTest() throws Throwable {
+    String2.log("\n*** MemoryBudgetTests.deadlockTest");
+    MemoryBudget mb = new MemoryBudget(() -> 1000);
+    List<String> order = new ArrayList<>();
+    MemoryBudget.Reservation older = mb.open("older");
+    Test.ensureTrue(mb.reserve(older, 500, 0), "");
+    MemoryBudget.Reservation younger = mb.open("younger");
+    Test.ensureTrue(mb.reserve(younger, 500, 0), "");
+
+    // older waits for younger to finish
+    Thread olderThread = startReserver(mb, older, 600, "older", order);
+    waitForNWaiting(mb, 1);
+
+    // younger can't wait for older (which is waiting for younger), so it is rejected right away
+    long time = System.currentTimeMillis();
+    Test.ensureTrue(!mb.reserve(younger, 600, 10000), "");
+    time = System.currentTimeMillis() - time;
+    Test.ensureTrue(time < 5000, "time=" + time);
+    Test.ensureEqual(younger.nBytes(), 500L, "");
+    Test.ensureEqual(mb.nWaiting(), 1, "");
+    Test.ensureEqual(mb.nRejected(), 1L, "");
+
+    // then older continues when younger finishes
+    younger.close();
+    olderThread.join();
+    Test.ensureEqual(order.toString(), "[older]", "");
+    Test.ensureEqual(older.nBytes(), 600L, "");
+    older.close();
+    Test.ensureEqual(mb.reservedBytes(), 0L, "");
+  }
+}
@@ -0,0 +1,94 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.TreeSet;
+
+class SearchIndexTests {
+
+  private static byte[] utf8(String s) {
+    return String2.stringToUtf8Bytes(s);
+  }
+
+  private static String candidates(SearchIndex index, String... words) {
+    boolean isNegative[] = new boolean[words.length];
+    byte wordsB[][] = new byte[words.length][];
+    for (int w = 0; w < words.length; w++) {
+      isNegative[w] = words[w].startsWith("-");
+      wordsB[w] = utf8(isNegative[w] ? words[w].substring(1) : words[w]);
+    }
+    HashSet<String> set = index.candidates(isNegative, wordsB);
+    return set == null ? "null" : new TreeSet<>(set).toString();
+  }
+
+  /** This tests adding, replacing, and removing datasets. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** SearchIndexTests.basicTest");
+    SearchIndex index = new SearchIndex();
+    byte a[] = utf8("title=sea surface temperature\nprotocol=griddap\n");
+    index.put("a", a);
+    index.put("b", utf8("title=wind speed\nprotocol=tabledap\n"));
+    index.put("c", utf8("title=chlorophyll (mg m-3)\nprotocol=griddap\n"));
+    Test.ensureEqual(index.size(), 3, "");
+    Test.ensureTrue(index.isCurrent("a", a), "");
+    Test.ensureTrue(!index.isCurrent("a", utf8("title=sea surface temperature\n")), "");
+
+    Test.ensureEqual(candidates(index, "griddap"), "[a, c]", "");
+    Test.ensureEqual(candidates(index, "griddap", "temp"), "[a]", "");
+    Test.ensureEqual(candidates(index, "sea surface"), "[a]", "");
+    Test.ensureEqual(candidates(index, "surface sea"), "[]", "");
+    Test.ensureEqual(candidates(index, "salinity"), "[]", "");
+    // negative and short words can't narrow the search
+    Test.ensureEqual(candidates(index, "dap", "-wind"), "[a, b, c]", "");
+    Test.ensureEqual(candidates(index, "-wind"), "null", "");
+    Test.ensureEqual(candidates(index, "m-"), "null", "");
+
+    // replace and remove
+    index.put("a", utf8("title=wind stress\n"));
+    Test.ensureEqual(candidates(index, "wind"), "[a, b]", "");
+    Test.ensureEqual(candidates(index, "temperature"), "[]", "");
+    index.remove("b");
+    index.remove("x"); // not in the index
+    Test.ensureEqual(candidates(index, "wind"), "[a]", "");
+    Test.ensureEqual(index.size(), 2, "");
+    String2.log(index.statsString());
+    index.clear();
+    Test.ensureEqual(index.size(), 0, "");
+  }
+
+  /** This tests that the candidates always include the datasets that contain the words. */
+  @org.junit.jupiter.api.Test
+  void randomTest() throws Throwable {
+    String2.log("\n*** SearchIndexTests.randomTest");
+    SearchIndex index = new SearchIndex();
+    Random random = new Random(17);
+    String letters = "abcde é";
+    ArrayList<String> docs = new ArrayList<>();
+    for (int round = 0; round < 3000; round++) { // enough replacements to cause rebuilds
+      int d = random.nextInt(500);
+      StringBuilder sb = new StringBuilder();
+      int n = 20 + random.nextInt(100);
+      for (int i = 0; i < n; i++) sb.append(letters.charAt(random.nextInt(letters.length())));
+      while (docs.size() <= d) docs.add(null);
+      docs.set(d, sb.toString());
+      index.put("d" + d, utf8(sb.toString()));
+    }
+    Test.ensureTrue(index.statsString().indexOf("nRebuilds=0") < 0, index.statsString());
+
+    for (int q = 0; q < 200; q++) {
+      StringBuilder word = new StringBuilder();
+      int n = 3 + random.nextInt(3);
+      for (int i = 0; i < n; i++) word.append(letters.charAt(random.nextInt(letters.length())));
+      HashSet<String> set =
+          index.candidates(new boolean[] {false}, new byte[][] {utf8(word.toString())});
+      for (int d = 0; d < docs.size(); d++) {
+        if (docs.get(d) != null && docs.get(d).indexOf(word.toString()) >= 0)
+          Test.ensureTrue(set.contains("d" + d), "word=" + word + " d=" + d);
+      }
+    }
+  }
+}
@@ -0,0 +1,148 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.array.DoubleArray;
+import com.cohort.array.IntArray;
+import com.cohort.array.StringArray;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import gov.noaa.pfel.coastwatch.pointdata.Table;
+import java.util.Arrays;
+
+class WmsTileCacheTests {
+
+  private static String snap(double minx, double miny, double maxx, double maxy, int size) {
+    return String.valueOf(WmsTileCache.snap(minx, miny, maxx, maxy, size, size));
+  }
+
+  /** This tests matching requests to tiles. */
+  @org.junit.jupiter.api.Test
+  void snapTest() throws Throwable {
+    String2.log("\n*** WmsTileCacheTests.snapTest");
+
+    // zoom level 0: 180 degree tiles from lon=-180 to 360
+    Test.ensureEqual(snap(-180, -90, 0, 90, 256), "Tile[z=0, x=0, y=0]", "");
+    Test.ensureEqual(snap(0, -90, 180, 90, 256), "Tile[z=0, x=1, y=0]", "");
+    Test.ensureEqual(snap(180, -90, 360, 90, 256), "Tile[z=0, x=2, y=0]", "");
+    Test.ensureEqual(snap(360, -90, 540, 90, 256), "null", "");
+
+    // Leaflet's L.CRS.EPSG4326 tiles at zoom level 3 (22.5 degrees)
+    Test.ensureEqual(snap(-135, 22.5, -112.5, 45, 256), "Tile[z=3, x=2, y=5]", "");
+    Test.ensureEqual(snap(-135, 67.5, -112.5, 90, 512), "Tile[z=3, x=2, y=7]", "");
+    Test.ensureEqual(snap(-135, 90, -112.5, 112.5, 256), "null", ""); // above lat=90
+
+    // a request within a fraction of a pixel of a tile (e.g., from rounding in the client)
+    double pixel = 22.5 / 256;
+    Test.ensureEqual(
+        snap(-135 + pixel / 20, 22.5, -112.5 - pixel / 20, 45, 256), "Tile[z=3, x=2, y=5]", "");
+    Test.ensureEqual(snap(-135 + pixel / 2, 22.5, -112.5, 45, 256), "null", "");
+
+    // not tiles
+    Test.ensureEqual(snap(-130, 22.5, -107.5, 45, 256), "null", ""); // not aligned
+    Test.ensureEqual(snap(-135, 22.5, -112.5, 40, 256), "null", ""); // not square
+    Test.ensureEqual(
+        String.valueOf(WmsTileCache.snap(-135, 22.5, -112.5, 45, 256, 200)), "null", "");
+    Test.ensureEqual(snap(-180, -90, 180, 90, 256), "null", ""); // 360 degrees wide
+
+    // the tile's bounds
+    WmsTileCache.Tile tile = WmsTileCache.snap(-135, 22.5, -112.5, 45, 256, 256);
+    Test.ensureEqual(tile.minLon(), -135.0, "");
+    Test.ensureEqual(tile.maxLon(), -112.5, "");
+    Test.ensureEqual(tile.minLat(), 22.5, "");
+    Test.ensureEqual(tile.maxLat(), 45.0, "");
+
+    // high zoom levels
+    tile = new WmsTileCache.Tile(WmsTileCache.MAX_ZOOM, 12345, 6789);
+    Test.ensureEqual(
+        snap(tile.minLon(), tile.minLat(), tile.maxLon(), tile.maxLat(), 256),
+        tile.toString(),
+        "");
+  }
+
+  /** This tests that different requests for the same image have the same file name. */
+  @org.junit.jupiter.api.Test
+  void fileNameTest() throws Throwable {
+    String2.log("\n*** WmsTileCacheTests.fileNameTest");
+    WmsTileCache.Tile tile = new WmsTileCache.Tile(2, 3, 1);
+    WmsTileCache.TileRequest a = new WmsTileCache.TileRequest("ds", tile, "ds|ds:sst|true|1.5E9");
+    WmsTileCache.TileRequest b = new WmsTileCache.TileRequest("ds", tile, "ds|ds:sst|true|1.5E9");
+    WmsTileCache.TileRequest c = new WmsTileCache.TileRequest("ds", tile, "ds|ds:sst|true|1.6E9");
+    Test.ensureEqual(a.fileName(), b.fileName(), "");
+    Test.ensureTrue(!a.fileName().equals(c.fileName()), "");
+    Test.ensureTrue(a.fileName().startsWith("tile_"), a.fileName());
+  }
+
+  /** This makes a fileTable-like table (dirIndex, fileName, lastMod, size). */
+  private static Table makeFileTable(String names[], long lastMods[]) {
+    Table table = new Table();
+    IntArray dirIndex = new IntArray();
+    StringArray fileName = new StringArray();
+    DoubleArray lastMod = new DoubleArray();
+    DoubleArray size = new DoubleArray();
+    for (int i = 0; i < names.length; i++) {
+      dirIndex.add(0);
+      fileName.add(names[i]);
+      lastMod.add(lastMods[i]);
+      size.add(1000 + i);
+    }
+    table.addColumn("dirIndex", dirIndex);
+    table.addColumn("fileName", fileName);
+    table.addColumn("lastMod", lastMod);
+    table.addColumn("size", size);
+    return table;
+  }
+
+  /** This tests that a file rewritten in place (but not a new file) changes the old hashes. */
+  @org.junit.jupiter.api.Test
+  void fileHashesTest() throws Throwable {
+    String2.log("\n*** WmsTileCacheTests.fileHashesTest");
+    long a[] = WmsTileCache.fileHashes(makeFileTable(new String[] {"f1", "f2"}, new long[] {5, 6}));
+    long same[] =
+        WmsTileCache.fileHashes(makeFileTable(new String[] {"f2", "f1"}, new long[] {6, 5}));
+    long added[] =
+        WmsTileCache.fileHashes(
+            makeFileTable(new String[] {"f1", "f2", "f3"}, new long[] {5, 6, 7}));
+    long rewritten[] =
+        WmsTileCache.fileHashes(makeFileTable(new String[] {"f1", "f2"}, new long[] {5, 8}));
+    Test.ensureEqual(a.length, 2, "");
+    Test.ensureTrue(a[0] <= a[1], "not sorted");
+
+    // same files in a different order
+    Test.ensureTrue(Arrays.equals(a, same), "");
+
+    // a new file: the old hashes are still there
+    for (long hash : a) Test.ensureTrue(Arrays.binarySearch(added, hash) >= 0, "");
+
+    // f2 was rewritten: its old hash is gone
+    int nFound = 0;
+    for (long hash : a) if (Arrays.binarySearch(rewritten, hash) >= 0) nFound++;
+    Test.ensureEqual(nFound, 1, "");
+  }
+
+  /** This tests which datasets' tiles are prerendered and which settings changes drop the tiles. */
+  @org.junit.jupiter.api.Test
+  void accessTest() throws Throwable {
+    String2.log("\n*** WmsTileCacheTests.accessTest");
+    String roles[] = {"role1", "role2"};
+    Test.ensureTrue(WmsTileCache.isPublic(null, false), "");
+    Test.ensureTrue(WmsTileCache.isPublic(null, true), "");
+    Test.ensureTrue(WmsTileCache.isPublic(roles, true), "");
+    Test.ensureTrue(!WmsTileCache.isPublic(roles, false), "");
+    Test.ensureTrue(!WmsTileCache.isPublic(new String[0], false), ""); // accessible to no one
+
+    String pub = WmsTileCache.accessSettings(null, false, "");
+    Test.ensureEqual(pub, WmsTileCache.accessSettings(null, false, ""), "");
+    // each change makes different settings
+    String changed[] = {
+      WmsTileCache.accessSettings(roles, false, ""),
+      WmsTileCache.accessSettings(new String[] {"role1"}, false, ""),
+      WmsTileCache.accessSettings(new String[0], false, ""),
+      WmsTileCache.accessSettings(null, true, ""),
+      WmsTileCache.accessSettings(null, false, "not accessible via WMS")
+    };
+    for (int i = 0; i < changed.length; i++) {
+      Test.ensureTrue(!changed[i].equals(pub), "i=" + i);
+      for (int j = i + 1; j < changed.length; j++)
+        Test.ensureTrue(!changed[i].equals(changed[j]), "i=" + i + " j=" + j);
+    }
+  }
+}
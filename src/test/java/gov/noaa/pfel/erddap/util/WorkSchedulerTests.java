@@ -0,0 +1,125 @@
+package gov.noaa.pfel.erddap.util;
+
+import com.cohort.util.Math2;
+import com.cohort.util.String2;
+import com.cohort.util.Test;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class WorkSchedulerTests {
+
+  /** This tests that each client's maxActive is respected and all tasks are run. */
+  @org.junit.jupiter.api.Test
+  void basicTest() throws Throwable {
+    String2.log("\n*** WorkSchedulerTests.basicTest");
+    WorkScheduler ws = new WorkScheduler(4, "WorkSchedulerTests");
+    AtomicInteger active = new AtomicInteger(0);
+    AtomicInteger maxActive = new AtomicInteger(0);
+    WorkScheduler.Client client = ws.newClient("datasetA", 2);
+    FutureTask<Integer> tasks[] = new FutureTask[10];
+    for (int i = 0; i < tasks.length; i++) {
+      int ti = i;
+      tasks[i] =
+          new FutureTask<>(
+              () -> {
+                maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+                Math2.sleep(20);
+                active.decrementAndGet();
+                return ti;
+              });
+      client.submit(tasks[i]);
+    }
+    client.close();
+    for (int i = 0; i < tasks.length; i++) Test.ensureEqual((int) tasks[i].get(), i, "i=" + i);
+    Test.ensureTrue(maxActive.get() <= 2, "maxActive=" + maxActive.get());
+    Test.ensureTrue(ws.nThreads() <= 4, "nThreads=" + ws.nThreads());
+    Test.ensureEqual(ws.queueDepth(), 0, "");
+    // a worker finishes its bookkeeping just after its task's result is available
+    for (int i = 0; i < 100 && ws.nActive() > 0; i++) Math2.sleep(10);
+    Test.ensureEqual(ws.nCompleted(), 10L, "");
+    ws.shutdown();
+  }
+
+  /** This tests that a small request isn't stuck behind a big request. */
+  @org.junit.jupiter.api.Test
+  void fairnessTest() throws Throwable {
+    String2.log("\n*** WorkSchedulerTests.fairnessTest");
+    WorkScheduler ws = new WorkScheduler(1, "WorkSchedulerTests");
+    StringBuffer order = new StringBuffer();
+    WorkScheduler.Client big = ws.newClient("datasetA", 1);
+    WorkScheduler.Client small = ws.newClient("datasetB", 1);
+    for (int i = 0; i < 5; i++) {
+      FutureTask<Object> task =
+          new FutureTask<>(
+              () -> {
+                order.append('A');
+                Math2.sleep(10);
+                return null;
+              });
+      big.submit(task);
+    }
+    FutureTask<Object> smallTask =
+        new FutureTask<>(
+            () -> {
+              order.append('B');
+              return null;
+            });
+    small.submit(smallTask);
+    smallTask.get();
+    // the small request's task ran before all of the big request's tasks
+    Test.ensureTrue(order.indexOf("B") < 4, "order=" + order);
+
+    // cancelAll cancels pending tasks
+    FutureTask<Object> pending =
+        new FutureTask<>(
+            () -> {
+              Math2.sleep(10);
+              return null;
+            });
+    big.submit(pending);
+    big.cancelAll();
+    try {
+      pending.get();
+    } catch (CancellationException e) {
+      // expected (unless it had already started)
+    }
+    Test.ensureEqual(ws.queueDepth(), 0, "");
+    small.close();
+    ws.shutdown();
+  }
+
+  /** This tests that a closed client's group is kept until its tasks are done. */
+  @org.junit.jupiter.api.Test
+  void groupTest() throws Throwable {
+    String2.log("\n*** WorkSchedulerTests.groupTest");
+    WorkScheduler ws = new WorkScheduler(1, "WorkSchedulerTests");
+    CountDownLatch latch = new CountDownLatch(1);
+    WorkScheduler.Client first = ws.newClient("datasetA", 1);
+    FutureTask<Object> tasks[] = new FutureTask[3];
+    for (int i = 0; i < tasks.length; i++) {
+      tasks[i] =
+          new FutureTask<>(
+              () -> {
+                latch.await();
+                return null;
+              });
+      first.submit(tasks[i]);
+    }
+    first.close();
+    Test.ensureEqual(ws.nGroups(), 1, "");
+
+    // a new client for the dataset joins the same group
+    WorkScheduler.Client second = ws.newClient("datasetA", 1);
+    Test.ensureEqual(ws.nGroups(), 1, "");
+    second.close();
+    Test.ensureEqual(ws.nGroups(), 1, "");
+
+    latch.countDown();
+    for (FutureTask<Object> task : tasks) task.get();
+    for (int i = 0; i < 100 && ws.nGroups() > 0; i++) Math2.sleep(10);
+    Test.ensureEqual(ws.nGroups(), 0, "");
+    ws.shutdown();
+  }
+}
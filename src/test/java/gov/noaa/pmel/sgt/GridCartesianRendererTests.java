@@ -0,0 +1,124 @@
+package gov.noaa.pmel.sgt;
+
+import com.cohort.util.Test;
+import gov.noaa.pmel.sgt.dm.SimpleGrid;
+import gov.noaa.pmel.util.Dimension2D;
+import gov.noaa.pmel.util.Range2D;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+class GridCartesianRendererTests {
+
+  /** A color map with a few opaque colors which counts the getRGB calls (from the fast path). */
+  private static class TestColorMap extends ColorMap {
+    int nGetRGB = 0;
+
+    @Override
+    public ColorMap copy() {
+      return new TestColorMap();
+    }
+
+    @Override
+    public Color getColor(double val) {
+      int i = (int) Math.floor(val);
+      return new Color(0xFF000000 | (i * 0x3F1D27 + 0x102030) & 0xFFFFFF, true);
+    }
+
+    @Override
+    public int getRGB(double val) {
+      nGetRGB++;
+      return super.getRGB(val);
+    }
+
+    @Override
+    public Range2D getRange() {
+      return new Range2D(0, 10);
+    }
+
+    @Override
+    public boolean equals(Object cm) {
+      return cm instanceof TestColorMap;
+    }
+
+    @Override
+    public int hashCode() {
+      return 17;
+    }
+  }
+
+  /**
+   * This draws a grid (with some NaNs, and partly outside of the clip) into an image.
+   *
+   * @param rasterDestination if true, the graphics is marked with KEY_RASTER_DESTINATION, so the
+   *     cells are drawn with drawRasterDirectly. Otherwise, they are drawn with fillRect.
+   */
+  private static BufferedImage draw(TestColorMap colorMap, boolean rasterDestination) {
+    int width = 301, height = 203;
+    int nX = 37, nY = 23;
+    double lon[] = new double[nX];
+    double lat[] = new double[nY];
+    double data[] = new double[nX * nY];
+    for (int i = 0; i < nX; i++) lon[i] = -10 + i * 0.7;
+    for (int j = 0; j < nY; j++) lat[j] = -5 + j * 0.45;
+    int count = 0;
+    for (int i = 0; i < nX; i++)
+      for (int j = 0; j < nY; j++) data[count++] = (i * 7 + j * 3) % 11 == 0 ? Double.NaN : i / 4;
+
+    JPane jPane = new JPane("", new java.awt.Dimension(width, height));
+    jPane.setLayout(new StackedLayout());
+    double dpi = 100;
+    Range2D xUserRange = new Range2D(-8, 12, 1);
+    Range2D yUserRange = new Range2D(-4, 6, 1);
+    LinearTransform xt = new LinearTransform(new Range2D(0.15, 2.9, 1), xUserRange);
+    LinearTransform yt = new LinearTransform(new Range2D(0.1, 1.95, 1), yUserRange);
+    CartesianGraph graph = new CartesianGraph("", xt, yt);
+    Layer layer = new Layer("grid", new Dimension2D(width / dpi, height / dpi));
+    jPane.add(layer);
+    layer.setGraph(graph);
+    graph.setClip(xUserRange.start, xUserRange.end, yUserRange.start, yUserRange.end);
+    graph.setClipping(true);
+    graph.setData(
+        new SimpleGrid(data, lon, lat, ""), new GridAttribute(GridAttribute.RASTER, colorMap));
+
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g2 = (Graphics2D) image.getGraphics();
+    if (rasterDestination)
+      g2.setRenderingHint(GridCartesianRenderer.KEY_RASTER_DESTINATION, Boolean.TRUE);
+    g2.setColor(Color.white);
+    g2.fillRect(0, 0, width, height);
+    jPane.draw(g2);
+    g2.dispose();
+    return image;
+  }
+
+  /** This tests that drawRasterDirectly makes the same pixels as fillRect for each cell. */
+  @org.junit.jupiter.api.Test
+  void drawRasterDirectlyTest() throws Exception {
+    TestColorMap fastColorMap = new TestColorMap();
+    BufferedImage fast = draw(fastColorMap, true);
+    TestColorMap slowColorMap = new TestColorMap();
+    BufferedImage slow = draw(slowColorMap, false);
+
+    // the fast path was used just for the marked graphics
+    Test.ensureTrue(fastColorMap.nGetRGB > 0, "");
+    Test.ensureEqual(slowColorMap.nGetRGB, 0, "");
+
+    int width = fast.getWidth(), height = fast.getHeight();
+    int fastPixels[] = fast.getRGB(0, 0, width, height, null, 0, width);
+    int slowPixels[] = slow.getRGB(0, 0, width, height, null, 0, width);
+    Test.ensureTrue(Arrays.stream(slowPixels).distinct().count() > 3, "Too few colors were drawn.");
+    for (int i = 0; i < fastPixels.length; i++)
+      if (fastPixels[i] != slowPixels[i])
+        throw new RuntimeException(
+            "x="
+                + (i % width)
+                + " y="
+                + (i / width)
+                + ": fast=0x"
+                + Integer.toHexString(fastPixels[i])
+                + " != slow=0x"
+                + Integer.toHexString(slowPixels[i]));
+  }
+}